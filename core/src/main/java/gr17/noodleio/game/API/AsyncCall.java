@@ -0,0 +1,124 @@
+package gr17.noodleio.game.API;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.badlogic.gdx.Gdx;
+
+import gr17.noodleio.game.services.network.Deadline;
+
+/**
+ * A blocking API call run on a background thread, so button handlers return at once
+ * The callback is delivered on the GL thread, unless the call was cancelled before it completed.
+ * A call that threw is delivered too, with a null result, so screens always leave their pending state.
+ * Cancelling only drops the callback: a request already sent is not interrupted, the server
+ * side of every API call is a single transaction either way.
+ */
+public class AsyncCall<T> implements Future<T> {
+
+    /**
+     * Blocking work of the call, one of the string or value returning API methods
+     */
+    public interface Action<T> {
+        T run();
+    }
+
+    /**
+     * Completion handler, runs on the GL thread. The result is null if the call threw.
+     */
+    public interface Callback<T> {
+        void onComplete(T result);
+    }
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    // API calls spend their time waiting on the network, a thread per call in flight is fine
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "api-call-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final FutureTask<T> task;
+    private volatile boolean cancelled = false;
+
+    private AsyncCall(final long deadlineMs, final Action<T> action, final Callback<T> callback) {
+        this.task = new FutureTask<T>(() -> deadlineMs > 0 ? Deadline.within(deadlineMs, action::run) : action.run()) {
+            @Override
+            protected void done() {
+                if (cancelled || callback == null || isCancelled()) {
+                    return;
+                }
+                T value;
+                try {
+                    value = get();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    value = null;
+                }
+                final T result = value;
+                Gdx.app.postRunnable(() -> {
+                    if (!cancelled) {
+                        callback.onComplete(result);
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Start a call in the background
+     *
+     * @param deadlineMs Longest the whole call may take across all its requests, 0 for no deadline
+     * @param action     The blocking work
+     * @param callback   Receives the result on the GL thread, or null if the call threw; may be null
+     */
+    public static <T> AsyncCall<T> submit(long deadlineMs, Action<T> action, Callback<T> callback) {
+        AsyncCall<T> call = new AsyncCall<>(deadlineMs, action, callback);
+        EXECUTOR.execute(call.task);
+        return call;
+    }
+
+    /**
+     * Drop the callback. A call that has not started yet is not run at all.
+     */
+    public void cancel() {
+        cancel(false);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        cancelled = true;
+        return task.cancel(mayInterruptIfRunning);
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public boolean isDone() {
+        return task.isDone();
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        return task.get();
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        return task.get(timeout, unit);
+    }
+}
@@ -1,10 +1,9 @@
 package gr17.noodleio.game.API;
 
-import java.util.List;
-
 import gr17.noodleio.game.config.EnvironmentConfig;
 import gr17.noodleio.game.models.GameSession;
-import gr17.noodleio.game.models.LeaderboardEntry;
+import gr17.noodleio.game.models.LeaderboardCursor;
+import gr17.noodleio.game.models.LeaderboardPage;
 import gr17.noodleio.game.services.LeaderboardService;
 
 public class LeaderboardApi {
@@ -46,44 +45,62 @@ public class LeaderboardApi {
     }
 
     /**
-     * Fetches the top leaderboard entries
-     * @param limit Number of entries to fetch
-     * @return Formatted string of leaderboard entries
+     * Whether the cached entries are recent enough to skip fetching them again
+     * @param limit Number of entries
+     * @return true if the cache is within its TTL and this client added no entry since
      */
-    public String fetchLeaderboard(long limit) {
-        String leaderboardMessage = "";
-        try {
-            // Get top entries
-            List<LeaderboardEntry> topEntries = leaderboardView.getTopLeaderboard(limit);
-
-            // Format a message to display
-            StringBuilder sb = new StringBuilder("TOP " + limit + " PLAYERS\n");
-            sb.append("------------------------\n");
+    public boolean isLeaderboardFresh(long limit) {
+        return leaderboardView.isTopLeaderboardFresh(limit);
+    }
 
-            if (topEntries.isEmpty()) {
-                sb.append("No entries found");
-            } else {
-                for (LeaderboardEntry entry : topEntries) {
-                    sb.append(entry.getPlayer_name())
-                        .append(": ")
-                        .append(entry.getScore())
-                        .append(" pts");
+    /**
+     * Fetches one page of the leaderboard, fastest first
+     *
+     * @param after    Cursor of the previous page's last entry, null for the first page
+     * @param pageSize Entries per page
+     * @return The page, or null if it could not be read
+     */
+    public LeaderboardPage fetchLeaderboardPage(LeaderboardCursor after, int pageSize) {
+        return fetchLeaderboardPage(after, pageSize, false);
+    }
 
-                    // Add duration information if available
-                    if (entry.getDuration_seconds() != null) {
-                        sb.append(" (").append(formatDuration(entry.getDuration_seconds())).append(")");
-                    }
+    /**
+     * Fetches one page of the leaderboard after or before a cursor
+     *
+     * @param cursor   Entry the page starts after, or ends before
+     * @param pageSize Entries per page
+     * @param before   Read the page ending right before the cursor, for scrolling back up
+     * @return The page in leaderboard order, or null if it could not be read
+     */
+    public LeaderboardPage fetchLeaderboardPage(LeaderboardCursor cursor, int pageSize, boolean before) {
+        try {
+            return leaderboardView.getLeaderboardPage(cursor, pageSize, before).getOrNull();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
 
-                    sb.append("\n");
-                }
-            }
+    /**
+     * Fetches one page of the leaderboard without blocking the caller
+     * @param deadlineMs Longest the call may take, 0 for no deadline
+     * @param callback Receives the page, or null, on the GL thread
+     */
+    public AsyncCall<LeaderboardPage> fetchLeaderboardPageAsync(LeaderboardCursor cursor, int pageSize, boolean before,
+                                                                long deadlineMs, AsyncCall.Callback<LeaderboardPage> callback) {
+        return AsyncCall.submit(deadlineMs, () -> fetchLeaderboardPage(cursor, pageSize, before), callback);
+    }
 
-            leaderboardMessage = sb.toString();
-            return leaderboardMessage;
+    /**
+     * The first page from the leaderboard cache, without a request
+     * @return The cached page, or null if it was not fetched yet
+     */
+    public LeaderboardPage getCachedFirstPage(int pageSize) {
+        try {
+            return leaderboardView.getCachedFirstPage(pageSize);
         } catch (Exception e) {
-            leaderboardMessage = "Failed to load leaderboard: " + e.getMessage();
             e.printStackTrace();
-            return leaderboardMessage;
+            return null;
         }
     }
 
@@ -92,7 +109,7 @@ public class LeaderboardApi {
      * @param seconds Duration in seconds
      * @return Formatted string
      */
-    private String formatDuration(Double seconds) {
+    public static String formatDuration(Double seconds) {
         int minutes = (int) (seconds / 60);
         int remainingSeconds = (int) (seconds % 60);
         return String.format("%d:%02d", minutes, remainingSeconds);
@@ -0,0 +1,67 @@
+package gr17.noodleio.game.API;
+
+import com.badlogic.gdx.Gdx;
+
+import gr17.noodleio.game.models.LeaderboardEntry;
+import gr17.noodleio.game.services.LeaderboardRealtimeService;
+import gr17.noodleio.game.services.ServiceManager;
+
+/**
+ * API for following leaderboard changes in realtime while the leaderboard is shown
+ * Callbacks are delivered on the GL thread
+ */
+public class LeaderboardRealtimeApi {
+    private final LeaderboardRealtimeService leaderboardRealtimeService;
+
+    /**
+     * Callback interface for leaderboard changes
+     */
+    public interface LeaderboardCallback {
+        /**
+         * @param entry    The entry as it is now
+         * @param previous The entry before an update, null for a new entry or when it is not known
+         * @param inserted Whether the entry is new, as opposed to an update whose old row was not sent
+         */
+        void onEntryChanged(LeaderboardEntry entry, LeaderboardEntry previous, boolean inserted);
+    }
+
+    /**
+     * Uses an existing (possibly pre-warmed) client instead of creating a new one
+     */
+    public LeaderboardRealtimeApi(ServiceManager serviceManager) {
+        this.leaderboardRealtimeService = new LeaderboardRealtimeService(serviceManager);
+    }
+
+    public void subscribe(final LeaderboardCallback callback) {
+        try {
+            leaderboardRealtimeService.subscribe(new LeaderboardRealtimeService.LeaderboardListener() {
+                @Override
+                public void onEntryChanged(final LeaderboardEntry entry, final LeaderboardEntry previous, final boolean inserted) {
+                    Gdx.app.postRunnable(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onEntryChanged(entry, previous, inserted);
+                        }
+                    });
+                }
+            });
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return Whether leaderboard changes are being received
+     */
+    public boolean isSubscribed() {
+        return leaderboardRealtimeService.isSubscribed();
+    }
+
+    public void unsubscribe() {
+        try {
+            leaderboardRealtimeService.unsubscribe();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -4,6 +4,7 @@ import gr17.noodleio.game.config.EnvironmentConfig;
 import gr17.noodleio.game.models.Lobby;
 import gr17.noodleio.game.models.LobbyPlayer;
 import gr17.noodleio.game.services.LobbyService;
+import gr17.noodleio.game.services.network.ServiceResult;
 import kotlin.Pair;
 
 public class LobbyApi {
@@ -21,7 +22,8 @@ public class LobbyApi {
     public String createLobbyWithOwner(String playerName) {
         String createLobbyMessage;
         try {
-            Pair<Lobby, LobbyPlayer> result = lobbyService.createLobbyWithOwner(playerName, 2);
+            ServiceResult<Pair<Lobby, LobbyPlayer>> serviceResult = lobbyService.createLobbyWithOwner(playerName, 2);
+            Pair<Lobby, LobbyPlayer> result = serviceResult.getOrNull();
 
             if (result != null) {
                 Lobby lobby = result.getFirst();
@@ -36,7 +38,7 @@ public class LobbyApi {
 
                 return createLobbyMessage + " | " + playerMessage;
             } else {
-                createLobbyMessage = "Failed to create lobby with owner. Player name might already exist.";
+                createLobbyMessage = "Failed to create lobby with owner: " + serviceResult.messageOrEmpty();
                 return createLobbyMessage;
             }
         } catch (Exception e) {
@@ -45,4 +47,14 @@ public class LobbyApi {
             return createLobbyMessage;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Creates a new lobby with a player as owner, without blocking the caller
+     * @param deadlineMs Longest the call may take, 0 for no deadline
+     * @param callback Receives the created lobby and its owner on the GL thread, or the failure
+     */
+    public AsyncCall<ServiceResult<Pair<Lobby, LobbyPlayer>>> createLobbyWithOwnerAsync(
+            String playerName, long deadlineMs, AsyncCall.Callback<ServiceResult<Pair<Lobby, LobbyPlayer>>> callback) {
+        return AsyncCall.submit(deadlineMs, () -> lobbyService.createLobbyWithOwner(playerName, 2), callback);
+    }
+}
@@ -5,9 +5,12 @@ import java.util.List;
 import com.badlogic.gdx.Gdx;
 
 import gr17.noodleio.game.config.EnvironmentConfig;
+import gr17.noodleio.game.models.GameSession;
 import gr17.noodleio.game.models.LobbyPlayer;
+import gr17.noodleio.game.models.LobbySnapshot;
 import gr17.noodleio.game.services.LobbyPlayerService;
 import gr17.noodleio.game.services.LobbyService;
+import gr17.noodleio.game.services.network.ServiceResult;
 
 public class LobbyPlayerApi {
     private final LobbyPlayerService lobbyPlayerService;
@@ -18,6 +21,24 @@ public class LobbyPlayerApi {
         this.lobbyService = new LobbyService(environmentConfig);
     }
 
+    /**
+     * Reads the lobby screen in one request: metadata, owner, members and the active session
+     *
+     * @param lobbyId The full lobby ID or its first characters
+     * @param knownVersion Version of the last snapshot the caller has, or -1
+     * @param playerId The polling player, the poll keeps its lobby from being swept; null if not known yet
+     * @return The snapshot, with getNot_modified() set and nothing else if knownVersion is still
+     * current, or null if the lobby does not exist or could not be read
+     */
+    public LobbySnapshot getLobbySnapshot(String lobbyId, long knownVersion, String playerId) {
+        try {
+            return lobbyPlayerService.getLobbySnapshot(lobbyId, knownVersion, playerId).getOrNull();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
     /**
      * Allows a player to join a lobby by its ID
      * Now supports partial lobby IDs (first 5 characters) for easier joining
@@ -29,15 +50,15 @@ public class LobbyPlayerApi {
     public String joinLobby(String playerName, String lobbyId) {
         String joinLobbyMessage = "";
         try {
-            LobbyPlayer player = lobbyPlayerService.joinLobby(playerName, lobbyId);
+            ServiceResult<LobbyPlayer> result = lobbyPlayerService.joinLobby(playerName, lobbyId);
+            LobbyPlayer player = result.getOrNull();
 
             if (player != null) {
                 joinLobbyMessage = "Player '" + playerName + "' successfully joined lobby with ID: " + lobbyId +
                     " | Player ID: " + player.getId();
                 return joinLobbyMessage;
             } else {
-                joinLobbyMessage = "Failed to join lobby. The player name might already be taken, " +
-                    "the lobby might not exist, or the lobby might be full.";
+                joinLobbyMessage = "Failed to join lobby: " + result.messageOrEmpty();
                 return joinLobbyMessage;
             }
         } catch (Exception e) {
@@ -57,7 +78,11 @@ public class LobbyPlayerApi {
     public String getPlayersInLobby(String lobbyId) {
         String playersListMessage = "";
         try {
-            List<LobbyPlayer> players = lobbyPlayerService.getPlayersInLobby(lobbyId);
+            ServiceResult<List<LobbyPlayer>> result = lobbyPlayerService.getPlayersInLobby(lobbyId);
+            List<LobbyPlayer> players = result.getOrNull();
+            if (players == null) {
+                return "Error retrieving players in lobby: " + result.messageOrEmpty();
+            }
 
             StringBuilder sb = new StringBuilder("Players in lobby:\n");
 
@@ -90,20 +115,19 @@ public class LobbyPlayerApi {
     public String leaveLobby(String playerId) {
         String leaveLobbyMessage = "";
         try {
-            kotlin.Pair<Boolean, Boolean> result = lobbyPlayerService.leaveLobby(playerId);
-            boolean success = result.getFirst();
-            boolean wasLobbyOwner = result.getSecond();
+            // Look up the lobby first, the player row is gone once they have left
+            LobbyPlayer player = lobbyPlayerService.getPlayerById(playerId).getOrNull();
+            ServiceResult<Boolean> result = lobbyPlayerService.leaveLobby(playerId);
+            Boolean wasLobbyOwner = result.getOrNull();
 
-            if (success) {
+            if (wasLobbyOwner != null) {
                 // If the player was the lobby owner, delete the lobby
                 if (wasLobbyOwner) {
-                    // Get lobby ID from player
-                    LobbyPlayer player = lobbyPlayerService.getPlayerById(playerId);
                     if (player != null) {
                         String lobbyId = player.getLobby_id();
                         
                         // Delete the lobby
-                        boolean lobbyDeleted = lobbyService.deleteLobby(lobbyId);
+                        boolean lobbyDeleted = lobbyService.deleteLobby(lobbyId).isSuccess();
                         if (lobbyDeleted) {
                             leaveLobbyMessage = "Player (owner) successfully left the lobby. Lobby has been deleted.";
                         } else {
@@ -115,7 +139,7 @@ public class LobbyPlayerApi {
                 leaveLobbyMessage = "Player successfully left the lobby";
                 return leaveLobbyMessage;
             } else {
-                leaveLobbyMessage = "Failed to leave lobby. Player may not exist.";
+                leaveLobbyMessage = "Failed to leave lobby: " + result.messageOrEmpty();
                 return leaveLobbyMessage;
             }
         } catch (Exception e) {
@@ -132,11 +156,11 @@ public class LobbyPlayerApi {
      */
     public String deleteLobby(String lobbyId) {
         try {
-            boolean success = lobbyService.deleteLobby(lobbyId);
-            if (success) {
+            ServiceResult<Boolean> result = lobbyService.deleteLobby(lobbyId);
+            if (result.isSuccess()) {
                 return "Lobby successfully deleted";
             } else {
-                return "Failed to delete lobby. Lobby may not exist.";
+                return "Failed to delete lobby: " + result.messageOrEmpty();
             }
         } catch (Exception e) {
             String errorMsg = "Error deleting lobby: " + e.getMessage();
@@ -152,7 +176,8 @@ public class LobbyPlayerApi {
      */
     public String getPlayerById(String playerId) {
         try {
-            LobbyPlayer player = lobbyPlayerService.getPlayerById(playerId);
+            ServiceResult<LobbyPlayer> result = lobbyPlayerService.getPlayerById(playerId);
+            LobbyPlayer player = result.getOrNull();
 
             if (player != null) {
                 return "Player found: " + player.getPlayer_name() +
@@ -160,7 +185,7 @@ public class LobbyPlayerApi {
                     ", Lobby: " + player.getLobby_id() +
                     ", Joined: " + player.getJoined_at() + ")";
             } else {
-                return "No player found with ID: " + playerId;
+                return result.messageOrEmpty();
             }
         } catch (Exception e) {
             String errorMsg = "Error retrieving player: " + e.getMessage();
@@ -179,22 +204,25 @@ public class LobbyPlayerApi {
      * @param winningScore Score required to win (default: 50)
      * @param mapLength Map length (default: 1080)
      * @param mapHeight Map height (default: 1080)
+     * @param lockstep Ask for lockstep netcode, only granted for lobbies of 2-4 players
      * @return Status message indicating success or failure
      */
-    public String startGameSession(String playerId, String lobbyId, int winningScore, int mapLength, int mapHeight) {
+    public String startGameSession(String playerId, String lobbyId, int winningScore, int mapLength, int mapHeight,
+                                   boolean lockstep) {
         String startGameSessionMessage = "";
         try {
-            kotlin.Pair<gr17.noodleio.game.models.GameSession, String> result =
-                lobbyPlayerService.startGameSession(playerId, lobbyId, winningScore, mapLength, mapHeight);
+            ServiceResult<GameSession> result =
+                lobbyPlayerService.startGameSession(playerId, lobbyId, winningScore, mapLength, mapHeight, lockstep);
 
-            gr17.noodleio.game.models.GameSession gameSession = result.getFirst();
-            String message = result.getSecond();
+            GameSession gameSession = result.getOrNull();
+            String message = result.messageOrEmpty();
 
             if (gameSession != null) {
                 startGameSessionMessage = "Game session started successfully: " +
                     "ID: " + gameSession.getId() +
                     ", Lobby: " + gameSession.getLobby_id() +
-                    ", Winning Score: " + gameSession.getWinning_score();
+                    ", Winning Score: " + gameSession.getWinning_score() +
+                    ", Netcode: " + gameSession.getNetcode();
                 return startGameSessionMessage;
             } else {
                 startGameSessionMessage = "Failed to start game session: " + message;
@@ -216,7 +244,19 @@ public class LobbyPlayerApi {
      * @return Status message indicating success or failure
      */
     public String startGameSession(String playerId, String lobbyId) {
-        return startGameSession(playerId, lobbyId, 10, 1080, 1080);
+        return startGameSession(playerId, lobbyId, false);
+    }
+
+    /**
+     * Starts a game session for a lobby with default settings, optionally with lockstep netcode
+     *
+     * @param playerId The ID of the player trying to start the game (must be lobby owner)
+     * @param lobbyId The ID of the lobby to create a game session for (full ID or just first 5 characters)
+     * @param lockstep Ask for lockstep netcode, only granted for lobbies of 2-4 players
+     * @return Status message indicating success or failure
+     */
+    public String startGameSession(String playerId, String lobbyId, boolean lockstep) {
+        return startGameSession(playerId, lobbyId, 10, 1080, 1080, lockstep);
     }
 
     /**
@@ -229,17 +269,36 @@ public class LobbyPlayerApi {
     public String checkActiveGameSession(String lobbyId) {
         try {
             // Check if an active game session exists for this lobby
-            return lobbyPlayerService.checkActiveGameSession(lobbyId);
+            ServiceResult<String> result = lobbyPlayerService.checkActiveGameSession(lobbyId);
+            if (!result.isSuccess()) {
+                return "Error checking for active game session: " + result.messageOrEmpty();
+            }
+            String sessionId = result.getOrNull();
+            return sessionId != null
+                ? "Active session found - session_id: " + sessionId
+                : "No active game session found";
         } catch (Exception e) {
             Gdx.app.error("LobbyPlayerApi", "Error checking for active game session", e);
             return null;
         }
     }
 
+    /**
+     * Looks up the ID of a lobby player by name
+     *
+     * @param playerName The name of the player
+     * @return The player ID, "" if no player has that name, or null if the lookup failed or was
+     * rate limited, in which case it can be tried again
+     */
     public String getPlayerIdFromName(String playerName) {
         try {
-            // Get player ID from player name
-            return lobbyPlayerService.getPlayerIdFromName(playerName);
+            ServiceResult<String> result = lobbyPlayerService.getPlayerIdFromName(playerName);
+            if (!result.isSuccess()) {
+                Gdx.app.log("LobbyPlayerApi", "Player ID lookup failed: " + result.messageOrEmpty());
+                return null;
+            }
+            String playerId = result.getOrNull();
+            return playerId != null ? playerId : "";
         } catch (Exception e) {
             Gdx.app.error("LobbyPlayerApi", "Error getting player ID from name", e);
             return null;
@@ -252,14 +311,50 @@ public class LobbyPlayerApi {
      * 
      * @param playerId The ID of the player
      * @param lobbyId The ID of the lobby (full ID or just first 5 characters)
-     * @return True if the player is the lobby owner, false otherwise
+     * @return True if the player is the lobby owner, false if not, or null if it could not be
+     * checked, e.g. because the request was rate limited
      */
-    public boolean isLobbyOwner(String playerId, String lobbyId) {
+    public Boolean isLobbyOwner(String playerId, String lobbyId) {
         try {
-            return lobbyPlayerService.isLobbyOwner(playerId, lobbyId);
+            return lobbyPlayerService.isLobbyOwner(playerId, lobbyId).getOrNull();
         } catch (Exception e) {
             Gdx.app.error("LobbyPlayerApi", "Error checking if player is lobby owner", e);
-            return false;
+            return null;
         }
     }
-}
\ No newline at end of file
+
+    /*
+     * Async versions of the calls made from the lobby screens. Each runs the blocking call in the
+     * background and hands its result to the callback on the GL thread; deadlineMs caps the whole
+     * call, 0 for no deadline.
+     */
+
+    public AsyncCall<String> joinLobbyAsync(String playerName, String lobbyId, long deadlineMs,
+                                            AsyncCall.Callback<String> callback) {
+        return AsyncCall.submit(deadlineMs, () -> joinLobby(playerName, lobbyId), callback);
+    }
+
+    public AsyncCall<LobbySnapshot> getLobbySnapshotAsync(String lobbyId, long knownVersion, String playerId,
+                                                          long deadlineMs, AsyncCall.Callback<LobbySnapshot> callback) {
+        return AsyncCall.submit(deadlineMs, () -> getLobbySnapshot(lobbyId, knownVersion, playerId), callback);
+    }
+
+    /**
+     * Hands the started session to the callback rather than a status message, the caller
+     * needs its ID to enter the match
+     */
+    public AsyncCall<ServiceResult<GameSession>> startGameSessionAsync(String playerId, String lobbyId, boolean lockstep,
+                                                                       long deadlineMs,
+                                                                       AsyncCall.Callback<ServiceResult<GameSession>> callback) {
+        return AsyncCall.submit(deadlineMs,
+            () -> lobbyPlayerService.startGameSession(playerId, lobbyId, 10, 1080, 1080, lockstep), callback);
+    }
+
+    public AsyncCall<String> leaveLobbyAsync(String playerId, long deadlineMs, AsyncCall.Callback<String> callback) {
+        return AsyncCall.submit(deadlineMs, () -> leaveLobby(playerId), callback);
+    }
+
+    public AsyncCall<String> deleteLobbyAsync(String lobbyId, long deadlineMs, AsyncCall.Callback<String> callback) {
+        return AsyncCall.submit(deadlineMs, () -> deleteLobby(lobbyId), callback);
+    }
+}
@@ -0,0 +1,81 @@
+package gr17.noodleio.game.API;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.badlogic.gdx.Gdx;
+
+import gr17.noodleio.game.models.LobbyPlayer;
+import gr17.noodleio.game.services.LobbyRealtimeService;
+import gr17.noodleio.game.services.ServiceManager;
+
+/**
+ * API for following a lobby in realtime: member joins and leaves, and the start of the match
+ * Callbacks are delivered on the GL thread
+ */
+public class LobbyRealtimeApi {
+    private final LobbyRealtimeService lobbyRealtimeService;
+
+    /**
+     * Callback interface for lobby updates
+     */
+    public interface LobbyCallback {
+        void onMembersChanged(List<LobbyPlayer> members);
+        void onSessionStarted(String sessionId, int roomCount);
+    }
+
+    /**
+     * Uses an existing (possibly pre-warmed) client instead of creating a new one
+     */
+    public LobbyRealtimeApi(ServiceManager serviceManager) {
+        this.lobbyRealtimeService = new LobbyRealtimeService(serviceManager);
+    }
+
+    /**
+     * Start following a lobby, replacing any lobby followed before
+     * @param lobbyId The full ID of the lobby
+     */
+    public void subscribe(String lobbyId, final LobbyCallback callback) {
+        try {
+            lobbyRealtimeService.subscribe(lobbyId, new LobbyRealtimeService.LobbyListener() {
+                @Override
+                public void onMembersChanged(List<LobbyPlayer> members) {
+                    final List<LobbyPlayer> snapshot = new ArrayList<>(members);
+                    Gdx.app.postRunnable(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onMembersChanged(snapshot);
+                        }
+                    });
+                }
+
+                @Override
+                public void onSessionStarted(final String sessionId, final int roomCount) {
+                    Gdx.app.postRunnable(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onSessionStarted(sessionId, roomCount);
+                        }
+                    });
+                }
+            });
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return Whether lobby events are being received
+     */
+    public boolean isSubscribed() {
+        return lobbyRealtimeService.isSubscribed();
+    }
+
+    public void unsubscribe() {
+        try {
+            lobbyRealtimeService.unsubscribe();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
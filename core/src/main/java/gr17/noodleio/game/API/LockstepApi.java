@@ -0,0 +1,121 @@
+package gr17.noodleio.game.API;
+
+import gr17.noodleio.game.services.LockstepMatch;
+import gr17.noodleio.game.services.LockstepService;
+import gr17.noodleio.game.services.ServiceManager;
+import gr17.noodleio.game.services.network.ServiceResult;
+
+/**
+ * API for lockstep matches: exchanges per-tick inputs and state checksums with the other players
+ * Nothing is written to the database while a lockstep match runs
+ */
+public class LockstepApi {
+    private final LockstepService lockstepService;
+    private String statusMessage = "Not started";
+
+    /**
+     * Uses an existing (possibly pre-warmed) client instead of creating a new one
+     */
+    public LockstepApi(ServiceManager serviceManager) {
+        this.lockstepService = new LockstepService(serviceManager);
+    }
+
+    /**
+     * Join the lockstep match of a session
+     * Blocks until the session is read and the input channel is subscribed
+     *
+     * @return The match, or null if the session streams state from the server or joining failed
+     */
+    public LockstepMatch start(String sessionId, String playerId) {
+        try {
+            ServiceResult<LockstepMatch> result = lockstepService.start(sessionId, playerId);
+            LockstepMatch match = result.getOrNull();
+            if (match != null) {
+                statusMessage = "Lockstep with " + match.getRoster().size() + " players";
+            } else if (result.isSuccess()) {
+                statusMessage = "Session uses streaming netcode";
+            } else {
+                statusMessage = "Lockstep unavailable: " + result.messageOrEmpty();
+            }
+            return match;
+        } catch (Exception e) {
+            statusMessage = "Error starting lockstep: " + e.getMessage();
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    public void submitInput(long tick, int targetX, int targetY, boolean moving, long simulatedThrough) {
+        lockstepService.submitInput(tick, targetX, targetY, moving, simulatedThrough);
+    }
+
+    public void resendInputs(long simulatedThrough) {
+        lockstepService.resendInputs(simulatedThrough);
+    }
+
+    /**
+     * @return [x, y, flags] per player in roster order, or null until every player's input for the tick arrived
+     */
+    public int[][] takeInputs(long tick) {
+        return lockstepService.takeInputs(tick);
+    }
+
+    /**
+     * Drop the peers that went silent while the match waits on their input for stalledTick
+     *
+     * @return Number of peers dropped
+     */
+    public int dropSilentPeers(long stalledTick) {
+        try {
+            return lockstepService.dropSilentPeers(stalledTick);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    /**
+     * Leave the match for the server from a tick on and ask the peers to do the same
+     */
+    public void requestResync(long fromTick) {
+        try {
+            lockstepService.requestResync(fromTick);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    public void reportChecksum(long tick, long checksum) {
+        lockstepService.reportChecksum(tick, checksum);
+    }
+
+    /**
+     * @return The first tick at which the clients disagreed, or -1 while in sync
+     */
+    public long getDesyncTick() {
+        return lockstepService.getDesyncTick();
+    }
+
+    /**
+     * @return The tick from which the local player left the match for the server, or -1 while it is in it
+     */
+    public long getLocalDropTick() {
+        return lockstepService.getLocalDropTick();
+    }
+
+    public String getStats() {
+        return lockstepService.getStats();
+    }
+
+    public String getStatusMessage() {
+        return statusMessage;
+    }
+
+    public void stop() {
+        try {
+            lockstepService.stop();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package gr17.noodleio.game.API;
+
+import com.badlogic.gdx.Gdx;
+
+import gr17.noodleio.game.models.MatchmakingTicket;
+import gr17.noodleio.game.services.MatchmakingService;
+import gr17.noodleio.game.services.ServiceManager;
+import gr17.noodleio.game.services.network.ServiceResult;
+
+/**
+ * API for the quick-play queue
+ * Callbacks are delivered on the GL thread
+ */
+public class MatchmakingApi {
+    private final MatchmakingService matchmakingService;
+
+    /**
+     * Callback interface for the outcome of quick play
+     */
+    public interface MatchCallback {
+        /**
+         * @param sessionId The started game session, or null if the server could not start it
+         */
+        void onMatched(String lobbyId, String playerId, String sessionId);
+        void onRejected(String reason);
+    }
+
+    /**
+     * Uses an existing (possibly pre-warmed) client instead of creating a new one
+     */
+    public MatchmakingApi(ServiceManager serviceManager) {
+        this.matchmakingService = new MatchmakingService(serviceManager);
+    }
+
+    /**
+     * Enter the quick-play queue
+     *
+     * @param playerName The name of the player
+     * @return Status message indicating success or failure
+     */
+    public String quickPlay(String playerName, final MatchCallback callback) {
+        try {
+            ServiceResult<MatchmakingTicket> result = matchmakingService.enqueue(playerName, new MatchmakingService.MatchListener() {
+                @Override
+                public void onMatched(final MatchmakingTicket ticket) {
+                    Gdx.app.postRunnable(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onMatched(ticket.getLobby_id(), ticket.getPlayer_id(), ticket.getSession_id());
+                        }
+                    });
+                }
+
+                @Override
+                public void onRejected(final String reason) {
+                    Gdx.app.postRunnable(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onRejected(reason);
+                        }
+                    });
+                }
+            });
+            MatchmakingTicket ticket = result.getOrNull();
+            if (ticket == null) {
+                return "Failed to queue: " + result.messageOrEmpty();
+            }
+            return "Queued with ticket ID: " + ticket.getId();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return "Error queueing: " + e.getMessage();
+        }
+    }
+
+    /**
+     * Read the ticket once, only needed while realtime is not connected
+     */
+    public void checkAssignment() {
+        try {
+            matchmakingService.refresh();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Leave the queue
+     *
+     * @return true if the player left before being matched
+     */
+    public boolean cancel() {
+        try {
+            return Boolean.TRUE.equals(matchmakingService.cancel().getOrNull());
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    public void stop() {
+        try {
+            matchmakingService.stop();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    public boolean isQueued() {
+        return matchmakingService.isQueued();
+    }
+
+    /**
+     * @return Whether assignment events are being received
+     */
+    public boolean isSubscribed() {
+        return matchmakingService.isSubscribed();
+    }
+
+    public String getStats() {
+        return matchmakingService.getStats();
+    }
+}
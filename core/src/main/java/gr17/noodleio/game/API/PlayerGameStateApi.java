@@ -1,7 +1,11 @@
 package gr17.noodleio.game.API;
 
+import java.util.List;
+
 import gr17.noodleio.game.config.EnvironmentConfig;
+import gr17.noodleio.game.models.LobbyStanding;
 import gr17.noodleio.game.services.PlayerGameStateService;
+import gr17.noodleio.game.services.ServiceManager;
 
 public class PlayerGameStateApi {
     private final PlayerGameStateService playerGameStateService;
@@ -10,6 +14,13 @@ public class PlayerGameStateApi {
         this.playerGameStateService = new PlayerGameStateService(environmentConfig);
     }
 
+    /**
+     * Uses an existing (possibly pre-warmed) client instead of creating a new one
+     */
+    public PlayerGameStateApi(ServiceManager serviceManager) {
+        this.playerGameStateService = new PlayerGameStateService(serviceManager);
+    }
+
     /**
      * Moves a player up by one position unit
      *
@@ -70,12 +81,110 @@ public class PlayerGameStateApi {
         }
     }
 
-    public void updatePlayerScore(String playerId, String sessionId, int newScore) {
+    /**
+     * Updates the player's score
+     *
+     * @return false if the update was not sent or failed, retry later with the latest score
+     */
+    public boolean updatePlayerScore(String playerId, String sessionId, int newScore) {
         try {
             // Call playerGameStateService to update the player's score
-            playerGameStateService.updatePlayerScore(playerId, sessionId, newScore);
+            return playerGameStateService.updatePlayerScore(playerId, sessionId, newScore).isSuccess();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Writes the local player's position and score from a lockstep match that is handed to the server
+     *
+     * @return false if the state was not written
+     */
+    public boolean resyncState(String playerId, String sessionId, float x, float y, int score) {
+        try {
+            return playerGameStateService.resyncState(playerId, sessionId, x, y, score).isSuccess();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Claims a food the snake was seen eating, judged by the server at the time it was seen
+     *
+     * @param foodId        The ID of the food
+     * @param observedAtMs  Local time the pickup was seen on screen
+     * @param headX         Local head position when the pickup was seen, in map coordinates
+     * @param headY         Local head position when the pickup was seen, in map coordinates
+     * @return The new score, or -1 if the food went to another player, was out of reach or the claim failed
+     */
+    public int claimFood(String playerId, String sessionId, String foodId, long observedAtMs, float headX, float headY) {
+        try {
+            return playerGameStateService.claimFood(playerId, sessionId, foodId, observedAtMs, headX, headY).getOrDefault(-1);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return -1;
+        }
+    }
+
+    /**
+     * Ranks every player of a lobby split into rooms, across all rooms
+     *
+     * @param lobbyId The full ID of the lobby
+     * @return The standings, best first, or null if they could not be read
+     */
+    public List<LobbyStanding> getLobbyStandings(String lobbyId) {
+        try {
+            return playerGameStateService.getLobbyStandings(lobbyId).getOrNull();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Sends a movement input through the redundant input uplink.
+     * Does not block; failures are retried by resending with the next input.
+     *
+     * @param playerId  The ID of the player to move
+     * @param sessionId The ID of the game session
+     * @param direction One of "up", "down", "left", "right"
+     * @param boost     Whether the speed boost is active
+     * @return false if too many inputs are unacknowledged and this one was not queued
+     */
+    public boolean sendInput(String playerId, String sessionId, String direction, boolean boost) {
+        try {
+            return playerGameStateService.submitInput(playerId, sessionId, direction, boost);
         } catch (Exception e) {
             e.printStackTrace();
+            return false;
         }
     }
+
+    /**
+     * Resends unacknowledged inputs, call once per tick when there is no new input
+     *
+     * @param playerId  The ID of the player
+     * @param sessionId The ID of the game session
+     */
+    public void flushInputs(String playerId, String sessionId) {
+        try {
+            playerGameStateService.flushInputs(playerId, sessionId);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    public String getClaimStats() {
+        return playerGameStateService.getClaimStats();
+    }
+
+    public String getInputStats() {
+        return playerGameStateService.getInputStats();
+    }
+
+    public void dispose() {
+        playerGameStateService.close();
+    }
 }
@@ -1,14 +1,16 @@
 package gr17.noodleio.game.API;
 
 import gr17.noodleio.game.config.EnvironmentConfig;
+import gr17.noodleio.game.models.Food;
 import gr17.noodleio.game.models.GameSession;
 import gr17.noodleio.game.models.PlayerGameState;
 import gr17.noodleio.game.services.RealtimeGameStateService;
 import gr17.noodleio.game.services.RealtimeGameStateService.GameStateListener;
+import gr17.noodleio.game.services.ServiceManager;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import com.badlogic.gdx.Gdx;
 
@@ -21,8 +23,8 @@ public class RealtimeGameStateApi {
     private final RealtimeGameStateService gameStateService;
     private String statusMessage = "Initializing...";
 
-    // List to store registered listeners
-    private final List<GameStateCallback> listeners = new ArrayList<>();
+    // List to store registered listeners, callbacks may remove themselves while being notified
+    private final List<GameStateCallback> listeners = new CopyOnWriteArrayList<>();
 
     /**
      * Callback interface for game state updates
@@ -31,10 +33,29 @@ public class RealtimeGameStateApi {
         void onPlayerStateChanged(PlayerGameState playerState);
         void onGameSessionChanged(GameSession gameSession);
         void onGameOver();
+        void onPlayerJoined(String playerId);
+        void onPlayerLeft(String playerId, boolean timedOut);
     }
 
     public RealtimeGameStateApi(EnvironmentConfig environmentConfig) {
-        this.gameStateService = new RealtimeGameStateService(environmentConfig);
+        this(environmentConfig,
+            RealtimeGameStateService.DEFAULT_PRESENCE_TIMEOUT_MS,
+            RealtimeGameStateService.DEFAULT_HEARTBEAT_INTERVAL_MS);
+    }
+
+    /**
+     * @param presenceTimeoutMs Time without presence or state updates before a player is dropped
+     * @param heartbeatIntervalMs Interval between presence heartbeats and liveness sweeps
+     */
+    public RealtimeGameStateApi(EnvironmentConfig environmentConfig, long presenceTimeoutMs, long heartbeatIntervalMs) {
+        this(new ServiceManager(environmentConfig), presenceTimeoutMs, heartbeatIntervalMs);
+    }
+
+    /**
+     * Uses an existing (possibly pre-warmed) client instead of creating a new one
+     */
+    public RealtimeGameStateApi(ServiceManager serviceManager, long presenceTimeoutMs, long heartbeatIntervalMs) {
+        this.gameStateService = new RealtimeGameStateService(serviceManager, presenceTimeoutMs, heartbeatIntervalMs);
 
         // Set up internal listener that forwards events to our Java callbacks
         this.gameStateService.addListener(new GameStateListener() {
@@ -55,6 +76,24 @@ public class RealtimeGameStateApi {
                 });
             }
 
+            @Override
+            public void onPlayerStatesChanged(List<PlayerGameState> playerStates) {
+                // Skip if shutting down
+                if (isShuttingDown) return;
+                // Deliver a whole snapshot in a single runnable instead of one per player
+                final List<PlayerGameState> finalPlayerStates = playerStates;
+                Gdx.app.postRunnable(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (GameStateCallback callback : listeners) {
+                            for (PlayerGameState playerState : finalPlayerStates) {
+                                callback.onPlayerStateChanged(playerState);
+                            }
+                        }
+                    }
+                });
+            }
+
             @Override
             public void onGameSessionChanged(GameSession gameSession) {
                 // Skip if shutting down
@@ -85,6 +124,37 @@ public class RealtimeGameStateApi {
                     }
                 });
             }
+
+            @Override
+            public void onPlayerJoined(String playerId) {
+                // Skip if shutting down
+                if (isShuttingDown) return;
+                final String finalPlayerId = playerId;
+                Gdx.app.postRunnable(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (GameStateCallback callback : listeners) {
+                            callback.onPlayerJoined(finalPlayerId);
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void onPlayerLeft(String playerId, boolean timedOut) {
+                // Skip if shutting down
+                if (isShuttingDown) return;
+                final String finalPlayerId = playerId;
+                final boolean finalTimedOut = timedOut;
+                Gdx.app.postRunnable(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (GameStateCallback callback : listeners) {
+                            callback.onPlayerLeft(finalPlayerId, finalTimedOut);
+                        }
+                    }
+                });
+            }
         });
     }
 
@@ -112,6 +182,8 @@ public class RealtimeGameStateApi {
      */
     public String connect(String sessionId, String playerId) {
         try {
+            // The API may be reused across matches, so re-enable delivery after a previous disconnect
+            isShuttingDown = false;
             statusMessage = gameStateService.connect(sessionId, playerId);
             return statusMessage;
         } catch (Exception e) {
@@ -121,6 +193,28 @@ public class RealtimeGameStateApi {
         }
     }
 
+    /**
+     * Cut the session down to a liveness heartbeat while the app is in the background
+     */
+    public void pause() {
+        try {
+            gameStateService.enterBackground();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Restore full updates after pause, with a fast resync of the whole session
+     */
+    public void resume() {
+        try {
+            gameStateService.enterForeground();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
     /**
      * Disconnect from the game session
      * @return Status message
@@ -137,6 +231,22 @@ public class RealtimeGameStateApi {
         }
     }
 
+    /**
+     * Get snapshot counters for comparing realtime load
+     * @return Human readable snapshot statistics
+     */
+    public String getSnapshotStats() {
+        return gameStateService.getSnapshotStats();
+    }
+
+    /**
+     * Get the uneaten food of the session, as loaded with the session snapshot
+     * @return The food rows, empty if the session has none or the snapshot has not loaded yet
+     */
+    public List<Food> getServerFood() {
+        return gameStateService.getFood();
+    }
+
     /**
      * Get all current player states
      * @return Map of player IDs to player states
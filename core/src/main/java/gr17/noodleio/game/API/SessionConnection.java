@@ -0,0 +1,148 @@
+package gr17.noodleio.game.API;
+
+import gr17.noodleio.game.config.Config;
+import gr17.noodleio.game.config.EnvironmentConfig;
+import gr17.noodleio.game.services.RealtimeGameStateService;
+import gr17.noodleio.game.services.ServiceManager;
+import gr17.noodleio.game.services.SessionTeardownService;
+
+/**
+ * Long-lived connection used for game sessions.
+ * Opened while players wait in the lobby, handed to PlayState when the match starts,
+ * and kept after the match so a rematch or the next lobby starts on a warm socket.
+ */
+public class SessionConnection {
+    private static SessionConnection instance;
+
+    private final ServiceManager serviceManager;
+    private final RealtimeGameStateApi realtimeGameStateApi;
+    private final PlayerGameStateApi playerGameStateApi;
+    private final LockstepApi lockstepApi;
+    private final LobbyRealtimeApi lobbyRealtimeApi;
+    private final MatchmakingApi matchmakingApi;
+    private final LeaderboardRealtimeApi leaderboardRealtimeApi;
+    private final SessionTeardownService teardownService;
+
+    // Time to first remote update per match, split by whether the connection was warm
+    private long warmSamples;
+    private long warmTotalMillis;
+    private long coldSamples;
+    private long coldTotalMillis;
+
+    private SessionConnection(EnvironmentConfig environmentConfig) {
+        this.serviceManager = new ServiceManager(environmentConfig);
+        this.realtimeGameStateApi = new RealtimeGameStateApi(serviceManager,
+            RealtimeGameStateService.DEFAULT_PRESENCE_TIMEOUT_MS,
+            RealtimeGameStateService.DEFAULT_HEARTBEAT_INTERVAL_MS);
+        this.playerGameStateApi = new PlayerGameStateApi(serviceManager);
+        this.lockstepApi = new LockstepApi(serviceManager);
+        this.lobbyRealtimeApi = new LobbyRealtimeApi(serviceManager);
+        this.matchmakingApi = new MatchmakingApi(serviceManager);
+        this.leaderboardRealtimeApi = new LeaderboardRealtimeApi(serviceManager);
+        this.teardownService = new SessionTeardownService(serviceManager,
+            SessionTeardownService.DEFAULT_MAX_ATTEMPTS,
+            SessionTeardownService.DEFAULT_INITIAL_BACKOFF_MS);
+    }
+
+    /**
+     * Get the shared session connection, creating it on first use
+     */
+    public static synchronized SessionConnection getInstance() {
+        if (instance == null) {
+            instance = new SessionConnection(new EnvironmentConfig() {
+                @Override public String getSupabaseUrl() { return Config.getSupabaseUrl(); }
+                @Override public String getSupabaseKey() { return Config.getSupabaseKey(); }
+            });
+        }
+        return instance;
+    }
+
+    /**
+     * Open the realtime socket and HTTP connection in the background. Does not block.
+     */
+    public void warmUp() {
+        if (!Config.isSessionPrewarmEnabled()) {
+            return;
+        }
+        try {
+            serviceManager.warmUp();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    public boolean isWarm() {
+        return serviceManager.isWarm();
+    }
+
+    /**
+     * Record how long a match took from PlayState creation to the first update of another player
+     *
+     * @param millis Time to first remote update
+     * @param warm   Whether the connection was warm when the match started
+     * @return Averages over all matches so far, warm against cold
+     */
+    public synchronized String recordFirstRemoteUpdate(long millis, boolean warm) {
+        if (warm) {
+            warmSamples++;
+            warmTotalMillis += millis;
+        } else {
+            coldSamples++;
+            coldTotalMillis += millis;
+        }
+        return "warm: " + average(warmTotalMillis, warmSamples) + " over " + warmSamples + " matches, "
+            + "cold: " + average(coldTotalMillis, coldSamples) + " over " + coldSamples + " matches";
+    }
+
+    private static String average(long totalMillis, long samples) {
+        return samples == 0 ? "-" : (totalMillis / samples) + " ms";
+    }
+
+    public RealtimeGameStateApi getRealtimeGameStateApi() {
+        return realtimeGameStateApi;
+    }
+
+    public PlayerGameStateApi getPlayerGameStateApi() {
+        return playerGameStateApi;
+    }
+
+    public LockstepApi getLockstepApi() {
+        return lockstepApi;
+    }
+
+    public LobbyRealtimeApi getLobbyRealtimeApi() {
+        return lobbyRealtimeApi;
+    }
+
+    public MatchmakingApi getMatchmakingApi() {
+        return matchmakingApi;
+    }
+
+    public LeaderboardRealtimeApi getLeaderboardRealtimeApi() {
+        return leaderboardRealtimeApi;
+    }
+
+    /**
+     * Leave a game session: stop realtime updates now, and flush the score, submit the
+     * leaderboard entry and delete the lobby in the background with retries.
+     * Calling it again for the same session and player does nothing.
+     *
+     * @param lobbyId         The lobby to delete, or null to keep it
+     * @param finalScore      The score to write back, or null to skip
+     * @param playerName      The name for the leaderboard entry, or null to skip the leaderboard,
+     *                        the server times the match from the session
+     */
+    public void tearDownSession(String sessionId, String playerId, String lobbyId,
+                                Integer finalScore, String playerName) {
+        try {
+            realtimeGameStateApi.disconnect();
+            teardownService.tearDown(sessionId, playerId, lobbyId, finalScore, playerName);
+            if (!Config.isSessionPrewarmEnabled()) {
+                // Without prewarming every match starts on a new socket, like before it was kept
+                serviceManager.coolDown();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -9,6 +9,7 @@ import com.badlogic.gdx.graphics.g2d.SpriteBatch;
 import com.badlogic.gdx.utils.viewport.Viewport;
 
 import gr17.noodleio.game.config.EnvironmentConfig;
+import gr17.noodleio.game.services.network.RequestBudget;
 import gr17.noodleio.game.states.GameStateManager;
 import gr17.noodleio.game.states.MenuState;
 
@@ -39,9 +40,14 @@ public class Core extends ApplicationAdapter {
     private static final float MAX_WORLD_WIDTH = 1920;
     private static final float MAX_WORLD_HEIGHT = 1080;
     private BitmapFont font;
+    // Set between pause and resume, nothing is updated or drawn meanwhile
+    private boolean paused = false;
 
     @Override
     public void create() {
+        // Service calls made from here on must not wait for request tokens
+        RequestBudget.setRenderThread(Thread.currentThread());
+
         // Set target framerate for better performance
         Gdx.graphics.setForegroundFPS(60);
 
@@ -66,6 +72,11 @@ public class Core extends ApplicationAdapter {
     // In the render() method, add some FPS monitoring, but using glClear instead of ScreenUtils:
     @Override
     public void render() {
+        // Android stops calling render while paused, a minimized desktop window may not
+        if (paused) {
+            return;
+        }
+
         // Clear screen with background color
         Gdx.gl.glClearColor(0.15f, 0.15f, 0.2f, 1f);
         Gdx.gl.glClear(GL20.GL_COLOR_BUFFER_BIT);
@@ -86,6 +97,25 @@ public class Core extends ApplicationAdapter {
         batch.end();
     }
 
+    /**
+     * The app went to the background (Android) or the window was minimized (desktop)
+     */
+    @Override
+    public void pause() {
+        paused = true;
+        if (gsm != null) {
+            gsm.pause();
+        }
+    }
+
+    @Override
+    public void resume() {
+        paused = false;
+        if (gsm != null) {
+            gsm.resume();
+        }
+    }
+
     @Override
     public void resize(int width, int height) {
         // Update viewport when screen is resized
@@ -11,6 +11,8 @@ public class Food {
     public boolean isEat;
     public Vector2 vel;
     public Texture texture; // Added texture field
+    // ID of the session's Food row, null for food spawned locally
+    public String serverId;
 
     // Temporary vector to reduce allocations
     private final Vector2 tempVector = new Vector2();
@@ -2,6 +2,7 @@ package gr17.noodleio.game.Entities;
 
 import java.util.ArrayList;
 
+import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.math.Vector3;
@@ -41,6 +42,13 @@ public class Snake {
     }
 
     public void update(Vector3 mousePos) {
+        update(mousePos, (int) (Gdx.graphics.getDeltaTime() * 1000));
+    }
+
+    /**
+     * Update with a fixed time step, boost timers advance by elapsedMs instead of the frame time
+     */
+    public void update(Vector3 mousePos, int elapsedMs) {
         snakeHead.update(mousePos);
 
         // Optimization: Only update positions of visible segments
@@ -92,7 +100,7 @@ public class Snake {
         if(speedBoostTimer.isRunning()){
             snakeHead.maxAcc = 5;
             snakeHead.maxVel = 5;
-            if(speedBoostTimer.tick()){
+            if(speedBoostTimer.tick(elapsedMs)){
                 speedBoostTimer.stop();
                 snakeHead.maxAcc = 2;
                 snakeHead.maxVel = 3;
@@ -101,7 +109,7 @@ public class Snake {
 
         if(magnetBoostTimer.isRunning()){
             attractFood = true;
-            if(magnetBoostTimer.tick()){
+            if(magnetBoostTimer.tick(elapsedMs)){
                 magnetBoostTimer.stop();
                 attractFood = false;
             }
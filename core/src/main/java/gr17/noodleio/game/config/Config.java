@@ -14,6 +14,12 @@ public class Config {
     private static String SUPABASE_URL = "https://xyzcompany.supabase.co";
     private static String SUPABASE_KEY = "public-anon-key";
 
+    // Keep the session connection open between matches, off to measure cold starts
+    private static boolean SESSION_PREWARM = true;
+
+    // Debug keys in the match, such as the network emulator, off in release builds
+    private static boolean DEBUG_KEYS = false;
+
     private static boolean initialized = false;
 
     /**
@@ -39,6 +45,14 @@ public class Config {
                     SUPABASE_KEY = props.getProperty("supabase.key");
                 }
 
+                if (props.containsKey("session.prewarm")) {
+                    SESSION_PREWARM = Boolean.parseBoolean(props.getProperty("session.prewarm"));
+                }
+
+                if (props.containsKey("debug.keys")) {
+                    DEBUG_KEYS = Boolean.parseBoolean(props.getProperty("debug.keys"));
+                }
+
                 Gdx.app.log("Config", "Loaded configuration from config.properties");
             } else {
                 Gdx.app.log("Config", "Using default configuration");
@@ -66,6 +80,22 @@ public class Config {
         return SUPABASE_KEY;
     }
 
+    /**
+     * Whether the session connection is warmed up in the lobby and kept between matches
+     */
+    public static boolean isSessionPrewarmEnabled() {
+        if (!initialized) initialize();
+        return SESSION_PREWARM;
+    }
+
+    /**
+     * Whether the debug keys in the match are enabled
+     */
+    public static boolean isDebugKeysEnabled() {
+        if (!initialized) initialize();
+        return DEBUG_KEYS;
+    }
+
     /**
      * Android-specific method to load from BuildConfig
      * Call this from your AndroidLauncher
@@ -0,0 +1,18 @@
+package gr17.noodleio.game.lockstep;
+
+/**
+ * Input of one player for one lockstep tick: the point the snake steers towards, in whole map units
+ */
+public final class LockstepInput {
+    public static final LockstepInput IDLE = new LockstepInput(0, 0, false);
+
+    public final int targetX;
+    public final int targetY;
+    public final boolean moving;
+
+    public LockstepInput(int targetX, int targetY, boolean moving) {
+        this.targetX = targetX;
+        this.targetY = targetY;
+        this.moving = moving;
+    }
+}
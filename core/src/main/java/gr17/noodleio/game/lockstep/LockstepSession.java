@@ -0,0 +1,154 @@
+package gr17.noodleio.game.lockstep;
+
+import java.util.List;
+
+import gr17.noodleio.game.API.LockstepApi;
+import gr17.noodleio.game.services.LockstepMatch;
+
+/**
+ * Drives a lockstep match from the render loop: samples the local input a few ticks ahead,
+ * and advances the simulation only once every player's input for the next tick has arrived.
+ * A tick never runs on guessed inputs, a missing one stalls the match instead, until the
+ * player it belongs to times out and is dropped.
+ */
+public class LockstepSession {
+    public static final int TICK_MS = 48;
+    public static final int STEPS_PER_TICK = TICK_MS / LockstepSimulation.STEP_MS;
+    // Inputs are scheduled this many ticks ahead, which hides up to about 150 ms of one-way latency
+    public static final int INPUT_DELAY_TICKS = 3;
+    private static final int CHECKSUM_INTERVAL_TICKS = 20;
+    // Most ticks run in one frame when catching up after a stall
+    private static final int MAX_TICKS_PER_FRAME = 4;
+    private static final float RESEND_INTERVAL = 0.1f;
+
+    private final LockstepApi api;
+    private final LockstepMatch match;
+    private final LockstepSimulation simulation;
+    private final LockstepInput[] tickInputs;
+
+    private long nextTick = 0;
+    private long submittedThrough = INPUT_DELAY_TICKS - 1;
+    private float accumulatorMs = 0;
+    private float stallTimer = 0;
+    private long stalledTicks = 0;
+    private int droppedPeers = 0;
+
+    public LockstepSession(LockstepApi api, LockstepMatch match) {
+        this.api = api;
+        this.match = match;
+        this.simulation = new LockstepSimulation(match.getSeed(), match.getRoster().size(),
+            match.getSession().getMap_length(), match.getSession().getMap_height());
+        this.tickInputs = new LockstepInput[match.getRoster().size()];
+    }
+
+    /**
+     * Advance the match by the frame time, as far as the received inputs allow
+     *
+     * @param dt      Frame time in seconds
+     * @param targetX Steering target of the local player, in map coordinates
+     * @param targetY Steering target of the local player, in map coordinates
+     * @param moving  Whether the local player is steering
+     */
+    public void update(float dt, int targetX, int targetY, boolean moving) {
+        accumulatorMs = Math.min(accumulatorMs + dt * 1000f, TICK_MS * MAX_TICKS_PER_FRAME);
+
+        int ticks = 0;
+        boolean stalled = false;
+        while (accumulatorMs >= TICK_MS && ticks < MAX_TICKS_PER_FRAME) {
+            long inputTick = nextTick + INPUT_DELAY_TICKS;
+            if (inputTick > submittedThrough) {
+                api.submitInput(inputTick, targetX, targetY, moving, nextTick - 1);
+                submittedThrough = inputTick;
+            }
+            if (!advance()) {
+                stalled = true;
+                break;
+            }
+            accumulatorMs -= TICK_MS;
+            ticks++;
+        }
+
+        if (stalled) {
+            // Keep repeating our inputs, a peer may have joined the channel after we sent them
+            stallTimer += dt;
+            if (stallTimer >= RESEND_INTERVAL) {
+                stallTimer = 0;
+                stalledTicks++;
+                api.resendInputs(nextTick - 1);
+                droppedPeers += api.dropSilentPeers(nextTick);
+            }
+        } else {
+            stallTimer = 0;
+        }
+    }
+
+    private boolean advance() {
+        if (nextTick < INPUT_DELAY_TICKS) {
+            // Nobody has input for the first ticks
+            for (int i = 0; i < tickInputs.length; i++) {
+                tickInputs[i] = LockstepInput.IDLE;
+            }
+        } else {
+            int[][] frames = api.takeInputs(nextTick);
+            if (frames == null) {
+                return false;
+            }
+            for (int i = 0; i < tickInputs.length; i++) {
+                tickInputs[i] = new LockstepInput(frames[i][0], frames[i][1], (frames[i][2] & 1) != 0);
+            }
+        }
+
+        for (int i = 0; i < STEPS_PER_TICK; i++) {
+            simulation.step(tickInputs);
+        }
+        if (nextTick % CHECKSUM_INTERVAL_TICKS == 0) {
+            api.reportChecksum(nextTick, simulation.checksum());
+        }
+        nextTick++;
+        return true;
+    }
+
+    /**
+     * @return Roster index of the winner, or -1 while nobody reached the winning score
+     */
+    public int getWinner() {
+        return simulation.getWinner(match.getSession().getWinning_score());
+    }
+
+    public boolean isDesynced() {
+        return api.getDesyncTick() >= 0;
+    }
+
+    /**
+     * Whether the peers dropped the local player, e.g. after a pause, and the match has to be
+     * handed to the server
+     */
+    public boolean isDroppedByPeers() {
+        return api.getLocalDropTick() >= 0;
+    }
+
+    public LockstepSimulation getSimulation() {
+        return simulation;
+    }
+
+    public LockstepMatch getMatch() {
+        return match;
+    }
+
+    public List<String> getRoster() {
+        return match.getRoster();
+    }
+
+    public int getLocalIndex() {
+        return match.getLocalIndex();
+    }
+
+    public long getTick() {
+        return nextTick;
+    }
+
+    public String getStats() {
+        return "tick " + nextTick + ", " + stalledTicks + " stall resends, " + droppedPeers
+            + " peers dropped, " + api.getStats();
+    }
+}
@@ -0,0 +1,201 @@
+package gr17.noodleio.game.lockstep;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.math.Vector3;
+
+import gr17.noodleio.game.Entities.BodyPart;
+import gr17.noodleio.game.Entities.Food.Food;
+import gr17.noodleio.game.Entities.Food.MagnetBoost;
+import gr17.noodleio.game.Entities.Food.PowerUp;
+import gr17.noodleio.game.Entities.Food.SpeedBoost;
+import gr17.noodleio.game.Entities.Snake;
+
+/**
+ * Deterministic simulation of a lockstep match: every client runs one with the same seed,
+ * roster and inputs, and ends up in the same state.
+ * Runs in map coordinates with fixed time steps. Only float arithmetic and Math.sqrt are used,
+ * which are exactly specified on the JVM and on Android, and the only random source is the seeded one.
+ */
+public class LockstepSimulation {
+    public static final int STEP_MS = 16;
+    private static final int FOOD_COUNT = 50;
+    private static final int FOOD_MARGIN = 20;
+
+    private final int mapWidth;
+    private final int mapHeight;
+    private final List<Snake> snakes = new ArrayList<>();
+    private final List<Food> foods = new ArrayList<>();
+    private final List<PowerUp> powerUps = new ArrayList<>();
+    private final Vector3 target = new Vector3();
+    private long steps = 0;
+
+    /**
+     * @param seed        Shared seed, places the food
+     * @param playerCount Number of players, in roster order
+     */
+    public LockstepSimulation(long seed, int playerCount, int mapWidth, int mapHeight) {
+        this.mapWidth = mapWidth;
+        this.mapHeight = mapHeight;
+
+        for (int i = 0; i < playerCount; i++) {
+            Snake snake = new Snake();
+            Vector2 start = startPosition(i);
+            snake.pos.set(start);
+            snake.snakeHead.pos.set(start);
+            snake.snakeHead.collisionShape.setPosition(start.x, start.y);
+            snake.snakeHead.magnetFoodShape.setPosition(start.x, start.y);
+            for (int j = 1; j < snake.body.size(); j++) {
+                BodyPart previous = snake.body.get(j - 1);
+                snake.body.get(j).pos.set(previous.pos.x - (snake.body.get(j).size + 8), previous.pos.y);
+            }
+            snakes.add(snake);
+        }
+
+        Random random = new Random(seed);
+        for (int i = 0; i < FOOD_COUNT; i++) {
+            int x = FOOD_MARGIN + random.nextInt(mapWidth - 2 * FOOD_MARGIN);
+            int y = FOOD_MARGIN + random.nextInt(mapHeight - 2 * FOOD_MARGIN);
+            foods.add(new Food(new Vector2(x, y)));
+        }
+
+        // Same spots as the streaming mode
+        powerUps.add(new SpeedBoost(new Vector2(mapWidth / 4, mapHeight / 4), null));
+        powerUps.add(new MagnetBoost(new Vector2(mapWidth * 3 / 4, mapHeight * 3 / 4), null));
+    }
+
+    /**
+     * Spread up to four players around the middle of the map
+     */
+    private Vector2 startPosition(int index) {
+        switch (index % 4) {
+            case 0: return new Vector2(mapWidth / 4, mapHeight / 2);
+            case 1: return new Vector2(mapWidth * 3 / 4, mapHeight / 2);
+            case 2: return new Vector2(mapWidth / 2, mapHeight / 4);
+            default: return new Vector2(mapWidth / 2, mapHeight * 3 / 4);
+        }
+    }
+
+    /**
+     * Advance one fixed step
+     * @param inputs One input per player, in roster order
+     */
+    public void step(LockstepInput[] inputs) {
+        for (int i = 0; i < snakes.size(); i++) {
+            Snake snake = snakes.get(i);
+            LockstepInput input = inputs[i];
+            if (input != null && input.moving) {
+                target.set(input.targetX, input.targetY, 0);
+            } else {
+                // Aiming at the head itself keeps the snake in place
+                target.set(snake.snakeHead.pos.x, snake.snakeHead.pos.y, 0);
+            }
+            snake.update(target, STEP_MS);
+            clampToMap(snake);
+        }
+
+        // Snakes are resolved in roster order, so a contested food goes to the same snake everywhere
+        for (Food food : foods) {
+            for (Snake snake : snakes) {
+                if (food.isEat) {
+                    break;
+                }
+                snake.checkFoodCollision(food);
+                if (snake.attractFood && !food.isEat
+                        && snake.snakeHead.attractFoodDetection(food.collisionShape)) {
+                    food.getAttracted(snake.pos);
+                }
+            }
+            food.update();
+        }
+
+        for (PowerUp powerUp : powerUps) {
+            for (Snake snake : snakes) {
+                if (snake.checkFoodCollision(powerUp)) {
+                    if ("speed".equals(powerUp.getType())) {
+                        snake.enableSpeedBoost();
+                    } else if ("magnet".equals(powerUp.getType())) {
+                        snake.enableMagnetBoost();
+                    }
+                    break;
+                }
+            }
+        }
+        steps++;
+    }
+
+    private void clampToMap(Snake snake) {
+        Vector2 head = snake.snakeHead.pos;
+        float x = Math.max(0, Math.min(head.x, mapWidth));
+        float y = Math.max(0, Math.min(head.y, mapHeight));
+        if (x != head.x || y != head.y) {
+            head.set(x, y);
+            snake.snakeHead.collisionShape.setPosition(x, y);
+            snake.snakeHead.magnetFoodShape.setPosition(x, y);
+        }
+    }
+
+    /**
+     * Index of the first player in roster order that reached the winning score, or -1
+     */
+    public int getWinner(int winningScore) {
+        for (int i = 0; i < snakes.size(); i++) {
+            if (snakes.get(i).score >= winningScore) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checksum of the whole simulation state, equal on all clients while they are in sync
+     */
+    public long checksum() {
+        CRC32 crc = new CRC32();
+        for (Snake snake : snakes) {
+            for (BodyPart part : snake.body) {
+                update(crc, Float.floatToIntBits(part.pos.x));
+                update(crc, Float.floatToIntBits(part.pos.y));
+            }
+            update(crc, Float.floatToIntBits(snake.snakeHead.vel.x));
+            update(crc, Float.floatToIntBits(snake.snakeHead.vel.y));
+            update(crc, snake.score);
+        }
+        for (Food food : foods) {
+            update(crc, Float.floatToIntBits(food.pos.x));
+            update(crc, Float.floatToIntBits(food.pos.y));
+            update(crc, food.isEat ? 1 : 0);
+        }
+        for (PowerUp powerUp : powerUps) {
+            update(crc, powerUp.isEat ? 1 : 0);
+        }
+        return crc.getValue();
+    }
+
+    private static void update(CRC32 crc, int value) {
+        crc.update(value >>> 24);
+        crc.update(value >>> 16);
+        crc.update(value >>> 8);
+        crc.update(value);
+    }
+
+    public List<Snake> getSnakes() {
+        return snakes;
+    }
+
+    public List<Food> getFoods() {
+        return foods;
+    }
+
+    public List<PowerUp> getPowerUps() {
+        return powerUps;
+    }
+
+    public long getSteps() {
+        return steps;
+    }
+}
@@ -30,3 +30,218 @@ data class Food (
 ) TABLESPACE pg_default;
 *
 * */
+
+
+/** DB server-side functions in Supabase **/
+/*
+-- Who ate a food, when the winning claim arrived, and the rewound time it was judged at
+ALTER TABLE public."Food" ADD COLUMN eaten_by uuid null;
+ALTER TABLE public."Food" ADD COLUMN eaten_at timestamp with time zone null;
+ALTER TABLE public."Food" ADD COLUMN eaten_view_at timestamp with time zone null;
+
+-- Head position of a player at a past time, interpolated between the PlayerHeadHistory entries
+-- around it. Falls back to the nearest entry at the ends of the history, and to the current
+-- position before the player has moved.
+CREATE OR REPLACE FUNCTION head_position_at(
+  p_state_id UUID,            -- The PlayerGameState row of the player
+  p_at TIMESTAMPTZ            -- The time to rewind to
+) RETURNS TABLE (
+  x_pos DOUBLE PRECISION,
+  y_pos DOUBLE PRECISION
+) LANGUAGE plpgsql STABLE AS $$
+DECLARE
+  v_before RECORD;
+  v_after RECORD;
+  v_has_before BOOLEAN;
+  v_has_after BOOLEAN;
+  v_f DOUBLE PRECISION;
+BEGIN
+  SELECT h.recorded_at, h.x_pos, h.y_pos INTO v_before
+  FROM "PlayerHeadHistory" h
+  WHERE h.state_id = p_state_id AND h.recorded_at <= p_at
+  ORDER BY h.recorded_at DESC
+  LIMIT 1;
+  v_has_before := FOUND;
+
+  SELECT h.recorded_at, h.x_pos, h.y_pos INTO v_after
+  FROM "PlayerHeadHistory" h
+  WHERE h.state_id = p_state_id AND h.recorded_at > p_at
+  ORDER BY h.recorded_at
+  LIMIT 1;
+  v_has_after := FOUND;
+
+  IF v_has_before AND v_has_after THEN
+    v_f := extract(epoch from p_at - v_before.recorded_at)
+         / greatest(extract(epoch from v_after.recorded_at - v_before.recorded_at), 0.001);
+    RETURN QUERY SELECT v_before.x_pos + (v_after.x_pos - v_before.x_pos) * v_f,
+                        v_before.y_pos + (v_after.y_pos - v_before.y_pos) * v_f;
+  ELSIF v_has_before THEN
+    RETURN QUERY SELECT v_before.x_pos, v_before.y_pos;
+  ELSIF v_has_after THEN
+    RETURN QUERY SELECT v_after.x_pos, v_after.y_pos;
+  ELSE
+    RETURN QUERY SELECT pgs.x_pos, pgs.y_pos FROM "PlayerGameState" pgs WHERE pgs.id = p_state_id;
+  END IF;
+END;
+$$;
+
+-- Function to claim a food with lag compensation
+-- The client reports where its head was when it saw the pickup, and that position must touch the
+-- food. The server's own head lags the client's prediction by the inputs still in flight, so it is
+-- only used to bound the report: the reported head must be within the distance the snake can cover
+-- in c_max_lead_ms of the server's head at the view time, or of its head now. The view time is
+-- rewound by p_view_age_ms but never more than 250 ms, so a high ping cannot reach further back.
+-- Contested food goes to the claim with the earliest view time, ties to the lower player ID.
+-- A later-arriving claim can overturn a decision for as long as the rewind window lasts,
+-- so the outcome does not depend on which request reached the server first.
+CREATE OR REPLACE FUNCTION claim_food(
+  p_player_id UUID,           -- The ID of the claiming player
+  p_session_id UUID,          -- The ID of the game session
+  p_food_id UUID,             -- The ID of the food
+  p_view_age_ms INT,          -- How long before arrival the client saw the pickup, uplink latency included
+  p_head_x DOUBLE PRECISION,  -- The client's head position when it saw the pickup
+  p_head_y DOUBLE PRECISION
+) RETURNS TABLE (
+  success BOOLEAN,            -- Whether the food was awarded to the player
+  message TEXT,               -- Message explaining the result
+  new_score BIGINT            -- The player's score after the claim
+) LANGUAGE plpgsql SECURITY DEFINER AS $$
+DECLARE
+  c_max_rewind_ms CONSTANT INT := 250;
+  -- Food radius 24 plus head radius 15, with slack for the 8 unit movement steps
+  c_pickup_radius CONSTANT DOUBLE PRECISION := 48;
+  -- Fastest the snake moves, with a speed boost, in units per second
+  c_max_speed CONSTANT DOUBLE PRECISION := 150;
+  -- Longest the client's head may run ahead of the server's: one 100 ms input interval plus
+  -- the 250 ms of uplink the rewind covers, and some slack
+  c_max_lead_ms CONSTANT INT := 400;
+  -- Inputs move the server's head one axis at a time in steps of 8, the client moves diagonally
+  c_step_slack CONSTANT DOUBLE PRECISION := 16;
+  v_now TIMESTAMPTZ := clock_timestamp();
+  v_view_at TIMESTAMPTZ;
+  v_state_id UUID;
+  v_score BIGINT;
+  v_food RECORD;
+  v_head RECORD;
+  v_current RECORD;
+BEGIN
+  v_view_at := v_now - make_interval(secs => least(greatest(p_view_age_ms, 0), c_max_rewind_ms) / 1000.0);
+
+  SELECT pgs.id, pgs.score INTO v_state_id, v_score
+  FROM "PlayerGameState" pgs
+  WHERE pgs.player_id = p_player_id AND pgs.session_id = p_session_id;
+
+  IF v_state_id IS NULL THEN
+    RETURN QUERY SELECT FALSE AS success, 'Player is not in this session'::TEXT AS message, NULL::BIGINT AS new_score;
+    RETURN;
+  END IF;
+
+  -- Lock the food so concurrent claims for it are judged one after the other
+  SELECT f.x_pos, f.y_pos, f.was_eaten, f.eaten_by, f.eaten_at, f.eaten_view_at INTO v_food
+  FROM "Food" f
+  WHERE f.id = p_food_id AND f.session_id = p_session_id
+  FOR UPDATE;
+
+  IF NOT FOUND THEN
+    RETURN QUERY SELECT FALSE AS success, 'Food does not exist'::TEXT AS message, v_score AS new_score;
+    RETURN;
+  END IF;
+
+  IF sqrt(power(p_head_x - v_food.x_pos, 2) + power(p_head_y - v_food.y_pos, 2)) > c_pickup_radius THEN
+    RETURN QUERY SELECT FALSE AS success, 'Too far from the food'::TEXT AS message, v_score AS new_score;
+    RETURN;
+  END IF;
+
+  -- The reported head must be reachable from where the server has the head
+  SELECT * INTO v_head FROM head_position_at(v_state_id, v_view_at);
+  SELECT pgs.x_pos, pgs.y_pos INTO v_current FROM "PlayerGameState" pgs WHERE pgs.id = v_state_id;
+  IF least(
+       sqrt(power(p_head_x - v_head.x_pos, 2) + power(p_head_y - v_head.y_pos, 2)),
+       sqrt(power(p_head_x - v_current.x_pos, 2) + power(p_head_y - v_current.y_pos, 2))
+     ) > c_max_speed * c_max_lead_ms / 1000.0 + c_step_slack THEN
+    RETURN QUERY SELECT FALSE AS success, 'Reported position is out of reach'::TEXT AS message, v_score AS new_score;
+    RETURN;
+  END IF;
+
+  IF v_food.was_eaten THEN
+    -- Decisions older than the rewind window, or made before lag compensation, are final
+    IF v_food.eaten_at IS NULL
+       OR v_food.eaten_by = p_player_id
+       OR v_food.eaten_at < v_now - make_interval(secs => c_max_rewind_ms / 1000.0)
+       OR (v_food.eaten_view_at, v_food.eaten_by) <= (v_view_at, p_player_id) THEN
+      RETURN QUERY SELECT FALSE AS success, 'Food was already eaten'::TEXT AS message, v_score AS new_score;
+      RETURN;
+    END IF;
+
+    -- This claim saw the pickup first, take the food back from the previous winner
+    UPDATE "PlayerGameState"
+    SET score = greatest(score - 1, 0)
+    WHERE player_id = v_food.eaten_by AND session_id = p_session_id;
+  END IF;
+
+  UPDATE "Food"
+  SET was_eaten = TRUE, eaten_by = p_player_id, eaten_at = v_now, eaten_view_at = v_view_at
+  WHERE id = p_food_id;
+
+  UPDATE "PlayerGameState"
+  SET score = score + 1
+  WHERE id = v_state_id
+  RETURNING score INTO v_score;
+
+  RETURN QUERY SELECT TRUE AS success, 'Food claimed'::TEXT AS message, v_score AS new_score;
+END;
+$$;
+
+-- Benchmark of the head history cost per tick, on a temporary copy of PlayerHeadHistory.
+-- One tick records a head position for every player; a lookup is the rewind done by one claim.
+-- Run it at the player counts of interest, each in its own transaction:
+--   SELECT * FROM bench_head_history(100);
+--   SELECT * FROM bench_head_history(1000);
+--   SELECT * FROM bench_head_history(10000);
+CREATE OR REPLACE FUNCTION bench_head_history(
+  p_players INT DEFAULT 1000, -- Number of simulated players
+  p_ticks INT DEFAULT 64      -- Number of ticks, at least 32 so every slot of the ring is written
+) RETURNS TABLE (
+  players INT,
+  ms_per_tick DOUBLE PRECISION,
+  ms_per_lookup DOUBLE PRECISION,
+  bytes_total BIGINT,
+  bytes_per_player BIGINT
+) LANGUAGE plpgsql AS $$
+DECLARE
+  v_ids UUID[];
+  v_start TIMESTAMPTZ;
+  v_tick_ms DOUBLE PRECISION;
+  v_lookup_ms DOUBLE PRECISION;
+  v_i INT;
+  v_row RECORD;
+BEGIN
+  CREATE TEMP TABLE bench_history (LIKE "PlayerHeadHistory" INCLUDING INDEXES) ON COMMIT DROP;
+  SELECT array_agg(gen_random_uuid()) INTO v_ids FROM generate_series(1, p_players);
+
+  v_start := clock_timestamp();
+  FOR v_i IN 1..p_ticks LOOP
+    INSERT INTO bench_history (state_id, slot, recorded_at, x_pos, y_pos)
+    SELECT id, (v_i % 32)::SMALLINT, clock_timestamp(), random() * 1080, random() * 1080
+    FROM unnest(v_ids) AS id
+    ON CONFLICT (state_id, slot) DO UPDATE
+    SET recorded_at = EXCLUDED.recorded_at, x_pos = EXCLUDED.x_pos, y_pos = EXCLUDED.y_pos;
+  END LOOP;
+  v_tick_ms := extract(epoch from clock_timestamp() - v_start) * 1000 / p_ticks;
+
+  v_start := clock_timestamp();
+  FOR v_i IN 1..p_players LOOP
+    SELECT h.x_pos, h.y_pos INTO v_row
+    FROM bench_history h
+    WHERE h.state_id = v_ids[v_i] AND h.recorded_at <= clock_timestamp() - interval '100 milliseconds'
+    ORDER BY h.recorded_at DESC
+    LIMIT 1;
+  END LOOP;
+  v_lookup_ms := extract(epoch from clock_timestamp() - v_start) * 1000 / p_players;
+
+  RETURN QUERY SELECT p_players, v_tick_ms, v_lookup_ms,
+    pg_total_relation_size('bench_history'),
+    pg_total_relation_size('bench_history') / p_players;
+END;
+$$;
+* */
@@ -4,10 +4,14 @@ import kotlinx.datetime.Instant
 import kotlinx.serialization.Serializable
 
 /**
- * lobby_id is unique, creating a one-to-one from GameSession to Lobby.
+ * A lobby has one GameSession per room: large lobbies are split into room_count rooms of at most
+ * room_size players, each its own session, so realtime traffic per session stays bounded.
+ * (lobby_id, room_index) is unique.
  * winning_score is used to determine end state.
  * map_length and map_height is used to create a deterministic map boundary.
  * the GameSession table uses the realtime feature to signal when the game is over.
+ * netcode is "stream" for server-authoritative matches, "lockstep" for matches where clients
+ * exchange only inputs and each simulate the match.
  * */
 @Serializable
 data class GameSession(
@@ -17,7 +21,10 @@ data class GameSession(
     val map_length: Int,
     val map_height: Int,
     val started_at: Instant,
-    val ended_at: Instant? = null
+    val ended_at: Instant? = null,
+    val netcode: String = "stream",
+    val room_index: Int = 0,
+    val room_count: Int = 1
 )
 
 
@@ -31,10 +38,22 @@ create table public."GameSession" (
   map_height bigint null default '1080'::bigint,
   started_at timestamp with time zone not null default now(),
   ended_at timestamp with time zone null,
+  netcode text not null default 'stream'::text,
+  room_index integer not null default 0,
+  room_count integer not null default 1,
   constraint GameSession_pkey primary key (id),
-  constraint GameSession_lobby_id_key unique (lobby_id),
+  constraint GameSession_lobby_id_room_index_key unique (lobby_id, room_index),
   constraint GameSession_lobby_id_fkey foreign KEY (lobby_id) references "Lobby" (id) on delete CASCADE
 ) TABLESPACE pg_default;
+
+-- Rooms: one session per room of a lobby
+alter table public."GameSession" add column room_index integer not null default 0;
+alter table public."GameSession" add column room_count integer not null default 1;
+alter table public."GameSession" drop constraint GameSession_lobby_id_key;
+alter table public."GameSession" add constraint GameSession_lobby_id_room_index_key unique (lobby_id, room_index);
+
+-- Realtime: the lobby screen waits for the insert that starts the match, players for the update that ends it
+alter publication supabase_realtime add table public."GameSession";
 * */
 
 
@@ -0,0 +1,70 @@
+package gr17.noodleio.game.models
+
+import kotlinx.serialization.Serializable
+
+/**
+ * Everything a client needs to enter a running match, fetched in one round trip.
+ * seq is the SessionSnapshot sequence number at the time of the read, realtime snapshots
+ * with a seq at or below it are already contained and are dropped by the client.
+ * */
+@Serializable
+data class GameSessionSnapshot(
+    val session: GameSession,
+    val players: List<PlayerGameState> = emptyList(),
+    val food: List<Food> = emptyList(),
+    val seq: Long = 0
+)
+
+/** DB server-side functions in Supabase **/
+/*
+-- Function to read a whole game session in one consistent read
+-- Returns the session config, the states of players with a recent heartbeat, uneaten food and the
+-- current snapshot seq.
+-- Objects are built field by field so they match the client models exactly.
+CREATE OR REPLACE FUNCTION get_session_snapshot(
+  p_session_id UUID           -- The ID of the game session
+) RETURNS JSONB
+LANGUAGE sql STABLE SECURITY DEFINER AS $$
+  SELECT jsonb_build_object(
+    'session', jsonb_build_object(
+      'id', gs.id,
+      'lobby_id', gs.lobby_id,
+      'winning_score', gs.winning_score,
+      'map_length', gs.map_length,
+      'map_height', gs.map_height,
+      'started_at', gs.started_at,
+      'ended_at', gs.ended_at,
+      'netcode', gs.netcode,
+      'room_index', gs.room_index,
+      'room_count', gs.room_count
+    ),
+    'players', coalesce((
+      SELECT jsonb_agg(jsonb_build_object(
+        'id', pgs.id,
+        'session_id', pgs.session_id,
+        'player_id', pgs.player_id,
+        'x_pos', pgs.x_pos,
+        'y_pos', pgs.y_pos,
+        'score', pgs.score
+      ))
+      FROM "PlayerGameState" pgs
+      -- Same heartbeat cutoff as publish_session_snapshot
+      WHERE pgs.session_id = gs.id AND pgs.last_seen_at >= now() - interval '45 seconds'
+    ), '[]'::jsonb),
+    'food', coalesce((
+      SELECT jsonb_agg(jsonb_build_object(
+        'id', f.id,
+        'session_id', f.session_id,
+        'x_pos', f.x_pos,
+        'y_pos', f.y_pos,
+        'was_eaten', f.was_eaten
+      ))
+      FROM "Food" f
+      WHERE f.session_id = gs.id AND NOT f.was_eaten
+    ), '[]'::jsonb),
+    'seq', coalesce((SELECT s.seq FROM "SessionSnapshot" s WHERE s.session_id = gs.id), 0)
+  )
+  FROM "GameSession" gs
+  WHERE gs.id = p_session_id;
+$$;
+* */
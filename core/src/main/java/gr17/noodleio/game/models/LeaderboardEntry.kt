@@ -24,4 +24,42 @@ create table public."Leaderboard" (
   constraint Leaderboard_pkey primary key (id),
   constraint Leaderboard_player_name_key unique (player_name)
 ) TABLESPACE pg_default;
+
+-- The leaderboard screen follows inserts and updates. With the full old row in update events it can
+-- move an entry in its ranked list without knowing where the entry was before.
+alter publication supabase_realtime add table public."Leaderboard";
+alter table public."Leaderboard" replica identity full;
+* */
+
+/** DB server-side functions in Supabase **/
+/*
+-- Function to submit a finished match to the leaderboard
+-- The duration is taken from the session's own timestamps, so client clocks do not matter:
+-- started_at to ended_at, or to now if the end was not recorded yet.
+-- Fails when the session is gone instead of inserting an entry without a time, which would be
+-- ranked last and, being kept on conflict, never corrected.
+-- Safe to call more than once for the same match: player_name is unique, and like the plain
+-- insert before it an existing entry is kept as it is.
+CREATE OR REPLACE FUNCTION submit_leaderboard_entry(
+  p_player_name VARCHAR,  -- The name of the player
+  p_score BIGINT,         -- The final score
+  p_session_id UUID       -- The finished game session, for its duration
+) RETURNS VOID LANGUAGE plpgsql SECURITY DEFINER AS $$
+DECLARE
+  v_duration DOUBLE PRECISION;
+BEGIN
+  SELECT extract(epoch from coalesce(gs.ended_at, now()) - gs.started_at)
+  INTO v_duration
+  FROM "GameSession" gs
+  WHERE gs.id = p_session_id;
+
+  IF v_duration IS NULL THEN
+    RAISE EXCEPTION 'No game session with ID %', p_session_id USING ERRCODE = 'no_data_found';
+  END IF;
+
+  INSERT INTO "Leaderboard" (player_name, score, duration_seconds)
+  VALUES (p_player_name, p_score, v_duration)
+  ON CONFLICT (player_name) DO NOTHING;
+END;
+$$;
 * */
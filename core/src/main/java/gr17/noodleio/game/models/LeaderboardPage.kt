@@ -0,0 +1,90 @@
+package gr17.noodleio.game.models
+
+/**
+ * Position in the leaderboard ordering (duration_seconds, missing times last, then id),
+ * a page starts right after it, or with before ends right before it
+ * */
+data class LeaderboardCursor(
+    val duration_seconds: Double?,
+    val id: String
+) : Comparable<LeaderboardCursor> {
+
+    override fun compareTo(other: LeaderboardCursor): Int {
+        val byDuration = (duration_seconds ?: Double.POSITIVE_INFINITY)
+            .compareTo(other.duration_seconds ?: Double.POSITIVE_INFINITY)
+        // Lowercase UUID strings sort like the UUIDs themselves
+        return if (byDuration != 0) byDuration else id.compareTo(other.id)
+    }
+
+    companion object {
+        @JvmStatic
+        fun after(entry: LeaderboardEntry): LeaderboardCursor = LeaderboardCursor(entry.duration_seconds, entry.id)
+
+        /**
+         * Compares entries by their place in the leaderboard, the order of leaderboard_page
+         */
+        @JvmField
+        val ORDER: Comparator<LeaderboardEntry> = Comparator { a, b -> after(a).compareTo(after(b)) }
+    }
+}
+
+/**
+ * One page of the leaderboard, entries always in leaderboard order.
+ * next is where the following page starts in the direction the page was read, null when there
+ * is none: after the last entry for a forward page, before the first entry for a backward one.
+ * */
+data class LeaderboardPage(
+    val entries: List<LeaderboardEntry>,
+    val next: LeaderboardCursor?
+)
+
+/** Leaderboard ordering index in Supabase **/
+/*
+-- Matches the ORDER BY of leaderboard_page, a page is one index range scan however deep it is
+create index Leaderboard_rank_idx on public."Leaderboard"
+  (coalesce(duration_seconds, 'Infinity'::double precision), id);
+* */
+
+/** DB server-side functions in Supabase **/
+/*
+-- Function to read one page of the leaderboard with keyset pagination
+-- Fastest time first, entries without a time last, id breaks ties so the order is total.
+-- The page starts after the given cursor instead of an OFFSET, so deep pages cost the same
+-- as the first one and entries added meanwhile do not shift later pages.
+-- With p_before the page is the entries right before the cursor instead, for scrolling back up
+-- after the rows above were dropped. They are read backwards on the same index and returned in
+-- leaderboard order.
+CREATE OR REPLACE FUNCTION leaderboard_page(
+  p_after_duration DOUBLE PRECISION DEFAULT NULL, -- duration_seconds of the cursor entry
+  p_after_id UUID DEFAULT NULL,                   -- id of the cursor entry, NULL for the first page
+  p_limit INT DEFAULT 50,                         -- Page size, at most 200
+  p_before BOOLEAN DEFAULT FALSE                  -- Read the page before the cursor instead of after it
+) RETURNS SETOF "Leaderboard" LANGUAGE plpgsql STABLE SECURITY DEFINER AS $$
+DECLARE
+  v_limit INT := least(greatest(p_limit, 1), 200);
+BEGIN
+  IF p_before AND p_after_id IS NOT NULL THEN
+    RETURN QUERY
+    SELECT page.* FROM (
+      SELECT *
+      FROM "Leaderboard" l
+      WHERE (coalesce(l.duration_seconds, 'Infinity'), l.id)
+            < (coalesce(p_after_duration, 'Infinity'), p_after_id)
+      ORDER BY coalesce(l.duration_seconds, 'Infinity') DESC, l.id DESC
+      LIMIT v_limit
+    ) page
+    ORDER BY coalesce(page.duration_seconds, 'Infinity'), page.id;
+    RETURN;
+  END IF;
+
+  RETURN QUERY
+  SELECT *
+  FROM "Leaderboard" l
+  WHERE p_after_id IS NULL
+     OR (coalesce(l.duration_seconds, 'Infinity'), l.id)
+        > (coalesce(p_after_duration, 'Infinity'), p_after_id)
+  ORDER BY coalesce(l.duration_seconds, 'Infinity'), l.id
+  LIMIT v_limit;
+END;
+$$;
+* */
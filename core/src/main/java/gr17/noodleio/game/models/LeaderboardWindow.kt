@@ -0,0 +1,354 @@
+package gr17.noodleio.game.models
+
+import kotlin.random.Random
+
+/**
+ * The loaded part of the leaderboard screen: consecutive entries in leaderboard order, the number
+ * of entries ranked above them, and whether they reach the last entry of the leaderboard.
+ * Rows are kept in an order statistic tree, so placing a changed entry, reading the row at an
+ * index and finding an entry's index are all O(log n) however large the window is.
+ * Realtime changes that arrive while a page is being read are remembered, the page may hold older
+ * copies of those entries, which are dropped for the changed ones placed by the same ordered insert.
+ * @param maxRows Most rows kept, the rows farthest from the view are dropped beyond it
+ */
+class LeaderboardWindow(private val maxRows: Int) {
+
+    private val rows = OrderStatisticTree(LeaderboardCursor.ORDER)
+    private val rowsById = HashMap<String, LeaderboardEntry>()
+    // Newest change of each entry received while a page is being read
+    private val changesDuringFetch = LinkedHashMap<String, LeaderboardEntry>()
+    private var fetching = false
+
+    // Entries ranked above the first row
+    var rankOffset = 0
+        private set
+
+    // The window reaches the last entry of the leaderboard
+    var endReached = false
+        private set
+
+    val size: Int
+        get() = rows.size
+
+    fun isEmpty(): Boolean = rows.size == 0
+
+    operator fun get(index: Int): LeaderboardEntry = rows[index]
+
+    /**
+     * Row index of a loaded entry
+     * @return The index, or -1 if the entry is not in the window
+     */
+    fun indexOf(id: String): Int {
+        val entry = rowsById[id] ?: return -1
+        return rows.indexOf(entry)
+    }
+
+    /**
+     * Start remembering changes, a page request was sent
+     */
+    fun beginFetch() {
+        fetching = true
+        changesDuringFetch.clear()
+    }
+
+    /**
+     * The page request failed, nothing is waiting for the changes any more
+     */
+    fun cancelFetch() {
+        fetching = false
+        changesDuringFetch.clear()
+    }
+
+    /**
+     * Replace the window with the first page
+     */
+    fun showTop(page: LeaderboardPage) {
+        rows.clear()
+        rowsById.clear()
+        rankOffset = 0
+        endReached = page.next == null
+        addPage(page.entries, null, if (endReached) null else page.entries.lastOrNull())
+        while (rows.size > maxRows) {
+            removeAt(rows.size - 1)
+            endReached = false
+        }
+    }
+
+    /**
+     * Add the page after the window, dropping rows from the top once the window is full
+     */
+    fun append(page: LeaderboardPage) {
+        endReached = page.next == null
+        val from = if (rankOffset > 0 && rows.size > 0) rows[0] else null
+        addPage(page.entries, from, if (endReached) null else page.entries.lastOrNull())
+        // A row dropped above the window is counted in the offset instead
+        while (rows.size > maxRows) {
+            removeAt(0)
+            rankOffset++
+        }
+    }
+
+    /**
+     * Add the page before the window, dropping rows from the bottom once the window is full
+     */
+    fun prepend(page: LeaderboardPage) {
+        val oldFirst = if (rows.size > 0) rows[0] else null
+        val reachedTop = page.next == null
+        addPage(page.entries, if (reachedTop) null else page.entries.firstOrNull(), oldFirst, untilExclusive = true)
+        // Reaching the top also corrects a count that drifted through missed events
+        val loadedAbove = if (oldFirst == null) rows.size else rows.indexOf(oldFirst)
+        rankOffset = if (reachedTop) 0 else maxOf(0, rankOffset - loadedAbove)
+        while (rows.size > maxRows) {
+            removeAt(rows.size - 1)
+            endReached = false
+        }
+    }
+
+    /**
+     * Move a changed entry to its new place, trimming the window from the end farthest from the view
+     * @param previous The entry before an update, null for a new entry or when it is not known
+     * @param inserted Whether the entry is new to the leaderboard
+     * @param viewIndex Row index at the top of the view
+     * @return Whether any row or the rank offset changed
+     */
+    fun merge(entry: LeaderboardEntry, previous: LeaderboardEntry?, inserted: Boolean, viewIndex: Int): Boolean {
+        if (fetching) {
+            changesDuringFetch.remove(entry.id)
+            changesDuringFetch[entry.id] = entry
+        }
+
+        var changed = false
+        val stored = rowsById[entry.id]
+        val wasAbove = when {
+            stored != null -> {
+                remove(stored)
+                changed = true
+                false
+            }
+            inserted -> false
+            previous != null -> isAboveWindow(previous)
+            // Update without the old row: assume it stayed on its side, a guess would count it twice
+            else -> isAboveWindow(entry)
+        }
+
+        val isAbove = isAboveWindow(entry)
+        // Past the last row is only in the window when the window ends the leaderboard
+        if (!isAbove && (endReached || (rows.size > 0 && LeaderboardCursor.ORDER.compare(entry, rows[rows.size - 1]) < 0))) {
+            add(entry)
+            changed = true
+        }
+
+        if (wasAbove != isAbove) {
+            rankOffset = maxOf(0, rankOffset + if (isAbove) 1 else -1)
+            changed = true
+        }
+
+        while (rows.size > maxRows) {
+            if (viewIndex > rows.size - 1 - viewIndex) {
+                removeAt(0)
+                rankOffset++
+            } else {
+                removeAt(rows.size - 1)
+                endReached = false
+            }
+        }
+        return changed
+    }
+
+    /**
+     * Ranked before the first loaded row while rows above the window are not loaded
+     */
+    fun isAboveWindow(entry: LeaderboardEntry): Boolean =
+        rankOffset > 0 && rows.size > 0 && LeaderboardCursor.ORDER.compare(entry, rows[0]) < 0
+
+    /**
+     * Insert the rows of a page and the changes received while it was read, each at its place.
+     * Only entries between from and until are inserted, a null bound is open. The page's copy of
+     * an entry that changed meanwhile may be older than the change, so the change is used instead.
+     */
+    private fun addPage(
+        entries: List<LeaderboardEntry>,
+        from: LeaderboardEntry?,
+        until: LeaderboardEntry?,
+        untilExclusive: Boolean = false
+    ) {
+        fun inRange(entry: LeaderboardEntry): Boolean {
+            if (from != null && LeaderboardCursor.ORDER.compare(entry, from) < 0) return false
+            if (until == null) return true
+            val byUntil = LeaderboardCursor.ORDER.compare(entry, until)
+            return if (untilExclusive) byUntil < 0 else byUntil <= 0
+        }
+
+        for (entry in entries) {
+            if (!changesDuringFetch.containsKey(entry.id) && !rowsById.containsKey(entry.id) && inRange(entry)) {
+                add(entry)
+            }
+        }
+        for (entry in changesDuringFetch.values) {
+            if (!rowsById.containsKey(entry.id) && inRange(entry)) {
+                add(entry)
+            }
+        }
+        fetching = false
+        changesDuringFetch.clear()
+    }
+
+    private fun add(entry: LeaderboardEntry) {
+        rows.add(entry)
+        rowsById[entry.id] = entry
+    }
+
+    private fun remove(entry: LeaderboardEntry) {
+        rows.remove(entry)
+        rowsById.remove(entry.id)
+    }
+
+    private fun removeAt(index: Int) {
+        rowsById.remove(rows.removeAt(index).id)
+    }
+}
+
+/**
+ * Sorted list with O(log n) insert, remove, access by index and index lookup: a treap whose
+ * nodes count their subtree. Values the comparator finds equal are kept in insertion order.
+ */
+internal class OrderStatisticTree<T>(private val comparator: Comparator<in T>) {
+
+    private class Node<T>(val value: T, val priority: Int) {
+        var left: Node<T>? = null
+        var right: Node<T>? = null
+        var size = 1
+    }
+
+    private var root: Node<T>? = null
+
+    val size: Int
+        get() = sizeOf(root)
+
+    /**
+     * Insert a value after the values ordered before or equal to it
+     * @return Its index
+     */
+    fun add(value: T): Int {
+        val index = upperBound(value)
+        val (before, after) = split(root, index)
+        root = join(join(before, Node(value, Random.nextInt())), after)
+        return index
+    }
+
+    /**
+     * Remove the first value equal to the given one
+     * @return The index it had, or -1 if there was none
+     */
+    fun remove(value: T): Int {
+        val index = indexOf(value)
+        if (index >= 0) {
+            removeAt(index)
+        }
+        return index
+    }
+
+    fun removeAt(index: Int): T {
+        if (index !in 0 until size) throw IndexOutOfBoundsException("Index $index, size $size")
+        val (before, rest) = split(root, index)
+        val (removed, after) = split(rest, 1)
+        root = join(before, after)
+        return removed!!.value
+    }
+
+    operator fun get(index: Int): T {
+        if (index !in 0 until size) throw IndexOutOfBoundsException("Index $index, size $size")
+        var node = root!!
+        var i = index
+        while (true) {
+            val leftSize = sizeOf(node.left)
+            node = when {
+                i < leftSize -> node.left!!
+                i == leftSize -> return node.value
+                else -> {
+                    i -= leftSize + 1
+                    node.right!!
+                }
+            }
+        }
+    }
+
+    /**
+     * Index of the first value equal to the given one, -1 if there is none
+     */
+    fun indexOf(value: T): Int {
+        val index = lowerBound(value)
+        return if (index < size && comparator.compare(get(index), value) == 0) index else -1
+    }
+
+    fun clear() {
+        root = null
+    }
+
+    // Number of values ordered before the given one
+    private fun lowerBound(value: T): Int {
+        var node = root
+        var count = 0
+        while (node != null) {
+            if (comparator.compare(value, node.value) <= 0) {
+                node = node.left
+            } else {
+                count += sizeOf(node.left) + 1
+                node = node.right
+            }
+        }
+        return count
+    }
+
+    // Number of values ordered before or equal to the given one
+    private fun upperBound(value: T): Int {
+        var node = root
+        var count = 0
+        while (node != null) {
+            if (comparator.compare(value, node.value) < 0) {
+                node = node.left
+            } else {
+                count += sizeOf(node.left) + 1
+                node = node.right
+            }
+        }
+        return count
+    }
+
+    private fun sizeOf(node: Node<T>?): Int = node?.size ?: 0
+
+    private fun resize(node: Node<T>) {
+        node.size = 1 + sizeOf(node.left) + sizeOf(node.right)
+    }
+
+    // The first count values, and the rest
+    private fun split(node: Node<T>?, count: Int): Pair<Node<T>?, Node<T>?> {
+        if (node == null) return null to null
+        return if (sizeOf(node.left) >= count) {
+            val (before, after) = split(node.left, count)
+            node.left = after
+            resize(node)
+            before to node
+        } else {
+            val (before, after) = split(node.right, count - sizeOf(node.left) - 1)
+            node.right = before
+            resize(node)
+            node to after
+        }
+    }
+
+    // All values of first, then all values of second
+    private fun join(first: Node<T>?, second: Node<T>?): Node<T>? {
+        if (first == null) return second
+        if (second == null) return first
+        return if (first.priority > second.priority) {
+            first.right = join(first.right, second)
+            resize(first)
+            first
+        } else {
+            second.left = join(first, second.left)
+            resize(second)
+            second
+        }
+    }
+}
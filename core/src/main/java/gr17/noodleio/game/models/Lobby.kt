@@ -95,6 +95,164 @@ BEGIN
         FALSE AS success;
   END;
 END;
+$$;
+
+-- Index for the sweeper's scan over old lobbies
+create index Lobby_created_at_idx on public."Lobby" (created_at);
+
+-- Garbage collector for lobbies and players left behind by crashed or killed clients
+-- A lobby is stale when
+--   * it has not started and none of its players has polled lobby_snapshot for p_lobby_idle,
+--   * it has started and none of its sessions (one per room) is alive: each one either ended more than
+--     p_session_idle ago or none of its players has sent a heartbeat (PlayerGameState.last_seen_at,
+--     written by both the streaming and the lockstep netcode) for p_session_idle, or
+--   * it is older than p_max_age, whatever its state.
+-- Lobbies split into rooms, and lobbies whose match ended, are never deleted by the players' teardown,
+-- this is what removes them. Deleting a lobby cascades to its players, sessions, player states, food,
+-- snapshots and head history, which frees the player names.
+-- A crashed player in a lobby the others keep alive is removed on its own: a member of a waiting lobby
+-- that has not polled for p_lobby_idle, or a player of a running session without a heartbeat for
+-- p_session_idle. Its LobbyPlayer row is deleted, which frees its name and cascades to its player state.
+-- A removed owner hands the lobby to the member who joined first among those still there.
+-- Rows are removed in batches of p_batch_size, each committed on its own and locking only its own rows
+-- (SKIP LOCKED), so a sweep never waits on or blocks a live lobby for longer than one batch. Waiting
+-- matchmaking tickets older than p_ticket_ttl are removed as well. The rows reclaimed per table are
+-- written to the log. A procedure rather than a function so it can commit between batches, which also
+-- means it cannot be SECURITY DEFINER and is run by the database owner from pg_cron:
+--   DROP FUNCTION IF EXISTS sweep_stale_lobbies(INTERVAL, INTERVAL, INTERVAL, INTERVAL, INT, INT);
+--   SELECT cron.schedule('sweep-stale-lobbies', '* * * * *', $$CALL sweep_stale_lobbies()$$);
+CREATE OR REPLACE PROCEDURE sweep_stale_lobbies(
+  p_lobby_idle INTERVAL DEFAULT interval '2 minutes',
+  p_session_idle INTERVAL DEFAULT interval '2 minutes',
+  p_max_age INTERVAL DEFAULT interval '6 hours',
+  p_ticket_ttl INTERVAL DEFAULT interval '10 minutes',
+  p_batch_size INT DEFAULT 200,
+  p_max_batches INT DEFAULT 50
+) LANGUAGE plpgsql AS $$
+DECLARE
+  v_now TIMESTAMPTZ := now();
+  v_ids UUID[];
+  v_batch INT := 0;
+  v_lobbies BIGINT := 0;
+  v_players BIGINT := 0;
+  v_sessions BIGINT := 0;
+  v_states BIGINT := 0;
+  v_members BIGINT := 0;
+  v_tickets BIGINT := 0;
+  v_count BIGINT;
+BEGIN
+  -- Whole lobbies
+  LOOP
+    SELECT array_agg(l.id) INTO v_ids
+    FROM (
+      SELECT lo.id
+      FROM "Lobby" lo
+      WHERE lo.created_at < v_now - least(p_lobby_idle, p_session_idle)
+        AND (
+          lo.created_at < v_now - p_max_age
+          -- Still waiting to start, and nobody polls any more
+          OR (NOT EXISTS (SELECT 1 FROM "GameSession" gs WHERE gs.lobby_id = lo.id)
+              AND NOT EXISTS (
+                SELECT 1 FROM "LobbyPlayer" lp
+                WHERE lp.lobby_id = lo.id AND lp.last_seen_at >= v_now - p_lobby_idle))
+          -- Started, and no room is alive: every room ended a while ago or its players went silent
+          OR (EXISTS (SELECT 1 FROM "GameSession" gs WHERE gs.lobby_id = lo.id)
+              AND NOT EXISTS (
+                SELECT 1
+                FROM "GameSession" gs
+                WHERE gs.lobby_id = lo.id
+                  AND (
+                    (gs.ended_at IS NULL
+                     AND (gs.started_at >= v_now - p_session_idle
+                          OR EXISTS (
+                            SELECT 1 FROM "PlayerGameState" pgs
+                            WHERE pgs.session_id = gs.id AND pgs.last_seen_at >= v_now - p_session_idle)))
+                    OR gs.ended_at >= v_now - p_session_idle
+                  )))
+        )
+      ORDER BY lo.created_at
+      LIMIT p_batch_size
+      FOR UPDATE SKIP LOCKED
+    ) l;
+
+    EXIT WHEN v_ids IS NULL;
+
+    -- Count what the cascade is about to remove, for the report
+    SELECT count(*) INTO v_count FROM "LobbyPlayer" WHERE lobby_id = ANY (v_ids);
+    v_players := v_players + v_count;
+    SELECT count(*) INTO v_count FROM "GameSession" WHERE lobby_id = ANY (v_ids);
+    v_sessions := v_sessions + v_count;
+    SELECT count(*) INTO v_count
+    FROM "PlayerGameState" pgs JOIN "GameSession" gs ON gs.id = pgs.session_id
+    WHERE gs.lobby_id = ANY (v_ids);
+    v_states := v_states + v_count;
+
+    DELETE FROM "Lobby" WHERE id = ANY (v_ids);
+    GET DIAGNOSTICS v_count = ROW_COUNT;
+    v_lobbies := v_lobbies + v_count;
+    COMMIT;
+
+    v_batch := v_batch + 1;
+    EXIT WHEN v_batch >= p_max_batches OR array_length(v_ids, 1) < p_batch_size;
+  END LOOP;
+
+  -- Single crashed players in lobbies that stay
+  v_batch := 0;
+  LOOP
+    SELECT array_agg(m.id) INTO v_ids
+    FROM (
+      SELECT lp.id
+      FROM "LobbyPlayer" lp
+      WHERE
+        -- Waiting lobby, stopped polling
+        (lp.last_seen_at < v_now - p_lobby_idle
+         AND NOT EXISTS (SELECT 1 FROM "GameSession" gs WHERE gs.lobby_id = lp.lobby_id))
+        -- Running match, stopped sending heartbeats
+        OR EXISTS (
+          SELECT 1
+          FROM "PlayerGameState" pgs
+          JOIN "GameSession" gs ON gs.id = pgs.session_id
+          WHERE pgs.player_id = lp.id
+            AND gs.ended_at IS NULL
+            AND pgs.last_seen_at < v_now - p_session_idle)
+      LIMIT p_batch_size
+      FOR UPDATE OF lp SKIP LOCKED
+    ) m;
+
+    EXIT WHEN v_ids IS NULL;
+
+    -- The owner cannot be deleted while it owns the lobby, the lobby passes to the earliest member
+    -- still there, or to nobody if none is left and the lobby is swept whole on the next run
+    UPDATE "Lobby" lo
+    SET lobby_owner = (
+      SELECT lp.id FROM "LobbyPlayer" lp
+      WHERE lp.lobby_id = lo.id AND lp.id <> ALL (v_ids)
+      ORDER BY lp.joined_at
+      LIMIT 1)
+    WHERE lo.lobby_owner = ANY (v_ids);
+
+    SELECT count(*) INTO v_count FROM "PlayerGameState" WHERE player_id = ANY (v_ids);
+    v_states := v_states + v_count;
+
+    DELETE FROM "LobbyPlayer" WHERE id = ANY (v_ids);
+    GET DIAGNOSTICS v_count = ROW_COUNT;
+    v_members := v_members + v_count;
+    COMMIT;
+
+    v_batch := v_batch + 1;
+    EXIT WHEN v_batch >= p_max_batches OR array_length(v_ids, 1) < p_batch_size;
+  END LOOP;
+
+  DELETE FROM "MatchmakingTicket"
+  WHERE status = 'waiting' AND queued_at < v_now - p_ticket_ttl;
+  GET DIAGNOSTICS v_tickets = ROW_COUNT;
+  COMMIT;
+
+  IF v_lobbies > 0 OR v_members > 0 OR v_tickets > 0 THEN
+    RAISE LOG 'sweep_stale_lobbies: % lobbies, % players, % sessions, % player states, % single players, % tickets',
+      v_lobbies, v_players, v_sessions, v_states, v_members, v_tickets;
+  END IF;
+END;
 $$;
  */
 
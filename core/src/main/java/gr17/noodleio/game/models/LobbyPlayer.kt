@@ -27,6 +27,16 @@ create table public."LobbyPlayer" (
   constraint LobbyPlayer_player_name_key unique (player_name),
   constraint LobbyPlayer_lobby_id_fkey foreign KEY (lobby_id) references "Lobby" (id) on delete CASCADE
 ) TABLESPACE pg_default;
+
+-- Heartbeat of a player waiting in a lobby, touched by every lobby_snapshot poll.
+-- The stale lobby sweeper removes lobbies whose players all stopped polling, and a single member who
+-- stopped polling from a waiting lobby the others keep alive.
+ALTER TABLE public."LobbyPlayer" ADD COLUMN last_seen_at timestamp with time zone not null default now();
+
+-- Realtime for the lobby screen's member list. Realtime cannot filter DELETE events, so deletes
+-- carry the whole old row and the client matches its lobby_id.
+alter publication supabase_realtime add table public."LobbyPlayer";
+alter table public."LobbyPlayer" replica identity full;
 * */
 
 
@@ -34,12 +44,17 @@ create table public."LobbyPlayer" (
 /*
 -- Function to start a game session for a lobby
 -- Only the lobby owner can start a game session
+-- Lobbies with more than p_room_size players are split into rooms, one session each. Players are dealt
+-- to the rooms in join order, so room sizes differ by at most one. The returned session is the
+-- caller's own room.
 CREATE OR REPLACE FUNCTION start_game_session(
   p_player_id UUID,           -- The ID of the player trying to start the game
   p_lobby_id UUID,            -- The ID of the lobby to start a game for
   p_winning_score INT DEFAULT 50, -- Score required to win (default: 50)
   p_map_length INT DEFAULT 1080,  -- Map length (default: 1080)
-  p_map_height INT DEFAULT 1080   -- Map height (default: 1080)
+  p_map_height INT DEFAULT 1080,  -- Map height (default: 1080)
+  p_lockstep BOOLEAN DEFAULT FALSE, -- Use lockstep netcode, only honoured for 2-4 players
+  p_room_size INT DEFAULT 16      -- Most players per room
 ) RETURNS TABLE (
   session_id UUID,            -- Returns the new game session ID
   lobby_id UUID,              -- Returns the lobby ID
@@ -52,6 +67,10 @@ DECLARE
   v_existing_session UUID;
   v_mid_x DOUBLE PRECISION;
   v_mid_y DOUBLE PRECISION;
+  v_player_count INT;
+  v_room_count INT;
+  v_room_ids UUID[];
+  v_netcode TEXT := 'stream';
 BEGIN
   -- Check if the lobby exists
   IF NOT EXISTS (SELECT 1 FROM "Lobby" WHERE id = p_lobby_id) THEN
@@ -81,7 +100,8 @@ BEGIN
   -- Check if there's already an active game session for this lobby
   SELECT gs.id INTO v_existing_session
   FROM "GameSession" gs
-  WHERE gs.lobby_id = p_lobby_id AND gs.ended_at IS NULL;
+  WHERE gs.lobby_id = p_lobby_id AND gs.ended_at IS NULL
+  LIMIT 1;
 
   IF v_existing_session IS NOT NULL THEN
     RETURN QUERY SELECT
@@ -92,26 +112,45 @@ BEGIN
     RETURN;
   END IF;
 
+  -- Lockstep only pays off for small lobbies, larger ones stay server-authoritative
+  SELECT COUNT(*) INTO v_player_count FROM "LobbyPlayer" lp WHERE lp.lobby_id = p_lobby_id;
+  IF p_lockstep AND v_player_count BETWEEN 2 AND 4 THEN
+    v_netcode := 'lockstep';
+  END IF;
+
+  v_room_count := greatest(1, ceil(v_player_count::NUMERIC / greatest(p_room_size, 1))::INT);
+
   -- Calculate the middle of the map
   v_mid_x := p_map_length / 2.0;
   v_mid_y := p_map_height / 2.0;
 
   -- Start a transaction to ensure all operations complete or none do
   BEGIN
-    -- Create a new game session
-    INSERT INTO "GameSession" (
-      lobby_id,
-      winning_score,
-      map_length,
-      map_height
-    ) VALUES (
-      p_lobby_id,
-      p_winning_score,
-      p_map_length,
-      p_map_height
-    ) RETURNING id INTO v_new_session_id;
-
-    -- For each player in the lobby, create a player game state with position in the middle of the map
+    -- Create one game session per room
+    WITH rooms AS (
+      INSERT INTO "GameSession" (
+        lobby_id,
+        winning_score,
+        map_length,
+        map_height,
+        netcode,
+        room_index,
+        room_count
+      )
+      SELECT
+        p_lobby_id,
+        p_winning_score,
+        p_map_length,
+        p_map_height,
+        CASE WHEN v_room_count = 1 THEN v_netcode ELSE 'stream' END,
+        r,
+        v_room_count
+      FROM generate_series(0, v_room_count - 1) AS r
+      RETURNING id, room_index
+    )
+    SELECT array_agg(id ORDER BY room_index) INTO v_room_ids FROM rooms;
+
+    -- For each player in the lobby, create a player game state in its room, in the middle of the map
     INSERT INTO "PlayerGameState" (
       session_id,
       player_id,
@@ -120,13 +159,21 @@ BEGIN
       score
     )
     SELECT
-      v_new_session_id,
+      v_room_ids[(lp.seat % v_room_count) + 1],
       lp.id,
       v_mid_x, -- Starting x position (middle of map)
       v_mid_y, -- Starting y position (middle of map)
       0    -- Starting score
-    FROM "LobbyPlayer" lp
-    WHERE lp.lobby_id = p_lobby_id;
+    FROM (
+      SELECT p.id, (row_number() OVER (ORDER BY p.joined_at, p.id) - 1)::INT AS seat
+      FROM "LobbyPlayer" p
+      WHERE p.lobby_id = p_lobby_id
+    ) lp;
+
+    -- The caller plays in its own room
+    SELECT pgs.session_id INTO v_new_session_id
+    FROM "PlayerGameState" pgs
+    WHERE pgs.player_id = p_player_id AND pgs.session_id = ANY (v_room_ids);
 
     -- Return success with the new game session details
     RETURN QUERY SELECT
@@ -148,3 +195,85 @@ BEGIN
 END;
 $$;
 * */
+
+
+/** DB server-side functions in Supabase **/
+/*
+-- Function to join a lobby in one transaction
+-- Validates the name, resolves the lobby code (full ID or a prefix of it, like the 5 character code)
+-- and enforces max_players. The lobby row is locked while counting and inserting, so concurrent
+-- joins to the same lobby are serialized and cannot overfill it.
+CREATE OR REPLACE FUNCTION join_lobby(
+  p_player_name VARCHAR,      -- The name of the joining player
+  p_lobby_code TEXT           -- The full lobby ID or a prefix of it
+) RETURNS TABLE (
+  success BOOLEAN,            -- Indicates if the operation was successful
+  message TEXT,               -- Message explaining the result
+  player_id UUID,             -- The new player's ID
+  lobby_id UUID,              -- The full ID of the joined lobby
+  player_name VARCHAR,        -- The player's name
+  joined_at TIMESTAMPTZ       -- When the player joined
+) LANGUAGE plpgsql SECURITY DEFINER AS $$
+#variable_conflict use_column
+DECLARE
+  v_prefix TEXT := lower(replace(coalesce(p_lobby_code, ''), '-', ''));
+  v_lobby_id UUID;
+  v_max_players BIGINT;
+  v_player_count BIGINT;
+  v_player_id UUID;
+  v_joined_at TIMESTAMPTZ;
+BEGIN
+  IF p_player_name IS NULL OR length(trim(p_player_name)) = 0 THEN
+    RETURN QUERY SELECT FALSE, 'Player name is required'::TEXT, NULL::UUID, NULL::UUID, p_player_name, NULL::TIMESTAMPTZ;
+    RETURN;
+  END IF;
+
+  IF v_prefix !~ '^[0-9a-f]{1,32}$' THEN
+    RETURN QUERY SELECT FALSE, ('Invalid lobby code ''' || p_lobby_code || '''')::TEXT,
+      NULL::UUID, NULL::UUID, p_player_name, NULL::TIMESTAMPTZ;
+    RETURN;
+  END IF;
+
+  IF EXISTS (SELECT 1 FROM "LobbyPlayer" lp WHERE lp.player_name = p_player_name) THEN
+    RETURN QUERY SELECT FALSE, ('Player name ''' || p_player_name || ''' is already taken')::TEXT,
+      NULL::UUID, NULL::UUID, p_player_name, NULL::TIMESTAMPTZ;
+    RETURN;
+  END IF;
+
+  -- Every UUID with the prefix lies between the prefix padded with 0s and with fs: a primary key range scan
+  SELECT l.id, l.max_players INTO v_lobby_id, v_max_players
+  FROM "Lobby" l
+  WHERE l.id BETWEEN rpad(v_prefix, 32, '0')::UUID AND rpad(v_prefix, 32, 'f')::UUID
+  ORDER BY l.id
+  LIMIT 1
+  FOR UPDATE;
+
+  IF v_lobby_id IS NULL THEN
+    RETURN QUERY SELECT FALSE, ('No lobby found with ID starting with ''' || p_lobby_code || '''')::TEXT,
+      NULL::UUID, NULL::UUID, p_player_name, NULL::TIMESTAMPTZ;
+    RETURN;
+  END IF;
+
+  SELECT COUNT(*) INTO v_player_count FROM "LobbyPlayer" lp WHERE lp.lobby_id = v_lobby_id;
+  IF v_player_count >= v_max_players THEN
+    RETURN QUERY SELECT FALSE, ('Lobby is full (' || v_player_count || '/' || v_max_players || ')')::TEXT,
+      NULL::UUID, v_lobby_id, p_player_name, NULL::TIMESTAMPTZ;
+    RETURN;
+  END IF;
+
+  BEGIN
+    INSERT INTO "LobbyPlayer" (player_name, lobby_id)
+    VALUES (p_player_name, v_lobby_id)
+    RETURNING id, joined_at INTO v_player_id, v_joined_at;
+  EXCEPTION
+    -- Another join took the name between the check and the insert
+    WHEN unique_violation THEN
+      RETURN QUERY SELECT FALSE, ('Player name ''' || p_player_name || ''' is already taken')::TEXT,
+        NULL::UUID, v_lobby_id, p_player_name, NULL::TIMESTAMPTZ;
+      RETURN;
+  END;
+
+  RETURN QUERY SELECT TRUE, 'Joined lobby'::TEXT, v_player_id, v_lobby_id, p_player_name, v_joined_at;
+END;
+$$;
+* */
@@ -0,0 +1,132 @@
+package gr17.noodleio.game.models
+
+import kotlinx.serialization.Serializable
+
+/**
+ * Everything the lobby screen shows, fetched in one round trip.
+ * version is bumped by the server on every change to the lobby, its members or its session.
+ * When the caller already has the current version the reply is just not_modified and the version,
+ * every other field is left at its default.
+ * In a lobby split into rooms, active_session_id is the session of the polling player's room.
+ * */
+@Serializable
+data class LobbySnapshot(
+    val version: Long,
+    val not_modified: Boolean = false,
+    val lobby_id: String? = null,
+    val max_players: Int = 0,
+    val created_at: String? = null,
+    val owner_id: String? = null,
+    val members: List<LobbyPlayer> = emptyList(),
+    val active_session_id: String? = null,
+    val room_count: Int = 1
+)
+
+/** Lobby version column and triggers in Supabase **/
+/*
+alter table public."Lobby" add column version bigint not null default 0;
+
+-- Any change the lobby screen can see bumps the version of its lobby
+CREATE OR REPLACE FUNCTION bump_lobby_version() RETURNS TRIGGER
+LANGUAGE plpgsql SECURITY DEFINER AS $$
+BEGIN
+  IF TG_TABLE_NAME = 'Lobby' THEN
+    NEW.version := OLD.version + 1;
+    RETURN NEW;
+  END IF;
+
+  UPDATE "Lobby"
+  SET version = version + 1
+  WHERE id = CASE WHEN TG_OP = 'DELETE' THEN OLD.lobby_id ELSE NEW.lobby_id END;
+  RETURN NULL;
+END;
+$$;
+
+create trigger Lobby_version_bump before update of lobby_owner, max_players on public."Lobby"
+  for each row execute function bump_lobby_version();
+create trigger LobbyPlayer_version_bump after insert or delete on public."LobbyPlayer"
+  for each row execute function bump_lobby_version();
+create trigger GameSession_version_bump after insert or update of ended_at on public."GameSession"
+  for each row execute function bump_lobby_version();
+* */
+
+
+/** DB server-side functions in Supabase **/
+/*
+-- Function to read the lobby screen in one request
+-- Resolves the lobby code (full ID or a prefix, like join_lobby) with a primary key range scan and
+-- returns metadata, owner, members and the active session. If p_known_version is still current only
+-- the version and not_modified are returned. A missing lobby returns NULL.
+-- The poll doubles as the caller's heartbeat for the stale lobby sweeper (LobbyPlayer.last_seen_at).
+CREATE OR REPLACE FUNCTION lobby_snapshot(
+  p_lobby_code TEXT,              -- The full lobby ID or a prefix of it
+  p_known_version BIGINT DEFAULT -1, -- Version the caller already has, -1 for none
+  p_player_id UUID DEFAULT NULL   -- The polling player, NULL while the caller does not know its ID yet
+) RETURNS JSONB
+LANGUAGE plpgsql SECURITY DEFINER AS $$
+DECLARE
+  v_prefix TEXT := lower(replace(coalesce(p_lobby_code, ''), '-', ''));
+  v_lobby "Lobby"%ROWTYPE;
+BEGIN
+  IF v_prefix !~ '^[0-9a-f]{1,32}$' THEN
+    RETURN NULL;
+  END IF;
+
+  SELECT * INTO v_lobby
+  FROM "Lobby" l
+  WHERE l.id BETWEEN rpad(v_prefix, 32, '0')::UUID AND rpad(v_prefix, 32, 'f')::UUID
+  ORDER BY l.id
+  LIMIT 1;
+
+  IF v_lobby.id IS NULL THEN
+    RETURN NULL;
+  END IF;
+
+  IF p_player_id IS NOT NULL THEN
+    UPDATE "LobbyPlayer" SET last_seen_at = now()
+    WHERE id = p_player_id AND lobby_id = v_lobby.id;
+  END IF;
+
+  IF v_lobby.version = p_known_version THEN
+    RETURN jsonb_build_object('version', v_lobby.version, 'not_modified', TRUE);
+  END IF;
+
+  RETURN jsonb_build_object(
+    'version', v_lobby.version,
+    'not_modified', FALSE,
+    'lobby_id', v_lobby.id,
+    'max_players', v_lobby.max_players,
+    'created_at', v_lobby.created_at,
+    'owner_id', v_lobby.lobby_owner,
+    'members', coalesce((
+      SELECT jsonb_agg(jsonb_build_object(
+        'id', lp.id,
+        'player_name', lp.player_name,
+        'lobby_id', lp.lobby_id,
+        'joined_at', lp.joined_at
+      ) ORDER BY lp.joined_at)
+      FROM "LobbyPlayer" lp
+      WHERE lp.lobby_id = v_lobby.id
+    ), '[]'::jsonb),
+    'active_session_id', coalesce((
+      SELECT pgs.session_id
+      FROM "PlayerGameState" pgs
+      JOIN "GameSession" gs ON gs.id = pgs.session_id
+      WHERE pgs.player_id = p_player_id AND gs.lobby_id = v_lobby.id AND gs.ended_at IS NULL
+      LIMIT 1
+    ), (
+      SELECT gs.id
+      FROM "GameSession" gs
+      WHERE gs.lobby_id = v_lobby.id AND gs.ended_at IS NULL
+      ORDER BY gs.room_index
+      LIMIT 1
+    )),
+    'room_count', coalesce((
+      SELECT max(gs.room_count)
+      FROM "GameSession" gs
+      WHERE gs.lobby_id = v_lobby.id AND gs.ended_at IS NULL
+    ), 1)
+  );
+END;
+$$;
+* */
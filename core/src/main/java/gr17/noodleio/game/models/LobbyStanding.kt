@@ -0,0 +1,42 @@
+package gr17.noodleio.game.models
+
+import kotlinx.serialization.Serializable
+
+/**
+ * One row of the cross-room standings of a lobby split into rooms.
+ * finished is set once the player's room has a winner.
+ * */
+@Serializable
+data class LobbyStanding(
+    val player_id: String,
+    val player_name: String,
+    val score: Int,
+    val room_index: Int,
+    val finished: Boolean = false
+)
+
+/** DB server-side functions in Supabase **/
+/*
+-- Function to rank every player of a lobby across all its rooms by score
+-- Each room ends on its own, rooms still playing are included with their current scores.
+-- Reads one index range per room (PlayerGameState by session_id), so the cost grows with the
+-- lobby's player count, not with the number of rooms still running.
+CREATE OR REPLACE FUNCTION lobby_standings(
+  p_lobby_id UUID,            -- The full ID of the lobby
+  p_limit INT DEFAULT 100     -- Most rows returned, the best first
+) RETURNS TABLE (
+  player_id UUID,
+  player_name VARCHAR,
+  score INT,
+  room_index INT,
+  finished BOOLEAN
+) LANGUAGE sql STABLE SECURITY DEFINER AS $$
+  SELECT lp.id, lp.player_name, pgs.score::INT, gs.room_index, gs.ended_at IS NOT NULL
+  FROM "GameSession" gs
+  JOIN "PlayerGameState" pgs ON pgs.session_id = gs.id
+  JOIN "LobbyPlayer" lp ON lp.id = pgs.player_id
+  WHERE gs.lobby_id = p_lobby_id
+  ORDER BY pgs.score DESC, lp.joined_at
+  LIMIT p_limit;
+$$;
+* */
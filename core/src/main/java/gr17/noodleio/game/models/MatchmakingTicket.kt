@@ -0,0 +1,318 @@
+package gr17.noodleio.game.models
+
+import kotlinx.datetime.Instant
+import kotlinx.serialization.Serializable
+
+/**
+ * A player waiting in the quick-play queue.
+ * status is 'waiting' until the matcher assigns the ticket, then 'matched' with lobby_id, player_id
+ * and session_id filled in one update, or 'rejected' with a reason when it cannot be matched.
+ * player_name is unique, so a name is queued at most once.
+ * */
+@Serializable
+data class MatchmakingTicket (
+    val id: String,
+    val player_name: String,
+    val status: String = "waiting",
+    val queued_at: Instant,
+    val lobby_id: String? = null,
+    val player_id: String? = null,
+    val session_id: String? = null,
+    val assigned_at: Instant? = null,
+    val reason: String? = null
+)
+
+
+/** MatchmakingTicket database table definition in Supabase **/
+/*
+create table public."MatchmakingTicket" (
+  id uuid not null default gen_random_uuid (),
+  player_name character varying not null,
+  status text not null default 'waiting'::text,
+  queued_at timestamp with time zone not null default now(),
+  lobby_id uuid null,
+  player_id uuid null,
+  session_id uuid null,
+  assigned_at timestamp with time zone null,
+  reason text null,
+  constraint MatchmakingTicket_pkey primary key (id),
+  constraint MatchmakingTicket_player_name_key unique (player_name),
+  constraint MatchmakingTicket_lobby_id_fkey foreign KEY (lobby_id) references "Lobby" (id) on delete set null
+) TABLESPACE pg_default;
+
+-- The matcher reads the waiting tickets oldest first
+create index MatchmakingTicket_waiting_idx on public."MatchmakingTicket" (queued_at) where status = 'waiting';
+
+-- Clients get their assignment as an update event on their own ticket
+alter publication supabase_realtime add table public."MatchmakingTicket";
+* */
+
+
+/** DB server-side functions in Supabase **/
+/*
+-- Function to enter the quick-play queue
+-- Names are checked against lobbies and the queue, so the matcher can use them as they are
+CREATE OR REPLACE FUNCTION enqueue_quick_play(
+  p_player_name VARCHAR
+) RETURNS TABLE (
+  ticket_id UUID,
+  queued_at TIMESTAMPTZ,
+  success BOOLEAN,
+  message TEXT
+) LANGUAGE plpgsql SECURITY DEFINER AS $$
+#variable_conflict use_column
+DECLARE
+  v_ticket_id UUID;
+  v_queued_at TIMESTAMPTZ;
+BEGIN
+  IF EXISTS (SELECT 1 FROM "LobbyPlayer" WHERE player_name = p_player_name) THEN
+    RETURN QUERY SELECT NULL::UUID, NULL::TIMESTAMPTZ, FALSE, 'Player name is already taken'::TEXT;
+    RETURN;
+  END IF;
+
+  -- A finished or rejected ticket for the same name is replaced
+  DELETE FROM "MatchmakingTicket" WHERE player_name = p_player_name AND status <> 'waiting';
+
+  INSERT INTO "MatchmakingTicket" (player_name)
+  VALUES (p_player_name)
+  RETURNING id, queued_at INTO v_ticket_id, v_queued_at;
+
+  RETURN QUERY SELECT v_ticket_id, v_queued_at, TRUE, 'Queued'::TEXT;
+EXCEPTION
+  WHEN unique_violation THEN
+    RETURN QUERY SELECT NULL::UUID, NULL::TIMESTAMPTZ, FALSE, 'Player name is already queued'::TEXT;
+END;
+$$;
+
+-- Function to leave the queue. Does nothing once the ticket is matched, the match goes ahead.
+CREATE OR REPLACE FUNCTION cancel_quick_play(
+  p_ticket_id UUID
+) RETURNS BOOLEAN LANGUAGE plpgsql SECURITY DEFINER AS $$
+BEGIN
+  DELETE FROM "MatchmakingTicket" WHERE id = p_ticket_id AND status = 'waiting';
+  RETURN FOUND;
+END;
+$$;
+
+-- Periodic matcher: groups the waiting tickets into lobbies in queue order and starts their sessions.
+-- Full lobbies are formed right away, a last partial group only once its oldest ticket has waited
+-- p_max_wait and it has at least p_min_players. Every ticket of a group gets its lobby, player and
+-- session in a single update, which is the push the client waits for. Sessions start with the same
+-- settings as a lobby started by its owner.
+-- A group whose lobby cannot be created, e.g. because a name was taken by a manual join meanwhile,
+-- is rolled back on its own: tickets with a taken name are rejected, the rest wait for the next pass.
+-- Runs every 2 seconds from pg_cron:
+--   SELECT cron.schedule('run-matchmaker', '2 seconds', $$SELECT run_matchmaker()$$);
+CREATE OR REPLACE FUNCTION run_matchmaker(
+  p_lobby_size INT DEFAULT 4,                     -- Players per lobby, also the lobby's max_players
+  p_min_players INT DEFAULT 2,                    -- Smallest lobby started after the timeout
+  p_max_wait INTERVAL DEFAULT interval '15 seconds', -- Wait before a partial lobby is started
+  p_max_batch INT DEFAULT 400,                    -- Most tickets taken in one pass
+  p_now TIMESTAMPTZ DEFAULT NULL,                 -- Clock override, used by bench_matchmaking
+  p_winning_score INT DEFAULT 10,                 -- Same as a lobby started by its owner
+  p_map_length INT DEFAULT 1080,
+  p_map_height INT DEFAULT 1080,
+  p_lockstep BOOLEAN DEFAULT FALSE,
+  p_lock_key TEXT DEFAULT 'run_matchmaker',       -- Advisory lock of the pass, bench_matchmaking uses its own
+  p_name_prefix TEXT DEFAULT ''                   -- Only tickets whose name starts with this, bench_matchmaking uses its own
+) RETURNS TABLE (
+  lobbies INT,
+  players INT
+) LANGUAGE plpgsql SECURITY DEFINER AS $$
+DECLARE
+  v_now TIMESTAMPTZ := coalesce(p_now, now());
+  v_ids UUID[];
+  v_names VARCHAR[];
+  v_queued TIMESTAMPTZ[];
+  v_total INT;
+  v_offset INT := 0;
+  v_size INT;
+  v_lobby_id UUID;
+  v_owner_id UUID;
+  v_session_id UUID;
+  v_lobbies INT := 0;
+  v_players INT := 0;
+BEGIN
+  -- One pass at a time, an overlapping call returns at once
+  IF NOT pg_try_advisory_xact_lock(hashtext(p_lock_key)) THEN
+    RETURN QUERY SELECT 0, 0;
+    RETURN;
+  END IF;
+
+  -- Names taken by a manual join since queueing cannot be placed
+  UPDATE "MatchmakingTicket" t
+  SET status = 'rejected', reason = 'Player name is already taken', assigned_at = v_now
+  WHERE t.status = 'waiting'
+    AND t.player_name LIKE p_name_prefix || '%'
+    AND EXISTS (SELECT 1 FROM "LobbyPlayer" lp WHERE lp.player_name = t.player_name);
+
+  SELECT array_agg(w.id ORDER BY w.queued_at, w.id),
+         array_agg(w.player_name ORDER BY w.queued_at, w.id),
+         array_agg(w.queued_at ORDER BY w.queued_at, w.id)
+  INTO v_ids, v_names, v_queued
+  FROM (
+    SELECT t.id, t.player_name, t.queued_at
+    FROM "MatchmakingTicket" t
+    WHERE t.status = 'waiting'
+      AND t.player_name LIKE p_name_prefix || '%'
+    ORDER BY t.queued_at, t.id
+    LIMIT p_max_batch
+    FOR UPDATE SKIP LOCKED
+  ) w;
+
+  v_total := coalesce(array_length(v_ids, 1), 0);
+
+  WHILE v_offset < v_total LOOP
+    v_size := least(p_lobby_size, v_total - v_offset);
+    -- The rest is a partial group, it keeps waiting for more players until the timeout
+    IF v_size < p_lobby_size
+       AND (v_size < p_min_players OR v_queued[v_offset + 1] > v_now - p_max_wait) THEN
+      EXIT;
+    END IF;
+
+    -- Each group in its own subtransaction, so one taken name does not abort the whole pass
+    BEGIN
+      INSERT INTO "Lobby" (max_players) VALUES (p_lobby_size) RETURNING id INTO v_lobby_id;
+
+      INSERT INTO "LobbyPlayer" (player_name, lobby_id)
+      SELECT n, v_lobby_id FROM unnest(v_names[v_offset + 1 : v_offset + v_size]) AS n;
+
+      -- The longest waiting player owns the lobby
+      SELECT lp.id INTO v_owner_id
+      FROM "LobbyPlayer" lp
+      WHERE lp.lobby_id = v_lobby_id AND lp.player_name = v_names[v_offset + 1];
+      UPDATE "Lobby" SET lobby_owner = v_owner_id WHERE id = v_lobby_id;
+
+      SELECT s.session_id INTO v_session_id
+      FROM start_game_session(v_owner_id, v_lobby_id, p_winning_score, p_map_length, p_map_height, p_lockstep) s
+      WHERE s.success;
+
+      -- A lobby larger than a room is split, every player gets the session of its own room
+      UPDATE "MatchmakingTicket" t
+      SET status = 'matched',
+          lobby_id = v_lobby_id,
+          player_id = lp.id,
+          session_id = CASE WHEN v_session_id IS NULL THEN NULL ELSE
+            (SELECT pgs.session_id FROM "PlayerGameState" pgs WHERE pgs.player_id = lp.id LIMIT 1) END,
+          assigned_at = v_now
+      FROM "LobbyPlayer" lp
+      WHERE lp.lobby_id = v_lobby_id
+        AND lp.player_name = t.player_name
+        AND t.id = ANY (v_ids[v_offset + 1 : v_offset + v_size]);
+
+      v_lobbies := v_lobbies + 1;
+      v_players := v_players + v_size;
+    EXCEPTION
+      WHEN unique_violation THEN
+        -- The group's lobby is rolled back. Skip the tickets whose name was taken meanwhile,
+        -- the others are still waiting and are grouped again by the next pass.
+        UPDATE "MatchmakingTicket" t
+        SET status = 'rejected', reason = 'Player name is already taken', assigned_at = v_now
+        WHERE t.id = ANY (v_ids[v_offset + 1 : v_offset + v_size])
+          AND EXISTS (SELECT 1 FROM "LobbyPlayer" lp WHERE lp.player_name = t.player_name);
+    END;
+
+    v_offset := v_offset + v_size;
+  END LOOP;
+
+  -- Clients read their assignment within seconds, old tickets are only kept for a while
+  DELETE FROM "MatchmakingTicket"
+  WHERE status <> 'waiting' AND assigned_at < v_now - interval '5 minutes'
+    AND player_name LIKE p_name_prefix || '%';
+
+  RETURN QUERY SELECT v_lobbies, v_players;
+END;
+$$;
+
+-- Load generator for the matcher: queues p_players synthetic players at p_arrivals_per_second
+-- over simulated time and runs a matcher pass every p_tick_seconds, like the cron job does.
+-- Reports the matcher's throughput (real time spent in the passes) and the players' wait-time
+-- percentiles (simulated time from queueing to assignment). Everything is rolled back afterwards.
+-- The passes use their own advisory lock and only see the bench's own tickets, so production
+-- matching keeps running and no real ticket is locked while the bench runs.
+-- Usage:
+--   SELECT * FROM bench_matchmaking(1000, 5);
+--   SELECT * FROM bench_matchmaking(10000, 50);
+CREATE OR REPLACE FUNCTION bench_matchmaking(
+  p_players INT DEFAULT 1000,                  -- Number of synthetic players
+  p_arrivals_per_second DOUBLE PRECISION DEFAULT 5, -- Queue arrival rate
+  p_lobby_size INT DEFAULT 4,
+  p_tick_seconds DOUBLE PRECISION DEFAULT 2    -- Time between matcher passes
+) RETURNS TABLE (
+  players INT,
+  matched INT,
+  lobbies INT,
+  passes INT,
+  ms_per_pass DOUBLE PRECISION,
+  players_per_second DOUBLE PRECISION,
+  wait_p50_s DOUBLE PRECISION,
+  wait_p95_s DOUBLE PRECISION,
+  wait_p99_s DOUBLE PRECISION
+) LANGUAGE plpgsql AS $$
+DECLARE
+  v_origin TIMESTAMPTZ := now();
+  v_clock DOUBLE PRECISION := 0;
+  v_end DOUBLE PRECISION := p_players / p_arrivals_per_second;
+  v_queued INT := 0;
+  v_due INT;
+  v_passes INT := 0;
+  v_lobbies INT := 0;
+  v_matched INT := 0;
+  v_pass_ms DOUBLE PRECISION := 0;
+  v_start TIMESTAMPTZ;
+  v_row RECORD;
+  v_p50 DOUBLE PRECISION;
+  v_p95 DOUBLE PRECISION;
+  v_p99 DOUBLE PRECISION;
+BEGIN
+  BEGIN
+    -- Keep running after the last arrival until the queue has drained or the leftovers time out
+    WHILE v_clock <= v_end + 60 LOOP
+      v_due := least(p_players, floor(v_clock * p_arrivals_per_second)::INT);
+      IF v_due > v_queued THEN
+        INSERT INTO "MatchmakingTicket" (player_name, queued_at)
+        SELECT 'bench-' || gen_random_uuid(),
+               v_origin + make_interval(secs => (v_queued + g) / p_arrivals_per_second)
+        FROM generate_series(1, v_due - v_queued) AS g;
+        v_queued := v_due;
+      END IF;
+
+      v_start := clock_timestamp();
+      SELECT * INTO v_row
+      FROM run_matchmaker(p_lobby_size, 2, interval '15 seconds', 400,
+                          v_origin + make_interval(secs => v_clock),
+                          p_lock_key => 'bench_matchmaking', p_name_prefix => 'bench-');
+      v_pass_ms := v_pass_ms + extract(epoch from clock_timestamp() - v_start) * 1000;
+      v_passes := v_passes + 1;
+      v_lobbies := v_lobbies + v_row.lobbies;
+      v_matched := v_matched + v_row.players;
+
+      EXIT WHEN v_queued = p_players
+        AND NOT EXISTS (SELECT 1 FROM "MatchmakingTicket" WHERE status = 'waiting' AND player_name LIKE 'bench-%');
+      v_clock := v_clock + p_tick_seconds;
+    END LOOP;
+
+    SELECT percentile_cont(0.5) WITHIN GROUP (ORDER BY w),
+           percentile_cont(0.95) WITHIN GROUP (ORDER BY w),
+           percentile_cont(0.99) WITHIN GROUP (ORDER BY w)
+    INTO v_p50, v_p95, v_p99
+    FROM (
+      SELECT extract(epoch from assigned_at - queued_at) AS w
+      FROM "MatchmakingTicket"
+      WHERE status = 'matched' AND player_name LIKE 'bench-%'
+    ) waits;
+
+    -- Undo the synthetic lobbies, sessions and tickets, the results are kept in the variables
+    RAISE EXCEPTION 'bench_matchmaking rollback' USING ERRCODE = 'P0001';
+  EXCEPTION
+    WHEN raise_exception THEN
+      NULL;
+  END;
+
+  RETURN QUERY SELECT p_players, v_matched, v_lobbies, v_passes,
+    v_pass_ms / greatest(v_passes, 1),
+    v_matched / greatest(v_pass_ms / 1000, 0.001),
+    v_p50, v_p95, v_p99;
+END;
+$$;
+* */
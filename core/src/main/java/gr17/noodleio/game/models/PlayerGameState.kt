@@ -296,3 +296,315 @@ BEGIN
 END;
 $$;
 * */
+
+/** SessionSnapshot database table definition in Supabase **/
+/*
+-- Tracks the last published world snapshot per session. Deliberately NOT part of the
+-- supabase_realtime publication, so claiming a tick does not fan out any change events.
+create table public."SessionSnapshot" (
+  session_id uuid not null,
+  seq bigint not null default 0,
+  published_at timestamp with time zone not null default to_timestamp(0),
+  constraint SessionSnapshot_pkey primary key (session_id),
+  constraint SessionSnapshot_session_id_fkey foreign KEY (session_id) references "GameSession" (id) on delete CASCADE
+) TABLESPACE pg_default;
+
+-- PlayerGameState realtime subscriptions only listen for INSERT and DELETE.
+-- Position and score updates are delivered through publish_session_snapshot instead.
+-- DELETE events cannot be filtered by session, clients match them on the old row's session_id,
+-- which is only sent with the replica identity set to full.
+alter publication supabase_realtime add table public."PlayerGameState";
+alter table public."PlayerGameState" replica identity full;
+* */
+
+/** DB server-side functions in Supabase **/
+/*
+-- Function to publish one aggregated snapshot of all player states in a session
+-- One elected client calls this once per tick, the others only while snapshots have stalled;
+-- only the first caller in each tick window publishes, so a session with N players sends
+-- N realtime messages per tick instead of N^2, from one UPDATE of the SessionSnapshot row.
+-- Rows are compact arrays: [id, player_id, x_pos, y_pos, score]
+CREATE OR REPLACE FUNCTION publish_session_snapshot(
+  p_session_id UUID,          -- The ID of the game session
+  p_tick_ms INT DEFAULT 100   -- Minimum time between two snapshots
+) RETURNS TABLE (
+  published BOOLEAN,          -- Indicates if this call published the snapshot
+  seq BIGINT                  -- Sequence number of the published snapshot
+) LANGUAGE plpgsql SECURITY DEFINER AS $$
+DECLARE
+  v_seq BIGINT;
+  v_players JSONB;
+BEGIN
+  INSERT INTO "SessionSnapshot" (session_id)
+  VALUES (p_session_id)
+  ON CONFLICT (session_id) DO NOTHING;
+
+  -- Claim the tick, concurrent callers within the same window get no row back
+  UPDATE "SessionSnapshot" s
+  SET seq = s.seq + 1,
+      published_at = clock_timestamp()
+  WHERE s.session_id = p_session_id
+    AND s.published_at <= clock_timestamp() - make_interval(secs => p_tick_ms / 1000.0)
+  RETURNING s.seq INTO v_seq;
+
+  IF v_seq IS NULL THEN
+    RETURN QUERY SELECT FALSE AS published, NULL::BIGINT AS seq;
+    RETURN;
+  END IF;
+
+  -- Players without a heartbeat for 45 seconds (two missed touch_player_state calls) crashed or left,
+  -- their rows stay until the sweeper removes them but are no longer published
+  SELECT coalesce(jsonb_agg(jsonb_build_array(pgs.id, pgs.player_id, pgs.x_pos, pgs.y_pos, pgs.score)), '[]'::jsonb)
+  INTO v_players
+  FROM "PlayerGameState" pgs
+  WHERE pgs.session_id = p_session_id
+    AND pgs.last_seen_at >= clock_timestamp() - interval '45 seconds';
+
+  PERFORM realtime.send(
+    jsonb_build_object(
+      'seq', v_seq,
+      'ts', (extract(epoch from clock_timestamp()) * 1000)::BIGINT,
+      'players', v_players
+    ),
+    'snapshot',                                 -- event
+    'session-snapshot-' || p_session_id::TEXT,  -- topic
+    false                                       -- public channel
+  );
+
+  RETURN QUERY SELECT TRUE AS published, v_seq AS seq;
+END;
+$$;
+
+-- Load generator comparing per-row change streams with one snapshot per tick, on temporary copies
+-- of PlayerGameState and SessionSnapshot. Each tick moves every player; the per-row path is what
+-- the old stream cost (one change event per row, fanned out to every subscriber), the snapshot path
+-- is one claim of the tick plus one aggregated message fanned out to every subscriber.
+-- Run it at the player counts of interest, each in its own transaction:
+--   SELECT * FROM bench_session_snapshot(10);
+--   SELECT * FROM bench_session_snapshot(50);
+--   SELECT * FROM bench_session_snapshot(100);
+CREATE OR REPLACE FUNCTION bench_session_snapshot(
+  p_players INT DEFAULT 50,   -- Number of simulated players in one session
+  p_ticks INT DEFAULT 100     -- Number of ticks
+) RETURNS TABLE (
+  players INT,
+  row_messages_per_tick BIGINT,      -- Realtime messages per tick with per-row change events
+  snapshot_messages_per_tick BIGINT, -- Realtime messages per tick with one snapshot per tick
+  ms_per_snapshot DOUBLE PRECISION,  -- Server time to claim the tick and build the snapshot
+  bytes_per_snapshot INT             -- Size of one snapshot message
+) LANGUAGE plpgsql AS $$
+DECLARE
+  v_session UUID := gen_random_uuid();
+  v_start TIMESTAMPTZ;
+  v_elapsed DOUBLE PRECISION := 0;
+  v_players JSONB;
+  v_seq BIGINT;
+  v_i INT;
+BEGIN
+  CREATE TEMP TABLE bench_states (LIKE "PlayerGameState" INCLUDING DEFAULTS) ON COMMIT DROP;
+  CREATE TEMP TABLE bench_snapshot (LIKE "SessionSnapshot" INCLUDING ALL) ON COMMIT DROP;
+  INSERT INTO bench_states (id, session_id, player_id, x_pos, y_pos, score)
+  SELECT gen_random_uuid(), v_session, gen_random_uuid(), random() * 1080, random() * 1080, 0
+  FROM generate_series(1, p_players);
+  INSERT INTO bench_snapshot (session_id) VALUES (v_session);
+
+  FOR v_i IN 1..p_ticks LOOP
+    UPDATE bench_states SET x_pos = x_pos + 8;
+
+    v_start := clock_timestamp();
+    UPDATE bench_snapshot s
+    SET seq = s.seq + 1, published_at = clock_timestamp()
+    WHERE s.session_id = v_session
+    RETURNING s.seq INTO v_seq;
+
+    SELECT coalesce(jsonb_agg(jsonb_build_array(b.id, b.player_id, b.x_pos, b.y_pos, b.score)), '[]'::jsonb)
+    INTO v_players
+    FROM bench_states b
+    WHERE b.session_id = v_session;
+    v_elapsed := v_elapsed + extract(epoch from clock_timestamp() - v_start) * 1000;
+  END LOOP;
+
+  RETURN QUERY SELECT p_players,
+    p_players::BIGINT * p_players,
+    p_players::BIGINT,
+    v_elapsed / p_ticks,
+    octet_length(jsonb_build_object('seq', v_seq, 'ts', 0, 'players', v_players)::TEXT);
+END;
+$$;
+* */
+
+/** DB server-side functions in Supabase **/
+/*
+-- Highest input sequence number applied for each player, used to deduplicate resent inputs
+ALTER TABLE public."PlayerGameState" ADD COLUMN last_input_seq bigint not null default 0;
+
+-- Heartbeat of a player in a running match, written by apply_inputs while streaming and by
+-- touch_player_state from both netcode paths, so it keeps moving for lockstep matches, which write
+-- nothing else during play, and for backgrounded clients. The stale lobby sweeper reads it.
+ALTER TABLE public."PlayerGameState" ADD COLUMN last_seen_at timestamp with time zone not null default now();
+create index PlayerGameState_session_id_last_seen_at_idx on public."PlayerGameState" (session_id, last_seen_at);
+
+-- Number of head positions recorded for each player, the next PlayerHeadHistory slot is this modulo 32
+ALTER TABLE public."PlayerGameState" ADD COLUMN head_history_count bigint not null default 0;
+
+-- Ring buffer of recent head positions per player, used to rewind food claims to the claimant's view.
+-- 32 slots at one entry per applied input batch (about 10 per second) keep roughly three seconds,
+-- well beyond the rewind limit. Rows are overwritten in place, so the table never grows past
+-- 32 rows per player.
+create table public."PlayerHeadHistory" (
+  state_id uuid not null,
+  slot smallint not null,
+  recorded_at timestamp with time zone not null,
+  x_pos double precision not null,
+  y_pos double precision not null,
+  constraint PlayerHeadHistory_pkey primary key (state_id, slot),
+  constraint PlayerHeadHistory_state_id_fkey foreign KEY (state_id) references "PlayerGameState" (id) on delete CASCADE
+) TABLESPACE pg_default;
+
+-- Function to apply a batch of redundant movement inputs
+-- Each sample is a run of sequence numbers first..seq in one direction, every sequence number
+-- moves the player one step of 8, the same as move_up and the other move functions. Boost is recorded with
+-- the sample but does not change the step. Sequence numbers at or below last_input_seq were already
+-- applied and are skipped, also inside a run that grew since it was last sent, so clients can resend
+-- every unacknowledged sample with every request.
+-- p_inputs: [{"seq": 14, "first": 12, "t": 1700000000000, "dir": "up", "boost": false}, ...]
+CREATE OR REPLACE FUNCTION apply_inputs(
+  p_player_id UUID,           -- The ID of the player to move
+  p_session_id UUID,          -- The ID of the game session
+  p_inputs JSONB              -- Input samples, in any order
+) RETURNS TABLE (
+  success BOOLEAN,            -- Indicates if the operation was successful
+  acked_seq BIGINT,           -- Highest sequence number applied so far
+  new_x_pos DOUBLE PRECISION, -- The x position after applying the batch
+  new_y_pos DOUBLE PRECISION  -- The y position after applying the batch
+) LANGUAGE plpgsql SECURITY DEFINER AS $$
+DECLARE
+  v_state_id UUID;
+  v_x DOUBLE PRECISION;
+  v_y DOUBLE PRECISION;
+  v_last_seq BIGINT;
+  v_map_length BIGINT;
+  v_map_height BIGINT;
+  v_steps BIGINT;
+  v_input RECORD;
+  v_history_count BIGINT;
+BEGIN
+  -- Lock the player row so concurrent batches are applied one after the other
+  SELECT pgs.id, pgs.x_pos, pgs.y_pos, pgs.last_input_seq
+  INTO v_state_id, v_x, v_y, v_last_seq
+  FROM "PlayerGameState" pgs
+  WHERE pgs.player_id = p_player_id AND pgs.session_id = p_session_id
+  FOR UPDATE;
+
+  IF v_state_id IS NULL THEN
+    RETURN QUERY SELECT FALSE AS success, 0::BIGINT AS acked_seq,
+      NULL::DOUBLE PRECISION AS new_x_pos, NULL::DOUBLE PRECISION AS new_y_pos;
+    RETURN;
+  END IF;
+
+  SELECT gs.map_length, gs.map_height INTO v_map_length, v_map_height
+  FROM "GameSession" gs
+  WHERE gs.id = p_session_id;
+
+  FOR v_input IN
+    SELECT (i->>'seq')::BIGINT AS seq, coalesce((i->>'first')::BIGINT, (i->>'seq')::BIGINT) AS first_seq, i->>'dir' AS dir
+    FROM jsonb_array_elements(p_inputs) AS i
+    WHERE (i->>'seq')::BIGINT > v_last_seq
+    ORDER BY (i->>'seq')::BIGINT
+  LOOP
+    -- Only the part of the run above what was already applied
+    v_steps := v_input.seq - greatest(v_input.first_seq - 1, v_last_seq);
+
+    CASE v_input.dir
+      WHEN 'up' THEN v_y := greatest(v_y - 8 * v_steps, 0);
+      WHEN 'down' THEN v_y := least(v_y + 8 * v_steps, v_map_height - 1);
+      WHEN 'left' THEN v_x := greatest(v_x - 8 * v_steps, 0);
+      WHEN 'right' THEN v_x := least(v_x + 8 * v_steps, v_map_length - 1);
+      ELSE NULL;
+    END CASE;
+
+    v_last_seq := v_input.seq;
+  END LOOP;
+
+  -- One write per batch, however many samples were applied, which also counts as the heartbeat
+  UPDATE "PlayerGameState"
+  SET x_pos = v_x, y_pos = v_y, last_input_seq = v_last_seq,
+      head_history_count = head_history_count + 1, last_seen_at = now()
+  WHERE id = v_state_id
+    AND (x_pos <> v_x OR y_pos <> v_y OR last_input_seq <> v_last_seq)
+  RETURNING head_history_count INTO v_history_count;
+
+  -- Record where the head is from now on, for lag-compensated food claims
+  IF v_history_count IS NOT NULL THEN
+    INSERT INTO "PlayerHeadHistory" (state_id, slot, recorded_at, x_pos, y_pos)
+    VALUES (v_state_id, (v_history_count % 32)::SMALLINT, clock_timestamp(), v_x, v_y)
+    ON CONFLICT (state_id, slot) DO UPDATE
+    SET recorded_at = EXCLUDED.recorded_at, x_pos = EXCLUDED.x_pos, y_pos = EXCLUDED.y_pos;
+  END IF;
+
+  RETURN QUERY SELECT TRUE AS success, v_last_seq AS acked_seq, v_x AS new_x_pos, v_y AS new_y_pos;
+END;
+$$;
+
+-- Function to hand a lockstep match over to the server after a desync
+-- The clients no longer agree on the match, so each one writes its own snake's head position
+-- and score from its simulation, and streaming continues from there. The position is clamped
+-- to the map like a move, and recorded in the head history for food claims.
+CREATE OR REPLACE FUNCTION resync_player_state(
+  p_player_id UUID,           -- The ID of the player
+  p_session_id UUID,          -- The ID of the game session
+  p_x DOUBLE PRECISION,       -- Head position in the local simulation
+  p_y DOUBLE PRECISION,
+  p_score BIGINT              -- Score in the local simulation
+) RETURNS BOOLEAN LANGUAGE plpgsql SECURITY DEFINER AS $$
+DECLARE
+  v_state_id UUID;
+  v_x DOUBLE PRECISION;
+  v_y DOUBLE PRECISION;
+  v_history_count BIGINT;
+BEGIN
+  SELECT least(greatest(p_x, 0), gs.map_length - 1), least(greatest(p_y, 0), gs.map_height - 1)
+  INTO v_x, v_y
+  FROM "GameSession" gs
+  WHERE gs.id = p_session_id;
+
+  UPDATE "PlayerGameState"
+  SET x_pos = v_x, y_pos = v_y, score = greatest(p_score, 0),
+      head_history_count = head_history_count + 1
+  WHERE player_id = p_player_id AND session_id = p_session_id AND v_x IS NOT NULL
+  RETURNING id, head_history_count INTO v_state_id, v_history_count;
+
+  IF v_state_id IS NULL THEN
+    RETURN FALSE;
+  END IF;
+
+  INSERT INTO "PlayerHeadHistory" (state_id, slot, recorded_at, x_pos, y_pos)
+  VALUES (v_state_id, (v_history_count % 32)::SMALLINT, clock_timestamp(), v_x, v_y)
+  ON CONFLICT (state_id, slot) DO UPDATE
+  SET recorded_at = EXCLUDED.recorded_at, x_pos = EXCLUDED.x_pos, y_pos = EXCLUDED.y_pos;
+
+  RETURN TRUE;
+END;
+$$;
+
+-- Function to mark a player as still in the match
+-- Called periodically by every client, streaming or lockstep, in the foreground or the background,
+-- so a match nobody sends inputs to is not mistaken for an abandoned one. Rows touched recently are
+-- left alone, so frequent callers cost a read and no write.
+CREATE OR REPLACE FUNCTION touch_player_state(
+  p_player_id UUID,           -- The ID of the player
+  p_session_id UUID           -- The ID of the game session
+) RETURNS BOOLEAN LANGUAGE plpgsql SECURITY DEFINER AS $$
+BEGIN
+  UPDATE "PlayerGameState"
+  SET last_seen_at = now()
+  WHERE player_id = p_player_id AND session_id = p_session_id
+    AND last_seen_at < now() - interval '5 seconds';
+
+  RETURN EXISTS (
+    SELECT 1 FROM "PlayerGameState"
+    WHERE player_id = p_player_id AND session_id = p_session_id
+  );
+END;
+$$;
+* */
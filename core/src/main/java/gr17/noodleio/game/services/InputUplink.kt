@@ -0,0 +1,269 @@
+package gr17.noodleio.game.services
+
+import gr17.noodleio.game.services.logging.ServiceLogger
+import gr17.noodleio.game.services.logging.ServiceLoggerFactory
+import gr17.noodleio.game.services.network.EndpointClass
+import gr17.noodleio.game.services.network.RejectedException
+import gr17.noodleio.game.services.network.RetryPolicy
+import gr17.noodleio.game.services.network.ServiceCalls
+import gr17.noodleio.game.services.network.ServiceError
+import gr17.noodleio.game.services.network.ServiceResult
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.launch
+import kotlinx.serialization.SerialName
+import kotlinx.serialization.Serializable
+import kotlinx.serialization.json.Json
+import kotlinx.serialization.json.buildJsonObject
+import kotlinx.serialization.json.encodeToJsonElement
+import kotlinx.serialization.json.put
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.coroutines.CoroutineContext
+import kotlin.math.ceil
+
+/**
+ * Redundant input uplink for player movement
+ * Every send carries all unacknowledged input samples, so the server can apply any it missed
+ * and a single lost request costs nothing. The server deduplicates by sequence number.
+ * Consecutive samples in the same direction are coalesced into one run, and up to K runs may be
+ * outstanding, where K grows with the observed loss rate and shrinks again when sends succeed.
+ * Beyond that new input is refused instead of dropping unacknowledged samples.
+ * Only one batch is in flight at a time.
+ */
+class InputUplink(
+    private val serviceManager: ServiceManager,
+    private val minDepth: Int = DEFAULT_MIN_DEPTH,
+    private val maxDepth: Int = DEFAULT_MAX_DEPTH
+) : CoroutineScope {
+
+    private val logger: ServiceLogger = ServiceLoggerFactory.getLogger()
+
+    companion object {
+        private const val TAG = "InputUplink"
+        // Outstanding runs, a run lasts until the direction changes
+        const val DEFAULT_MIN_DEPTH = 8
+        const val DEFAULT_MAX_DEPTH = 32
+        // Weight of the latest outcome in the loss estimate
+        private const val LOSS_SMOOTHING = 0.1
+        // Weight of the latest round trip in the RTT estimate
+        private const val RTT_SMOOTHING = 0.125
+        // A batch still in flight after this is counted as lost, its samples go out with the next one
+        private const val SEND_TIMEOUT_MS = 1_000L
+    }
+
+    override val coroutineContext: CoroutineContext = Dispatchers.IO + SupervisorJob()
+
+    /**
+     * A run of input samples in one direction, sequence numbers firstSeq to seq, one step each
+     */
+    @Serializable
+    data class InputSample(
+        @SerialName("seq") val seq: Long,
+        @SerialName("first") val firstSeq: Long,
+        @SerialName("t") val timestampMs: Long,
+        @SerialName("dir") val direction: String,
+        @SerialName("boost") val boost: Boolean
+    )
+
+    /**
+     * Data class for the response from the apply_inputs RPC function
+     */
+    @Serializable
+    data class InputAckResponse(
+        @SerialName("success") val success: Boolean,
+        @SerialName("acked_seq") val ackedSeq: Long,
+        @SerialName("new_x_pos") val newXPos: Double? = null,
+        @SerialName("new_y_pos") val newYPos: Double? = null
+    )
+
+    private val pending = PendingInputs()
+    private val inFlight = AtomicBoolean(false)
+
+    @Volatile
+    private var lossEstimate = 0.0
+    @Volatile
+    private var rttEstimateMs = 0.0
+    private val sendsAttempted = AtomicLong()
+    private val sendsFailed = AtomicLong()
+    private val inputsRefused = AtomicLong()
+
+    /**
+     * Queue a new input sample and send it together with the unacknowledged history
+     * @param playerId The ID of the player
+     * @param sessionId The ID of the game session
+     * @param direction One of "up", "down", "left", "right"
+     * @param boost Whether the speed boost is active for this sample
+     * @return false if too many runs are unacknowledged and the sample was not queued, submit it again later
+     */
+    fun submit(playerId: String, sessionId: String, direction: String, boost: Boolean): Boolean {
+        val queued = pending.offer(direction, boost, System.currentTimeMillis(), currentDepth())
+        if (!queued) {
+            inputsRefused.incrementAndGet()
+        }
+        flush(playerId, sessionId)
+        return queued
+    }
+
+    /**
+     * Resend the unacknowledged samples, if any and no batch is in flight. Call once per tick when
+     * there is no new input, so the last samples before the player stops still reach the server.
+     */
+    fun flush(playerId: String, sessionId: String) {
+        if (pending.isEmpty() || !inFlight.compareAndSet(false, true)) return
+        val batch = pending.batch()
+        if (batch.isEmpty()) {
+            inFlight.set(false)
+            return
+        }
+
+        launch {
+            try {
+                send(playerId, sessionId, batch)
+            } finally {
+                inFlight.set(false)
+            }
+        }
+    }
+
+    private suspend fun send(playerId: String, sessionId: String, batch: List<InputSample>) {
+        val sentAt = System.currentTimeMillis()
+        val result = ServiceCalls.execute("apply_inputs", EndpointClass.MOVEMENT, 0, SEND_TIMEOUT_MS, RetryPolicy.NONE) {
+            val params = buildJsonObject {
+                put("p_player_id", playerId)
+                put("p_session_id", sessionId)
+                put("p_inputs", Json.encodeToJsonElement(batch))
+            }
+
+            val result = serviceManager.db.rpc("apply_inputs", params).decodeList<InputAckResponse>().firstOrNull()
+            if (result == null || !result.success) {
+                throw RejectedException("Input batch rejected")
+            }
+            result.ackedSeq
+        }
+
+        when {
+            result is ServiceResult.Success -> {
+                sendsAttempted.incrementAndGet()
+                pending.acknowledge(result.value)
+                recordOutcome(lost = false)
+                recordRtt(System.currentTimeMillis() - sentAt)
+            }
+            // Over budget or circuit open: nothing was sent, the samples stay pending for the next send
+            result.errorOrNull() == ServiceError.RATE_LIMITED || result.errorOrNull() == ServiceError.CIRCUIT_OPEN -> Unit
+            result.errorOrNull() == ServiceError.REJECTED -> {
+                sendsAttempted.incrementAndGet()
+                recordOutcome(lost = true)
+                logger.debug(TAG, "Input batch rejected, ${batch.size} runs will be resent")
+            }
+            else -> {
+                sendsAttempted.incrementAndGet()
+                sendsFailed.incrementAndGet()
+                recordOutcome(lost = true)
+                logger.debug(TAG, "Failed to send input batch of ${batch.size} runs (loss estimate ${"%.2f".format(lossEstimate)})")
+            }
+        }
+    }
+
+    private fun recordOutcome(lost: Boolean) {
+        val sample = if (lost) 1.0 else 0.0
+        lossEstimate = lossEstimate * (1 - LOSS_SMOOTHING) + sample * LOSS_SMOOTHING
+    }
+
+    /**
+     * Outstanding runs allowed for the current loss estimate, from minDepth at no loss to maxDepth at 50% loss
+     */
+    fun currentDepth(): Int {
+        val extra = ceil(lossEstimate * 2 * (maxDepth - minDepth)).toInt()
+        return (minDepth + extra).coerceIn(minDepth, maxDepth)
+    }
+
+    private fun recordRtt(rttMs: Long) {
+        rttEstimateMs = if (rttEstimateMs == 0.0) rttMs.toDouble()
+            else rttEstimateMs * (1 - RTT_SMOOTHING) + rttMs * RTT_SMOOTHING
+    }
+
+    fun getLossEstimate(): Double = lossEstimate
+
+    /**
+     * Smoothed round trip of acknowledged input batches, 0 before the first one
+     */
+    fun getRttEstimateMs(): Long = rttEstimateMs.toLong()
+
+    fun getStats(): String {
+        return "Inputs acked up to ${pending.ackedSeq()}, sends: ${sendsAttempted.get()}, failed: ${sendsFailed.get()}, " +
+            "refused: ${inputsRefused.get()}, loss: ${"%.2f".format(lossEstimate)}, depth: ${currentDepth()}, " +
+            "rtt: ${getRttEstimateMs()} ms"
+    }
+
+    /**
+     * Stop all in-flight sends
+     */
+    fun close() {
+        cancel()
+    }
+}
+
+/**
+ * Unacknowledged input samples of an InputUplink, oldest first, as runs in one direction
+ * A new sample extends the newest run when direction and boost match, even while that run is in
+ * flight: the server only applies the sequence numbers above what it has acknowledged.
+ */
+internal class PendingInputs {
+
+    // Guarded by this
+    private val runs = ArrayDeque<InputUplink.InputSample>()
+    private var nextSeq = 1L
+    private var ackedSeq = 0L
+
+    /**
+     * Queue one sample
+     * @param depth Most runs that may be outstanding
+     * @return false if a new run would exceed depth, nothing was queued
+     */
+    @Synchronized
+    fun offer(direction: String, boost: Boolean, timestampMs: Long, depth: Int): Boolean {
+        val last = runs.lastOrNull()
+        if (last != null && last.direction == direction && last.boost == boost) {
+            runs[runs.size - 1] = last.copy(seq = nextSeq++, timestampMs = timestampMs)
+            return true
+        }
+        if (runs.size >= depth) {
+            return false
+        }
+        val seq = nextSeq++
+        runs.addLast(InputUplink.InputSample(seq, seq, timestampMs, direction, boost))
+        return true
+    }
+
+    /**
+     * Drop every sample the server has confirmed, a partly confirmed run keeps only the rest
+     */
+    @Synchronized
+    fun acknowledge(seq: Long) {
+        if (seq > ackedSeq) {
+            ackedSeq = seq
+        }
+        while (runs.isNotEmpty() && runs.first().seq <= ackedSeq) {
+            runs.removeFirst()
+        }
+        val first = runs.firstOrNull()
+        if (first != null && first.firstSeq <= ackedSeq) {
+            runs[0] = first.copy(firstSeq = ackedSeq + 1)
+        }
+    }
+
+    /**
+     * The runs to send, oldest first
+     */
+    @Synchronized
+    fun batch(): List<InputUplink.InputSample> = runs.toList()
+
+    @Synchronized
+    fun isEmpty(): Boolean = runs.isEmpty()
+
+    @Synchronized
+    fun ackedSeq(): Long = ackedSeq
+}
@@ -0,0 +1,73 @@
+package gr17.noodleio.game.services
+
+import gr17.noodleio.game.models.LeaderboardEntry
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Process-wide cache of the top leaderboard, shared by every LeaderboardService
+ * The last fetched list is served at once, and counts as fresh for ttlMs. Screens show a stale list
+ * right away and revalidate it in the background. Entries this client submits invalidate the cache:
+ * the list is still served, but the next reader revalidates it.
+ */
+object LeaderboardCache {
+
+    // Other players' results only need to show up within a minute
+    const val DEFAULT_TTL_MS = 60_000L
+
+    /**
+     * How long a fetched list is fresh, 0 to revalidate on every read
+     */
+    @JvmStatic
+    @Volatile
+    var ttlMs: Long = DEFAULT_TTL_MS
+
+    private class Cached(
+        val entries: List<LeaderboardEntry>,
+        val limit: Long,
+        val fetchedAtMs: Long,
+        val generation: Long
+    )
+
+    @Volatile
+    private var cached: Cached? = null
+
+    // Bumped by every invalidation, a fetch started before one is stored as stale
+    private val generation = AtomicLong()
+
+    /**
+     * The cached top entries, fresh or not, or null if no list covering limit has been fetched
+     */
+    fun get(limit: Long): List<LeaderboardEntry>? {
+        val current = cached ?: return null
+        // A shorter list than asked for is the whole leaderboard, it covers any limit
+        if (current.limit < limit && current.entries.size >= current.limit) return null
+        return current.entries.take(limit.toInt())
+    }
+
+    /**
+     * Whether the cached list covers limit, is younger than the TTL and was not invalidated since
+     */
+    fun isFresh(limit: Long): Boolean {
+        val current = cached ?: return false
+        return get(limit) != null &&
+            current.generation == generation.get() &&
+            System.currentTimeMillis() - current.fetchedAtMs < ttlMs
+    }
+
+    /**
+     * Generation to pass to put(), taken before the fetch is sent
+     */
+    fun generation(): Long = generation.get()
+
+    fun put(limit: Long, entries: List<LeaderboardEntry>, fetchGeneration: Long) {
+        cached = Cached(entries, limit, System.currentTimeMillis(), fetchGeneration)
+    }
+
+    /**
+     * Mark the cached list stale, after this client added an entry
+     */
+    @JvmStatic
+    fun invalidate() {
+        generation.incrementAndGet()
+    }
+}
@@ -0,0 +1,124 @@
+package gr17.noodleio.game.services
+
+import gr17.noodleio.game.models.LeaderboardEntry
+import gr17.noodleio.game.services.logging.ServiceLogger
+import gr17.noodleio.game.services.logging.ServiceLoggerFactory
+import gr17.noodleio.game.services.network.throughNetworkEmulator
+import io.github.jan.supabase.realtime.PostgresAction
+import io.github.jan.supabase.realtime.RealtimeChannel
+import io.github.jan.supabase.realtime.channel
+import io.github.jan.supabase.realtime.decodeOldRecord
+import io.github.jan.supabase.realtime.decodeRecord
+import io.github.jan.supabase.realtime.postgresChangeFlow
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.flow.launchIn
+import kotlinx.coroutines.flow.merge
+import kotlinx.coroutines.flow.onEach
+import kotlinx.coroutines.launch
+import kotlin.coroutines.CoroutineContext
+
+/**
+ * Realtime leaderboard changes while the leaderboard screen is open
+ * Reports every inserted or updated entry, with the entry as it was before an update, so the
+ * screen can move it in its ranked list instead of fetching the list again.
+ */
+class LeaderboardRealtimeService(private val serviceManager: ServiceManager) : CoroutineScope {
+
+    private val logger: ServiceLogger = ServiceLoggerFactory.getLogger()
+
+    companion object {
+        private const val TAG = "LeaderboardRealtimeService"
+    }
+
+    /**
+     * Listener interface for leaderboard changes
+     */
+    interface LeaderboardListener {
+        // previous is null for a new entry, or when the old row was not sent; inserted tells the two apart
+        fun onEntryChanged(entry: LeaderboardEntry, previous: LeaderboardEntry?, inserted: Boolean)
+    }
+
+    override val coroutineContext: CoroutineContext = Dispatchers.IO + SupervisorJob()
+
+    private var channel: RealtimeChannel? = null
+    private var leaderboardJob: Job? = null
+    private var listener: LeaderboardListener? = null
+
+    @Volatile
+    private var subscribed = false
+
+    fun subscribe(leaderboardListener: LeaderboardListener) {
+        unsubscribe()
+        listener = leaderboardListener
+
+        val job = SupervisorJob(coroutineContext[Job])
+        leaderboardJob = job
+        val scope = CoroutineScope(coroutineContext + job)
+        val newChannel = serviceManager.realtime.channel("leaderboard")
+        channel = newChannel
+
+        scope.launch {
+            try {
+                merge(
+                    newChannel.postgresChangeFlow<PostgresAction.Insert>(schema = "public") {
+                        table = "Leaderboard"
+                    },
+                    newChannel.postgresChangeFlow<PostgresAction.Update>(schema = "public") {
+                        table = "Leaderboard"
+                    }
+                ).throughNetworkEmulator("leaderboard").onEach { action ->
+                    handleChange(action)
+                }.launchIn(scope)
+
+                newChannel.subscribe(blockUntilSubscribed = true)
+                subscribed = true
+                logger.info(TAG, "Subscribed to leaderboard changes")
+            } catch (e: Exception) {
+                subscribed = false
+                logger.error(TAG, "Error subscribing to leaderboard changes", e)
+            }
+        }
+    }
+
+    private fun handleChange(action: PostgresAction) {
+        try {
+            val (entry, previous) = when (action) {
+                is PostgresAction.Insert -> action.decodeRecord<LeaderboardEntry>() to null
+                // The old row is complete only with the table's replica identity set to full
+                is PostgresAction.Update -> action.decodeRecord<LeaderboardEntry>() to
+                    runCatching { action.decodeOldRecord<LeaderboardEntry>() }.getOrNull()
+                else -> return
+            }
+            // A list cached before this change is out of date
+            LeaderboardCache.invalidate()
+            logger.debug(TAG, "Leaderboard entry changed: ${entry.player_name}")
+            listener?.onEntryChanged(entry, previous, action is PostgresAction.Insert)
+        } catch (e: Exception) {
+            logger.error(TAG, "Error processing leaderboard change", e)
+        }
+    }
+
+    /**
+     * Whether changes are being received
+     */
+    fun isSubscribed(): Boolean = subscribed
+
+    fun unsubscribe() {
+        leaderboardJob?.cancel()
+        leaderboardJob = null
+        listener = null
+        subscribed = false
+        val old = channel ?: return
+        channel = null
+        launch {
+            try {
+                serviceManager.realtime.removeChannel(old)
+            } catch (e: Exception) {
+                logger.debug(TAG, "Could not remove leaderboard channel: ${e.message}")
+            }
+        }
+    }
+}
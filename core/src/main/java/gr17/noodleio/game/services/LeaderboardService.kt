@@ -1,12 +1,17 @@
 package gr17.noodleio.game.services
 
 import gr17.noodleio.game.config.EnvironmentConfig
+import gr17.noodleio.game.models.LeaderboardCursor
 import gr17.noodleio.game.models.LeaderboardEntry
+import gr17.noodleio.game.models.LeaderboardPage
 import gr17.noodleio.game.models.GameSession
 import gr17.noodleio.game.services.logging.ServiceLogger
 import gr17.noodleio.game.services.logging.ServiceLoggerFactory
+import gr17.noodleio.game.services.network.EndpointClass
+import gr17.noodleio.game.services.network.ServiceCalls
+import gr17.noodleio.game.services.network.ServiceError
+import gr17.noodleio.game.services.network.ServiceResult
 import io.github.jan.supabase.postgrest.query.Order
-import kotlinx.coroutines.runBlocking
 import kotlinx.serialization.json.buildJsonObject
 import kotlinx.serialization.json.put
 
@@ -20,116 +25,142 @@ class LeaderboardService(environmentConfig: EnvironmentConfig) {
 
     companion object {
         private const val TAG = "LeaderboardService"
+        // Longest a submission waits for a token before giving up
+        private const val SUBMIT_BUDGET_WAIT_MS = 5_000L
     }
 
     /**
-     * Gets the top N entries from the leaderboard
-     * @return List of top LeaderboardEntry objects
+     * Whether the cached top N entries are younger than the cache TTL and were not invalidated
      */
-    fun getTopLeaderboard(limit: Long): List<LeaderboardEntry> {
-        return runBlocking {
-            try {
-                logger.debug(TAG, "Fetching top $limit leaderboard entries")
+    fun isTopLeaderboardFresh(limit: Long): Boolean = LeaderboardCache.isFresh(limit)
 
-                val result = serviceManager.db
-                    .from("Leaderboard")
-                    .select(){
-                        limit(limit)
-                        order(column = "duration_seconds", order = Order.ASCENDING)
-                    }
-                    .decodeList<LeaderboardEntry>()
+    /**
+     * Gets one page of the leaderboard, in the same order as the top list
+     * The first page is the top list, it refreshes the leaderboard cache and is served from it
+     * while the leaderboard budget is exhausted.
+     * @param after Cursor of the previous page's last entry, null for the first page
+     * @param pageSize Entries per page
+     * @param before Read the page ending right before the cursor instead, for scrolling back up
+     */
+    fun getLeaderboardPage(after: LeaderboardCursor?, pageSize: Int, before: Boolean = false): ServiceResult<LeaderboardPage> {
+        val fetchGeneration = LeaderboardCache.generation()
+        val afterDuration: Double? = after?.duration_seconds
+        val afterId: String? = after?.id
+        val result = ServiceCalls.read("getLeaderboardPage", EndpointClass.LEADERBOARD) {
+            logger.debug(TAG, "Fetching $pageSize leaderboard entries after $afterId")
+
+            val params = buildJsonObject {
+                put("p_after_duration", afterDuration)
+                put("p_after_id", afterId)
+                put("p_limit", pageSize)
+                put("p_before", before)
+            }
+            val entries = serviceManager.db.rpc("leaderboard_page", params).decodeList<LeaderboardEntry>()
+            if (before) {
+                LeaderboardPage(entries, if (entries.size < pageSize) null else LeaderboardCursor.after(entries.first()))
+            } else {
+                toPage(entries, pageSize)
+            }
+        }
 
-                logger.info(TAG, "Successfully fetched ${result.size} leaderboard entries")
-                result
-            } catch (e: Exception) {
-                logger.error(TAG, "Failed to fetch top leaderboard", e)
-                emptyList()
+        if (after == null && !before) {
+            if (result is ServiceResult.Success) {
+                LeaderboardCache.put(pageSize.toLong(), result.value.entries, fetchGeneration)
+            } else if (result.errorOrNull() == ServiceError.RATE_LIMITED) {
+                getCachedFirstPage(pageSize)?.let { return ServiceResult.Success(it) }
             }
         }
+        return result
     }
 
+    /**
+     * The first page from the leaderboard cache, without a request
+     * @return The cached page, fresh or stale, or null if it was not fetched yet
+     */
+    fun getCachedFirstPage(pageSize: Int): LeaderboardPage? {
+        val cached = LeaderboardCache.get(pageSize.toLong()) ?: return null
+        return toPage(cached, pageSize)
+    }
+
+    // A short page is the last one
+    private fun toPage(entries: List<LeaderboardEntry>, pageSize: Int): LeaderboardPage =
+        LeaderboardPage(entries, if (entries.size < pageSize) null else LeaderboardCursor.after(entries.last()))
+
     /**
      * Adds a new entry to the leaderboard
      * @param playerName The name of the player
      * @param score The player's score
      * @param durationSeconds The time in seconds it took to achieve the score
      * @param level The game level
-     * @return The created LeaderboardEntry or null if there was an error
+     * @return The created LeaderboardEntry
      */
     fun addLeaderboardEntry(
         playerName: String,
         score: Int,
         durationSeconds: Double? = null,
         level: Int? = null
-    ): LeaderboardEntry? {
-        return runBlocking {
-            try {
-                logger.debug(TAG, "Adding leaderboard entry for $playerName with score $score")
-
-                val jsonData = buildJsonObject {
-                    put("player_name", playerName)
-                    put("score", score)
-                    if (durationSeconds != null) {
-                        put("duration_seconds", durationSeconds)
-                    }
-                    if (level != null) {
-                        put("level", level)
-                    }
+    ): ServiceResult<LeaderboardEntry> {
+        val result = ServiceCalls.write("addLeaderboardEntry", EndpointClass.LEADERBOARD, SUBMIT_BUDGET_WAIT_MS) {
+            logger.debug(TAG, "Adding leaderboard entry for $playerName with score $score")
+
+            val jsonData = buildJsonObject {
+                put("player_name", playerName)
+                put("score", score)
+                if (durationSeconds != null) {
+                    put("duration_seconds", durationSeconds)
                 }
+                if (level != null) {
+                    put("level", level)
+                }
+            }
 
-                val response = serviceManager.db
-                    .from("Leaderboard")
-                    .insert(jsonData){
-                        select()
-                    }
+            val response = serviceManager.db
+                .from("Leaderboard")
+                .insert(jsonData){
+                    select()
+                }
 
-                // Handle empty response case
-                val responseText = response.toString()
-                if (responseText.isBlank() || responseText == "[]") {
-                    logger.debug(TAG, "Insert returned empty response, attempting to fetch recently added entry")
-
-                    val entries = serviceManager.db
-                        .from("Leaderboard")
-                        .select {
-                            filter {
-                                eq("player_name", playerName)
-                                eq("score", score)
-                            }
-                            order("created_at", Order.DESCENDING)
-                            limit(1)
-                        }
-                        .decodeList<LeaderboardEntry>()
+            // Handle empty response case
+            val responseText = response.toString()
+            if (responseText.isBlank() || responseText == "[]") {
+                logger.debug(TAG, "Insert returned empty response, attempting to fetch recently added entry")
 
-                    if (entries.isNotEmpty()) {
-                        logger.info(TAG, "Successfully added leaderboard entry for $playerName")
-                        return@runBlocking entries.first()
+                val entry = serviceManager.db
+                    .from("Leaderboard")
+                    .select {
+                        filter {
+                            eq("player_name", playerName)
+                            eq("score", score)
+                        }
+                        order("created_at", Order.DESCENDING)
+                        limit(1)
                     }
+                    .decodeList<LeaderboardEntry>()
+                    .firstOrNull()
 
+                if (entry != null) {
+                    logger.info(TAG, "Successfully added leaderboard entry for $playerName")
+                    entry
+                } else {
                     logger.info(TAG, "Entry was added but could not be retrieved, creating placeholder")
-                    return@runBlocking LeaderboardEntry(
+                    LeaderboardEntry(
                         id = "unknown",
                         player_name = playerName,
                         score = score,
                         duration_seconds = durationSeconds
                     )
                 }
-
+            } else {
                 val result = response.decodeSingle<LeaderboardEntry>()
                 logger.info(TAG, "Successfully added leaderboard entry for $playerName")
                 result
-
-            } catch (e: Exception) {
-                logger.error(TAG, "Failed to add leaderboard entry", e)
-
-                // Create a placeholder entry when we can't get the real one
-                LeaderboardEntry(
-                    id = "error-" + System.currentTimeMillis(),
-                    player_name = playerName,
-                    score = score,
-                    duration_seconds = durationSeconds
-                )
             }
         }
+        // The new entry may belong in the top list
+        if (result.isSuccess()) {
+            LeaderboardCache.invalidate()
+        }
+        return result
     }
 
     /**
@@ -157,7 +188,7 @@ class LeaderboardService(environmentConfig: EnvironmentConfig) {
         playerName: String,
         score: Int,
         gameSession: GameSession
-    ): LeaderboardEntry? {
+    ): ServiceResult<LeaderboardEntry> {
         logger.debug(TAG, "Adding leaderboard entry from game session")
         val durationSeconds = calculateGameDuration(gameSession)
         return addLeaderboardEntry(playerName, score, durationSeconds)
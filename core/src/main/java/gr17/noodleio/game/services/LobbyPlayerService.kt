@@ -4,19 +4,34 @@ import gr17.noodleio.game.config.EnvironmentConfig
 import gr17.noodleio.game.models.GameSession
 import gr17.noodleio.game.models.Lobby
 import gr17.noodleio.game.models.LobbyPlayer
+import gr17.noodleio.game.models.LobbySnapshot
 import gr17.noodleio.game.services.logging.ServiceLogger
 import gr17.noodleio.game.services.logging.ServiceLoggerFactory
+import gr17.noodleio.game.services.network.EndpointClass
+import gr17.noodleio.game.services.network.RejectedException
+import gr17.noodleio.game.services.network.RetryPolicy
+import gr17.noodleio.game.services.network.ServiceCalls
+import gr17.noodleio.game.services.network.ServiceError
+import gr17.noodleio.game.services.network.ServiceResult
+import gr17.noodleio.game.services.network.SingleFlight
+import gr17.noodleio.game.services.network.SingleFlightStats
+import io.github.jan.supabase.postgrest.query.Columns
+import io.github.jan.supabase.postgrest.query.Order
 import kotlinx.coroutines.runBlocking
 import kotlinx.datetime.Clock
+import kotlinx.datetime.Instant
 import kotlinx.serialization.json.buildJsonObject
 import kotlinx.serialization.json.put
 import kotlinx.serialization.SerialName
 import kotlinx.serialization.Serializable
 import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
 
 /**
  * Service for managing lobby player operations
  * Allows players to join lobbies and start game sessions
+ * Every call runs under ServiceCalls (timeout, action deadline, circuit breaker, request budget)
+ * and returns a typed ServiceResult
  */
 class LobbyPlayerService(environmentConfig: EnvironmentConfig) {
 
@@ -25,352 +40,243 @@ class LobbyPlayerService(environmentConfig: EnvironmentConfig) {
 
     companion object {
         private const val TAG = "LobbyPlayerService"
+        // Longest a lobby write waits for a token before giving up
+        private const val WRITE_BUDGET_WAIT_MS = 2_000L
+        // Successful polled reads are reused for this long, long enough to cover one UI refresh
+        private const val READ_CACHE_MS = 1_000L
     }
 
-    /**
-     * Allows a player to join a lobby by its ID
-     * @param playerName The name of the player who wants to join
-     * @param lobbyId The ID of the lobby to join
-     * @return The created LobbyPlayer or null if there was an error
-     */
-    fun joinLobby(playerName: String, lobbyId: String): LobbyPlayer? {
-        logger.debug(TAG, "Starting joinLobby with playerName=$playerName, lobbyId=$lobbyId")
-
-        return runBlocking {
-            try {
-                // Check if player name is already taken
-                logger.debug(TAG, "Checking if player name is already taken")
-                val existingPlayerQuery = serviceManager.db
-                    .from("LobbyPlayer")
-                    .select {
-                        filter {
-                            eq("player_name", playerName)
-                        }
-                    }
-
-                try {
-                    val existingPlayers = existingPlayerQuery.decodeList<LobbyPlayer>()
-                    if (existingPlayers.isNotEmpty()) {
-                        logger.info(TAG, "Player name '$playerName' is already taken")
-                        return@runBlocking null
-                    }
-                } catch (e: Exception) {
-                    logger.debug(TAG, "No existing players found with name '$playerName'")
-                }
-
-                // Find lobby by ID - now handling partial IDs
-                val actualLobbyId = findLobbyByPartialId(lobbyId)
-
-                if (actualLobbyId == null) {
-                    logger.debug(TAG, "No lobby found with ID starting with '$lobbyId'")
-                    return@runBlocking null
-                }
-
-                logger.debug(TAG, "Found lobby with ID: $actualLobbyId")
+    // Last result of each polled read, served instead of a new request while the read budget is exhausted
+    private val lastReads = ConcurrentHashMap<String, Any>()
 
-                // Check if lobby is full
-                logger.debug(TAG, "Checking if lobby is full")
-                val lobbyQuery = serviceManager.db
-                    .from("Lobby")
-                    .select {
-                        filter {
-                            eq("id", actualLobbyId)
-                        }
-                    }
+    // One single-flight group per read endpoint, so the saved work is reported per endpoint
+    private val readFlights = ConcurrentHashMap<String, SingleFlight>()
 
-                try {
-                    val lobbies = lobbyQuery.decodeList<Lobby>()
-                    if (lobbies.isEmpty()) {
-                        logger.debug(TAG, "Lobby with ID '$actualLobbyId' does not exist")
-                        return@runBlocking null
-                    }
-
-                    val lobby = lobbies.first()
-
-                    // Check if lobby is full
-                    logger.debug(TAG, "Checking if lobby is full")
-                    val playersInLobby = serviceManager.db
-                        .from("LobbyPlayer")
-                        .select {
-                            filter {
-                                eq("lobby_id", actualLobbyId)
-                            }
-                        }
-                        .decodeList<LobbyPlayer>()
+    /**
+     * Polled read: identical reads in flight at the same time share one request, and a successful
+     * result is reused for READ_CACHE_MS. On success the value is also remembered, when over budget
+     * the remembered value is returned.
+     */
+    @Suppress("UNCHECKED_CAST")
+    private fun <T> pollRead(endpoint: String, key: String, block: suspend () -> T): ServiceResult<T> {
+        val flight = readFlights.getOrPut(endpoint) { SingleFlight(endpoint) }
+        val result = runBlocking {
+            flight.execute(key, READ_CACHE_MS, { it.isSuccess() }) {
+                ServiceCalls.execute(
+                    endpoint, EndpointClass.LOBBY_READ, 0,
+                    ServiceCalls.DEFAULT_READ_TIMEOUT_MS, RetryPolicy.IDEMPOTENT_READ, block
+                )
+            }
+        }
+        if (result is ServiceResult.Success) {
+            result.value?.let { lastReads[key] = it }
+        } else if (result.errorOrNull() == ServiceError.RATE_LIMITED) {
+            (lastReads[key] as T?)?.let { return ServiceResult.Success(it) }
+        }
+        return result
+    }
 
-                    if (playersInLobby.size >= lobby.max_players) {
-                        logger.debug(TAG, "Lobby is full (${playersInLobby.size}/${lobby.max_players})")
-                        return@runBlocking null
-                    }
+    /**
+     * Lobby write. Cached reads are dropped afterwards, the write may have changed them.
+     */
+    private fun <T> lobbyWrite(endpoint: String, block: suspend () -> T): ServiceResult<T> {
+        val result = ServiceCalls.write(endpoint, EndpointClass.WRITE, WRITE_BUDGET_WAIT_MS, block)
+        readFlights.values.forEach { it.invalidateAll() }
+        return result
+    }
 
-                } catch (e: Exception) {
-                    logger.error(TAG, "Error checking lobby: ${e.message}", e)
-                    return@runBlocking null
-                }
+    @Serializable
+    data class JoinLobbyResponse(
+        @SerialName("success") val success: Boolean,
+        @SerialName("message") val message: String,
+        @SerialName("player_id") val playerId: String? = null,
+        @SerialName("lobby_id") val lobbyId: String? = null,
+        @SerialName("player_name") val playerName: String? = null,
+        @SerialName("joined_at") val joinedAt: Instant? = null
+    )
 
-                // Try to insert a player
-                logger.debug(TAG, "Creating player entry")
+    /**
+     * Allows a player to join a lobby by its ID, in one round trip
+     * The server checks the name, resolves the code and enforces max_players under a lock on the lobby,
+     * so concurrent joins cannot overfill it
+     * @param playerName The name of the player who wants to join
+     * @param lobbyId The ID of the lobby to join, full or a prefix like the 5 character code
+     * @return The created LobbyPlayer, or REJECTED if the name is taken, the lobby does not exist or is full
+     */
+    fun joinLobby(playerName: String, lobbyId: String): ServiceResult<LobbyPlayer> {
+        logger.debug(TAG, "Starting joinLobby with playerName=$playerName, lobbyId=$lobbyId")
 
-                try {
-                    val jsonData = buildJsonObject {
-                        put("player_name", playerName)
-                        put("lobby_id", actualLobbyId)
-                    }
+        return lobbyWrite("joinLobby") {
+            val params = buildJsonObject {
+                put("p_player_name", playerName)
+                put("p_lobby_code", lobbyId)
+            }
 
-                    logger.debug(TAG, "Inserting player with data: $jsonData")
-                    val response = serviceManager.db
-                        .from("LobbyPlayer")
-                        .insert(jsonData)
-
-                    try {
-                        val player = response.decodeSingle<LobbyPlayer>()
-                        logger.info(TAG, "Player '${player.player_name}' joined lobby '${player.lobby_id}' successfully")
-                        return@runBlocking player
-                    } catch (e: Exception) {
-                        logger.debug(TAG, "Failed to decode response, likely empty: ${e.message}")
-
-                        // Check if the player was actually added
-                        val checkQuery = serviceManager.db
-                            .from("LobbyPlayer")
-                            .select {
-                                filter {
-                                    eq("player_name", playerName)
-                                    eq("lobby_id", actualLobbyId)
-                                }
-                            }
-
-                        val possiblePlayers = checkQuery.decodeList<LobbyPlayer>()
-                        if (possiblePlayers.isNotEmpty()) {
-                            val player = possiblePlayers.first()
-                            logger.debug(TAG, "Found player after insertion: ${player.player_name}")
-                            return@runBlocking player
-                        }
+            val result = serviceManager.db.rpc("join_lobby", params)
+                .decodeList<JoinLobbyResponse>()
+                .firstOrNull()
+                ?: throw IllegalStateException("No response from join_lobby")
 
-                        logger.debug(TAG, "Player not found after insertion attempt, creating placeholder")
-                        return@runBlocking LobbyPlayer(
-                            id = UUID.randomUUID().toString(),
-                            player_name = playerName,
-                            lobby_id = actualLobbyId,
-                            joined_at = Clock.System.now()
-                        )
-                    }
-                } catch (e: Exception) {
-                    logger.error(TAG, "Error inserting player: ${e.message}", e)
-                    return@runBlocking null
-                }
-            } catch (e: Exception) {
-                logger.error(TAG, "Error in joinLobby: ${e.message}", e)
-                return@runBlocking null
+            if (!result.success || result.playerId == null || result.lobbyId == null) {
+                logger.info(TAG, "Failed to join lobby: ${result.message}")
+                throw RejectedException(result.message)
             }
+
+            rememberResolvedLobbyId(lobbyId, result.lobbyId)
+            logger.info(TAG, "Player '$playerName' joined lobby '${result.lobbyId}' successfully")
+            LobbyPlayer(
+                id = result.playerId,
+                player_name = result.playerName ?: playerName,
+                lobby_id = result.lobbyId,
+                joined_at = result.joinedAt ?: Clock.System.now()
+            )
         }
     }
 
     /**
      * Find a lobby by a partial ID (like the first 5 characters)
      * @param partialId The partial ID to search for
-     * @return The full lobby ID if found, null otherwise
+     * @return The full lobby ID, or REJECTED if no lobby matches
      */
-    fun findLobbyByPartialId(partialId: String): String? {
+    fun findLobbyByPartialId(partialId: String): ServiceResult<String> {
         logger.debug(TAG, "Finding lobby with partial ID: $partialId")
 
-        return runBlocking {
-            try {
-                // If the partial ID is actually a full UUID, just return it
-                if (isValidUUID(partialId)) {
-                    return@runBlocking partialId
-                }
-
-                // Query for all lobbies
-                val response = serviceManager.db
-                    .from("Lobby")
-                    .select()
-
-                val lobbies = response.decodeList<Lobby>()
-
-                // Search for lobbies with IDs starting with the partial ID
-                for (lobby in lobbies) {
-                    if (lobby.id.startsWith(partialId, ignoreCase = true)) {
-                        logger.debug(TAG, "Found matching lobby with ID: ${lobby.id}")
-                        return@runBlocking lobby.id
-                    }
-                }
-
-                logger.debug(TAG, "No lobby found with ID starting with '$partialId'")
-                return@runBlocking null
-            } catch (e: Exception) {
-                logger.error(TAG, "Error finding lobby by partial ID: ${e.message}", e)
-                return@runBlocking null
-            }
+        return pollRead("findLobbyByPartialId", "lobby:$partialId") {
+            serviceManager.resolveLobbyId(partialId)
+                ?: throw RejectedException("No lobby found with ID starting with '$partialId'")
         }
     }
 
     /**
-     * Check if a string is a valid UUID
-     * @param possibleUUID The string to check
-     * @return True if the string is a valid UUID, false otherwise
+     * Everything the lobby screen shows in one request: metadata, owner, members and the active session
+     * @param lobbyId The full lobby ID or a prefix like the 5 character code
+     * @param knownVersion Version of the caller's last snapshot, or -1
+     * @param playerId The polling player, the poll counts as its heartbeat; null if not known yet
+     * @return The snapshot, one with only not_modified set if knownVersion is current,
+     * or REJECTED if the lobby does not exist
      */
-    private fun isValidUUID(possibleUUID: String): Boolean {
-        return try {
-            UUID.fromString(possibleUUID)
-            true
-        } catch (e: Exception) {
-            false
+    fun getLobbySnapshot(lobbyId: String, knownVersion: Long = -1, playerId: String? = null): ServiceResult<LobbySnapshot> {
+        return pollRead("getLobbySnapshot", "snapshot:$lobbyId:$knownVersion:$playerId") {
+            val params = buildJsonObject {
+                put("p_lobby_code", lobbyId)
+                put("p_known_version", knownVersion)
+                put("p_player_id", playerId)
+            }
+
+            val snapshot = serviceManager.db.rpc("lobby_snapshot", params).decodeAs<LobbySnapshot?>()
+            if (snapshot == null) {
+                // Deleted by another client or the sweeper, the code must not keep resolving to it
+                forgetResolvedLobbyId(lobbyId)
+                throw RejectedException("No lobby found with ID starting with '$lobbyId'")
+            }
+
+            snapshot.lobby_id?.let { rememberResolvedLobbyId(lobbyId, it) }
+            snapshot
         }
     }
 
-    // Rest of the methods remain unchanged
-
-    fun getPlayersInLobby(lobbyId: String): List<LobbyPlayer> {
+    fun getPlayersInLobby(lobbyId: String): ServiceResult<List<LobbyPlayer>> {
         logger.debug(TAG, "Getting players in lobby $lobbyId")
 
-        return runBlocking {
-            try {
-                // First, check if this is a partial ID
-                val actualLobbyId = findLobbyByPartialId(lobbyId) ?: lobbyId
+        return pollRead("getPlayersInLobby", "players:$lobbyId") {
+            // First, check if this is a partial ID
+            val actualLobbyId = serviceManager.resolveLobbyId(lobbyId) ?: lobbyId
 
-                val response = serviceManager.db
-                    .from("LobbyPlayer")
-                    .select {
-                        filter {
-                            eq("lobby_id", actualLobbyId)
-                        }
+            val players = serviceManager.db
+                .from("LobbyPlayer")
+                .select {
+                    filter {
+                        eq("lobby_id", actualLobbyId)
                     }
-
-                try {
-                    val players = response.decodeList<LobbyPlayer>()
-                    logger.debug(TAG, "Found ${players.size} players in lobby '$actualLobbyId'")
-                    return@runBlocking players
-                } catch (e: Exception) {
-                    logger.error(TAG, "Error decoding players: ${e.message}", e)
-                    return@runBlocking emptyList()
                 }
-            } catch (e: Exception) {
-                logger.error(TAG, "Error getting players in lobby: ${e.message}", e)
-                return@runBlocking emptyList()
-            }
+                .decodeList<LobbyPlayer>()
+
+            logger.debug(TAG, "Found ${players.size} players in lobby '$actualLobbyId'")
+            players
         }
     }
 
     /**
      * Removes a player from a lobby and returns information about whether the player was the owner
      * @param playerId The ID of the player to remove
-     * @return Pair containing: Boolean (success of operation) and Boolean (whether player was lobby owner)
+     * @return Whether the player was the lobby owner, or REJECTED if the player does not exist
      */
-    fun leaveLobby(playerId: String): Pair<Boolean, Boolean> {
+    fun leaveLobby(playerId: String): ServiceResult<Boolean> {
         logger.debug(TAG, "Removing player $playerId from lobby")
 
-        return runBlocking {
-            try {
-                // First check if the player is a lobby owner
-                var isLobbyOwner = false
-                var lobbyId: String? = null
+        return lobbyWrite("leaveLobby") {
+            // Get player info first to check owner status
+            var isLobbyOwner = false
+            val player = serviceManager.db
+                .from("LobbyPlayer")
+                .select {
+                    filter {
+                        eq("id", playerId)
+                    }
+                }
+                .decodeList<LobbyPlayer>()
+                .firstOrNull()
 
-                // Get player info first to check owner status
-                val playerResponse = serviceManager.db
-                    .from("LobbyPlayer")
+            if (player != null) {
+                val lobby = serviceManager.db
+                    .from("Lobby")
                     .select {
                         filter {
-                            eq("id", playerId)
+                            eq("id", player.lobby_id)
                         }
                     }
+                    .decodeList<Lobby>()
+                    .firstOrNull()
+                isLobbyOwner = lobby?.lobby_owner == playerId
+            }
 
-                val players = playerResponse.decodeList<LobbyPlayer>()
-                if (players.isNotEmpty()) {
-                    val player = players.first()
-                    lobbyId = player.lobby_id
-
-                    // Check if this player is the lobby owner
-                    val lobbyResponse = serviceManager.db
-                        .from("Lobby")
-                        .select {
-                            filter {
-                                eq("id", lobbyId)
-                            }
-                        }
-
-                    val lobbies = lobbyResponse.decodeList<Lobby>()
-                    if (lobbies.isNotEmpty()) {
-                        val lobby = lobbies.first()
-                        isLobbyOwner = (lobby.lobby_owner == playerId)
+            // Now delete the player
+            val response = serviceManager.db
+                .from("LobbyPlayer")
+                .delete {
+                    filter {
+                        eq("id", playerId)
                     }
                 }
 
-                // Now delete the player
-                val response = serviceManager.db
+            val wasRemoved = try {
+                response.decodeList<LobbyPlayer>().isNotEmpty()
+            } catch (e: Exception) {
+                logger.debug(TAG, "Error decoding deletion response, checking if removal succeeded: ${e.message}")
+                serviceManager.db
                     .from("LobbyPlayer")
-                    .delete {
+                    .select {
                         filter {
                             eq("id", playerId)
                         }
                     }
+                    .decodeList<LobbyPlayer>()
+                    .isEmpty()
+            }
 
-                try {
-                    val deletedPlayers = response.decodeList<LobbyPlayer>()
-                    if (deletedPlayers.isEmpty()) {
-                        logger.debug(TAG, "No player with ID '$playerId' found to remove")
-                        return@runBlocking Pair(false, false)
-                    }
-
-                    logger.info(TAG, "Player with ID '$playerId' removed from lobby")
-                    return@runBlocking Pair(true, isLobbyOwner)
-                } catch (e: Exception) {
-                    logger.error(TAG, "Error decoding deletion response: ${e.message}", e)
-                    // Try to check if removal succeeded despite decoding error
-                    val checkResponse = serviceManager.db
-                        .from("LobbyPlayer")
-                        .select {
-                            filter {
-                                eq("id", playerId)
-                            }
-                        }
-
-                    val remainingPlayers = checkResponse.decodeList<LobbyPlayer>()
-                    val wasRemoved = remainingPlayers.isEmpty()
-
-                    if (wasRemoved) {
-                        logger.info(TAG, "Verified player with ID '$playerId' was removed from lobby")
-                    }
-
-                    return@runBlocking Pair(wasRemoved, isLobbyOwner)
-                }
-            } catch (e: Exception) {
-                logger.error(TAG, "Error removing player from lobby: ${e.message}", e)
-                return@runBlocking Pair(false, false)
+            if (!wasRemoved) {
+                throw RejectedException("No player with ID '$playerId' found to remove")
             }
+
+            logger.info(TAG, "Player with ID '$playerId' removed from lobby")
+            isLobbyOwner
         }
     }
 
-    fun getPlayerById(playerId: String): LobbyPlayer? {
+    fun getPlayerById(playerId: String): ServiceResult<LobbyPlayer> {
         logger.debug(TAG, "Getting player by ID $playerId")
 
-        return runBlocking {
-            try {
-                val response = serviceManager.db
-                    .from("LobbyPlayer")
-                    .select {
-                        filter {
-                            eq("id", playerId)
-                        }
-                    }
-
-                try {
-                    val players = response.decodeList<LobbyPlayer>()
-                    if (players.isEmpty()) {
-                        logger.debug(TAG, "No player found with ID '$playerId'")
-                        return@runBlocking null
+        return pollRead("getPlayerById", "player:$playerId") {
+            serviceManager.db
+                .from("LobbyPlayer")
+                .select {
+                    filter {
+                        eq("id", playerId)
                     }
-
-                    val player = players.first()
-                    logger.debug(TAG, "Found player '${player.player_name}' with ID '${player.id}'")
-                    return@runBlocking player
-                } catch (e: Exception) {
-                    logger.error(TAG, "Error decoding player query: ${e.message}", e)
-                    return@runBlocking null
                 }
-            } catch (e: Exception) {
-                logger.error(TAG, "Error getting player by ID: ${e.message}", e)
-                return@runBlocking null
-            }
+                .decodeList<LobbyPlayer>()
+                .firstOrNull()
+                ?: throw RejectedException("No player found with ID '$playerId'")
         }
     }
 
@@ -382,159 +288,243 @@ class LobbyPlayerService(environmentConfig: EnvironmentConfig) {
         @SerialName("message") val message: String
     )
 
+    /**
+     * Starts a game session for a lobby, only the lobby owner can do this
+     * @param lockstep Ask for lockstep netcode, the server only grants it for 2-4 players
+     * @return The started session, or REJECTED with the server's reason
+     */
     fun startGameSession(
         playerId: String,
         lobbyId: String,
         winningScore: Int = 50,
         mapLength: Int = 1080,
-        mapHeight: Int = 1080
-    ): Pair<GameSession?, String> {
-        return runBlocking {
-            try {
-                // First, check if this is a partial ID
-                val actualLobbyId = findLobbyByPartialId(lobbyId) ?: lobbyId
-
-                val params = buildJsonObject {
-                    put("p_player_id", playerId)
-                    put("p_lobby_id", actualLobbyId)
-                    put("p_winning_score", winningScore)
-                    put("p_map_length", mapLength)
-                    put("p_map_height", mapHeight)
-                }
-
-                val response = serviceManager.db.rpc("start_game_session", params)
-                val results = response.decodeList<StartGameSessionResponse>()
-
-                if (results.isEmpty()) {
-                    return@runBlocking Pair(null, "Failed to start game session: No response from server")
-                }
-
-                val result = results.first()
-
-                if (!result.success || result.sessionId == null) {
-                    logger.info(TAG, "Failed to start game session: ${result.message}")
-                    return@runBlocking Pair(null, result.message)
-                }
+        mapHeight: Int = 1080,
+        lockstep: Boolean = false
+    ): ServiceResult<GameSession> {
+        return lobbyWrite("startGameSession") {
+            // First, check if this is a partial ID
+            val actualLobbyId = serviceManager.resolveLobbyId(lobbyId) ?: lobbyId
+
+            val params = buildJsonObject {
+                put("p_player_id", playerId)
+                put("p_lobby_id", actualLobbyId)
+                put("p_winning_score", winningScore)
+                put("p_map_length", mapLength)
+                put("p_map_height", mapHeight)
+                put("p_lockstep", lockstep)
+            }
 
-                // Try to fetch the newly created game session
-                try {
-                    val gameSessionResponse = serviceManager.db
-                        .from("GameSession")
-                        .select {
-                            filter {
-                                eq("id", result.sessionId)
-                            }
-                        }
+            val result = serviceManager.db.rpc("start_game_session", params)
+                .decodeList<StartGameSessionResponse>()
+                .firstOrNull()
+                ?: throw IllegalStateException("No response from server")
 
-                    val gameSession = gameSessionResponse.decodeSingle<GameSession>()
-                    logger.info(TAG, "Successfully started game session with ID: ${gameSession.id}")
-                    return@runBlocking Pair(gameSession, "Game session started successfully")
-                } catch (e: Exception) {
-                    logger.info(TAG, "Game session was created but couldn't be retrieved: ${e.message}")
-
-                    // Create a basic session object with the ID we know
-                    val gameSession = GameSession(
-                        id = result.sessionId,
-                        lobby_id = result.lobbyId,
-                        winning_score = winningScore,
-                        map_length = mapLength,
-                        map_height = mapHeight,
-                        started_at = kotlinx.datetime.Clock.System.now()
-                    )
-
-                    return@runBlocking Pair(gameSession, "Game session started successfully, but details couldn't be retrieved")
-                }
-            } catch (e: Exception) {
-                logger.error(TAG, "Error starting game session: ${e.message}", e)
-                return@runBlocking Pair(null, "Error starting game session: ${e.message}")
+            if (!result.success || result.sessionId == null) {
+                logger.info(TAG, "Failed to start game session: ${result.message}")
+                throw RejectedException(result.message)
             }
-        }
-    }
 
-    fun checkActiveGameSession(lobbyId: String): String {
-        return runBlocking {
+            // Try to fetch the newly created game session
             try {
-                // First, check if this is a partial ID
-                val actualLobbyId = findLobbyByPartialId(lobbyId) ?: lobbyId
-
-                val response = serviceManager.db
+                val gameSession = serviceManager.db
                     .from("GameSession")
                     .select {
                         filter {
-                            eq("lobby_id", actualLobbyId)
-                            exact("ended_at", null)  // Only active sessions
+                            eq("id", result.sessionId)
                         }
                     }
+                    .decodeSingle<GameSession>()
+                logger.info(TAG, "Successfully started game session with ID: ${gameSession.id}")
+                gameSession
+            } catch (e: Exception) {
+                logger.info(TAG, "Game session was created but couldn't be retrieved: ${e.message}")
+
+                // Create a basic session object with the ID we know
+                GameSession(
+                    id = result.sessionId,
+                    lobby_id = result.lobbyId,
+                    winning_score = winningScore,
+                    map_length = mapLength,
+                    map_height = mapHeight,
+                    started_at = Clock.System.now()
+                )
+            }
+        }
+    }
 
-                try {
-                    val sessions = response.decodeList<GameSession>()
-                    if (sessions.isNotEmpty()) {
-                        val session = sessions.first()
-                        "Active session found - session_id: ${session.id}"
-                    } else {
-                        "No active game session found"
+    /**
+     * @return The ID of the active game session of the lobby, or null if none is running
+     */
+    fun checkActiveGameSession(lobbyId: String): ServiceResult<String?> {
+        return pollRead("checkActiveGameSession", "session:$lobbyId") {
+            // First, check if this is a partial ID
+            val actualLobbyId = serviceManager.resolveLobbyId(lobbyId) ?: lobbyId
+
+            serviceManager.db
+                .from("GameSession")
+                .select {
+                    filter {
+                        eq("lobby_id", actualLobbyId)
+                        exact("ended_at", null)  // Only active sessions
                     }
-                } catch (e: Exception) {
-                    "Error decoding game sessions: ${e.message}"
                 }
-            } catch (e: Exception) {
-                "Error checking for active game session: ${e.message}"
-            }
+                .decodeList<GameSession>()
+                .firstOrNull()
+                ?.id
         }
     }
 
-    fun getPlayerIdFromName(playerName: String): String {
-        return runBlocking {
-            try {
-                val response = serviceManager.db
-                    .from("LobbyPlayer")
-                    .select {
-                        filter {
-                            eq("player_name", playerName)
-                        }
+    /**
+     * @return The ID of the player with this name, or null if there is none
+     */
+    fun getPlayerIdFromName(playerName: String): ServiceResult<String?> {
+        return pollRead("getPlayerIdFromName", "player-id:$playerName") {
+            serviceManager.db
+                .from("LobbyPlayer")
+                .select {
+                    filter {
+                        eq("player_name", playerName)
                     }
+                }
+                .decodeList<LobbyPlayer>()
+                .firstOrNull()
+                ?.id
+        }
+    }
+
+    fun isLobbyOwner(playerId: String, lobbyId: String): ServiceResult<Boolean> {
+        return pollRead("isLobbyOwner", "owner:$playerId:$lobbyId") {
+            // First, check if this is a partial ID
+            val actualLobbyId = serviceManager.resolveLobbyId(lobbyId) ?: lobbyId
 
-                try {
-                    val players = response.decodeList<LobbyPlayer>()
-                    if (players.isNotEmpty()) {
-                        players.first().id
-                    } else {
-                        ""
+            val lobby = serviceManager.db
+                .from("Lobby")
+                .select {
+                    filter {
+                        eq("id", actualLobbyId)
                     }
-                } catch (e: Exception) {
-                    ""
                 }
-            } catch (e: Exception) {
-                ""
+                .decodeList<Lobby>()
+                .firstOrNull()
+
+            if (lobby == null) {
+                forgetResolvedLobbyId(actualLobbyId)
             }
+            lobby?.lobby_owner == playerId
         }
     }
+}
 
-    fun isLobbyOwner(playerId: String, lobbyId: String): Boolean {
-        return runBlocking {
-            try {
-                // First, check if this is a partial ID
-                val actualLobbyId = findLobbyByPartialId(lobbyId) ?: lobbyId
+// Most short codes remembered, far more than one client ever visits
+private const val RESOLVED_LOBBY_ID_CACHE_SIZE = 64
+// Longest a resolved code is trusted, lobbies deleted by other clients or the sweeper drop out after it
+private const val RESOLVED_LOBBY_ID_TTL_MS = 5 * 60_000L
+private const val UUID_HEX_LENGTH = 32
+private val HEX_PREFIX = Regex("^[0-9a-f]{1,32}$")
 
-                val lobbyResponse = serviceManager.db
-                    .from("Lobby")
-                    .select {
-                        filter {
-                            eq("id", actualLobbyId)
-                        }
-                    }
+// Shared by every service, the lobby polls of one screen all resolve the same short code
+private val lobbyIdFlight = SingleFlight("resolveLobbyId")
+
+private class ResolvedLobbyId(val id: String, val resolvedAtMs: Long)
+
+// Short code -> full lobby ID, least recently used first. The full ID behind a code does not change
+// while the lobby exists, so each lobby is resolved once and kept until evicted, expired, or found gone.
+private val resolvedLobbyIds = object : LinkedHashMap<String, ResolvedLobbyId>(16, 0.75f, true) {
+    override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, ResolvedLobbyId>?): Boolean {
+        return size > RESOLVED_LOBBY_ID_CACHE_SIZE
+    }
+}
+
+/**
+ * Resolve a partial lobby ID (like the first 5 characters) to the full ID
+ * Runs inside the caller's service call, so it shares its timeout and circuit breaker.
+ * The lookup is a range scan on the primary key returning at most one row: every UUID starting
+ * with the prefix lies between the prefix padded with 0s and the prefix padded with fs.
+ * Concurrent lookups of the same code share one request, and found IDs are cached.
+ * @return The full lobby ID, or null if no lobby matches
+ */
+internal suspend fun ServiceManager.resolveLobbyId(partialId: String): String? {
+    // If the partial ID is actually a full UUID, just return it
+    try {
+        UUID.fromString(partialId)
+        return partialId
+    } catch (e: IllegalArgumentException) {
+        // Not a full UUID, search below
+    }
+
+    val prefix = partialId.replace("-", "").lowercase()
+    if (!HEX_PREFIX.matches(prefix)) {
+        return null
+    }
+
+    synchronized(resolvedLobbyIds) {
+        val cached = resolvedLobbyIds[prefix]
+        if (cached != null && System.currentTimeMillis() - cached.resolvedAtMs >= RESOLVED_LOBBY_ID_TTL_MS) {
+            resolvedLobbyIds.remove(prefix)
+            null
+        } else {
+            cached?.id
+        }
+    }?.let {
+        SingleFlightStats.recordCached(lobbyIdFlight.name)
+        return it
+    }
 
-                val lobbies = lobbyResponse.decodeList<Lobby>()
-                if (lobbies.isNotEmpty()) {
-                    val lobby = lobbies.first()
-                    lobby.lobby_owner == playerId
-                } else {
-                    false
+    val resolved = lobbyIdFlight.execute(prefix) {
+        db.from("Lobby")
+            .select(Columns.list("id")) {
+                filter {
+                    gte("id", paddedUuid(prefix, '0'))
+                    lte("id", paddedUuid(prefix, 'f'))
                 }
-            } catch (e: Exception) {
-                logger.error(TAG, "Error checking if player is lobby owner: ${e.message}", e)
-                false
+                order("id", Order.ASCENDING)
+                limit(1)
             }
+            .decodeList<LobbyId>()
+            .firstOrNull()
+            ?.id
+    }
+
+    if (resolved != null) {
+        synchronized(resolvedLobbyIds) {
+            resolvedLobbyIds[prefix] = ResolvedLobbyId(resolved, System.currentTimeMillis())
         }
     }
+    return resolved
+}
+
+@Serializable
+private data class LobbyId(val id: String)
+
+/**
+ * Lowest or highest UUID starting with a hex prefix
+ */
+private fun paddedUuid(prefix: String, pad: Char): String {
+    val hex = prefix.padEnd(UUID_HEX_LENGTH, pad)
+    return "${hex.substring(0, 8)}-${hex.substring(8, 12)}-${hex.substring(12, 16)}-" +
+        "${hex.substring(16, 20)}-${hex.substring(20)}"
+}
+
+/**
+ * Remember the full ID a code resolved to elsewhere, e.g. on the server while joining
+ */
+internal fun rememberResolvedLobbyId(partialId: String, lobbyId: String) {
+    val prefix = partialId.replace("-", "").lowercase()
+    if (prefix.length < UUID_HEX_LENGTH && HEX_PREFIX.matches(prefix)) {
+        synchronized(resolvedLobbyIds) {
+            resolvedLobbyIds[prefix] = ResolvedLobbyId(lobbyId, System.currentTimeMillis())
+        }
+    }
+}
+
+/**
+ * Forget the short codes of a lobby, after it was deleted or a lookup did not find it
+ * @param lobbyId The full lobby ID, or a code to forget only that code
+ */
+internal fun forgetResolvedLobbyId(lobbyId: String) {
+    val prefix = lobbyId.replace("-", "").lowercase()
+    synchronized(resolvedLobbyIds) {
+        resolvedLobbyIds.remove(prefix)
+        resolvedLobbyIds.values.removeAll { it.id == lobbyId }
+    }
 }
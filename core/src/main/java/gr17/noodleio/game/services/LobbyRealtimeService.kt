@@ -0,0 +1,199 @@
+package gr17.noodleio.game.services
+
+import gr17.noodleio.game.models.GameSession
+import gr17.noodleio.game.models.LobbyPlayer
+import gr17.noodleio.game.services.logging.ServiceLogger
+import gr17.noodleio.game.services.logging.ServiceLoggerFactory
+import gr17.noodleio.game.services.network.throughNetworkEmulator
+import io.github.jan.supabase.postgrest.query.filter.FilterOperator
+import io.github.jan.supabase.realtime.PostgresAction
+import io.github.jan.supabase.realtime.RealtimeChannel
+import io.github.jan.supabase.realtime.channel
+import io.github.jan.supabase.realtime.decodeRecord
+import io.github.jan.supabase.realtime.postgresChangeFlow
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.flow.launchIn
+import kotlinx.coroutines.flow.merge
+import kotlinx.coroutines.flow.onEach
+import kotlinx.coroutines.launch
+import kotlinx.serialization.json.jsonPrimitive
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.coroutines.CoroutineContext
+
+/**
+ * Realtime view of a lobby while players wait in it
+ * Keeps the member list up to date from LobbyPlayer inserts and deletes, and reports the
+ * GameSession insert that starts the match, so the lobby screen does not have to poll.
+ */
+class LobbyRealtimeService(private val serviceManager: ServiceManager) : CoroutineScope {
+
+    private val logger: ServiceLogger = ServiceLoggerFactory.getLogger()
+
+    companion object {
+        private const val TAG = "LobbyRealtimeService"
+    }
+
+    /**
+     * Listener interface for lobby events
+     */
+    interface LobbyListener {
+        fun onMembersChanged(members: List<LobbyPlayer>)
+        // roomCount > 1: the lobby was split into rooms, this may not be the listener's own room
+        fun onSessionStarted(sessionId: String, roomCount: Int)
+    }
+
+    override val coroutineContext: CoroutineContext = Dispatchers.IO + SupervisorJob()
+
+    private var channel: RealtimeChannel? = null
+    private var lobbyJob: Job? = null
+    private var listener: LobbyListener? = null
+
+    // player id -> member, the local membership set
+    private val members = ConcurrentHashMap<String, LobbyPlayer>()
+
+    @Volatile
+    private var subscribed = false
+    @Volatile
+    private var sessionReported = false
+
+    /**
+     * Subscribe to a lobby. Members are loaded once after subscribing, later changes arrive as events.
+     * @param lobbyId The full ID of the lobby
+     */
+    fun subscribe(lobbyId: String, lobbyListener: LobbyListener) {
+        unsubscribe()
+        listener = lobbyListener
+        sessionReported = false
+
+        val job = SupervisorJob(coroutineContext[Job])
+        lobbyJob = job
+        val scope = CoroutineScope(coroutineContext + job)
+        val newChannel = serviceManager.realtime.channel("lobby-$lobbyId")
+        channel = newChannel
+
+        scope.launch {
+            try {
+                // Realtime does not filter deletes, they arrive for every lobby and are matched here
+                merge(
+                    newChannel.postgresChangeFlow<PostgresAction.Insert>(schema = "public") {
+                        table = "LobbyPlayer"
+                        filter("lobby_id", FilterOperator.EQ, lobbyId)
+                    },
+                    newChannel.postgresChangeFlow<PostgresAction.Delete>(schema = "public") {
+                        table = "LobbyPlayer"
+                    }
+                ).throughNetworkEmulator("lobby-players").onEach { action ->
+                    handleMemberChange(lobbyId, action)
+                }.launchIn(scope)
+
+                newChannel.postgresChangeFlow<PostgresAction.Insert>(schema = "public") {
+                    table = "GameSession"
+                    filter("lobby_id", FilterOperator.EQ, lobbyId)
+                }.throughNetworkEmulator("lobby-sessions").onEach { action ->
+                    reportSession(action.decodeRecord<GameSession>())
+                }.launchIn(scope)
+
+                newChannel.subscribe(blockUntilSubscribed = true)
+                subscribed = true
+                logger.info(TAG, "Subscribed to lobby $lobbyId")
+
+                // Catch up on anything that happened before the subscription
+                loadInitialState(lobbyId)
+            } catch (e: Exception) {
+                subscribed = false
+                logger.error(TAG, "Error subscribing to lobby $lobbyId", e)
+            }
+        }
+    }
+
+    private suspend fun loadInitialState(lobbyId: String) {
+        val current = serviceManager.db
+            .from("LobbyPlayer")
+            .select {
+                filter {
+                    eq("lobby_id", lobbyId)
+                }
+            }
+            .decodeList<LobbyPlayer>()
+        for (member in current) {
+            members.putIfAbsent(member.id, member)
+        }
+        notifyMembers()
+
+        val session = serviceManager.db
+            .from("GameSession")
+            .select {
+                filter {
+                    eq("lobby_id", lobbyId)
+                }
+            }
+            .decodeList<GameSession>()
+            .firstOrNull { it.ended_at == null }
+        reportSession(session)
+    }
+
+    private fun handleMemberChange(lobbyId: String, action: PostgresAction) {
+        try {
+            when (action) {
+                is PostgresAction.Insert -> {
+                    val member = action.decodeRecord<LobbyPlayer>()
+                    members[member.id] = member
+                    logger.debug(TAG, "Player joined lobby: ${member.player_name}")
+                }
+                is PostgresAction.Delete -> {
+                    // The old row is complete with the table's replica identity set to full, without
+                    // it only the id is sent, and only members of this lobby are in the map anyway
+                    val oldLobbyId = action.oldRecord["lobby_id"]?.jsonPrimitive?.content
+                    if (oldLobbyId != null && oldLobbyId != lobbyId) return
+                    val id = action.oldRecord["id"]?.jsonPrimitive?.content ?: return
+                    if (members.remove(id) == null) return
+                    logger.debug(TAG, "Player left lobby: $id")
+                }
+                else -> return
+            }
+            notifyMembers()
+        } catch (e: Exception) {
+            logger.error(TAG, "Error processing lobby member change", e)
+        }
+    }
+
+    private fun notifyMembers() {
+        val sorted = members.values.sortedBy { it.joined_at }
+        listener?.onMembersChanged(sorted)
+    }
+
+    private fun reportSession(session: GameSession?) {
+        if (session == null || sessionReported) return
+        sessionReported = true
+        logger.info(TAG, "Game session started: ${session.id} (${session.room_count} rooms)")
+        listener?.onSessionStarted(session.id, session.room_count)
+    }
+
+    /**
+     * Whether events are being received, the caller polls only while this is false
+     */
+    fun isSubscribed(): Boolean = subscribed
+
+    /**
+     * Leave the lobby channel, the realtime socket stays open for the match
+     */
+    fun unsubscribe() {
+        lobbyJob?.cancel()
+        lobbyJob = null
+        listener = null
+        subscribed = false
+        members.clear()
+        val old = channel ?: return
+        channel = null
+        launch {
+            try {
+                serviceManager.realtime.removeChannel(old)
+            } catch (e: Exception) {
+                logger.debug(TAG, "Could not remove lobby channel: ${e.message}")
+            }
+        }
+    }
+}
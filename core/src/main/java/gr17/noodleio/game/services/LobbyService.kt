@@ -5,7 +5,10 @@ import gr17.noodleio.game.models.Lobby
 import gr17.noodleio.game.models.LobbyPlayer
 import gr17.noodleio.game.services.logging.ServiceLogger
 import gr17.noodleio.game.services.logging.ServiceLoggerFactory
-import kotlinx.coroutines.runBlocking
+import gr17.noodleio.game.services.network.EndpointClass
+import gr17.noodleio.game.services.network.RejectedException
+import gr17.noodleio.game.services.network.ServiceCalls
+import gr17.noodleio.game.services.network.ServiceResult
 import kotlinx.serialization.SerialName
 import kotlinx.serialization.Serializable
 import kotlinx.serialization.json.buildJsonObject
@@ -24,6 +27,8 @@ class LobbyService(environmentConfig: EnvironmentConfig) {
 
     companion object {
         private const val TAG = "LobbyService"
+        // Longest a lobby write waits for a token before giving up
+        private const val WRITE_BUDGET_WAIT_MS = 2_000L
     }
 
     // Data class for the response from create_lobby_with_owner RPC function
@@ -40,112 +45,90 @@ class LobbyService(environmentConfig: EnvironmentConfig) {
      * Creates a new lobby with a player as the owner
      * @param playerName The name of the player who will own the lobby
      * @param maxPlayers Maximum number of players allowed
-     * @return A Pair containing the Lobby and LobbyPlayer objects, or null if there was an error
+     * @return The Lobby and LobbyPlayer objects, or REJECTED if the player name already exists
      */
-    fun createLobbyWithOwner(playerName: String, maxPlayers: Int = 2): Pair<Lobby, LobbyPlayer>? {
-        return runBlocking {
-            try {
-                logger.debug(TAG, "Creating lobby with owner: $playerName, max players: $maxPlayers")
-
-                val params = buildJsonObject {
-                    put("p_player_name", playerName)
-                    put("p_max_players", maxPlayers)
-                }
-
-                val response = serviceManager.db.rpc("create_lobby_with_owner", params)
-                val results = response.decodeList<CreateLobbyWithOwnerResponse>()
-
-                if (results.isEmpty() || !results.first().success) {
-                    logger.info(TAG, "Failed to create lobby with owner. Player name might already exist.")
-                    return@runBlocking null
-                }
-
-                val result = results.first()
-
-                // Create the Lobby and LobbyPlayer objects from the response
-                val lobby = Lobby(
-                    id = result.lobbyId,
-                    lobby_owner = result.playerId,
-                    max_players = result.maxPlayers,
-                    created_at = ZonedDateTime.now().format(DateTimeFormatter.ISO_INSTANT)
-                )
+    fun createLobbyWithOwner(playerName: String, maxPlayers: Int = 2): ServiceResult<Pair<Lobby, LobbyPlayer>> {
+        return ServiceCalls.write("createLobbyWithOwner", EndpointClass.WRITE, WRITE_BUDGET_WAIT_MS) {
+            logger.debug(TAG, "Creating lobby with owner: $playerName, max players: $maxPlayers")
 
-                val player = LobbyPlayer(
-                    id = result.playerId,
-                    player_name = result.playerName,
-                    lobby_id = result.lobbyId,
-                    joined_at = kotlinx.datetime.Clock.System.now()
-                )
+            val params = buildJsonObject {
+                put("p_player_name", playerName)
+                put("p_max_players", maxPlayers)
+            }
 
-                logger.info(TAG, "Successfully created lobby ${lobby.id} with player ${player.player_name}")
-                Pair(lobby, player)
+            val response = serviceManager.db.rpc("create_lobby_with_owner", params)
+            val result = response.decodeList<CreateLobbyWithOwnerResponse>().firstOrNull()
 
-            } catch (e: Exception) {
-                logger.error(TAG, "Failed to create lobby with owner", e)
-                null
+            if (result == null || !result.success) {
+                logger.info(TAG, "Failed to create lobby with owner. Player name might already exist.")
+                throw RejectedException("Player name '$playerName' might already exist")
             }
+
+            // Create the Lobby and LobbyPlayer objects from the response
+            val lobby = Lobby(
+                id = result.lobbyId,
+                lobby_owner = result.playerId,
+                max_players = result.maxPlayers,
+                created_at = ZonedDateTime.now().format(DateTimeFormatter.ISO_INSTANT)
+            )
+
+            val player = LobbyPlayer(
+                id = result.playerId,
+                player_name = result.playerName,
+                lobby_id = result.lobbyId,
+                joined_at = kotlinx.datetime.Clock.System.now()
+            )
+
+            logger.info(TAG, "Successfully created lobby ${lobby.id} with player ${player.player_name}")
+            Pair(lobby, player)
         }
     }
 
     /**
      * Deletes a lobby
      * @param lobbyId The ID of the lobby to delete
-     * @return True if the lobby was successfully deleted, false otherwise
+     * @return Success if the lobby was deleted, REJECTED if no such lobby exists
      */
-    fun deleteLobby(lobbyId: String): Boolean {
-        return runBlocking {
-            try {
-                logger.debug(TAG, "Attempting to delete lobby: $lobbyId")
+    fun deleteLobby(lobbyId: String): ServiceResult<Boolean> {
+        return ServiceCalls.write("deleteLobby", EndpointClass.WRITE, WRITE_BUDGET_WAIT_MS) {
+            logger.debug(TAG, "Attempting to delete lobby: $lobbyId")
+
+            // First, check if this is a partial ID
+            val actualLobbyId = serviceManager.resolveLobbyId(lobbyId) ?: lobbyId
+
+            // Delete the lobby
+            val response = serviceManager.db
+                .from("Lobby")
+                .delete {
+                    filter {
+                        eq("id", actualLobbyId)
+                    }
+                }
 
-                // First, check if this is a partial ID
-                val lobbyService = LobbyPlayerService(serviceManager.getEnvironmentConfig())
-                val actualLobbyId = lobbyService.findLobbyByPartialId(lobbyId) ?: lobbyId
+            val wasDeleted = try {
+                response.decodeList<Lobby>().isNotEmpty()
+            } catch (e: Exception) {
+                logger.error(TAG, "Error decoding deletion response: ${e.message}", e)
 
-                // Delete the lobby
-                val response = serviceManager.db
+                // Try to check if the lobby still exists, to determine if deletion was successful
+                serviceManager.db
                     .from("Lobby")
-                    .delete {
+                    .select {
                         filter {
                             eq("id", actualLobbyId)
                         }
                     }
+                    .decodeList<Lobby>()
+                    .isEmpty()
+            }
 
-                try {
-                    val deletedLobbies = response.decodeList<Lobby>()
-                    if (deletedLobbies.isEmpty()) {
-                        logger.debug(TAG, "No lobby with ID '$actualLobbyId' found to delete")
-                        return@runBlocking false
-                    }
-
-                    logger.info(TAG, "Successfully deleted lobby with ID: $actualLobbyId")
-                    return@runBlocking true
-                } catch (e: Exception) {
-                    logger.error(TAG, "Error decoding deletion response: ${e.message}", e)
-
-                    // Try to check if the lobby still exists, to determine if deletion was successful
-                    val checkResponse = serviceManager.db
-                        .from("Lobby")
-                        .select {
-                            filter {
-                                eq("id", actualLobbyId)
-                            }
-                        }
-
-                    val remainingLobbies = checkResponse.decodeList<Lobby>()
-                    val wasDeleted = remainingLobbies.isEmpty()
-
-                    if (wasDeleted) {
-                        logger.info(TAG, "Verified lobby deletion was successful for ID: $actualLobbyId")
-                    } else {
-                        logger.debug(TAG, "Lobby with ID '$actualLobbyId' still exists after deletion attempt")
-                    }
-
-                    return@runBlocking wasDeleted
-                }
-            } catch (e: Exception) {
-                logger.error(TAG, "Error deleting lobby: ${e.message}", e)
-                return@runBlocking false
+            if (!wasDeleted) {
+                throw RejectedException("No lobby with ID '$actualLobbyId' found to delete")
             }
+
+            forgetResolvedLobbyId(actualLobbyId)
+            logger.info(TAG, "Successfully deleted lobby with ID: $actualLobbyId")
+            true
         }
     }
 }
@@ -0,0 +1,88 @@
+package gr17.noodleio.game.services
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicReferenceArray
+
+/**
+ * Inputs of every player per tick, until the tick is simulated
+ * Peers' inputs are put from the realtime thread while the render thread takes complete ticks,
+ * each tick's slots are an AtomicReferenceArray so a frame put on one thread is seen whole on the other.
+ * A dropped player counts as idle from its drop tick on, and its later inputs are ignored.
+ * @param players Number of players in the roster
+ */
+internal class LockstepInputStore(private val players: Int) {
+
+    companion object {
+        // Input of a dropped player: [x, y, flags] not moving
+        private val IDLE_FRAME = intArrayOf(0, 0, 0)
+    }
+
+    // tick -> input of each player as [x, y, flags], complete once no slot is null
+    private val inputs = ConcurrentHashMap<Long, AtomicReferenceArray<IntArray?>>()
+    // player -> first tick the player counts as idle
+    private val droppedFrom = ConcurrentHashMap<Int, Long>()
+
+    @Volatile
+    var consumedThrough = -1L
+        private set
+
+    /**
+     * Store one player's input for a tick, ignored once the tick was taken or the player dropped
+     */
+    fun put(tick: Long, player: Int, frame: IntArray) {
+        if (player !in 0 until players || tick <= consumedThrough) return
+        val dropTick = droppedFrom[player]
+        if (dropTick != null && tick >= dropTick) return
+        inputs.computeIfAbsent(tick) { AtomicReferenceArray(players) }.set(player, frame)
+        // The tick may have been taken between the check and the put
+        if (tick <= consumedThrough) {
+            inputs.remove(tick)
+        }
+    }
+
+    /**
+     * Take the inputs of all players for a tick, once all of them have arrived
+     * @return [x, y, flags] per player in roster order, or null while any is missing
+     */
+    fun take(tick: Long): Array<IntArray>? {
+        val frames = inputs[tick]
+        val taken = arrayOfNulls<IntArray>(players)
+        for (player in 0 until players) {
+            taken[player] = if (isDropped(player, tick)) IDLE_FRAME else frames?.get(player) ?: return null
+        }
+        inputs.remove(tick)
+        consumedThrough = maxOf(consumedThrough, tick)
+        @Suppress("UNCHECKED_CAST")
+        return taken as Array<IntArray>
+    }
+
+    /**
+     * Whether a player's input for a tick has arrived, a dropped player's always has
+     */
+    fun has(tick: Long, player: Int): Boolean =
+        isDropped(player, tick) || inputs[tick]?.get(player) != null
+
+    /**
+     * Count a player as idle from fromTick on, a player is only dropped once
+     * @return false if the player was already dropped
+     */
+    fun drop(player: Int, fromTick: Long): Boolean {
+        if (player !in 0 until players) return false
+        if (droppedFrom.putIfAbsent(player, fromTick) != null) return false
+        inputs.forEach { (tick, frames) -> if (tick >= fromTick) frames.set(player, null) }
+        return true
+    }
+
+    fun isDropped(player: Int): Boolean = droppedFrom.containsKey(player)
+
+    private fun isDropped(player: Int, tick: Long): Boolean {
+        val dropTick = droppedFrom[player] ?: return false
+        return tick >= dropTick
+    }
+
+    fun clear() {
+        inputs.clear()
+        droppedFrom.clear()
+        consumedThrough = -1L
+    }
+}
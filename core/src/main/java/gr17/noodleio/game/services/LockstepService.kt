@@ -0,0 +1,419 @@
+package gr17.noodleio.game.services
+
+import gr17.noodleio.game.models.GameSession
+import gr17.noodleio.game.models.PlayerGameState
+import gr17.noodleio.game.services.logging.ServiceLogger
+import gr17.noodleio.game.services.logging.ServiceLoggerFactory
+import gr17.noodleio.game.services.network.EndpointClass
+import gr17.noodleio.game.services.network.RejectedException
+import gr17.noodleio.game.services.network.RetryPolicy
+import gr17.noodleio.game.services.network.ServiceCalls
+import gr17.noodleio.game.services.network.ServiceResult
+import gr17.noodleio.game.services.network.throughNetworkEmulator
+import io.github.jan.supabase.realtime.RealtimeChannel
+import io.github.jan.supabase.realtime.broadcast
+import io.github.jan.supabase.realtime.broadcastFlow
+import io.github.jan.supabase.realtime.channel
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.flow.launchIn
+import kotlinx.coroutines.flow.onEach
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import kotlinx.serialization.json.JsonObject
+import kotlinx.serialization.json.JsonPrimitive
+import kotlinx.serialization.json.buildJsonObject
+import kotlinx.serialization.json.int
+import kotlinx.serialization.json.jsonArray
+import kotlinx.serialization.json.jsonPrimitive
+import kotlinx.serialization.json.long
+import kotlinx.serialization.json.put
+import kotlinx.serialization.json.putJsonArray
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentSkipListMap
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.coroutines.CoroutineContext
+
+/**
+ * What every client of a lockstep match agrees on before the first tick
+ * @param roster Player IDs in simulation order
+ * @param localIndex Position of the local player in the roster
+ * @param seed Seed of the simulation, derived from the session ID
+ */
+class LockstepMatch(
+    val session: GameSession,
+    val roster: List<String>,
+    val localIndex: Int,
+    val seed: Long
+)
+
+/**
+ * Input exchange for lockstep matches
+ * Clients only broadcast their own inputs per tick over a realtime channel, nothing but a periodic
+ * heartbeat is written to the database while the match runs. Each message repeats the sender's inputs that not every peer
+ * has confirmed yet, so a peer that subscribed late or missed a message catches up with the next one.
+ * Periodic state checksums from all clients are compared to detect a desync.
+ * A peer silent for PEER_TIMEOUT_MS while its input is missing is dropped: every client counts it
+ * as idle from the announced tick on, so a player who left does not stall the others. A client that
+ * learns it was dropped, for example after a pause in the background, can no longer follow the
+ * match and asks everyone to hand it over to the server.
+ */
+class LockstepService(private val serviceManager: ServiceManager) : CoroutineScope {
+
+    private val logger: ServiceLogger = ServiceLoggerFactory.getLogger()
+
+    companion object {
+        private const val TAG = "LockstepService"
+        const val NETCODE_LOCKSTEP = "lockstep"
+        const val MIN_PLAYERS = 2
+        const val MAX_PLAYERS = 4
+        private const val INPUT_EVENT = "input"
+        private const val CHECKSUM_EVENT = "checksum"
+        private const val DROP_EVENT = "drop"
+        private const val RESYNC_EVENT = "resync"
+        private const val START_TIMEOUT_MS = 5_000L
+        private const val SEND_TIMEOUT_MS = 1_000L
+        // Most inputs repeated in one message, about three seconds of ticks
+        private const val MAX_RESEND_TICKS = 64
+        // Checksums older than this many ticks behind the newest are dropped
+        private const val CHECKSUM_WINDOW_TICKS = 200L
+        // A peer not heard from for this long while the match waits on it is dropped
+        const val PEER_TIMEOUT_MS = 3_000L
+        private const val FLAG_MOVING = 1
+    }
+
+    override val coroutineContext: CoroutineContext = Dispatchers.IO + SupervisorJob()
+
+    private var channel: RealtimeChannel? = null
+    private val matchHeartbeat = MatchHeartbeat(serviceManager)
+    private var matchJob: Job? = null
+    private var playerCount = 0
+    private var localIndex = 0
+
+    @Volatile
+    private var inputs = LockstepInputStore(0)
+    // Local inputs kept for resending until every peer has confirmed them
+    private val localInputs = ConcurrentSkipListMap<Long, IntArray>()
+    // Highest tick each peer has simulated, so has all inputs for
+    private val peerAcks = ConcurrentHashMap<Int, Long>()
+    // When each peer's last input message arrived
+    private val peerLastHeard = ConcurrentHashMap<Int, Long>()
+    // tick -> checksum reported by each player
+    private val checksums = ConcurrentHashMap<Long, ConcurrentHashMap<Int, Long>>()
+
+    @Volatile
+    private var desyncTick = -1L
+    // Tick from which the local player left the match for the server, -1 while it is in it
+    @Volatile
+    private var localDropTick = -1L
+
+    private val messagesSent = AtomicLong()
+    private val bytesSent = AtomicLong()
+    private val messagesReceived = AtomicLong()
+    private val bytesReceived = AtomicLong()
+
+    /**
+     * Read the session and its roster, and join the input channel
+     * @return The match, or null if the session does not use lockstep
+     */
+    fun start(sessionId: String, playerId: String): ServiceResult<LockstepMatch?> = runBlocking {
+        ServiceCalls.execute("lockstepStart", EndpointClass.LOBBY_READ, 0, START_TIMEOUT_MS, RetryPolicy.NONE) {
+            val session = serviceManager.db
+                .from("GameSession")
+                .select {
+                    filter {
+                        eq("id", sessionId)
+                    }
+                }
+                .decodeList<GameSession>()
+                .firstOrNull()
+                ?: throw RejectedException("No game session with ID '$sessionId'")
+
+            if (session.netcode != NETCODE_LOCKSTEP) {
+                return@execute null
+            }
+
+            // The rows are created together with the session, so every client reads the same roster
+            val roster = serviceManager.db
+                .from("PlayerGameState")
+                .select {
+                    filter {
+                        eq("session_id", sessionId)
+                    }
+                }
+                .decodeList<PlayerGameState>()
+                .map { it.player_id }
+                .sorted()
+
+            val index = roster.indexOf(playerId)
+            if (index < 0 || roster.size !in MIN_PLAYERS..MAX_PLAYERS) {
+                throw RejectedException("Lockstep needs $MIN_PLAYERS-$MAX_PLAYERS players including this one, roster has ${roster.size}")
+            }
+
+            join(sessionId, playerId, roster.size, index)
+            LockstepMatch(session, roster, index, sessionId.hashCode().toLong())
+        }
+    }
+
+    private suspend fun join(sessionId: String, playerId: String, players: Int, index: Int) {
+        stop()
+        playerCount = players
+        localIndex = index
+        inputs = LockstepInputStore(players)
+        val now = System.currentTimeMillis()
+        (0 until players).filter { it != index }.forEach { peerLastHeard[it] = now }
+
+        val job = SupervisorJob(coroutineContext[Job])
+        matchJob = job
+        val scope = CoroutineScope(coroutineContext + job)
+
+        val newChannel = serviceManager.realtime.channel("lockstep-$sessionId")
+        channel = newChannel
+        newChannel.broadcastFlow<JsonObject>(event = INPUT_EVENT).throughNetworkEmulator("lockstep-inputs").onEach { message ->
+            try {
+                receiveInputs(message)
+            } catch (e: Exception) {
+                logger.error(TAG, "Error reading lockstep inputs", e)
+            }
+        }.launchIn(scope)
+        newChannel.broadcastFlow<JsonObject>(event = CHECKSUM_EVENT).throughNetworkEmulator("lockstep-checksums").onEach { message ->
+            try {
+                recordReceived(message)
+                val player = message["p"]!!.jsonPrimitive.int
+                recordChecksum(message["t"]!!.jsonPrimitive.long, player, message["c"]!!.jsonPrimitive.long)
+            } catch (e: Exception) {
+                logger.error(TAG, "Error reading lockstep checksum", e)
+            }
+        }.launchIn(scope)
+        newChannel.broadcastFlow<JsonObject>(event = DROP_EVENT).throughNetworkEmulator("lockstep-drops").onEach { message ->
+            try {
+                recordReceived(message)
+                dropPeer(message["p"]!!.jsonPrimitive.int, message["t"]!!.jsonPrimitive.long)
+            } catch (e: Exception) {
+                logger.error(TAG, "Error reading lockstep drop", e)
+            }
+        }.launchIn(scope)
+        newChannel.broadcastFlow<JsonObject>(event = RESYNC_EVENT).throughNetworkEmulator("lockstep-resyncs").onEach { message ->
+            try {
+                recordReceived(message)
+                val tick = message["t"]!!.jsonPrimitive.long
+                if (desyncTick < 0) {
+                    desyncTick = tick
+                    logger.info(TAG, "Lockstep player ${message["p"]!!.jsonPrimitive.int} was dropped at tick $tick, resyncing")
+                }
+            } catch (e: Exception) {
+                logger.error(TAG, "Error reading lockstep resync", e)
+            }
+        }.launchIn(scope)
+        newChannel.subscribe(blockUntilSubscribed = true)
+        // Nothing else reaches the database during the match, this keeps the lobby from being swept
+        matchHeartbeat.launchIn(scope, playerId, sessionId)
+        logger.info(TAG, "Joined lockstep session $sessionId as player $index of $players")
+    }
+
+    private fun recordReceived(message: JsonObject) {
+        messagesReceived.incrementAndGet()
+        bytesReceived.addAndGet(message.toString().length.toLong())
+    }
+
+    private fun receiveInputs(message: JsonObject) {
+        recordReceived(message)
+        val player = message["p"]!!.jsonPrimitive.int
+        if (player !in 0 until playerCount || player == localIndex) return
+
+        peerLastHeard[player] = System.currentTimeMillis()
+        peerAcks.merge(player, message["a"]!!.jsonPrimitive.long, ::maxOf)
+
+        val firstTick = message["t"]!!.jsonPrimitive.long
+        val values = message["i"]!!.jsonArray
+        for (k in 0 until values.size / 3) {
+            val tick = firstTick + k
+            if (tick <= inputs.consumedThrough) continue
+            inputs.put(tick, player, IntArray(3) { values[k * 3 + it].jsonPrimitive.int })
+        }
+    }
+
+    /**
+     * Record the local input for a tick and send it to the peers, with the ones they have not confirmed
+     * @param simulatedThrough Highest tick the local client has simulated
+     */
+    fun submitInput(tick: Long, targetX: Int, targetY: Int, moving: Boolean, simulatedThrough: Long) {
+        val frame = intArrayOf(targetX, targetY, if (moving) FLAG_MOVING else 0)
+        localInputs[tick] = frame
+        inputs.put(tick, localIndex, frame)
+        resendInputs(simulatedThrough)
+    }
+
+    /**
+     * Send every local input not yet confirmed by all peers. Called on each new input,
+     * and periodically while stalled so a late peer gets what it missed.
+     */
+    fun resendInputs(simulatedThrough: Long) {
+        val current = channel ?: return
+
+        // Everything up to the lowest peer ack has reached every peer still in the match
+        val confirmed = (0 until playerCount).filter { it != localIndex && !inputs.isDropped(it) }.minOfOrNull { peerAcks[it] ?: -1L } ?: -1L
+        localInputs.headMap(confirmed, true).clear()
+        if (localInputs.isEmpty()) return
+
+        // Send a contiguous run, the newest ticks if there are too many
+        val pending = localInputs.entries.toList().takeLast(MAX_RESEND_TICKS)
+        val firstTick = pending.first().key
+        val message = buildJsonObject {
+            put("p", localIndex)
+            put("a", simulatedThrough)
+            put("t", firstTick)
+            putJsonArray("i") {
+                var expected = firstTick
+                for ((tick, frame) in pending) {
+                    if (tick != expected) break
+                    frame.forEach { add(JsonPrimitive(it)) }
+                    expected++
+                }
+            }
+        }
+        send(current, INPUT_EVENT, message)
+    }
+
+    private fun send(current: RealtimeChannel, event: String, message: JsonObject) {
+        launch {
+            val result = ServiceCalls.execute("lockstep $event", null, 0, SEND_TIMEOUT_MS, RetryPolicy.NONE) {
+                current.broadcast(event, message)
+            }
+            if (result.isSuccess()) {
+                messagesSent.incrementAndGet()
+                bytesSent.addAndGet(message.toString().length.toLong())
+            }
+        }
+    }
+
+    /**
+     * Leave the match for the server from a tick on and ask every peer to do the same. Called when
+     * the peers dropped the local player, or when it was away long enough that they must have and
+     * the drop message may have been missed.
+     */
+    fun requestResync(fromTick: Long) {
+        if (localDropTick >= 0) return
+        localDropTick = fromTick
+        logger.info(TAG, "Dropped by the peers from tick $fromTick")
+        channel?.let { current ->
+            send(current, RESYNC_EVENT, buildJsonObject {
+                put("p", localIndex)
+                put("t", fromTick)
+            })
+        }
+    }
+
+    /**
+     * Take the inputs of all players for a tick, once all of them have arrived
+     * @return [x, y, flags] per player in roster order, or null while any is missing
+     */
+    fun takeInputs(tick: Long): Array<IntArray>? = inputs.take(tick)
+
+    /**
+     * Drop every peer whose input for the stalled tick is missing and that has not been heard
+     * from for PEER_TIMEOUT_MS, and tell the others to drop it from the same tick
+     * @param stalledTick Tick the local simulation is waiting on
+     * @return Number of peers dropped
+     */
+    fun dropSilentPeers(stalledTick: Long): Int {
+        val current = channel ?: return 0
+        val now = System.currentTimeMillis()
+        var dropped = 0
+        for (player in 0 until playerCount) {
+            if (player == localIndex || inputs.has(stalledTick, player)) continue
+            if (now - (peerLastHeard[player] ?: now) < PEER_TIMEOUT_MS) continue
+            if (dropPeer(player, stalledTick)) {
+                dropped++
+                send(current, DROP_EVENT, buildJsonObject {
+                    put("p", player)
+                    put("t", stalledTick)
+                })
+            }
+        }
+        return dropped
+    }
+
+    /**
+     * Count a peer as idle from a tick on. Clients that already simulated that tick with the
+     * peer's real input disagree from then on, which the checksums report as a desync.
+     * A drop of the local player means the peers simulate it as idle while it keeps simulating its
+     * own inputs, so it asks every client to hand the match to the server instead of diverging.
+     */
+    private fun dropPeer(player: Int, fromTick: Long): Boolean {
+        if (player == localIndex) {
+            requestResync(fromTick)
+            return false
+        }
+        if (!inputs.drop(player, fromTick)) return false
+        logger.info(TAG, "Dropped silent lockstep player $player from tick $fromTick")
+        return true
+    }
+
+    /**
+     * Publish the local state checksum for a tick and compare it with the peers'
+     */
+    fun reportChecksum(tick: Long, checksum: Long) {
+        recordChecksum(tick, localIndex, checksum)
+        val current = channel ?: return
+        send(current, CHECKSUM_EVENT, buildJsonObject {
+            put("p", localIndex)
+            put("t", tick)
+            put("c", checksum)
+        })
+    }
+
+    private fun recordChecksum(tick: Long, player: Int, checksum: Long) {
+        val reported = checksums.computeIfAbsent(tick) { ConcurrentHashMap() }
+        reported[player] = checksum
+        if (desyncTick < 0 && reported.values.distinct().size > 1) {
+            desyncTick = tick
+            logger.error(TAG, "Lockstep desync at tick $tick: $reported")
+        }
+        checksums.keys.removeIf { it < tick - CHECKSUM_WINDOW_TICKS }
+    }
+
+    /**
+     * First tick at which two clients reported different state, or a dropped peer asked for a
+     * resync, -1 while in sync
+     */
+    fun getDesyncTick(): Long = desyncTick
+
+    /**
+     * Tick from which the local player left the match for the server, -1 while it is in it
+     */
+    fun getLocalDropTick(): Long = localDropTick
+
+    fun getStats(): String {
+        return "Lockstep: ${messagesSent.get()} messages (${bytesSent.get()} bytes) sent, " +
+            "${messagesReceived.get()} messages (${bytesReceived.get()} bytes) received, desync tick $desyncTick"
+    }
+
+    /**
+     * Leave the input channel and forget the match, the realtime socket stays open
+     */
+    fun stop() {
+        matchJob?.cancel()
+        matchJob = null
+        val old = channel
+        channel = null
+        if (old != null) {
+            launch {
+                try {
+                    serviceManager.realtime.removeChannel(old)
+                } catch (e: Exception) {
+                    logger.error(TAG, "Error leaving lockstep channel", e)
+                }
+            }
+        }
+        inputs.clear()
+        localInputs.clear()
+        peerAcks.clear()
+        peerLastHeard.clear()
+        checksums.clear()
+        desyncTick = -1L
+        localDropTick = -1L
+    }
+}
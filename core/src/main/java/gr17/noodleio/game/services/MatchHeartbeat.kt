@@ -0,0 +1,54 @@
+package gr17.noodleio.game.services
+
+import gr17.noodleio.game.services.logging.ServiceLogger
+import gr17.noodleio.game.services.logging.ServiceLoggerFactory
+import gr17.noodleio.game.services.network.EndpointClass
+import gr17.noodleio.game.services.network.RetryPolicy
+import gr17.noodleio.game.services.network.ServiceCalls
+import io.github.jan.supabase.postgrest.rpc
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import kotlinx.serialization.json.buildJsonObject
+import kotlinx.serialization.json.put
+
+/**
+ * Keeps the local player's PlayerGameState.last_seen_at fresh for as long as the match runs
+ * The stale lobby sweeper removes a player without a heartbeat for two minutes, and a started lobby
+ * once none of its players has sent one. Streaming inputs touch it as well, but a lockstep match
+ * writes nothing else to the database and a backgrounded or idle client sends no inputs, so both
+ * netcodes run this.
+ */
+internal class MatchHeartbeat(private val serviceManager: ServiceManager) {
+
+    private val logger: ServiceLogger = ServiceLoggerFactory.getLogger()
+
+    companion object {
+        private const val TAG = "MatchHeartbeat"
+        // Well inside the sweeper's two minute idle window, a few missed beats are harmless
+        const val INTERVAL_MS = 20_000L
+    }
+
+    /**
+     * Send a heartbeat now and every INTERVAL_MS until the scope is cancelled
+     */
+    fun launchIn(scope: CoroutineScope, playerId: String, sessionId: String): Job = scope.launch {
+        while (isActive) {
+            // Over budget or failed: the next beat is still well within the idle window
+            val result = ServiceCalls.execute("touch_player_state", EndpointClass.WRITE, 0,
+                ServiceCalls.DEFAULT_WRITE_TIMEOUT_MS, RetryPolicy.NONE) {
+                val params = buildJsonObject {
+                    put("p_player_id", playerId)
+                    put("p_session_id", sessionId)
+                }
+                serviceManager.db.rpc("touch_player_state", params)
+            }
+            if (!result.isSuccess()) {
+                logger.debug(TAG, "Match heartbeat for $playerId in session $sessionId failed")
+            }
+            delay(INTERVAL_MS)
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package gr17.noodleio.game.services
+
+import gr17.noodleio.game.models.MatchmakingTicket
+import gr17.noodleio.game.services.logging.ServiceLogger
+import gr17.noodleio.game.services.logging.ServiceLoggerFactory
+import gr17.noodleio.game.services.network.EndpointClass
+import gr17.noodleio.game.services.network.RejectedException
+import gr17.noodleio.game.services.network.RetryPolicy
+import gr17.noodleio.game.services.network.ServiceCalls
+import gr17.noodleio.game.services.network.ServiceResult
+import gr17.noodleio.game.services.network.throughNetworkEmulator
+import io.github.jan.supabase.postgrest.query.filter.FilterOperator
+import io.github.jan.supabase.realtime.PostgresAction
+import io.github.jan.supabase.realtime.RealtimeChannel
+import io.github.jan.supabase.realtime.channel
+import io.github.jan.supabase.realtime.decodeRecord
+import io.github.jan.supabase.realtime.postgresChangeFlow
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.flow.launchIn
+import kotlinx.coroutines.flow.onEach
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import kotlinx.datetime.Clock
+import kotlinx.datetime.Instant
+import kotlinx.serialization.SerialName
+import kotlinx.serialization.Serializable
+import kotlinx.serialization.json.buildJsonObject
+import kotlinx.serialization.json.put
+import kotlin.coroutines.CoroutineContext
+
+/**
+ * Quick-play queue
+ * A player enters the queue with just a name. The matcher on the server (run_matchmaker, every
+ * 2 seconds) groups waiting players into lobbies and starts their game session, and the client
+ * learns its lobby, player ID and session from the update event on its own ticket.
+ */
+class MatchmakingService(private val serviceManager: ServiceManager) : CoroutineScope {
+
+    private val logger: ServiceLogger = ServiceLoggerFactory.getLogger()
+
+    companion object {
+        private const val TAG = "MatchmakingService"
+        // Longest a queue write waits for a token before giving up
+        private const val WRITE_BUDGET_WAIT_MS = 2_000L
+        const val STATUS_MATCHED = "matched"
+        const val STATUS_REJECTED = "rejected"
+    }
+
+    /**
+     * Listener interface for the outcome of a queued ticket, called at most once per ticket
+     */
+    interface MatchListener {
+        fun onMatched(ticket: MatchmakingTicket)
+        fun onRejected(reason: String)
+    }
+
+    // Data class for the response from enqueue_quick_play RPC function
+    @Serializable
+    private data class EnqueueResponse(
+        @SerialName("ticket_id") val ticketId: String? = null,
+        @SerialName("queued_at") val queuedAt: Instant? = null,
+        val success: Boolean,
+        val message: String
+    )
+
+    override val coroutineContext: CoroutineContext = Dispatchers.IO + SupervisorJob()
+
+    private var channel: RealtimeChannel? = null
+    private var ticketJob: Job? = null
+    private var listener: MatchListener? = null
+
+    @Volatile
+    private var ticketId: String? = null
+    @Volatile
+    private var subscribed = false
+    @Volatile
+    private var resolved = false
+    @Volatile
+    private var lastWaitMs = -1L
+    // Local time the last ticket was sent, and from then until its match arrived
+    @Volatile
+    private var enqueuedAtMs = 0L
+    @Volatile
+    private var lastMatchedInMs = -1L
+
+    /**
+     * Enter the queue and follow the ticket until it is matched or rejected
+     * @return The queued ticket, or REJECTED if the name is taken or already queued
+     */
+    fun enqueue(playerName: String, matchListener: MatchListener): ServiceResult<MatchmakingTicket> {
+        leaveChannel()
+        enqueuedAtMs = System.currentTimeMillis()
+        val result = ServiceCalls.write("enqueueQuickPlay", EndpointClass.WRITE, WRITE_BUDGET_WAIT_MS) {
+            val params = buildJsonObject {
+                put("p_player_name", playerName)
+            }
+            val response = serviceManager.db.rpc("enqueue_quick_play", params)
+                .decodeList<EnqueueResponse>()
+                .firstOrNull()
+                ?: throw IllegalStateException("No response from enqueue_quick_play")
+
+            if (!response.success || response.ticketId == null) {
+                logger.info(TAG, "Could not queue '$playerName': ${response.message}")
+                throw RejectedException(response.message)
+            }
+            MatchmakingTicket(
+                id = response.ticketId,
+                player_name = playerName,
+                queued_at = response.queuedAt ?: Clock.System.now()
+            )
+        }
+
+        result.getOrNull()?.let { ticket ->
+            logger.info(TAG, "Queued '$playerName' with ticket ${ticket.id}")
+            follow(ticket.id, matchListener)
+        }
+        return result
+    }
+
+    private fun follow(id: String, matchListener: MatchListener) {
+        ticketId = id
+        listener = matchListener
+        resolved = false
+
+        val job = SupervisorJob(coroutineContext[Job])
+        ticketJob = job
+        val scope = CoroutineScope(coroutineContext + job)
+        val newChannel = serviceManager.realtime.channel("ticket-$id")
+        channel = newChannel
+
+        scope.launch {
+            try {
+                newChannel.postgresChangeFlow<PostgresAction.Update>(schema = "public") {
+                    table = "MatchmakingTicket"
+                    filter("id", FilterOperator.EQ, id)
+                }.throughNetworkEmulator("matchmaking").onEach { update ->
+                    handleTicket(update.decodeRecord<MatchmakingTicket>())
+                }.launchIn(scope)
+
+                newChannel.subscribe(blockUntilSubscribed = true)
+                subscribed = true
+                logger.debug(TAG, "Following ticket $id")
+
+                // The matcher may have run between queueing and subscribing
+                refresh()
+            } catch (e: Exception) {
+                subscribed = false
+                logger.error(TAG, "Error following ticket $id", e)
+            }
+        }
+    }
+
+    /**
+     * Read the ticket once, for the catch-up after subscribing and as the fallback while
+     * realtime is not connected
+     */
+    fun refresh() {
+        val id = ticketId ?: return
+        runBlocking {
+            val ticket = ServiceCalls.execute(
+                "readTicket", EndpointClass.LOBBY_READ, 0,
+                ServiceCalls.DEFAULT_READ_TIMEOUT_MS, RetryPolicy.IDEMPOTENT_READ
+            ) {
+                serviceManager.db
+                    .from("MatchmakingTicket")
+                    .select {
+                        filter {
+                            eq("id", id)
+                        }
+                    }
+                    .decodeList<MatchmakingTicket>()
+                    .firstOrNull()
+            }.getOrNull()
+            ticket?.let { handleTicket(it) }
+        }
+    }
+
+    @Synchronized
+    private fun handleTicket(ticket: MatchmakingTicket) {
+        if (resolved || ticket.id != ticketId) return
+        when (ticket.status) {
+            STATUS_MATCHED -> {
+                resolved = true
+                ticket.assigned_at?.let { lastWaitMs = (it - ticket.queued_at).inWholeMilliseconds }
+                lastMatchedInMs = System.currentTimeMillis() - enqueuedAtMs
+                logger.info(TAG, "Ticket ${ticket.id} matched into lobby ${ticket.lobby_id}, session ${ticket.session_id}")
+                listener?.onMatched(ticket)
+            }
+            STATUS_REJECTED -> {
+                resolved = true
+                logger.info(TAG, "Ticket ${ticket.id} rejected: ${ticket.reason}")
+                listener?.onRejected(ticket.reason ?: "Could not be matched")
+            }
+        }
+    }
+
+    /**
+     * Leave the queue. A ticket that has already been matched stays matched.
+     * @return true if the ticket was removed before the matcher placed it
+     */
+    fun cancel(): ServiceResult<Boolean> {
+        val id = ticketId ?: return ServiceResult.Success(false)
+        val result = ServiceCalls.write("cancelQuickPlay", EndpointClass.WRITE, WRITE_BUDGET_WAIT_MS) {
+            val params = buildJsonObject {
+                put("p_ticket_id", id)
+            }
+            serviceManager.db.rpc("cancel_quick_play", params).decodeAs<Boolean>()
+        }
+        // Too late to cancel: keep following the ticket, its assignment is on the way
+        if (result.getOrNull() == true) {
+            stop()
+        }
+        return result
+    }
+
+    /**
+     * Whether assignment events are being received, the caller polls only while this is false
+     */
+    fun isSubscribed(): Boolean = subscribed
+
+    fun isQueued(): Boolean = ticketId != null && !resolved
+
+    /**
+     * Queue state and the last match's latency: the wait in the queue as the server measured it,
+     * and the time from sending the ticket until this client learned the match
+     */
+    fun getStats(): String =
+        "queued: ${isQueued()}, realtime: $subscribed, last wait: ${if (lastWaitMs < 0) "-" else "$lastWaitMs ms"}, " +
+            "matched in: ${if (lastMatchedInMs < 0) "-" else "$lastMatchedInMs ms"}"
+
+    /**
+     * Stop following the ticket once its outcome has been handled
+     */
+    fun stop() {
+        leaveChannel()
+        ticketId = null
+    }
+
+    private fun leaveChannel() {
+        ticketJob?.cancel()
+        ticketJob = null
+        listener = null
+        subscribed = false
+        val old = channel ?: return
+        channel = null
+        launch {
+            try {
+                serviceManager.realtime.removeChannel(old)
+            } catch (e: Exception) {
+                logger.debug(TAG, "Could not remove ticket channel: ${e.message}")
+            }
+        }
+    }
+}
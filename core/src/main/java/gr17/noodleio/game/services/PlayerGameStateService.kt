@@ -1,24 +1,46 @@
 package gr17.noodleio.game.services
 
 import gr17.noodleio.game.config.EnvironmentConfig
+import gr17.noodleio.game.models.LobbyStanding
 import gr17.noodleio.game.services.logging.ServiceLogger
 import gr17.noodleio.game.services.logging.ServiceLoggerFactory
+import gr17.noodleio.game.services.network.EndpointClass
+import gr17.noodleio.game.services.network.RejectedException
+import gr17.noodleio.game.services.network.RetryPolicy
+import gr17.noodleio.game.services.network.ServiceCalls
+import gr17.noodleio.game.services.network.ServiceResult
 import kotlinx.coroutines.runBlocking
 import kotlinx.serialization.Serializable
 import kotlinx.serialization.SerialName
 import kotlinx.serialization.json.buildJsonObject
 import kotlinx.serialization.json.put
+import java.util.concurrent.atomic.AtomicLong
 
 /**
  * Service for managing player game state operations
  */
-class PlayerGameStateService(environmentConfig: EnvironmentConfig) {
+class PlayerGameStateService(private val serviceManager: ServiceManager) {
+
+    constructor(environmentConfig: EnvironmentConfig) : this(ServiceManager(environmentConfig))
 
     private val logger: ServiceLogger = ServiceLoggerFactory.getLogger()
-    private val serviceManager: ServiceManager = ServiceManager(environmentConfig)
+
+    // One uplink per match, recreated after close so the service can be reused for the next session
+    private var inputUplink: InputUplink? = null
+
+    private val claims = AtomicLong()
+    private val claimsAwarded = AtomicLong()
+    private val claimRoundTripMs = AtomicLong()
+    private val claimViewAgeMs = AtomicLong()
+
+    private fun uplink(): InputUplink {
+        return inputUplink ?: InputUplink(serviceManager).also { inputUplink = it }
+    }
 
     companion object {
         private const val TAG = "PlayerGameStateService"
+        // A move older than this is not worth applying any more
+        private const val MOVE_TIMEOUT_MS = 1_000L
     }
 
     /**
@@ -36,143 +58,72 @@ class PlayerGameStateService(environmentConfig: EnvironmentConfig) {
      * Moves a player up by one position unit
      * @param playerId The ID of the player to move
      * @param sessionId The ID of the game session
-     * @return Pair containing the success status and a message
+     * @return The server's message, RATE_LIMITED if the move was dropped
      */
-    fun movePlayerUp(playerId: String, sessionId: String): Pair<Boolean, String> {
+    fun movePlayerUp(playerId: String, sessionId: String): ServiceResult<String> {
         logger.debug(TAG, "Moving player $playerId up in session $sessionId")
-
-        return runBlocking {
-            try {
-                val params = buildJsonObject {
-                    put("p_player_id", playerId)
-                    put("p_session_id", sessionId)
-                }
-
-                val response = serviceManager.db.rpc("move_up", params)
-                val results = response.decodeList<MoveResponse>()
-
-                if (results.isEmpty()) {
-                    logger.debug(TAG, "No response from move_up function")
-                    return@runBlocking Pair(false, "Failed to move player: No response from server")
-                }
-
-                val result = results.first()
-                logger.debug(TAG, "Move up result: success=${result.success}, newPos=${result.newYPos}")
-
-                return@runBlocking Pair(result.success, result.message +
-                    (if (result.newYPos != null) " (New Y: ${result.newYPos})" else ""))
-            } catch (e: Exception) {
-                logger.error(TAG, "Error in movePlayerUp", e)
-                return@runBlocking Pair(false, "Error moving player up: ${e.message}")
-            }
-        }
+        return move("move_up", playerId, sessionId) { it.newYPos?.let { pos -> " (New Y: $pos)" } ?: "" }
     }
 
     /**
      * Moves a player down by one position unit
      * @param playerId The ID of the player to move
      * @param sessionId The ID of the game session
-     * @return Pair containing the success status and a message
+     * @return The server's message, RATE_LIMITED if the move was dropped
      */
-    fun movePlayerDown(playerId: String, sessionId: String): Pair<Boolean, String> {
+    fun movePlayerDown(playerId: String, sessionId: String): ServiceResult<String> {
         logger.debug(TAG, "Moving player $playerId down in session $sessionId")
-
-        return runBlocking {
-            try {
-                val params = buildJsonObject {
-                    put("p_player_id", playerId)
-                    put("p_session_id", sessionId)
-                }
-
-                val response = serviceManager.db.rpc("move_down", params)
-                val results = response.decodeList<MoveResponse>()
-
-                if (results.isEmpty()) {
-                    logger.debug(TAG, "No response from move_down function")
-                    return@runBlocking Pair(false, "Failed to move player: No response from server")
-                }
-
-                val result = results.first()
-                logger.debug(TAG, "Move down result: success=${result.success}, newPos=${result.newYPos}")
-
-                return@runBlocking Pair(result.success, result.message +
-                    (if (result.newYPos != null) " (New Y: ${result.newYPos})" else ""))
-            } catch (e: Exception) {
-                logger.error(TAG, "Error in movePlayerDown", e)
-                return@runBlocking Pair(false, "Error moving player down: ${e.message}")
-            }
-        }
+        return move("move_down", playerId, sessionId) { it.newYPos?.let { pos -> " (New Y: $pos)" } ?: "" }
     }
 
     /**
      * Moves a player left by one position unit
      * @param playerId The ID of the player to move
      * @param sessionId The ID of the game session
-     * @return Pair containing the success status and a message
+     * @return The server's message, RATE_LIMITED if the move was dropped
      */
-    fun movePlayerLeft(playerId: String, sessionId: String): Pair<Boolean, String> {
+    fun movePlayerLeft(playerId: String, sessionId: String): ServiceResult<String> {
         logger.debug(TAG, "Moving player $playerId left in session $sessionId")
-
-        return runBlocking {
-            try {
-                val params = buildJsonObject {
-                    put("p_player_id", playerId)
-                    put("p_session_id", sessionId)
-                }
-
-                val response = serviceManager.db.rpc("move_left", params)
-                val results = response.decodeList<MoveResponse>()
-
-                if (results.isEmpty()) {
-                    logger.debug(TAG, "No response from move_left function")
-                    return@runBlocking Pair(false, "Failed to move player: No response from server")
-                }
-
-                val result = results.first()
-                logger.debug(TAG, "Move left result: success=${result.success}, newPos=${result.newXPos}")
-
-                return@runBlocking Pair(result.success, result.message +
-                    (if (result.newXPos != null) " (New X: ${result.newXPos})" else ""))
-            } catch (e: Exception) {
-                logger.error(TAG, "Error in movePlayerLeft", e)
-                return@runBlocking Pair(false, "Error moving player left: ${e.message}")
-            }
-        }
+        return move("move_left", playerId, sessionId) { it.newXPos?.let { pos -> " (New X: $pos)" } ?: "" }
     }
 
     /**
      * Moves a player right by one position unit
      * @param playerId The ID of the player to move
      * @param sessionId The ID of the game session
-     * @return Pair containing the success status and a message
+     * @return The server's message, RATE_LIMITED if the move was dropped
      */
-    fun movePlayerRight(playerId: String, sessionId: String): Pair<Boolean, String> {
+    fun movePlayerRight(playerId: String, sessionId: String): ServiceResult<String> {
         logger.debug(TAG, "Moving player $playerId right in session $sessionId")
+        return move("move_right", playerId, sessionId) { it.newXPos?.let { pos -> " (New X: $pos)" } ?: "" }
+    }
 
-        return runBlocking {
-            try {
-                val params = buildJsonObject {
-                    put("p_player_id", playerId)
-                    put("p_session_id", sessionId)
-                }
-
-                val response = serviceManager.db.rpc("move_right", params)
-                val results = response.decodeList<MoveResponse>()
-
-                if (results.isEmpty()) {
-                    logger.debug(TAG, "No response from move_right function")
-                    return@runBlocking Pair(false, "Failed to move player: No response from server")
-                }
+    /**
+     * Calls a single-step movement RPC. Moves are dropped rather than queued or retried,
+     * the next frame sends a fresher one.
+     */
+    private fun move(
+        function: String,
+        playerId: String,
+        sessionId: String,
+        describePosition: (MoveResponse) -> String
+    ): ServiceResult<String> = runBlocking {
+        ServiceCalls.execute(function, EndpointClass.MOVEMENT, 0, MOVE_TIMEOUT_MS, RetryPolicy.NONE) {
+            val params = buildJsonObject {
+                put("p_player_id", playerId)
+                put("p_session_id", sessionId)
+            }
 
-                val result = results.first()
-                logger.debug(TAG, "Move right result: success=${result.success}, newPos=${result.newXPos}")
+            val result = serviceManager.db.rpc(function, params)
+                .decodeList<MoveResponse>()
+                .firstOrNull()
+                ?: throw IllegalStateException("No response from $function")
 
-                return@runBlocking Pair(result.success, result.message +
-                    (if (result.newXPos != null) " (New X: ${result.newXPos})" else ""))
-            } catch (e: Exception) {
-                logger.error(TAG, "Error in movePlayerRight", e)
-                return@runBlocking Pair(false, "Error moving player right: ${e.message}")
+            logger.debug(TAG, "$function result: success=${result.success}, ${describePosition(result)}")
+            if (!result.success) {
+                throw RejectedException(result.message)
             }
+            result.message + describePosition(result)
         }
     }
 
@@ -181,13 +132,17 @@ class PlayerGameStateService(environmentConfig: EnvironmentConfig) {
      * @param playerId The ID of the player
      * @param sessionId The ID of the game session
      * @param newScore The new score value
-     * @return Status message
+     * @return The written score. RATE_LIMITED when the write budget is exhausted: nothing is sent
+     * and the caller should retry with its latest score, coalescing the updates
      */
-    fun updatePlayerScore(playerId: String, sessionId: String, newScore: Int): String {
+    fun updatePlayerScore(playerId: String, sessionId: String, newScore: Int): ServiceResult<Int> {
         logger.debug(TAG, "Updating player $playerId score to $newScore in session $sessionId")
 
         return runBlocking {
-            try {
+            ServiceCalls.execute(
+                "updatePlayerScore", EndpointClass.WRITE, 0,
+                ServiceCalls.DEFAULT_WRITE_TIMEOUT_MS, RetryPolicy.NONE
+            ) {
                 val jsonData = buildJsonObject {
                     put("score", newScore)
                 }
@@ -203,11 +158,154 @@ class PlayerGameStateService(environmentConfig: EnvironmentConfig) {
                     }
 
                 logger.info(TAG, "Successfully updated player score to $newScore")
-                "Player score updated successfully to $newScore"
-            } catch (e: Exception) {
-                logger.error(TAG, "Error updating player score", e)
-                "Error updating player score: ${e.message}"
+                newScore
             }
         }
     }
+
+    /**
+     * Writes the local player's state from a lockstep simulation, before the match continues streamed
+     * @param x Head position in map coordinates
+     * @param y Head position in map coordinates
+     * @param score Score in the simulation
+     * @return REJECTED if the player has no state in the session
+     */
+    fun resyncState(playerId: String, sessionId: String, x: Float, y: Float, score: Int): ServiceResult<Unit> {
+        logger.info(TAG, "Resyncing player $playerId in session $sessionId at ($x, $y) with score $score")
+
+        return runBlocking {
+            ServiceCalls.execute(
+                "resyncState", EndpointClass.WRITE, 0,
+                ServiceCalls.DEFAULT_WRITE_TIMEOUT_MS, RetryPolicy.NONE
+            ) {
+                val params = buildJsonObject {
+                    put("p_player_id", playerId)
+                    put("p_session_id", sessionId)
+                    put("p_x", x)
+                    put("p_y", y)
+                    put("p_score", score)
+                }
+                val written = serviceManager.db.rpc("resync_player_state", params).decodeAs<Boolean>()
+                if (!written) {
+                    throw RejectedException("No state for player $playerId in session $sessionId")
+                }
+            }
+        }
+    }
+
+    @Serializable
+    data class ClaimFoodResponse(
+        @SerialName("success") val success: Boolean,
+        @SerialName("message") val message: String,
+        @SerialName("new_score") val newScore: Int? = null
+    )
+
+    /**
+     * Claims a food the local client saw the snake eat
+     * The server judges the claim at the time the client saw it, estimated as the time since
+     * observedAtMs plus half the input round trip, and bounded by the server's maximum rewind
+     * @param foodId The ID of the food
+     * @param observedAtMs Local time the pickup was seen on screen
+     * @param headX Local head position when the pickup was seen, in map coordinates
+     * @param headY Local head position when the pickup was seen, in map coordinates
+     * @return The player's new score, or REJECTED if the food went to someone else or was out of reach
+     */
+    fun claimFood(
+        playerId: String, sessionId: String, foodId: String, observedAtMs: Long, headX: Float, headY: Float
+    ): ServiceResult<Int> {
+        val oneWayMs = (inputUplink?.getRttEstimateMs() ?: 0L) / 2
+        val viewAgeMs = (System.currentTimeMillis() - observedAtMs).coerceAtLeast(0) + oneWayMs
+        val sentAt = System.currentTimeMillis()
+
+        val outcome = runBlocking {
+            ServiceCalls.execute(
+                "claim_food", EndpointClass.WRITE, 0,
+                ServiceCalls.DEFAULT_WRITE_TIMEOUT_MS, RetryPolicy.NONE
+            ) {
+                val params = buildJsonObject {
+                    put("p_player_id", playerId)
+                    put("p_session_id", sessionId)
+                    put("p_food_id", foodId)
+                    put("p_view_age_ms", viewAgeMs.toInt())
+                    put("p_head_x", headX)
+                    put("p_head_y", headY)
+                }
+
+                val result = serviceManager.db.rpc("claim_food", params)
+                    .decodeList<ClaimFoodResponse>()
+                    .firstOrNull()
+                    ?: throw IllegalStateException("No response from claim_food")
+
+                logger.debug(TAG, "claim_food $foodId (view age $viewAgeMs ms): ${result.message}")
+                if (!result.success || result.newScore == null) {
+                    throw RejectedException(result.message)
+                }
+                result.newScore
+            }
+        }
+
+        claims.incrementAndGet()
+        claimRoundTripMs.addAndGet(System.currentTimeMillis() - sentAt)
+        claimViewAgeMs.addAndGet(viewAgeMs)
+        if (outcome.isSuccess()) claimsAwarded.incrementAndGet()
+        return outcome
+    }
+
+    /**
+     * How the food claims of this service went, for the match-end log
+     */
+    fun getClaimStats(): String {
+        val count = claims.get()
+        if (count == 0L) return "No food claims"
+        return "$count food claims, ${claimsAwarded.get()} awarded, " +
+            "${claimRoundTripMs.get() / count} ms round trip and ${claimViewAgeMs.get() / count} ms view age on average"
+    }
+
+    /**
+     * Ranks every player of a lobby across all its rooms, best first
+     * Rooms still playing are included with their current scores
+     */
+    fun getLobbyStandings(lobbyId: String): ServiceResult<List<LobbyStanding>> {
+        return ServiceCalls.read("getLobbyStandings", EndpointClass.LOBBY_READ) {
+            val params = buildJsonObject {
+                put("p_lobby_id", lobbyId)
+            }
+            serviceManager.db.rpc("lobby_standings", params).decodeList<LobbyStanding>()
+        }
+    }
+
+    /**
+     * Sends a movement input through the redundant uplink, without blocking
+     * The unacknowledged samples are resent with it, so a lost request does not lose movement
+     * @param playerId The ID of the player to move
+     * @param sessionId The ID of the game session
+     * @param direction One of "up", "down", "left", "right"
+     * @param boost Whether the speed boost is active
+     * @return false if the uplink is backed up and the input was not queued
+     */
+    fun submitInput(playerId: String, sessionId: String, direction: String, boost: Boolean): Boolean {
+        return uplink().submit(playerId, sessionId, direction, boost)
+    }
+
+    /**
+     * Resends any unacknowledged inputs, without blocking
+     * @param playerId The ID of the player
+     * @param sessionId The ID of the game session
+     */
+    fun flushInputs(playerId: String, sessionId: String) {
+        inputUplink?.flush(playerId, sessionId)
+    }
+
+    /**
+     * Gets the input uplink statistics (acked sequence, failures, loss estimate, redundancy depth)
+     */
+    fun getInputStats(): String = inputUplink?.getStats() ?: "No inputs sent"
+
+    /**
+     * Stops any in-flight input sends, the next input starts a fresh uplink
+     */
+    fun close() {
+        inputUplink?.close()
+        inputUplink = null
+    }
 }
@@ -1,44 +1,113 @@
 package gr17.noodleio.game.services
 
 import gr17.noodleio.game.config.EnvironmentConfig
+import gr17.noodleio.game.models.Food
 import gr17.noodleio.game.models.GameSession
+import gr17.noodleio.game.models.GameSessionSnapshot
 import gr17.noodleio.game.models.PlayerGameState
 import gr17.noodleio.game.services.logging.ServiceLogger
 import gr17.noodleio.game.services.logging.ServiceLoggerFactory
+import gr17.noodleio.game.services.network.EndpointClass
+import gr17.noodleio.game.services.network.RetryPolicy
+import gr17.noodleio.game.services.network.throughNetworkEmulator
+import gr17.noodleio.game.services.network.ServiceCalls
 import io.github.jan.supabase.postgrest.query.filter.FilterOperator
 import io.github.jan.supabase.realtime.PostgresAction
+import io.github.jan.supabase.realtime.PresenceAction
 import io.github.jan.supabase.realtime.RealtimeChannel
+import io.github.jan.supabase.realtime.broadcastFlow
 import io.github.jan.supabase.realtime.channel
 import io.github.jan.supabase.realtime.postgresChangeFlow
+import io.github.jan.supabase.realtime.presenceChangeFlow
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.delay
 import kotlinx.coroutines.flow.launchIn
+import kotlinx.coroutines.flow.merge
 import kotlinx.coroutines.flow.onEach
+import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.serialization.json.JsonObject
+import kotlinx.serialization.json.JsonPrimitive
+import kotlinx.serialization.json.buildJsonObject
+import kotlinx.serialization.json.jsonArray
+import kotlinx.serialization.json.jsonPrimitive
+import kotlinx.serialization.json.long
+import kotlinx.serialization.json.put
 import java.util.concurrent.ConcurrentHashMap
 import kotlin.coroutines.CoroutineContext
 
 /**
  * Service for receiving real-time game state updates
  * Handles synchronization of player positions and game state
+ * Tracks player liveness through realtime presence, with a heartbeat timeout as fallback
  */
-class RealtimeGameStateService(environmentConfig: EnvironmentConfig) : CoroutineScope {
+class RealtimeGameStateService @JvmOverloads constructor(
+    private val serviceManager: ServiceManager,
+    private val presenceTimeoutMs: Long = DEFAULT_PRESENCE_TIMEOUT_MS,
+    private val heartbeatIntervalMs: Long = DEFAULT_HEARTBEAT_INTERVAL_MS,
+    private val snapshotTickMs: Long = DEFAULT_SNAPSHOT_TICK_MS
+) : CoroutineScope {
+
+    @JvmOverloads
+    constructor(
+        environmentConfig: EnvironmentConfig,
+        presenceTimeoutMs: Long = DEFAULT_PRESENCE_TIMEOUT_MS,
+        heartbeatIntervalMs: Long = DEFAULT_HEARTBEAT_INTERVAL_MS
+    ) : this(ServiceManager(environmentConfig), presenceTimeoutMs, heartbeatIntervalMs)
 
     private val logger: ServiceLogger = ServiceLoggerFactory.getLogger()
-    private val serviceManager: ServiceManager = ServiceManager(environmentConfig)
 
     companion object {
         private const val TAG = "RealtimeGameStateService"
+        const val DEFAULT_PRESENCE_TIMEOUT_MS = 10_000L
+        const val DEFAULT_HEARTBEAT_INTERVAL_MS = 3_000L
+        const val DEFAULT_SNAPSHOT_TICK_MS = 100L
+        private const val SNAPSHOT_EVENT = "snapshot"
+        private const val SNAPSHOT_STATS_INTERVAL = 100L
+        // Ticks without a snapshot before a standby client publishes in place of the elected one
+        private const val SNAPSHOT_STALL_TICKS = 3L
     }
 
     // Coroutine context for async operations
+    private val supervisor = SupervisorJob()
     override val coroutineContext: CoroutineContext
-        get() = Dispatchers.IO + SupervisorJob()
+        get() = Dispatchers.IO + supervisor
+
+    // Job owning everything launched for the current session, cancelled on disconnect
+    private var sessionJob: Job? = null
 
     // Realtime channels
     private var playerStateChannel: RealtimeChannel? = null
     private var gameSessionChannel: RealtimeChannel? = null
+    private var snapshotChannel: RealtimeChannel? = null
+
+    // Snapshot bookkeeping, stale or reordered snapshots are dropped by sequence number
+    @Volatile
+    private var lastSnapshotSeq = 0L
+    @Volatile
+    private var lastSnapshotServerTime = 0L
+    // Local time the last snapshot arrived, standby clients take over publishing when it gets old
+    @Volatile
+    private var lastSnapshotReceivedAt = 0L
+    private var snapshotsReceived = 0L
+    private var snapshotRowsApplied = 0L
+
+    // Set while the app is in the background: only presence heartbeats and game over are kept
+    @Volatile
+    private var isBackground = false
+    // Whether the app last asked for the background, the transitions catch up with it one at a time
+    @Volatile
+    private var wantBackground = false
+    // Whether the snapshot channel is unsubscribed. Guarded by lifecycleMutex.
+    private var snapshotsPaused = false
+    private val lifecycleMutex = Mutex()
 
     // Connection status
     private var isConnected = false
@@ -46,17 +115,31 @@ class RealtimeGameStateService(environmentConfig: EnvironmentConfig) : Coroutine
 
     // Game state data
     private val playerStates = ConcurrentHashMap<String, PlayerGameState>()
+    private val foodItems = ConcurrentHashMap<String, Food>()
     private var currentSession: GameSession? = null
 
+    // Change events that arrive while the initial snapshot is loading, replayed after it. Guarded by bufferLock.
+    private val bufferLock = Any()
+    private var bufferedEvents: MutableList<() -> Unit>? = null
+
+    // Liveness tracking: last time (ms) each player was seen through presence or an insert
+    private val lastSeen = ConcurrentHashMap<String, Long>()
+    // Maps PlayerGameState row id to player id, delete events only carry the primary key
+    private val stateIdToPlayerId = ConcurrentHashMap<String, String>()
+
     // Local player info
     private var localPlayerId: String? = null
     private var sessionId: String? = null
+    private val matchHeartbeat = MatchHeartbeat(serviceManager)
 
     // Listeners
     interface GameStateListener {
         fun onPlayerStateChanged(playerState: PlayerGameState)
+        fun onPlayerStatesChanged(playerStates: List<PlayerGameState>)
         fun onGameSessionChanged(gameSession: GameSession)
         fun onGameOver()
+        fun onPlayerJoined(playerId: String)
+        fun onPlayerLeft(playerId: String, timedOut: Boolean)
     }
 
     private val listeners = mutableListOf<GameStateListener>()
@@ -81,23 +164,49 @@ class RealtimeGameStateService(environmentConfig: EnvironmentConfig) : Coroutine
             this.sessionId = sessionId
             this.localPlayerId = playerId
 
-            // Create channels for different data types
-            playerStateChannel = serviceManager.realtime.channel("player-state-$sessionId")
+            // Create channels for different data types, keyed by player for presence
+            playerStateChannel = serviceManager.realtime.channel("player-state-$sessionId") {
+                presence {
+                    key = playerId
+                }
+            }
             gameSessionChannel = serviceManager.realtime.channel("game-session-$sessionId")
+            snapshotChannel = serviceManager.realtime.channel("session-snapshot-$sessionId")
+            lastSnapshotSeq = 0L
+            lastSnapshotReceivedAt = 0L
+            synchronized(bufferLock) {
+                bufferedEvents = ArrayList()
+            }
+
+            val job = SupervisorJob(supervisor)
+            sessionJob = job
+            val sessionScope = CoroutineScope(coroutineContext + job)
 
             // Subscribe to channels in a coroutine
-            launch {
+            sessionScope.launch {
                 try {
                     // Set up listeners BEFORE subscribing to channels
-                    setupPlayerStateListener()
-                    setupGameSessionListener()
-
-                    // Now subscribe to the channels
-                    playerStateChannel?.subscribe(blockUntilSubscribed = true)
-                    gameSessionChannel?.subscribe(blockUntilSubscribed = true)
-
-                    // Initial data load
-                    loadInitialGameState()
+                    setupPlayerStateListener(sessionScope)
+                    setupPresenceListener(sessionScope)
+                    setupGameSessionListener(sessionScope)
+                    setupSnapshotListener(sessionScope)
+
+                    // Now subscribe to the channels, all at once instead of one after the other
+                    listOfNotNull(playerStateChannel, gameSessionChannel, snapshotChannel)
+                        .map { channel -> async { channel.subscribe(blockUntilSubscribed = true) } }
+                        .awaitAll()
+
+                    // Announce ourselves and keep the presence fresh, and the match alive for the sweeper
+                    startHeartbeat(sessionScope)
+                    matchHeartbeat.launchIn(sessionScope, playerId, sessionId)
+                    startLivenessSweep(sessionScope)
+                    startSnapshotTicker(sessionScope)
+
+                    // Initial data load in a single round trip, then replay anything that arrived meanwhile
+                    if (!loadSessionSnapshot()) {
+                        loadInitialGameState()
+                    }
+                    replayBufferedEvents()
 
                     isConnected = true
                     logger.info(TAG, "Connected to game session: $sessionId")
@@ -117,6 +226,88 @@ class RealtimeGameStateService(environmentConfig: EnvironmentConfig) : Coroutine
         }
     }
 
+    /**
+     * Load the session config, all player states and food with one RPC
+     * @param prune Drop known players missing from the snapshot, for a resync after time away
+     * @return false if the snapshot could not be loaded and the caller should fall back to plain queries
+     */
+    private suspend fun loadSessionSnapshot(prune: Boolean = false): Boolean {
+        return try {
+            val params = buildJsonObject {
+                put("p_session_id", sessionId)
+            }
+            val snapshot = serviceManager.db.rpc("get_session_snapshot", params).decodeAs<GameSessionSnapshot>()
+
+            currentSession = snapshot.session
+            listeners.forEach { it.onGameSessionChanged(snapshot.session) }
+
+            // Realtime snapshots up to this sequence number are already contained in the read
+            if (snapshot.seq > lastSnapshotSeq) {
+                lastSnapshotSeq = snapshot.seq
+            }
+
+            for (state in snapshot.players) {
+                playerStates[state.player_id] = state
+                stateIdToPlayerId[state.id] = state.player_id
+                seedSeen(state.player_id)
+            }
+            if (snapshot.players.isNotEmpty()) {
+                listeners.forEach { it.onPlayerStatesChanged(snapshot.players) }
+            }
+            if (prune) {
+                val present = snapshot.players.map { it.player_id }.toSet()
+                for (playerId in playerStates.keys.filter { it !in present }) {
+                    removePlayer(playerId, timedOut = false)
+                }
+            }
+
+            foodItems.clear()
+            for (food in snapshot.food) {
+                foodItems[food.id] = food
+            }
+
+            logger.info(TAG, "Session snapshot loaded: ${snapshot.players.size} players, ${snapshot.food.size} food, seq ${snapshot.seq}")
+            true
+        } catch (e: Exception) {
+            logger.error(TAG, "Error loading session snapshot, falling back to separate queries", e)
+            false
+        }
+    }
+
+    /**
+     * Apply a change event now, or hold it back while the initial snapshot is loading
+     */
+    private fun applyOrBuffer(event: () -> Unit) {
+        synchronized(bufferLock) {
+            val buffer = bufferedEvents
+            if (buffer != null) {
+                buffer.add(event)
+                return
+            }
+        }
+        event()
+    }
+
+    /**
+     * Apply the events that arrived during the initial load, in arrival order, and stop buffering.
+     * Replaying is safe: inserts overwrite, deletes are idempotent and snapshots at or below
+     * the loaded sequence number are dropped by applySnapshot.
+     */
+    private fun replayBufferedEvents() {
+        synchronized(bufferLock) {
+            val buffer = bufferedEvents ?: return
+            for (event in buffer) {
+                try {
+                    event()
+                } catch (e: Exception) {
+                    logger.error(TAG, "Error replaying buffered event", e)
+                }
+            }
+            logger.debug(TAG, "Replayed ${buffer.size} buffered events")
+            bufferedEvents = null
+        }
+    }
+
     /**
      * Load initial game state from database
      */
@@ -149,6 +340,8 @@ class RealtimeGameStateService(environmentConfig: EnvironmentConfig) : Coroutine
             val playerStateList = playerStateResponse.decodeList<PlayerGameState>()
             for (state in playerStateList) {
                 playerStates[state.player_id] = state
+                stateIdToPlayerId[state.id] = state.player_id
+                seedSeen(state.player_id)
                 // Notify listeners
                 listeners.forEach { it.onPlayerStateChanged(state) }
                 logger.debug(TAG, "Initial player state: player_id=${state.player_id}, x=${state.x_pos}, y=${state.y_pos}")
@@ -163,88 +356,321 @@ class RealtimeGameStateService(environmentConfig: EnvironmentConfig) : Coroutine
     /**
      * Set up listener for player state changes
      */
-    private fun setupPlayerStateListener() {
+    private fun setupPlayerStateListener(scope: CoroutineScope) {
         playerStateChannel?.let { channel ->
             try {
-                val playerChanges = channel.postgresChangeFlow<PostgresAction>(
-                    schema = "public"
-                ) {
-                    table = "PlayerGameState"
-                    filter("session_id", FilterOperator.EQ, sessionId!!)
+                // Only inserts and deletes are streamed per row, position updates arrive
+                // as one aggregated snapshot per tick on the snapshot channel.
+                // Realtime does not filter DELETE events, they are matched on the old row instead.
+                val playerChanges = merge(
+                    channel.postgresChangeFlow<PostgresAction.Insert>(schema = "public") {
+                        table = "PlayerGameState"
+                        filter("session_id", FilterOperator.EQ, sessionId!!)
+                    },
+                    channel.postgresChangeFlow<PostgresAction.Delete>(schema = "public") {
+                        table = "PlayerGameState"
+                    }
+                )
+
+                playerChanges.throughNetworkEmulator("player-states").onEach { action ->
+                    applyOrBuffer { handlePlayerStateChange(action) }
+                }.launchIn(scope)
+
+                logger.debug(TAG, "Successfully set up player state listener")
+            } catch (e: Exception) {
+                logger.error(TAG, "Error setting up player state listener", e)
+            }
+        }
+    }
+
+    /**
+     * Apply a player insert or delete event
+     */
+    private fun handlePlayerStateChange(action: PostgresAction) {
+        try {
+            when (action) {
+                is PostgresAction.Insert -> {
+                    val record = action.record
+                    val playerState = PlayerGameState(
+                        id = extractStringValue(record["id"]),
+                        session_id = extractStringValue(record["session_id"]),
+                        player_id = extractStringValue(record["player_id"]),
+                        x_pos = extractNumberValue(record["x_pos"]).toFloat(),
+                        y_pos = extractNumberValue(record["y_pos"]).toFloat(),
+                        score = extractNumberValue(record["score"]).toInt()
+                    )
+
+                    playerStates[playerState.player_id] = playerState
+                    stateIdToPlayerId[playerState.id] = playerState.player_id
+                    markSeen(playerState.player_id)
+                    listeners.forEach { it.onPlayerStateChanged(playerState) }
+
+                    logger.debug(TAG, "New player joined: ${playerState.player_id}, position: (${playerState.x_pos}, ${playerState.y_pos})")
                 }
 
-                playerChanges.onEach { action ->
-                    try {
-                        when (action) {
-                            is PostgresAction.Insert -> {
-                                val record = action.record
-                                val playerState = PlayerGameState(
-                                    id = record["id"].toString(),
-                                    session_id = record["session_id"].toString(),
-                                    player_id = record["player_id"].toString(),
-                                    x_pos = extractNumberValue(record["x_pos"]).toFloat(),
-                                    y_pos = extractNumberValue(record["y_pos"]).toFloat(),
-                                    score = extractNumberValue(record["score"]).toInt()
-                                )
-
-                                playerStates[playerState.player_id] = playerState
-                                listeners.forEach { it.onPlayerStateChanged(playerState) }
-
-                                logger.debug(TAG, "New player joined: ${playerState.player_id}, position: (${playerState.x_pos}, ${playerState.y_pos})")
-                            }
-
-                            is PostgresAction.Update -> {
-                                val record = action.record
-                                val playerId = record["player_id"].toString()
-                                val prevState = playerStates[playerId]
-
-                                val playerState = PlayerGameState(
-                                    id = record["id"].toString(),
-                                    session_id = record["session_id"].toString(),
-                                    player_id = playerId,
-                                    x_pos = extractNumberValue(record["x_pos"]).toFloat(),
-                                    y_pos = extractNumberValue(record["y_pos"]).toFloat(),
-                                    score = extractNumberValue(record["score"]).toInt()
-                                )
-
-                                playerStates[playerId] = playerState
-                                listeners.forEach { it.onPlayerStateChanged(playerState) }
-
-                                if (logger.isDebugEnabled()) {
-                                    if (prevState != null) {
-                                        logger.debug(TAG, "Player state updated: $playerId, position: (${prevState.x_pos}, ${prevState.y_pos}) -> (${playerState.x_pos}, ${playerState.y_pos})")
-                                    } else {
-                                        logger.debug(TAG, "Player state updated: $playerId, position: (${playerState.x_pos}, ${playerState.y_pos})")
-                                    }
-                                }
-                            }
-
-                            is PostgresAction.Delete -> {
-                                val oldRecord = action.oldRecord
-                                val playerId = oldRecord["player_id"].toString()
-                                playerStates.remove(playerId)
-                                logger.debug(TAG, "Player left: $playerId")
-                            }
-                            else -> {
-                                logger.debug(TAG, "Unhandled action type: ${action::class.simpleName}")
-                            }
+                is PostgresAction.Delete -> {
+                    // Deletes of every session arrive here. The old row is complete with the table's
+                    // replica identity set to full, without it only the id is sent, and only states
+                    // of this session are in the map anyway.
+                    val oldRecord = action.oldRecord
+                    val oldSessionId = oldRecord["session_id"]?.let { extractStringValue(it) }
+                    if (oldSessionId != null && oldSessionId != sessionId) return
+                    val playerId = stateIdToPlayerId[extractStringValue(oldRecord["id"])] ?: return
+
+                    removePlayer(playerId, timedOut = false)
+                    logger.debug(TAG, "Player left: $playerId")
+                }
+                else -> {
+                    logger.debug(TAG, "Unhandled action type: ${action::class.simpleName}")
+                }
+            }
+        } catch (e: Exception) {
+            logger.error(TAG, "Error processing player state change", e)
+        }
+    }
+
+    /**
+     * Set up listener for aggregated world snapshots, one broadcast per tick per session
+     */
+    private fun setupSnapshotListener(scope: CoroutineScope) {
+        snapshotChannel?.let { channel ->
+            try {
+                channel.broadcastFlow<JsonObject>(event = SNAPSHOT_EVENT).throughNetworkEmulator("snapshots").onEach { snapshot ->
+                    lastSnapshotReceivedAt = System.currentTimeMillis()
+                    applyOrBuffer {
+                        try {
+                            applySnapshot(snapshot)
+                        } catch (e: Exception) {
+                            logger.error(TAG, "Error applying session snapshot", e)
                         }
-                    } catch (e: Exception) {
-                        logger.error(TAG, "Error processing player state change", e)
                     }
-                }.launchIn(this)
+                }.launchIn(scope)
 
-                logger.debug(TAG, "Successfully set up player state listener")
+                logger.debug(TAG, "Successfully set up snapshot listener")
             } catch (e: Exception) {
-                logger.error(TAG, "Error setting up player state listener", e)
+                logger.error(TAG, "Error setting up snapshot listener", e)
+            }
+        }
+    }
+
+    /**
+     * Apply a whole snapshot in one pass and notify listeners once.
+     * Rows are compact arrays: [id, player_id, x_pos, y_pos, score]
+     */
+    private fun applySnapshot(snapshot: JsonObject) {
+        val seq = snapshot["seq"]?.jsonPrimitive?.long ?: return
+        if (seq <= lastSnapshotSeq) {
+            logger.debug(TAG, "Dropping stale snapshot $seq (last applied $lastSnapshotSeq)")
+            return
+        }
+        lastSnapshotSeq = seq
+        lastSnapshotServerTime = snapshot["ts"]?.jsonPrimitive?.long ?: lastSnapshotServerTime
+
+        val rows = snapshot["players"]?.jsonArray ?: return
+        val changed = ArrayList<PlayerGameState>(rows.size)
+        for (row in rows) {
+            val fields = row.jsonArray
+            // A row is not a sign of life, the state of a crashed or departed player stays in the
+            // table until it is swept. Only players known from presence or an insert are applied.
+            val playerId = extractStringValue(fields[1])
+            if (playerId != localPlayerId && !lastSeen.containsKey(playerId)) continue
+            val playerState = PlayerGameState(
+                id = extractStringValue(fields[0]),
+                session_id = sessionId ?: return,
+                player_id = playerId,
+                x_pos = extractNumberValue(fields[2].jsonPrimitive.content).toFloat(),
+                y_pos = extractNumberValue(fields[3].jsonPrimitive.content).toFloat(),
+                score = extractNumberValue(fields[4].jsonPrimitive.content).toInt()
+            )
+
+            stateIdToPlayerId[playerState.id] = playerState.player_id
+            if (playerStates.put(playerState.player_id, playerState) != playerState) {
+                changed.add(playerState)
+            }
+        }
+
+        if (changed.isNotEmpty()) {
+            listeners.forEach { it.onPlayerStatesChanged(changed) }
+        }
+
+        snapshotsReceived++
+        snapshotRowsApplied += changed.size
+        if (snapshotsReceived % SNAPSHOT_STATS_INTERVAL == 0L) {
+            logger.debug(TAG, getSnapshotStats())
+        }
+    }
+
+    /**
+     * Ask the server to publish a snapshot every tick. Only the elected publisher sends the call,
+     * so the session's snapshot row sees one UPDATE per tick instead of one per player. The others
+     * stand by and only call in while snapshots have stopped arriving, the server function still
+     * publishes at most once per tick window if several clients overlap.
+     */
+    private fun startSnapshotTicker(scope: CoroutineScope) {
+        scope.launch {
+            while (isActive) {
+                if (isBackground || !shouldPublishSnapshot()) {
+                    delay(snapshotTickMs)
+                    continue
+                }
+                // Over budget, timed out or circuit open: skip this tick, another client or the next tick publishes it
+                ServiceCalls.execute("publish_session_snapshot", EndpointClass.MOVEMENT, 0, snapshotTickMs * 4, RetryPolicy.NONE) {
+                    val params = buildJsonObject {
+                        put("p_session_id", sessionId)
+                        put("p_tick_ms", snapshotTickMs)
+                    }
+                    serviceManager.db.rpc("publish_session_snapshot", params)
+                }
+                delay(snapshotTickMs)
             }
         }
     }
 
+    /**
+     * Whether this client should ask for the next snapshot: it is the live player with the lowest id,
+     * which every client agrees on from presence without extra messages, or no snapshot has arrived
+     * for a while because the publisher left or went to the background.
+     */
+    private fun shouldPublishSnapshot(): Boolean {
+        val playerId = localPlayerId ?: return false
+        if (System.currentTimeMillis() - lastSnapshotReceivedAt > snapshotTickMs * SNAPSHOT_STALL_TICKS) {
+            return true
+        }
+        return lastSeen.keys.none { it < playerId }
+    }
+
+    /**
+     * Snapshot counters, used to compare realtime load against per-row change streams
+     */
+    fun getSnapshotStats(): String {
+        return "Snapshots received: $snapshotsReceived, rows changed: $snapshotRowsApplied, last seq: $lastSnapshotSeq"
+    }
+
+    /**
+     * Server time (epoch ms) of the most recently applied snapshot
+     */
+    fun getLastSnapshotServerTime(): Long {
+        return lastSnapshotServerTime
+    }
+
+    /**
+     * Set up listener for presence changes on the player state channel
+     * Presence leaves arrive when a client disconnects, even if it never deletes its row
+     */
+    private fun setupPresenceListener(scope: CoroutineScope) {
+        playerStateChannel?.let { channel ->
+            try {
+                channel.presenceChangeFlow().throughNetworkEmulator("presence").onEach { action ->
+                    applyOrBuffer {
+                        try {
+                            handlePresenceChange(action)
+                        } catch (e: Exception) {
+                            logger.error(TAG, "Error processing presence change", e)
+                        }
+                    }
+                }.launchIn(scope)
+
+                logger.debug(TAG, "Successfully set up presence listener")
+            } catch (e: Exception) {
+                logger.error(TAG, "Error setting up presence listener", e)
+            }
+        }
+    }
+
+    /**
+     * Apply a presence diff. A re-track shows up as a leave and a join for the same key,
+     * so joins are applied first and only leaves without a matching join count as departures.
+     */
+    private fun handlePresenceChange(action: PresenceAction) {
+        for (key in action.joins.keys) {
+            markSeen(key)
+        }
+
+        for (key in action.leaves.keys) {
+            if (!action.joins.containsKey(key) && key != localPlayerId) {
+                removePlayer(key, timedOut = false)
+                logger.debug(TAG, "Player presence left: $key")
+            }
+        }
+    }
+
+    /**
+     * Periodically re-track local presence so other clients can see we are alive
+     */
+    private fun startHeartbeat(scope: CoroutineScope) {
+        scope.launch {
+            while (isActive) {
+                try {
+                    playerStateChannel?.track(buildJsonObject {
+                        put("player_id", localPlayerId)
+                        put("ts", System.currentTimeMillis())
+                    })
+                } catch (e: Exception) {
+                    logger.error(TAG, "Error sending presence heartbeat", e)
+                }
+                delay(heartbeatIntervalMs)
+            }
+        }
+    }
+
+    /**
+     * Periodically drop players that have not been seen within the presence timeout
+     */
+    private fun startLivenessSweep(scope: CoroutineScope) {
+        scope.launch {
+            while (isActive) {
+                delay(heartbeatIntervalMs)
+                // Nothing is received in the background, the resync on return settles who is still there
+                if (isBackground) continue
+                val cutoff = System.currentTimeMillis() - presenceTimeoutMs
+                for ((playerId, seenAt) in lastSeen) {
+                    if (seenAt < cutoff && playerId != localPlayerId) {
+                        removePlayer(playerId, timedOut = true)
+                        logger.info(TAG, "Player timed out: $playerId")
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Record that a player is alive, notifying listeners the first time it is seen
+     */
+    private fun markSeen(playerId: String) {
+        val previous = lastSeen.put(playerId, System.currentTimeMillis())
+        if (previous == null && playerId != localPlayerId) {
+            listeners.forEach { it.onPlayerJoined(playerId) }
+        }
+    }
+
+    /**
+     * Start the presence timeout for a player read from the server without refreshing a known one.
+     * A loaded row may belong to a player who crashed moments ago, it times out unless presence
+     * confirms it.
+     */
+    private fun seedSeen(playerId: String) {
+        if (lastSeen.putIfAbsent(playerId, System.currentTimeMillis()) == null && playerId != localPlayerId) {
+            listeners.forEach { it.onPlayerJoined(playerId) }
+        }
+    }
+
+    /**
+     * Forget a player and notify listeners so the client can prune it immediately
+     */
+    private fun removePlayer(playerId: String, timedOut: Boolean) {
+        val wasSeen = lastSeen.remove(playerId) != null
+        val removedState = playerStates.remove(playerId)
+        removedState?.let { stateIdToPlayerId.remove(it.id) }
+
+        if (wasSeen || removedState != null) {
+            listeners.forEach { it.onPlayerLeft(playerId, timedOut) }
+        }
+    }
+
     /**
      * Set up listener for game session changes
      */
-    private fun setupGameSessionListener() {
+    private fun setupGameSessionListener(scope: CoroutineScope) {
         gameSessionChannel?.let { channel ->
             try {
                 val changes = channel.postgresChangeFlow<PostgresAction.Update>(
@@ -254,36 +680,9 @@ class RealtimeGameStateService(environmentConfig: EnvironmentConfig) : Coroutine
                     filter("id", FilterOperator.EQ, sessionId!!)
                 }
 
-                changes.onEach { update ->
-                    try {
-                        val record = update.record
-                        val endedAt = record["ended_at"]
-
-                        // Check if game has ended
-                        if (endedAt != null) {
-                            listeners.forEach { it.onGameOver() }
-                            logger.info(TAG, "Game over!")
-                        }
-
-                        // Update session details
-                        val gameSession = GameSession(
-                            id = record["id"].toString(),
-                            lobby_id = record["lobby_id"].toString(),
-                            winning_score = extractNumberValue(record["winning_score"]).toInt(),
-                            map_length = extractNumberValue(record["map_length"]).toInt(),
-                            map_height = extractNumberValue(record["map_height"]).toInt(),
-                            started_at = currentSession?.started_at ?: kotlinx.datetime.Clock.System.now(),
-                            ended_at = if (endedAt != null) kotlinx.datetime.Clock.System.now() else null
-                        )
-
-                        currentSession = gameSession
-                        listeners.forEach { it.onGameSessionChanged(gameSession) }
-
-                        logger.debug(TAG, "Game session updated")
-                    } catch (e: Exception) {
-                        logger.error(TAG, "Error processing game session update", e)
-                    }
-                }.launchIn(this)
+                changes.throughNetworkEmulator("session").onEach { update ->
+                    applyOrBuffer { handleGameSessionUpdate(update) }
+                }.launchIn(scope)
 
                 logger.debug(TAG, "Successfully set up game session listener")
             } catch (e: Exception) {
@@ -292,22 +691,159 @@ class RealtimeGameStateService(environmentConfig: EnvironmentConfig) : Coroutine
         }
     }
 
+    /**
+     * Apply a game session update, notifying listeners when the game has ended
+     */
+    private fun handleGameSessionUpdate(update: PostgresAction.Update) {
+        try {
+            val record = update.record
+            val endedAt = record["ended_at"]
+
+            // Check if game has ended
+            if (endedAt != null) {
+                listeners.forEach { it.onGameOver() }
+                logger.info(TAG, "Game over!")
+            }
+
+            // Update session details
+            val gameSession = GameSession(
+                id = record["id"].toString(),
+                lobby_id = record["lobby_id"].toString(),
+                winning_score = extractNumberValue(record["winning_score"]).toInt(),
+                map_length = extractNumberValue(record["map_length"]).toInt(),
+                map_height = extractNumberValue(record["map_height"]).toInt(),
+                started_at = currentSession?.started_at ?: kotlinx.datetime.Clock.System.now(),
+                ended_at = if (endedAt != null) kotlinx.datetime.Clock.System.now() else null
+            )
+
+            currentSession = gameSession
+            listeners.forEach { it.onGameSessionChanged(gameSession) }
+
+            logger.debug(TAG, "Game session updated")
+        } catch (e: Exception) {
+            logger.error(TAG, "Error processing game session update", e)
+        }
+    }
+
+    /**
+     * Reduce the session to a liveness heartbeat while the app is in the background: stop receiving
+     * world snapshots and stop publishing them. Presence and the game over signal stay subscribed.
+     */
+    fun enterBackground() {
+        val job = sessionJob ?: return
+        if (wantBackground) return
+        wantBackground = true
+        isBackground = true
+        CoroutineScope(coroutineContext + job).launch { catchUpWithLifecycle() }
+    }
+
+    /**
+     * Leave the background: resubscribe to snapshots and resync the whole session with one read.
+     * Snapshots arriving during the read are held back and replayed on top of it.
+     */
+    fun enterForeground() {
+        if (!wantBackground) return
+        wantBackground = false
+        val job = sessionJob ?: run {
+            isBackground = false
+            return
+        }
+        CoroutineScope(coroutineContext + job).launch { catchUpWithLifecycle() }
+    }
+
+    /**
+     * Pause or resume the snapshots to match the last requested state. Transitions run one at a
+     * time, so a quick background and foreground cannot finish with the unsubscribe last, and one
+     * that was overtaken by the next request does nothing.
+     */
+    private suspend fun catchUpWithLifecycle() {
+        lifecycleMutex.withLock { catchUpLocked() }
+    }
+
+    private suspend fun catchUpLocked() {
+        val worldChannel = snapshotChannel
+        if (wantBackground && !snapshotsPaused) {
+            snapshotsPaused = true
+            try {
+                worldChannel?.unsubscribe()
+                logger.info(TAG, "Entered background, snapshots paused")
+            } catch (e: Exception) {
+                logger.error(TAG, "Error pausing snapshots", e)
+            }
+        } else if (!wantBackground && snapshotsPaused) {
+            snapshotsPaused = false
+            synchronized(bufferLock) {
+                bufferedEvents = ArrayList()
+            }
+            val startedAt = System.currentTimeMillis()
+            try {
+                worldChannel?.subscribe(blockUntilSubscribed = true)
+                if (!loadSessionSnapshot(prune = true)) {
+                    loadInitialGameState()
+                }
+            } catch (e: Exception) {
+                logger.error(TAG, "Error resyncing after background", e)
+            } finally {
+                // Everyone seen in the snapshot is alive, the liveness sweep starts from now
+                val now = System.currentTimeMillis()
+                lastSeen.replaceAll { _, _ -> now }
+                replayBufferedEvents()
+                // Stays in the background if the app went back there during the resync
+                isBackground = wantBackground
+                logger.info(TAG, "Resynced after background in ${System.currentTimeMillis() - startedAt} ms")
+            }
+        } else if (!wantBackground) {
+            // Resumed before the pause ran, the snapshots were never unsubscribed
+            isBackground = false
+        }
+    }
+
     /**
      * Disconnect from all channels
      */
     fun disconnect(): String {
         return try {
+            // Stop session work right away, so nothing from this session leaks into the next connect
+            sessionJob?.cancel()
+            sessionJob = null
+            val playerChannel = playerStateChannel
+            val sessionChannel = gameSessionChannel
+            val worldChannel = snapshotChannel
+            playerStateChannel = null
+            gameSessionChannel = null
+            snapshotChannel = null
+
+            // Channels are removed, the realtime socket itself stays open for the next session
             launch {
-                playerStateChannel?.unsubscribe()
-                gameSessionChannel?.unsubscribe()
+                try {
+                    playerChannel?.untrack()
+                } catch (e: Exception) {
+                    logger.debug(TAG, "Could not untrack presence: ${e.message}")
+                }
+                for (channel in listOfNotNull(playerChannel, sessionChannel, worldChannel)) {
+                    try {
+                        serviceManager.realtime.removeChannel(channel)
+                    } catch (e: Exception) {
+                        logger.debug(TAG, "Could not remove channel ${channel.topic}: ${e.message}")
+                    }
+                }
             }
 
             isConnected = false
+            isBackground = false
+            wantBackground = false
+            snapshotsPaused = false
             localPlayerId = null
             sessionId = null
 
             // Clear state
+            synchronized(bufferLock) {
+                bufferedEvents = null
+            }
             playerStates.clear()
+            foodItems.clear()
+            lastSeen.clear()
+            stateIdToPlayerId.clear()
             currentSession = null
 
             logger.info(TAG, "Disconnected from game session")
@@ -335,6 +871,24 @@ class RealtimeGameStateService(environmentConfig: EnvironmentConfig) : Coroutine
         }
     }
 
+    /**
+     * Extract a plain string from a realtime record value, without JSON quoting
+     */
+    private fun extractStringValue(value: Any?): String {
+        return when (value) {
+            is JsonPrimitive -> value.content
+            null -> ""
+            else -> value.toString().trim('"')
+        }
+    }
+
+    /**
+     * Get the uneaten food loaded with the session snapshot
+     */
+    fun getFood(): List<Food> {
+        return foodItems.values.toList()
+    }
+
     /**
      * Get all current player states
      */
@@ -1,15 +1,35 @@
 package gr17.noodleio.game.services
 
 import gr17.noodleio.game.config.EnvironmentConfig
+import gr17.noodleio.game.services.logging.ServiceLogger
+import gr17.noodleio.game.services.logging.ServiceLoggerFactory
+import gr17.noodleio.game.services.network.NetworkImpairment
 import io.github.jan.supabase.createSupabaseClient
 import io.github.jan.supabase.SupabaseClient
 import io.github.jan.supabase.postgrest.Postgrest
 import io.github.jan.supabase.auth.Auth
 import io.github.jan.supabase.postgrest.postgrest
+import io.github.jan.supabase.postgrest.query.Columns
 import io.github.jan.supabase.realtime.Realtime
 import io.github.jan.supabase.realtime.realtime
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.launch
 
 class ServiceManager(private val config: EnvironmentConfig) {
+    private val logger: ServiceLogger = ServiceLoggerFactory.getLogger()
+    private val warmUpScope = CoroutineScope(Dispatchers.IO + SupervisorJob())
+
+    companion object {
+        private const val TAG = "ServiceManager"
+    }
+
+    @Volatile
+    private var warming = false
+    @Volatile
+    private var warm = false
+
     private val supabaseClient: SupabaseClient by lazy {
         createSupabaseClient(
             supabaseUrl = config.supabaseUrl,
@@ -26,6 +46,10 @@ class ServiceManager(private val config: EnvironmentConfig) {
             install(Realtime){
                 //reconnectDelay = 5.seconds
             }
+            // Adds latency, jitter, loss and bandwidth caps to HTTP traffic when a network profile is selected
+            httpConfig {
+                install(NetworkImpairment)
+            }
             /*
             install(Storage) {
                 // transferTimeout = 90.seconds // Default: 120 seconds
@@ -40,6 +64,58 @@ class ServiceManager(private val config: EnvironmentConfig) {
     val db: Postgrest get() = supabaseClient.postgrest
     val realtime: Realtime get() = supabaseClient.realtime
 
+    /**
+     * Open the realtime socket and an HTTP connection in the background, so the first
+     * subscribe and RPC of a match do not pay for client setup, TLS and the websocket handshake.
+     * Safe to call repeatedly, a warm or warming client is left alone and a dropped socket is reopened.
+     */
+    fun warmUp() {
+        if (isWarm() || warming) return
+        warming = true
+
+        warmUpScope.launch {
+            val startedAt = System.currentTimeMillis()
+            try {
+                if (realtime.status.value != Realtime.Status.CONNECTED) {
+                    realtime.connect()
+                }
+                // Cheapest possible request, only here to open the pooled HTTPS connection
+                db.from("GameSession").select(Columns.list("id")) {
+                    limit(1)
+                }
+                warm = true
+                logger.info(TAG, "Connection warmed up in ${System.currentTimeMillis() - startedAt} ms")
+            } catch (e: Exception) {
+                logger.error(TAG, "Error warming up connection", e)
+            } finally {
+                warming = false
+            }
+        }
+    }
+
+    /**
+     * Close the realtime socket, so the next session connects cold. Only used to measure the
+     * cold path against the warm one.
+     */
+    fun coolDown() {
+        warm = false
+        warmUpScope.launch {
+            try {
+                realtime.disconnect()
+                logger.info(TAG, "Realtime socket closed")
+            } catch (e: Exception) {
+                logger.error(TAG, "Error closing realtime socket", e)
+            }
+        }
+    }
+
+    /**
+     * Whether warmUp has completed and the realtime socket is still connected
+     */
+    fun isWarm(): Boolean {
+        return warm && realtime.status.value == Realtime.Status.CONNECTED
+    }
+
     // Add a method to get the environment config
     fun getEnvironmentConfig(): EnvironmentConfig {
         return config
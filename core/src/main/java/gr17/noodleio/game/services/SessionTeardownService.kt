@@ -0,0 +1,147 @@
+package gr17.noodleio.game.services
+
+import gr17.noodleio.game.services.logging.ServiceLogger
+import gr17.noodleio.game.services.logging.ServiceLoggerFactory
+import gr17.noodleio.game.services.network.EndpointClass
+import gr17.noodleio.game.services.network.RetryPolicy
+import gr17.noodleio.game.services.network.ServiceCalls
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.serialization.json.buildJsonObject
+import kotlinx.serialization.json.put
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.coroutines.CoroutineContext
+
+/**
+ * Background pipeline for leaving a game session
+ * Runs the network side of exit and game over off the GL thread: flush the final score,
+ * submit the leaderboard entry and delete the lobby. Every step is idempotent on the server
+ * and retried with backoff, and a session is only torn down once per player.
+ */
+class SessionTeardownService(
+    private val serviceManager: ServiceManager,
+    private val maxAttempts: Int = DEFAULT_MAX_ATTEMPTS,
+    private val initialBackoffMs: Long = DEFAULT_INITIAL_BACKOFF_MS
+) : CoroutineScope {
+
+    private val logger: ServiceLogger = ServiceLoggerFactory.getLogger()
+
+    companion object {
+        private const val TAG = "SessionTeardownService"
+        const val DEFAULT_MAX_ATTEMPTS = 4
+        const val DEFAULT_INITIAL_BACKOFF_MS = 250L
+        // Longest a step waits for a request token, a rejected step counts as a failed attempt
+        private const val BUDGET_WAIT_MS = 2_000L
+    }
+
+    override val coroutineContext: CoroutineContext = Dispatchers.IO + SupervisorJob()
+
+    // Keys of sessions already torn down (or being torn down) by this client
+    private val started = ConcurrentHashMap.newKeySet<String>()
+
+    /**
+     * Start tearing down a session in the background. Does not block.
+     * @param sessionId The ID of the game session
+     * @param playerId The ID of the local player
+     * @param lobbyId The lobby to delete, or null to keep it
+     * @param finalScore The score to write back, or null to skip
+     * @param playerName The name for the leaderboard entry, or null to skip the leaderboard
+     * @return false if this session was already being torn down, in which case nothing is done
+     */
+    fun tearDown(
+        sessionId: String,
+        playerId: String,
+        lobbyId: String?,
+        finalScore: Int?,
+        playerName: String?
+    ): Boolean {
+        if (!started.add("$sessionId:$playerId")) {
+            logger.debug(TAG, "Teardown of session $sessionId already started, ignoring")
+            return false
+        }
+
+        launch {
+            val startedAt = System.currentTimeMillis()
+            val failed = ArrayList<String>()
+
+            // The score must be written before the lobby is deleted, the delete cascades to the session
+            if (finalScore != null) {
+                if (!withRetry("flush score", EndpointClass.WRITE) { flushScore(playerId, sessionId, finalScore) }) failed.add("flush score")
+            }
+            if (playerName != null) {
+                if (!withRetry("leaderboard", EndpointClass.LEADERBOARD) { submitLeaderboardEntry(playerName, finalScore ?: 0, sessionId) }) failed.add("leaderboard")
+            }
+            if (lobbyId != null && lobbyId.isNotEmpty()) {
+                if (!withRetry("delete lobby", EndpointClass.WRITE) { deleteLobby(lobbyId) }) failed.add("delete lobby")
+            }
+
+            val elapsed = System.currentTimeMillis() - startedAt
+            if (failed.isEmpty()) {
+                logger.info(TAG, "Session $sessionId torn down in $elapsed ms")
+            } else {
+                // A lobby that could not be deleted is removed by sweep_stale_lobbies once the session goes quiet
+                logger.error(TAG, "Session $sessionId teardown finished in $elapsed ms with failed steps: $failed")
+            }
+        }
+        return true
+    }
+
+    /**
+     * Run a step until it succeeds or maxAttempts is reached, doubling the delay between attempts
+     * Each attempt runs under ServiceCalls, so it has a timeout and skips an endpoint whose circuit is open
+     */
+    private suspend fun withRetry(step: String, endpoint: EndpointClass, block: suspend () -> Unit): Boolean {
+        var backoff = initialBackoffMs
+        for (attempt in 1..maxAttempts) {
+            val result = ServiceCalls.execute(
+                "teardown: $step", endpoint, BUDGET_WAIT_MS,
+                ServiceCalls.DEFAULT_WRITE_TIMEOUT_MS, RetryPolicy.NONE, block
+            )
+            if (result.isSuccess()) {
+                return true
+            }
+            logger.info(TAG, "Teardown step '$step' failed (attempt $attempt/$maxAttempts): ${result.messageOrEmpty()}")
+            if (attempt < maxAttempts) {
+                delay(backoff)
+                backoff *= 2
+            }
+        }
+        return false
+    }
+
+    private suspend fun flushScore(playerId: String, sessionId: String, score: Int) {
+        serviceManager.db
+            .from("PlayerGameState")
+            .update(buildJsonObject { put("score", score) }) {
+                filter {
+                    eq("player_id", playerId)
+                    eq("session_id", sessionId)
+                }
+            }
+    }
+
+    private suspend fun submitLeaderboardEntry(playerName: String, score: Int, sessionId: String) {
+        // The server times the match from the session, it must run before the lobby delete removes it
+        val params = buildJsonObject {
+            put("p_player_name", playerName)
+            put("p_score", score)
+            put("p_session_id", sessionId)
+        }
+        serviceManager.db.rpc("submit_leaderboard_entry", params)
+        LeaderboardCache.invalidate()
+    }
+
+    private suspend fun deleteLobby(lobbyId: String) {
+        // Deleting a lobby that is already gone is not an error, so retries are safe
+        serviceManager.db
+            .from("Lobby")
+            .delete {
+                filter {
+                    eq("id", lobbyId)
+                }
+            }
+    }
+}
@@ -0,0 +1,104 @@
+package gr17.noodleio.game.services.network
+
+/**
+ * Per-endpoint circuit breaker
+ * After failureThreshold consecutive failures the breaker opens and calls fail fast for openMs.
+ * Then one trial call is let through: success closes the breaker, failure opens it again.
+ * Calls turned away while the trial is out get the failure that opened the breaker.
+ */
+class CircuitBreaker(
+    val name: String,
+    private val failureThreshold: Int = DEFAULT_FAILURE_THRESHOLD,
+    private val openMs: Long = DEFAULT_OPEN_MS
+) {
+    enum class State { CLOSED, OPEN, HALF_OPEN }
+
+    companion object {
+        const val DEFAULT_FAILURE_THRESHOLD = 5
+        const val DEFAULT_OPEN_MS = 10_000L
+    }
+
+    private var state = State.CLOSED
+    private var consecutiveFailures = 0
+    private var openedAt = 0L
+    private var trialInFlight = false
+    private var lastFailure: ServiceResult.Failure? = null
+
+    /**
+     * @return false if the call should fail fast without reaching the backend
+     */
+    @Synchronized
+    fun allowRequest(): Boolean {
+        return when (state) {
+            State.CLOSED -> true
+            State.OPEN -> {
+                if (System.currentTimeMillis() - openedAt >= openMs) {
+                    state = State.HALF_OPEN
+                    trialInFlight = true
+                    true
+                } else {
+                    false
+                }
+            }
+            State.HALF_OPEN -> {
+                if (trialInFlight) {
+                    false
+                } else {
+                    trialInFlight = true
+                    true
+                }
+            }
+        }
+    }
+
+    @Synchronized
+    fun onSuccess() {
+        consecutiveFailures = 0
+        trialInFlight = false
+        state = State.CLOSED
+    }
+
+    /**
+     * @param failure What went wrong, handed to callers turned away while the trial call is out
+     * @return true if this failure opened the breaker
+     */
+    @Synchronized
+    fun onFailure(failure: ServiceResult.Failure? = null): Boolean {
+        if (failure != null) {
+            lastFailure = failure
+        }
+        trialInFlight = false
+        consecutiveFailures++
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            val opened = state != State.OPEN
+            state = State.OPEN
+            openedAt = System.currentTimeMillis()
+            return opened
+        }
+        return false
+    }
+
+    /**
+     * The allowed call never reached the backend, give the trial slot back
+     */
+    @Synchronized
+    fun onSkipped() {
+        trialInFlight = false
+    }
+
+    /**
+     * The result for a call allowRequest() turned away. While the trial call is out nothing new is
+     * known about the endpoint, so that is the last real failure; while open it is CIRCUIT_OPEN.
+     */
+    @Synchronized
+    fun rejection(): ServiceResult.Failure {
+        val last = lastFailure
+        if (state == State.HALF_OPEN && last != null) {
+            return last
+        }
+        return ServiceResult.Failure(ServiceError.CIRCUIT_OPEN, "$name is unavailable, try again shortly")
+    }
+
+    @Synchronized
+    fun getState(): State = state
+}
@@ -0,0 +1,41 @@
+package gr17.noodleio.game.services.network
+
+/**
+ * Point in time by which a user action must be done
+ * Set around a user action on the calling thread; every blocking service call made
+ * on that thread, including nested ones, caps its own timeout at the time left.
+ */
+class Deadline private constructor(private val expiresAtMs: Long) {
+
+    fun remainingMs(): Long = expiresAtMs - System.currentTimeMillis()
+
+    fun isExpired(): Boolean = remainingMs() <= 0
+
+    companion object {
+        private val current = ThreadLocal<Deadline?>()
+
+        @JvmStatic
+        fun after(timeoutMs: Long): Deadline = Deadline(System.currentTimeMillis() + timeoutMs)
+
+        /**
+         * The deadline of the action running on this thread, if any
+         */
+        @JvmStatic
+        fun current(): Deadline? = current.get()
+
+        /**
+         * Run a user action with a deadline. An outer deadline that expires sooner wins.
+         */
+        @JvmStatic
+        fun <T> within(timeoutMs: Long, action: () -> T): T {
+            val outer = current.get()
+            val deadline = after(timeoutMs)
+            current.set(if (outer != null && outer.expiresAtMs < deadline.expiresAtMs) outer else deadline)
+            try {
+                return action()
+            } finally {
+                current.set(outer)
+            }
+        }
+    }
+}
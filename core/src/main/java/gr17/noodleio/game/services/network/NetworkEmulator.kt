@@ -0,0 +1,270 @@
+package gr17.noodleio.game.services.network
+
+import gr17.noodleio.game.services.logging.ServiceLogger
+import gr17.noodleio.game.services.logging.ServiceLoggerFactory
+import io.ktor.client.plugins.api.Send
+import io.ktor.client.plugins.api.createClientPlugin
+import io.ktor.http.content.OutgoingContent
+import io.ktor.http.contentLength
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.channelFlow
+import kotlinx.coroutines.launch
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.random.Random
+
+enum class LinkDirection {
+    // Client to server
+    UPLINK,
+    // Server to client
+    DOWNLINK
+}
+
+/**
+ * Impairment of one direction of the link
+ * @param latencyMs One-way base latency
+ * @param jitterMs Extra latency, uniformly distributed between 0 and this
+ * @param lossRate Share of messages hit by a lost packet
+ * @param reorderRate Share of messages held back long enough for later ones to overtake them
+ * @param kbps Bandwidth cap in kilobits per second, 0 for uncapped
+ */
+class LinkProfile(
+    val latencyMs: Long,
+    val jitterMs: Long,
+    val lossRate: Double,
+    val reorderRate: Double,
+    val kbps: Long
+)
+
+/**
+ * Named network conditions to test the netcode against
+ */
+enum class NetworkProfile(val label: String, val uplink: LinkProfile?, val downlink: LinkProfile?) {
+    OFF("Off", null, null),
+    MOBILE_3G(
+        "3G",
+        LinkProfile(latencyMs = 150, jitterMs = 60, lossRate = 0.02, reorderRate = 0.01, kbps = 384),
+        LinkProfile(latencyMs = 150, jitterMs = 60, lossRate = 0.01, reorderRate = 0.01, kbps = 1_600)
+    ),
+    CONGESTED_WIFI(
+        "Congested Wi-Fi",
+        LinkProfile(latencyMs = 20, jitterMs = 150, lossRate = 0.05, reorderRate = 0.03, kbps = 1_000),
+        LinkProfile(latencyMs = 20, jitterMs = 150, lossRate = 0.05, reorderRate = 0.03, kbps = 2_000)
+    ),
+    TRANSATLANTIC(
+        "Transatlantic",
+        LinkProfile(latencyMs = 45, jitterMs = 5, lossRate = 0.005, reorderRate = 0.0, kbps = 0),
+        LinkProfile(latencyMs = 45, jitterMs = 5, lossRate = 0.005, reorderRate = 0.0, kbps = 0)
+    );
+
+    fun link(direction: LinkDirection): LinkProfile? =
+        if (direction == LinkDirection.UPLINK) uplink else downlink
+}
+
+/**
+ * Network impairment for testing, off by default
+ * Sits under the service layer: HTTP requests go through the NetworkImpairment client plugin,
+ * realtime events through Flow.throughNetworkEmulator. Each stream of traffic draws from its own
+ * LinkEmulator seeded from the profile seed and the stream's name, so the same profile, seed and
+ * traffic on a stream give the same conditions however the streams interleave.
+ *
+ * Both transports run over TCP, so a lost packet does not lose the message, it stalls it for
+ * a retransmission timeout. Separate HTTP requests can overtake each other, realtime events
+ * arrive in order and a stalled event holds back the ones behind it.
+ */
+object NetworkEmulator {
+    private const val TAG = "NetworkEmulator"
+    const val DEFAULT_SEED = 17L
+    // Minimum TCP retransmission timeout
+    internal const val RETRANSMIT_TIMEOUT_MS = 200L
+
+    private val logger: ServiceLogger = ServiceLoggerFactory.getLogger()
+
+    @Volatile
+    private var profile = NetworkProfile.OFF
+    @Volatile
+    private var seed = DEFAULT_SEED
+    // Bumped by every profile switch, streams restart their random sequence when it changes
+    @Volatile
+    private var generation = 0L
+
+    @Volatile
+    private var httpUplink = LinkEmulator(LinkDirection.UPLINK, "http-uplink", DEFAULT_SEED, 0L)
+    @Volatile
+    private var httpDownlink = LinkEmulator(LinkDirection.DOWNLINK, "http-downlink", DEFAULT_SEED, 0L)
+
+    private val messages = AtomicLong()
+    private val stalled = AtomicLong()
+    private val reordered = AtomicLong()
+    private val addedDelayMs = AtomicLong()
+
+    /**
+     * Switch to a profile and restart every stream's random sequence from the seed
+     */
+    @JvmStatic
+    @JvmOverloads
+    @Synchronized
+    fun setProfile(newProfile: NetworkProfile, seed: Long = DEFAULT_SEED) {
+        profile = newProfile
+        this.seed = seed
+        generation++
+        httpUplink = LinkEmulator(LinkDirection.UPLINK, "http-uplink", seed, generation)
+        httpDownlink = LinkEmulator(LinkDirection.DOWNLINK, "http-downlink", seed, generation)
+        messages.set(0)
+        stalled.set(0)
+        reordered.set(0)
+        addedDelayMs.set(0)
+        logger.info(TAG, "Network profile: ${newProfile.label} (seed $seed)")
+    }
+
+    /**
+     * Switch to the next profile, wrapping around to OFF
+     * @return The new profile
+     */
+    @JvmStatic
+    fun cycleProfile(): NetworkProfile {
+        val profiles = NetworkProfile.values()
+        val next = profiles[(profile.ordinal + 1) % profiles.size]
+        setProfile(next)
+        return next
+    }
+
+    @JvmStatic
+    fun getProfile(): NetworkProfile = profile
+
+    @JvmStatic
+    fun isActive(): Boolean = profile != NetworkProfile.OFF
+
+    /**
+     * Emulator for one stream, seeded for the current profile
+     * @param stream Name of the stream, the same name always gets the same random sequence
+     */
+    @Synchronized
+    fun link(direction: LinkDirection, stream: String): LinkEmulator =
+        LinkEmulator(direction, stream, seed, generation)
+
+    /**
+     * The given stream's emulator, or a new one if the profile was switched since it was made
+     */
+    fun current(emulator: LinkEmulator): LinkEmulator =
+        if (emulator.generation == generation) emulator else link(emulator.direction, emulator.stream)
+
+    fun httpLink(direction: LinkDirection): LinkEmulator =
+        if (direction == LinkDirection.UPLINK) httpUplink else httpDownlink
+
+    internal fun record(delayMs: Long, wasStalled: Boolean, wasReordered: Boolean) {
+        messages.incrementAndGet()
+        addedDelayMs.addAndGet(delayMs)
+        if (wasStalled) stalled.incrementAndGet()
+        if (wasReordered) reordered.incrementAndGet()
+    }
+
+    /**
+     * Current profile and what it did to the traffic since it was selected
+     */
+    @JvmStatic
+    fun getStats(): String {
+        val count = messages.get()
+        val average = if (count == 0L) 0 else addedDelayMs.get() / count
+        return "${profile.label}: $count messages, ${stalled.get()} stalled by loss, " +
+            "${reordered.get()} reordered, $average ms added on average"
+    }
+}
+
+/**
+ * Impairment of one stream of traffic, with its own random sequence and bandwidth queue
+ * @param stream Name of the stream, mixed into the seed
+ * @param generation Profile switch this emulator was made for
+ */
+class LinkEmulator internal constructor(
+    val direction: LinkDirection,
+    val stream: String,
+    seed: Long,
+    internal val generation: Long
+) {
+    private val random = Random(seed * 31 + stream.hashCode())
+    // Time the stream is busy sending until, for the bandwidth cap
+    private var busyUntil = 0L
+
+    /**
+     * Delay to apply to one message
+     * @param bytes Size of the message, for the bandwidth cap
+     * @param mayReorder Whether the message may be held back so later ones overtake it
+     */
+    @Synchronized
+    fun delayFor(bytes: Long, mayReorder: Boolean): Long {
+        val link = NetworkEmulator.getProfile().link(direction) ?: return 0
+
+        var delayMs = link.latencyMs + if (link.jitterMs > 0) random.nextLong(link.jitterMs + 1) else 0
+        val wasStalled = random.nextDouble() < link.lossRate
+        if (wasStalled) {
+            delayMs += NetworkEmulator.RETRANSMIT_TIMEOUT_MS + link.latencyMs
+        }
+        val wasReordered = mayReorder && random.nextDouble() < link.reorderRate
+        if (wasReordered) {
+            delayMs += link.latencyMs + link.jitterMs
+        }
+        if (link.kbps > 0 && bytes > 0) {
+            // Messages queue behind each other on a capped link
+            val now = System.currentTimeMillis()
+            val start = maxOf(now, busyUntil)
+            val transmitMs = bytes * 8 / link.kbps
+            busyUntil = start + transmitMs
+            delayMs += start - now + transmitMs
+        }
+
+        NetworkEmulator.record(delayMs, wasStalled, wasReordered)
+        return delayMs
+    }
+}
+
+/**
+ * Ktor client plugin applying the emulator to every HTTP request: uplink delay before
+ * sending, downlink delay before the response is handed back
+ */
+val NetworkImpairment = createClientPlugin("NetworkImpairment") {
+    on(Send) { request ->
+        if (!NetworkEmulator.isActive()) {
+            return@on proceed(request)
+        }
+        val requestBytes = (request.body as? OutgoingContent)?.contentLength ?: 0L
+        delay(NetworkEmulator.httpLink(LinkDirection.UPLINK).delayFor(requestBytes, mayReorder = true))
+        val call = proceed(request)
+        val responseBytes = call.response.contentLength() ?: 0L
+        delay(NetworkEmulator.httpLink(LinkDirection.DOWNLINK).delayFor(responseBytes, mayReorder = true))
+        call
+    }
+}
+
+/**
+ * Deliver realtime events through the emulator's downlink. Events keep their order,
+ * each one is delivered at its arrival time plus its delay, or after the event before it.
+ * @param stream Name of the stream, picks its random sequence
+ */
+fun <T> Flow<T>.throughNetworkEmulator(stream: String): Flow<T> = channelFlow {
+    val queue = Channel<Pair<Long, T>>(Channel.UNLIMITED)
+    launch {
+        for ((deliverAt, event) in queue) {
+            val wait = deliverAt - System.currentTimeMillis()
+            if (wait > 0) delay(wait)
+            send(event)
+        }
+    }
+
+    var lastDeliverAt = 0L
+    var emulator = NetworkEmulator.link(LinkDirection.DOWNLINK, stream)
+    collect { event ->
+        val delayMs = if (NetworkEmulator.isActive()) {
+            emulator = NetworkEmulator.current(emulator)
+            val link = NetworkEmulator.getProfile().downlink
+            val bytes = if (link != null && link.kbps > 0) event.toString().length.toLong() else 0L
+            emulator.delayFor(bytes, mayReorder = false)
+        } else {
+            0L
+        }
+        lastDeliverAt = maxOf(lastDeliverAt, System.currentTimeMillis() + delayMs)
+        queue.send(lastDeliverAt to event)
+    }
+    queue.close()
+}
@@ -0,0 +1,149 @@
+package gr17.noodleio.game.services.network
+
+import gr17.noodleio.game.services.logging.ServiceLogger
+import gr17.noodleio.game.services.logging.ServiceLoggerFactory
+import kotlinx.coroutines.delay
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Classes of backend endpoints that share a request budget
+ * Burst is the bucket capacity, rate the sustained requests per second.
+ */
+enum class EndpointClass(val burst: Double, val ratePerSecond: Double) {
+    // Input batches and snapshot ticks, about 20 per second during a match
+    MOVEMENT(30.0, 25.0),
+    // Lobby polling: player list, owner and active session checks
+    LOBBY_READ(8.0, 3.0),
+    // Lobby, session and score writes
+    WRITE(10.0, 2.0),
+    // Leaderboard reads and submissions
+    LEADERBOARD(4.0, 0.5)
+}
+
+/**
+ * Classic token bucket, refilled lazily from the elapsed time on each call
+ */
+class TokenBucket(
+    private val capacity: Double,
+    private val refillPerSecond: Double,
+    private val nanoClock: () -> Long = System::nanoTime
+) {
+    private var tokens = capacity
+    private var lastRefill = nanoClock()
+
+    @Synchronized
+    fun tryAcquire(): Boolean {
+        refill()
+        if (tokens >= 1.0) {
+            tokens -= 1.0
+            return true
+        }
+        return false
+    }
+
+    /**
+     * Time until the next token is available, 0 if one is available now
+     */
+    @Synchronized
+    fun millisUntilNextToken(): Long {
+        refill()
+        if (tokens >= 1.0) return 0
+        return Math.ceil((1.0 - tokens) / refillPerSecond * 1000).toLong()
+    }
+
+    private fun refill() {
+        val now = nanoClock()
+        val elapsedSeconds = (now - lastRefill) / 1_000_000_000.0
+        tokens = minOf(capacity, tokens + elapsedSeconds * refillPerSecond)
+        lastRefill = now
+    }
+}
+
+/**
+ * Process-wide outbound request budget, one token bucket per endpoint class
+ * Callers decide what to do when a request is over budget: movement and polling
+ * requests are dropped or coalesced into the next one, writes wait for a token.
+ * Nothing waits on the render thread, a frame is never held up for a token.
+ */
+object RequestBudget {
+    private const val TAG = "RequestBudget"
+
+    private val logger: ServiceLogger = ServiceLoggerFactory.getLogger()
+
+    // Thread that must never wait for a token, null if not known
+    @Volatile
+    private var renderThread: Thread? = null
+
+    private val buckets = EndpointClass.values().associateWith { TokenBucket(it.burst, it.ratePerSecond) }
+    private val allowed = EndpointClass.values().associateWith { AtomicLong() }
+    private val throttled = EndpointClass.values().associateWith { AtomicLong() }
+    private val delayed = EndpointClass.values().associateWith { AtomicLong() }
+
+    /**
+     * Take a token if one is available, without waiting
+     * @return false if the request is over budget and should be dropped or coalesced
+     */
+    @JvmStatic
+    fun tryAcquire(endpoint: EndpointClass): Boolean {
+        if (buckets.getValue(endpoint).tryAcquire()) {
+            allowed.getValue(endpoint).incrementAndGet()
+            return true
+        }
+        val count = throttled.getValue(endpoint).incrementAndGet()
+        if (count == 1L || count % 100 == 0L) {
+            logger.info(TAG, "Throttling ${endpoint.name} requests ($count so far)")
+        }
+        return false
+    }
+
+    /**
+     * Register the render thread, calls made on it take a token without waiting
+     */
+    @JvmStatic
+    fun setRenderThread(thread: Thread?) {
+        renderThread = thread
+    }
+
+    /**
+     * Take a token, waiting for one up to maxWaitMs. Used for writes that must not be dropped.
+     * On the render thread it does not wait and fails right away instead.
+     * @return false if no token became available in time
+     */
+    suspend fun acquire(endpoint: EndpointClass, maxWaitMs: Long): Boolean {
+        if (Thread.currentThread() === renderThread) {
+            return tryAcquire(endpoint)
+        }
+        val bucket = buckets.getValue(endpoint)
+        val deadline = System.currentTimeMillis() + maxWaitMs
+        var waited = false
+        while (true) {
+            if (bucket.tryAcquire()) {
+                allowed.getValue(endpoint).incrementAndGet()
+                if (waited) delayed.getValue(endpoint).incrementAndGet()
+                return true
+            }
+            val wait = bucket.millisUntilNextToken().coerceAtLeast(1)
+            if (System.currentTimeMillis() + wait > deadline) {
+                throttled.getValue(endpoint).incrementAndGet()
+                logger.info(TAG, "Rejected ${endpoint.name} request, no token within $maxWaitMs ms")
+                return false
+            }
+            waited = true
+            delay(wait)
+        }
+    }
+
+    @JvmStatic
+    fun getThrottledCount(endpoint: EndpointClass): Long = throttled.getValue(endpoint).get()
+
+    /**
+     * Allowed, delayed and throttled request counts per endpoint class
+     */
+    @JvmStatic
+    fun getStats(): String {
+        return EndpointClass.values().joinToString(", ") {
+            "${it.name}: ${allowed.getValue(it).get()} sent, ${delayed.getValue(it).get()} delayed, " +
+                "${throttled.getValue(it).get()} throttled"
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package gr17.noodleio.game.services.network
+
+import gr17.noodleio.game.services.logging.ServiceLogger
+import gr17.noodleio.game.services.logging.ServiceLoggerFactory
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.TimeoutCancellationException
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.random.Random
+
+/**
+ * How a call is retried. Only idempotent reads should use more than one attempt.
+ */
+class RetryPolicy(val maxAttempts: Int, val baseDelayMs: Long, val maxDelayMs: Long) {
+    companion object {
+        @JvmField
+        val NONE = RetryPolicy(1, 0, 0)
+        @JvmField
+        val IDEMPOTENT_READ = RetryPolicy(3, 100, 1_000)
+    }
+
+    /**
+     * Full jitter: a random delay between 0 and the exponential backoff for this attempt
+     */
+    fun delayBeforeRetry(attempt: Int): Long {
+        val backoff = minOf(maxDelayMs, baseDelayMs shl (attempt - 1).coerceAtMost(16))
+        return if (backoff <= 0) 0 else Random.nextLong(backoff + 1)
+    }
+}
+
+/**
+ * Runs every backend call of the service layer with a timeout, the deadline of the
+ * current user action, a per-endpoint circuit breaker, the request budget and a retry policy
+ */
+object ServiceCalls {
+    private const val TAG = "ServiceCalls"
+    const val DEFAULT_READ_TIMEOUT_MS = 3_000L
+    const val DEFAULT_WRITE_TIMEOUT_MS = 5_000L
+
+    private val logger: ServiceLogger = ServiceLoggerFactory.getLogger()
+    private val breakers = ConcurrentHashMap<String, CircuitBreaker>()
+
+    @JvmStatic
+    fun breaker(endpoint: String): CircuitBreaker = breakers.getOrPut(endpoint) { CircuitBreaker(endpoint) }
+
+    /**
+     * Idempotent read: timeout, budget without waiting, jittered retries
+     */
+    fun <T> read(endpoint: String, budget: EndpointClass, block: suspend () -> T): ServiceResult<T> =
+        runBlocking { execute(endpoint, budget, 0, DEFAULT_READ_TIMEOUT_MS, RetryPolicy.IDEMPOTENT_READ, block) }
+
+    /**
+     * Write: timeout, waits briefly for a budget token, never retried here
+     */
+    fun <T> write(endpoint: String, budget: EndpointClass, budgetWaitMs: Long, block: suspend () -> T): ServiceResult<T> =
+        runBlocking { execute(endpoint, budget, budgetWaitMs, DEFAULT_WRITE_TIMEOUT_MS, RetryPolicy.NONE, block) }
+
+    /**
+     * Run one call under the full policy
+     * @param endpoint Name of the endpoint, one circuit breaker per name
+     * @param budget Request budget class, or null for calls already budgeted by the caller
+     * @param budgetWaitMs How long to wait for a budget token, 0 to fail right away
+     * @param timeoutMs Timeout of a single attempt, capped by the current action deadline
+     */
+    suspend fun <T> execute(
+        endpoint: String,
+        budget: EndpointClass?,
+        budgetWaitMs: Long,
+        timeoutMs: Long,
+        retry: RetryPolicy,
+        block: suspend () -> T
+    ): ServiceResult<T> {
+        val breaker = breaker(endpoint)
+        val deadline = Deadline.current()
+        var lastFailure: ServiceResult.Failure? = null
+
+        for (attempt in 1..retry.maxAttempts) {
+            val remaining = minOf(timeoutMs, deadline?.remainingMs() ?: timeoutMs)
+            if (remaining <= 0) {
+                return lastFailure ?: ServiceResult.Failure(ServiceError.TIMEOUT, "$endpoint: action deadline exceeded")
+            }
+
+            if (!breaker.allowRequest()) {
+                return lastFailure ?: breaker.rejection()
+            }
+
+            val budgeted = when {
+                budget == null -> true
+                budgetWaitMs > 0 -> RequestBudget.acquire(budget, minOf(budgetWaitMs, remaining))
+                else -> RequestBudget.tryAcquire(budget)
+            }
+            if (!budgeted) {
+                breaker.onSkipped()
+                return ServiceResult.Failure(ServiceError.RATE_LIMITED, "$endpoint: too many requests")
+            }
+
+            val failure = try {
+                val value = withTimeout(remaining) { block() }
+                breaker.onSuccess()
+                return ServiceResult.Success(value)
+            } catch (e: RejectedException) {
+                // The backend is healthy, it just said no
+                breaker.onSuccess()
+                return ServiceResult.Failure(ServiceError.REJECTED, e.message ?: "$endpoint: rejected", e)
+            } catch (e: TimeoutCancellationException) {
+                ServiceResult.Failure(ServiceError.TIMEOUT, "$endpoint timed out after $remaining ms", e)
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                ServiceResult.Failure(ServiceError.FAILED, "$endpoint failed: ${e.message}", e)
+            }
+            lastFailure = failure
+
+            if (breaker.onFailure(failure)) {
+                logger.info(TAG, "Circuit for $endpoint opened")
+            }
+            logger.error(TAG, "${failure.message} (attempt $attempt/${retry.maxAttempts})", failure.cause)
+
+            if (attempt < retry.maxAttempts) {
+                delay(retry.delayBeforeRetry(attempt))
+            }
+        }
+        return lastFailure ?: ServiceResult.Failure(ServiceError.FAILED, "$endpoint failed")
+    }
+
+    /**
+     * Circuit state of every endpoint called so far
+     */
+    @JvmStatic
+    fun getBreakerStates(): String {
+        return breakers.values.joinToString(", ") { "${it.name}: ${it.getState()}" }
+    }
+}
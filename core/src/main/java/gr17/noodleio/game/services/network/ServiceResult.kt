@@ -0,0 +1,65 @@
+package gr17.noodleio.game.services.network
+
+/**
+ * Why a service call failed
+ */
+enum class ServiceError {
+    // The call or the user action it belongs to ran out of time
+    TIMEOUT,
+    // The endpoint failed repeatedly and is not being called until it cools down
+    CIRCUIT_OPEN,
+    // The request budget for the endpoint class is exhausted
+    RATE_LIMITED,
+    // The backend answered, but the request could not be completed (not found, full, not allowed)
+    REJECTED,
+    // Network or server error
+    FAILED
+}
+
+/**
+ * Typed outcome of a service call, used instead of swallowed exceptions and status strings
+ */
+sealed class ServiceResult<out T> {
+
+    data class Success<out T>(val value: T) : ServiceResult<T>()
+
+    data class Failure(val error: ServiceError, val message: String, val cause: Throwable? = null) : ServiceResult<Nothing>()
+
+    fun isSuccess(): Boolean = this is Success
+
+    /**
+     * The value on success, null on failure
+     */
+    fun getOrNull(): T? = (this as? Success)?.value
+
+    fun getOrDefault(default: @UnsafeVariance T): T = getOrNull() ?: default
+
+    /**
+     * The error on failure, null on success
+     */
+    fun errorOrNull(): ServiceError? = (this as? Failure)?.error
+
+    /**
+     * Human readable failure message, empty on success
+     */
+    fun messageOrEmpty(): String = (this as? Failure)?.message ?: ""
+
+    inline fun <R> map(transform: (T) -> R): ServiceResult<R> = when (this) {
+        is Success -> Success(transform(value))
+        is Failure -> this
+    }
+
+    companion object {
+        @JvmStatic
+        fun <T> success(value: T): ServiceResult<T> = Success(value)
+
+        @JvmStatic
+        fun failure(error: ServiceError, message: String): ServiceResult<Nothing> = Failure(error, message)
+    }
+}
+
+/**
+ * Thrown inside a service call when the backend answered but the request cannot succeed.
+ * Reported as a REJECTED failure, and it does not count against the circuit breaker.
+ */
+class RejectedException(message: String) : Exception(message)
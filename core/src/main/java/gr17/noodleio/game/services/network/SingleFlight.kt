@@ -0,0 +1,132 @@
+package gr17.noodleio.game.services.network
+
+import kotlinx.coroutines.CompletableDeferred
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Single-flight group for identical reads
+ * While a read for a key is in flight, callers asking for the same key wait for it and share
+ * its result instead of sending their own request. A result can also be kept for a short time,
+ * so reads repeated right after each other (several widgets refreshing in the same frame) are served locally.
+ * @param name Name the counters are reported under, instances with the same name share them
+ */
+class SingleFlight(val name: String) {
+
+    private class CachedValue(val value: Any?, val expiresAtMs: Long)
+
+    private val inFlight = ConcurrentHashMap<String, CompletableDeferred<Any?>>()
+    private val cache = ConcurrentHashMap<String, CachedValue>()
+
+    /**
+     * Run block for key, unless the same key is already in flight or cached
+     * @param cacheMs How long a result stays cached after the read completes, 0 for no cache
+     * @param cacheIf Which results may be cached and shared, failed results are usually not
+     */
+    @Suppress("UNCHECKED_CAST")
+    suspend fun <T> execute(
+        key: String,
+        cacheMs: Long = 0,
+        cacheIf: (T) -> Boolean = { true },
+        block: suspend () -> T
+    ): T {
+        val cached = cache[key]
+        if (cached != null) {
+            if (cached.expiresAtMs > System.currentTimeMillis()) {
+                SingleFlightStats.recordCached(name)
+                return cached.value as T
+            }
+            cache.remove(key, cached)
+        }
+
+        val own = CompletableDeferred<Any?>()
+        val existing = inFlight.putIfAbsent(key, own)
+        if (existing != null) {
+            SingleFlightStats.recordShared(name)
+            return existing.await() as T
+        }
+
+        SingleFlightStats.recordExecuted(name)
+        try {
+            val value = block()
+            if (cacheMs > 0 && cacheIf(value)) {
+                cache[key] = CachedValue(value, System.currentTimeMillis() + cacheMs)
+            }
+            own.complete(value)
+            return value
+        } catch (e: Throwable) {
+            own.completeExceptionally(e)
+            throw e
+        } finally {
+            inFlight.remove(key, own)
+        }
+    }
+
+    /**
+     * Drop a cached result, e.g. after a write that changes it
+     */
+    fun invalidate(key: String) {
+        cache.remove(key)
+    }
+
+    fun invalidateAll() {
+        cache.clear()
+    }
+}
+
+/**
+ * Process-wide single-flight counters, per group name
+ * Screens take a mark when they are created and report the reads saved since then when they are left.
+ */
+object SingleFlightStats {
+
+    private class Counters {
+        val executed = AtomicLong()
+        val shared = AtomicLong()
+        val cached = AtomicLong()
+    }
+
+    /**
+     * Counter values at one point in time
+     */
+    class Mark internal constructor(internal val values: Map<String, LongArray>)
+
+    private val counters = ConcurrentHashMap<String, Counters>()
+
+    private fun counters(name: String): Counters = counters.getOrPut(name) { Counters() }
+
+    internal fun recordExecuted(name: String) {
+        counters(name).executed.incrementAndGet()
+    }
+
+    internal fun recordShared(name: String) {
+        counters(name).shared.incrementAndGet()
+    }
+
+    internal fun recordCached(name: String) {
+        counters(name).cached.incrementAndGet()
+    }
+
+    @JvmStatic
+    fun mark(): Mark = Mark(counters.mapValues { (_, c) -> longArrayOf(c.executed.get(), c.shared.get(), c.cached.get()) })
+
+    /**
+     * Reads sent, shared with an in-flight read and served from cache since the mark, per group
+     */
+    @JvmStatic
+    fun reportSince(mark: Mark): String {
+        val lines = counters.entries.sortedBy { it.key }.mapNotNull { (name, c) ->
+            val base = mark.values[name] ?: longArrayOf(0, 0, 0)
+            val executed = c.executed.get() - base[0]
+            val shared = c.shared.get() - base[1]
+            val cached = c.cached.get() - base[2]
+            val total = executed + shared + cached
+            if (total == 0L) {
+                null
+            } else {
+                "$name: $executed sent, $shared shared, $cached cached (${(shared + cached) * 100 / total}% saved)"
+            }
+        }
+        return if (lines.isEmpty()) "no reads" else lines.joinToString(", ")
+    }
+}
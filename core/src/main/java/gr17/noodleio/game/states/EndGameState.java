@@ -1,14 +1,16 @@
 package gr17.noodleio.game.states;
 
 import com.badlogic.gdx.graphics.Color;
+import java.util.List;
+
 import com.badlogic.gdx.scenes.scene2d.ui.Label;
+import com.badlogic.gdx.scenes.scene2d.ui.Table;
 import com.badlogic.gdx.utils.Array;
 
-import gr17.noodleio.game.API.LeaderboardApi;
-import gr17.noodleio.game.config.Config;
-import gr17.noodleio.game.config.EnvironmentConfig;
+import gr17.noodleio.game.API.AsyncCall;
+import gr17.noodleio.game.API.SessionConnection;
+import gr17.noodleio.game.models.LobbyStanding;
 import gr17.noodleio.game.model.PlayerResult;
-import gr17.noodleio.game.models.GameSession;
 import gr17.noodleio.game.states.ui.BaseUIState;
 import gr17.noodleio.game.states.ui.UIComponents;
 import gr17.noodleio.game.util.ResourceManager;
@@ -19,10 +21,14 @@ public class EndGameState extends BaseUIState {
     private String playerName;
     private int placement;
     private ResourceManager rm;
-    private LeaderboardApi leaderboardApi;
+    private String standingsLobbyId;
+    private Table standingsTable;
+
+    // Longest the cross-room standings may take to load
+    private static final long STANDINGS_DEADLINE_MS = 5_000;
 
     public EndGameState(GameStateManager gsm, Array<PlayerResult> results, String playerName,
-                        int placement, ResourceManager rm, GameSession gameSession) {
+                        int placement, ResourceManager rm) {
         super(gsm);
 
         log("Starting EndGameState constructor");
@@ -32,11 +38,18 @@ public class EndGameState extends BaseUIState {
         this.placement = placement;
         this.rm = rm;
 
-        // Initialize API
-        initializeApi();
+        // The score and leaderboard entry are submitted by the session teardown in the background
+
+        // Keep the session connection open for a rematch or the next lobby
+        SessionConnection.getInstance().warmUp();
+    }
 
-        // Save score to leaderboard
-        saveScore(gameSession);
+    /**
+     * Also show the standings across every room of a lobby that was split into rooms.
+     * Must be called before the screen is first shown.
+     */
+    public void showLobbyStandings(String lobbyId) {
+        this.standingsLobbyId = lobbyId;
     }
 
     @Override
@@ -59,6 +72,16 @@ public class EndGameState extends BaseUIState {
         // Display each player's result
         setupResultsDisplay();
 
+        // Other rooms may still be playing, load the standings across all rooms in the background
+        if (standingsLobbyId != null) {
+            uiFactory.addLabel(table, "ALL ROOMS", 20);
+            standingsTable = new Table();
+            standingsTable.add(new Label("Loading...", UIComponents.getInstance().getSkin()));
+            table.add(standingsTable).padBottom(20);
+            table.row();
+            loadLobbyStandings();
+        }
+
         // Add back button
         uiFactory.createBackButton(table, this::returnToMenu);
 
@@ -102,81 +125,41 @@ public class EndGameState extends BaseUIState {
         }
     }
 
-    private void initializeApi() {
-        log("Initializing LeaderboardApi");
-
-        try {
-            EnvironmentConfig environmentConfig = new EnvironmentConfig() {
-                @Override
-                public String getSupabaseUrl() {
-                    return Config.getSupabaseUrl();
-                }
-
-                @Override
-                public String getSupabaseKey() {
-                    return Config.getSupabaseKey();
-                }
-            };
-
-            leaderboardApi = new LeaderboardApi(environmentConfig);
-            log("LeaderboardApi initialized successfully");
-        } catch (Exception e) {
-            logError("Error initializing LeaderboardApi", e);
-        }
+    private void loadLobbyStandings() {
+        track(AsyncCall.submit(STANDINGS_DEADLINE_MS,
+            () -> SessionConnection.getInstance().getPlayerGameStateApi().getLobbyStandings(standingsLobbyId),
+            this::showStandings));
     }
 
-    private void saveScore(GameSession gameSession) {
-        log("Attempting to save score to leaderboard");
+    private void showStandings(List<LobbyStanding> standings) {
+        standingsTable.clear();
+        if (standings == null) {
+            standingsTable.add(new Label("Standings unavailable", UIComponents.getInstance().getSkin()));
+            return;
+        }
 
-        try {
-            if (leaderboardApi == null) {
-                logError("Cannot save score: LeaderboardApi is null");
-                return;
-            }
+        for (int i = 0; i < standings.size(); i++) {
+            LobbyStanding standing = standings.get(i);
 
-            // Get the player's score
-            int playerScore = 0;
-            if (results != null) {
-                for (PlayerResult result : results) {
-                    if (result != null && result.name != null && result.name.equals(playerName)) {
-                        playerScore = result.score;
-                        log("Found player score: " + playerScore);
-                        break;
-                    }
-                }
-            }
+            Label.LabelStyle rowStyle = new Label.LabelStyle(
+                UIComponents.getInstance().getSkin().getFont("default-font"),
+                standing.getPlayer_name().equals(playerName) ? Color.YELLOW : Color.WHITE
+            );
 
-            // Save score to leaderboard if game has ended
-            if (gameSession != null && gameSession.getEnded_at() != null) {
-                log("Game session is valid, calculating duration");
-
-                // Calculate game duration if possible
-                Double durationSeconds = null;
-                if (gameSession.getStarted_at() != null) {
-                    long startMillis = gameSession.getStarted_at().toEpochMilliseconds();
-                    long endMillis = gameSession.getEnded_at().toEpochMilliseconds();
-                    durationSeconds = (endMillis - startMillis) / 1000.0;
-                    log("Game duration: " + durationSeconds + " seconds");
-                }
-
-                // Try to call the specific method if it exists
-                try {
-                    leaderboardApi.addLeaderboardEntryFromSession(playerName, playerScore, gameSession);
-                    log("Score saved to leaderboard using session data");
-                } catch (NoSuchMethodError e) {
-                    log("Fallback to standard method");
-                    leaderboardApi.addLeaderboardEntry(playerName, playerScore, durationSeconds);
-                    log("Score saved to leaderboard using standard method");
-                }
-            }
-        } catch (Exception e) {
-            logError("Error saving score to leaderboard", e);
+            String rowText = (i + 1) + ". " + standing.getPlayer_name() + " - " + standing.getScore()
+                + " points (room " + (standing.getRoom_index() + 1)
+                + (standing.getFinished() ? ")" : ", playing)");
+            standingsTable.add(new Label(rowText, rowStyle)).padBottom(6).left();
+            standingsTable.row();
         }
     }
 
     @Override
     public void dispose() {
         log("Disposing EndGameState");
+        if (rm != null) {
+            rm.dispose();
+        }
         super.dispose();
     }
 }
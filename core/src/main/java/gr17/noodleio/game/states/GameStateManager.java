@@ -38,12 +38,25 @@ public class GameStateManager {
 
     public void set(State state) {
         if (!states.isEmpty()) {
+            states.peek().logReadDeduplication();
             states.peek().dispose();
             states.pop();
         }
         states.push(state);
     }
 
+    public void pause() {
+        if (!states.isEmpty()) {
+            states.peek().pause();
+        }
+    }
+
+    public void resume() {
+        if (!states.isEmpty()) {
+            states.peek().resume();
+        }
+    }
+
     public void update(float dt) {
         if (!states.isEmpty()) {
             states.peek().update(dt);
@@ -59,6 +72,7 @@ public class GameStateManager {
     public void disposeAll() {
         while (!states.isEmpty()) {
             State state = states.pop();
+            state.logReadDeduplication();
             state.dispose();
         }
     }
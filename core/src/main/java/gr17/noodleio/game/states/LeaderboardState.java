@@ -1,18 +1,63 @@
 package gr17.noodleio.game.states;
 
 import com.badlogic.gdx.scenes.scene2d.ui.Label;
+import com.badlogic.gdx.scenes.scene2d.ui.ScrollPane;
+import com.badlogic.gdx.scenes.scene2d.ui.WidgetGroup;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import gr17.noodleio.game.API.AsyncCall;
 import gr17.noodleio.game.API.LeaderboardApi;
+import gr17.noodleio.game.API.LeaderboardRealtimeApi;
+import gr17.noodleio.game.API.SessionConnection;
 import gr17.noodleio.game.config.Config;
 import gr17.noodleio.game.config.EnvironmentConfig;
+import gr17.noodleio.game.models.LeaderboardCursor;
+import gr17.noodleio.game.models.LeaderboardEntry;
+import gr17.noodleio.game.models.LeaderboardPage;
+import gr17.noodleio.game.models.LeaderboardWindow;
 import gr17.noodleio.game.states.ui.BaseUIState;
+import gr17.noodleio.game.states.ui.UIComponents;
 
+/**
+ * Scrollable, live leaderboard
+ * Rows are loaded a page at a time ahead of the scroll position, and only a window of pages around
+ * the visible rows is kept in a LeaderboardWindow, the rows above it are empty space of the same
+ * height. Only the rows in view have a label, filled from the window as the view scrolls. Entries
+ * added or improved while the screen is open arrive over realtime and are merged into the window in
+ * O(log n), the labels in view are then refilled and only those whose text changed are updated.
+ */
 public class LeaderboardState extends BaseUIState {
 
-    private static final int TOP_ENTRIES = 5;
+    private static final int PAGE_SIZE = 50;
+    // The visible page and one on each side
+    private static final int MAX_ROWS = 3 * PAGE_SIZE;
+    private static final float ROW_WIDTH = 600;
+    private static final float ROW_HEIGHT = 28;
+    // The next page is requested once the view is this many rows from the end of the loaded ones
+    private static final int PREFETCH_ROWS = 20;
+    // Longest a page request may take
+    private static final long PAGE_DEADLINE_MS = 8000;
+    // Wait after a failed page before asking again, the leaderboard budget may be exhausted
+    private static final float RETRY_DELAY = 2.0f;
 
-    private Label[] leaderboardLabels;
     private LeaderboardApi leaderboardApi;
+    private LeaderboardRealtimeApi leaderboardRealtimeApi;
+    private ScrollPane scrollPane;
+    // As tall as every row up to the end of the window, holds the labels of the rows in view
+    private WidgetGroup rowsGroup;
+
+    // The loaded window in leaderboard order
+    private final LeaderboardWindow window = new LeaderboardWindow(MAX_ROWS);
+    // One label per row in view, from the top of the view down
+    private final List<Label> rowLabels = new ArrayList<>();
+    // What the labels show, they are refilled when the window or the view changes
+    private boolean rowsChanged = true;
+    private int renderedFirstRank = -1;
+    private float renderedHeight = -1;
+    private boolean loadingPage = false;
+    private float retryTimer = 0;
 
     public LeaderboardState(GameStateManager gsm) {
         super(gsm);
@@ -24,15 +69,24 @@ public class LeaderboardState extends BaseUIState {
         uiFactory.addTitle(table, "LEADERBOARD");
         uiFactory.addLabel(table, "PLAYER : SCORE (TIME)", 10);
 
-        leaderboardLabels = new Label[TOP_ENTRIES];
-        for (int i = 0; i < TOP_ENTRIES; i++) {
-            leaderboardLabels[i] = uiFactory.addLabel(table, "---", 10);
-        }
+        rowsGroup = new WidgetGroup() {
+            @Override
+            public float getPrefWidth() {
+                return ROW_WIDTH;
+            }
+
+            @Override
+            public float getPrefHeight() {
+                return (window.getRankOffset() + window.getSize()) * ROW_HEIGHT;
+            }
+        };
+        scrollPane = uiFactory.addScrollPane(table, rowsGroup, ROW_WIDTH, 220);
 
         statusLabel = uiFactory.createStatusLabel(table);
         uiFactory.createBackButton(table, this::returnToMenu);
 
         loadLeaderboard();
+        leaderboardRealtimeApi.subscribe(this::mergeEntry);
     }
 
     private void initializeApi() {
@@ -47,32 +101,209 @@ public class LeaderboardState extends BaseUIState {
             }
         };
         leaderboardApi = new LeaderboardApi(environmentConfig);
+        leaderboardRealtimeApi = SessionConnection.getInstance().getLeaderboardRealtimeApi();
     }
 
+    /**
+     * Show the cached first page at once, and fetch it in the background only if it is stale
+     */
     private void loadLeaderboard() {
-        try {
-            String result = leaderboardApi.fetchLeaderboard(TOP_ENTRIES);
-            updateLeaderboardDisplay(result);
-        } catch (Exception e) {
-            logError("Error loading leaderboard", e);
-            setStatus("Error loading leaderboard");
+        LeaderboardPage cached = leaderboardApi.getCachedFirstPage(PAGE_SIZE);
+        if (cached != null) {
+            showTopPage(cached);
+            if (leaderboardApi.isLeaderboardFresh(PAGE_SIZE)) {
+                return;
+            }
         }
+        requestPage(null, false, page -> {
+            // The player may have scrolled on from the cached page meanwhile
+            if (window.getRankOffset() == 0 && window.getSize() <= PAGE_SIZE) {
+                showTopPage(page);
+            }
+        });
     }
 
-    private void updateLeaderboardDisplay(String leaderboardText) {
-        String[] lines = leaderboardText.split("\\r?\\n");
-        int labelIndex = 0;
-        int startLine = 2; // Skip headers
+    private void requestPage(LeaderboardCursor cursor, boolean before, AsyncCall.Callback<LeaderboardPage> onLoaded) {
+        loadingPage = true;
+        // Changes from now on may be newer than the page's copies of the same entries
+        window.beginFetch();
+        if (window.isEmpty()) {
+            setStatus("Loading leaderboard...");
+        }
+        track(leaderboardApi.fetchLeaderboardPageAsync(cursor, PAGE_SIZE, before, PAGE_DEADLINE_MS, page -> {
+            loadingPage = false;
+            if (page == null) {
+                window.cancelFetch();
+                // Keep showing what is loaded, only a blank screen needs the error
+                retryTimer = RETRY_DELAY;
+                setStatus(window.isEmpty() ? "Failed to load leaderboard" : "Could not load more entries");
+                return;
+            }
+            onLoaded.onComplete(page);
+            setStatus(window.isEmpty() ? "No entries found" : "Leaderboard loaded successfully");
+        }));
+    }
 
-        for (int i = startLine; i < lines.length && labelIndex < TOP_ENTRIES; i++) {
-            if (!lines[i].contains(":")) continue;
-            leaderboardLabels[labelIndex++].setText(lines[i].trim());
+    /**
+     * Replace the window with the first page
+     */
+    private void showTopPage(LeaderboardPage page) {
+        changeRows(null, () -> window.showTop(page));
+    }
+
+    /**
+     * Add the page after the window, rows dropped from the top move into the space above it
+     */
+    private void appendPage(LeaderboardPage page) {
+        changeRows(null, () -> window.append(page));
+    }
+
+    /**
+     * Add the page before the window, dropping rows from the bottom once the window is full
+     */
+    private void prependPage(LeaderboardPage page) {
+        changeRows(null, () -> window.prepend(page));
+    }
+
+    /**
+     * Move a changed entry to its new place in the window
+     */
+    private void mergeEntry(LeaderboardEntry entry, LeaderboardEntry previous, boolean inserted) {
+        if (rowsGroup == null) {
+            return;
         }
+        int viewIndex = Math.max(0, Math.min(firstRankInView() - window.getRankOffset(), window.getSize() - 1));
+        changeRows(entry.getId(), () -> window.merge(entry, previous, inserted, viewIndex));
+    }
 
-        for (int i = labelIndex; i < TOP_ENTRIES; i++) {
-            leaderboardLabels[i].setText("---");
+    /**
+     * Apply a change to the window, keeping the row at the top of the view where it is on screen
+     * @param movedId Entry the change moves, it cannot hold the view in place, or null
+     */
+    private void changeRows(String movedId, Runnable change) {
+        float scrollY = scrollPane.getScrollY();
+        int anchorRank = firstRankInView();
+        int anchorIndex = anchorRank - window.getRankOffset();
+        String anchorId = null;
+        if (anchorIndex >= 0 && anchorIndex < window.getSize()) {
+            anchorId = window.get(anchorIndex).getId();
+            if (anchorId.equals(movedId)) {
+                anchorRank++;
+                anchorId = anchorIndex + 1 < window.getSize() ? window.get(anchorIndex + 1).getId() : null;
+            }
+        }
+
+        change.run();
+
+        // Rows inserted or removed above the anchor move the view by as many rows
+        float shift = 0;
+        if (anchorId != null) {
+            int index = window.indexOf(anchorId);
+            if (index >= 0) {
+                shift = (window.getRankOffset() + index - anchorRank) * ROW_HEIGHT;
+            }
         }
+        rowsGroup.invalidateHierarchy();
+        scrollPane.layout();
+        scrollPane.setScrollY(scrollY + shift);
+        scrollPane.updateVisualScroll();
+        rowsChanged = true;
+        renderRows();
+    }
 
-        setStatus("Leaderboard loaded successfully");
+    private int firstRankInView() {
+        return Math.max(0, (int) (scrollPane.getScrollY() / ROW_HEIGHT));
+    }
+
+    private float rowTop(int index) {
+        return (window.getRankOffset() + index) * ROW_HEIGHT;
+    }
+
+    /**
+     * Fill the labels with the rows in view, only when the window changed or the view moved by a row
+     */
+    private void renderRows() {
+        int firstRank = Math.max(0, (int) (scrollPane.getVisualScrollY() / ROW_HEIGHT));
+        int count = (int) Math.ceil(scrollPane.getScrollHeight() / ROW_HEIGHT) + 1;
+        float height = rowsGroup.getHeight();
+        if (!rowsChanged && firstRank == renderedFirstRank && height == renderedHeight && count <= rowLabels.size()) {
+            return;
+        }
+        rowsChanged = false;
+        renderedFirstRank = firstRank;
+        renderedHeight = height;
+
+        while (rowLabels.size() < count) {
+            Label label = UIComponents.getInstance().createLabel("");
+            rowLabels.add(label);
+            rowsGroup.addActor(label);
+        }
+        for (int i = 0; i < rowLabels.size(); i++) {
+            Label label = rowLabels.get(i);
+            int rank = firstRank + i;
+            int index = rank - window.getRankOffset();
+            if (index < 0 || index >= window.getSize()) {
+                label.setVisible(false);
+                continue;
+            }
+            // Labels skip text that did not change
+            label.setText(formatRow(rank + 1, window.get(index)));
+            label.setBounds(0, height - (rank + 1) * ROW_HEIGHT, ROW_WIDTH, ROW_HEIGHT);
+            label.setVisible(true);
+        }
+    }
+
+    private String formatRow(int rank, LeaderboardEntry entry) {
+        StringBuilder sb = new StringBuilder()
+            .append(rank).append(". ")
+            .append(entry.getPlayer_name())
+            .append(": ")
+            .append(entry.getScore())
+            .append(" pts");
+        if (entry.getDuration_seconds() != null) {
+            sb.append(" (").append(LeaderboardApi.formatDuration(entry.getDuration_seconds())).append(")");
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void update(float dt) {
+        super.update(dt);
+        if (scrollPane == null) {
+            return;
+        }
+        renderRows();
+        if (window.isEmpty() || loadingPage) {
+            return;
+        }
+        if (retryTimer > 0) {
+            retryTimer -= dt;
+            return;
+        }
+
+        float margin = PREFETCH_ROWS * ROW_HEIGHT;
+        float viewTop = scrollPane.getScrollY();
+        float viewBottom = viewTop + scrollPane.getScrollHeight();
+        float loadedTop = rowTop(0);
+        float loadedBottom = rowTop(window.getSize());
+
+        if (viewBottom + margin > loadedBottom && !window.getEndReached()) {
+            requestPage(LeaderboardCursor.after(window.get(window.getSize() - 1)), false, this::appendPage);
+        } else if (viewTop - margin < loadedTop && window.getRankOffset() > 0) {
+            if (viewTop < PAGE_SIZE * ROW_HEIGHT && window.getRankOffset() > PAGE_SIZE) {
+                // A fling all the way up starts again from the top instead of every page on the way
+                requestPage(null, false, this::showTopPage);
+            } else {
+                requestPage(LeaderboardCursor.after(window.get(0)), true, this::prependPage);
+            }
+        }
+    }
+
+    @Override
+    public void dispose() {
+        if (leaderboardRealtimeApi != null) {
+            leaderboardRealtimeApi.unsubscribe();
+        }
+        super.dispose();
     }
 }
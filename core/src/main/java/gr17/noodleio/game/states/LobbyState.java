@@ -4,9 +4,19 @@ import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.scenes.scene2d.ui.Label;
 import com.badlogic.gdx.scenes.scene2d.ui.TextButton;
 
+import java.util.List;
+
+import gr17.noodleio.game.API.AsyncCall;
 import gr17.noodleio.game.API.LobbyPlayerApi;
+import gr17.noodleio.game.API.LobbyRealtimeApi;
+import gr17.noodleio.game.API.SessionConnection;
 import gr17.noodleio.game.config.Config;
 import gr17.noodleio.game.config.EnvironmentConfig;
+import gr17.noodleio.game.models.GameSession;
+import gr17.noodleio.game.models.LobbyPlayer;
+import gr17.noodleio.game.models.LobbySnapshot;
+import gr17.noodleio.game.services.network.RequestBudget;
+import gr17.noodleio.game.services.network.ServiceCalls;
 import gr17.noodleio.game.states.ui.BaseUIState;
 import gr17.noodleio.game.util.ResourceManager;
 
@@ -20,17 +30,34 @@ public class LobbyState extends BaseUIState {
     private Label playerNameLabel;
     private Label playersLabel;
     private TextButton startGameButton;
+    private TextButton netcodeButton;
+    private boolean lockstep = false;
 
     private LobbyPlayerApi lobbyPlayerApi;
+    private LobbyRealtimeApi lobbyRealtimeApi;
     private boolean isLobbyOwner = false;
-    private float gameSessionCheckTimer = 0;
-    private float playerListRefreshTimer = 0;
-    private static final float GAME_SESSION_CHECK_INTERVAL = 2.0f;
-    private static final float PLAYER_LIST_REFRESH_INTERVAL = 3.0f;
+    private boolean realtimeRequested = false;
+    private boolean enteringGame = false;
+    private float snapshotTimer = 0;
+    // Version of the last applied snapshot, an unchanged lobby is answered with not modified
+    private long snapshotVersion = -1;
+    // Set once a match has started in a lobby split into rooms, until this player's room is known
+    private boolean roomPending = false;
+    private AsyncCall<LobbySnapshot> snapshotCall;
+    // Polling only covers for realtime: fast while it is not connected, slow as a safety net once it is
+    private static final float SNAPSHOT_INTERVAL = 2.0f;
+    private static final float FALLBACK_SNAPSHOT_INTERVAL = 10.0f;
+    // Longest starting the game or leaving may take, across all the calls it makes
+    private static final long ACTION_DEADLINE_MS = 8000;
+    // Match assets load a slice per frame while players wait, so the lobby stays responsive
+    private static final int PRELOAD_BUDGET_MS = 8;
+    private ResourceManager matchResources = new ResourceManager();
+    private final long preloadStartedAtMillis = System.currentTimeMillis();
 
     public LobbyState(GameStateManager gsm) {
         super(gsm);
         initializeApis();
+        matchResources.preload();
     }
 
     @Override
@@ -47,6 +74,8 @@ public class LobbyState extends BaseUIState {
 
         startGameButton = uiFactory.addButton(table, "Start Game", this::startGame);
         startGameButton.setVisible(false); // Initially hidden
+        netcodeButton = uiFactory.addButton(table, netcodeLabel(), this::toggleNetcode);
+        netcodeButton.setVisible(false);
 
         uiFactory.createBackButton(table, this::leaveAndCleanup);
         statusLabel = uiFactory.createStatusLabel(table);
@@ -58,6 +87,10 @@ public class LobbyState extends BaseUIState {
             public String getSupabaseKey() { return Config.getSupabaseKey(); }
         };
         lobbyPlayerApi = new LobbyPlayerApi(config);
+
+        // Open the game session connection while players wait, so the match starts on a warm socket
+        SessionConnection.getInstance().warmUp();
+        lobbyRealtimeApi = SessionConnection.getInstance().getLobbyRealtimeApi();
     }
 
     // Updated to include short code
@@ -87,112 +120,241 @@ public class LobbyState extends BaseUIState {
             playerNameLabel.setText("You: " + playerName);
         }
 
-        refreshPlayersList();
+        refreshSnapshot();
+    }
 
-        if (lobbyId != null && playerId != null && !playerId.equals("Not needed")) {
+    /**
+     * Read members, owner and active session in one request, and apply them if anything changed
+     */
+    private void refreshSnapshot() {
+        // A slow reply is not overtaken by the next poll
+        if (lobbyId == null || (snapshotCall != null && !snapshotCall.isDone())) {
+            return;
+        }
+        // The poll is also this player's heartbeat, a lobby nobody polls is removed by the stale lobby sweeper
+        String heartbeatId = playerId == null || playerId.equals("Not needed") ? null : playerId;
+        final boolean knowsPlayer = heartbeatId != null;
+        snapshotCall = track(lobbyPlayerApi.getLobbySnapshotAsync(lobbyId, snapshotVersion, heartbeatId, 0, snapshot -> {
             try {
-                boolean isOwner = lobbyPlayerApi.isLobbyOwner(playerId, lobbyId);
-                if (isOwner != isLobbyOwner) {
-                    isLobbyOwner = isOwner;
-                    startGameButton.setVisible(isLobbyOwner);
+                if (snapshot == null) {
+                    if (snapshotVersion < 0) {
+                        playersLabel.setText("Error loading players");
+                    }
+                    return;
+                }
+                if (snapshot.getNot_modified() || snapshot.getVersion() <= snapshotVersion) {
+                    return;
                 }
+                snapshotVersion = snapshot.getVersion();
+                applySnapshot(snapshot, knowsPlayer);
             } catch (Exception e) {
-                logError("Error checking lobby owner", e);
+                logError("Error refreshing lobby", e);
+                playersLabel.setText("Error loading players");
             }
-        }
+        }));
     }
 
-    private void refreshPlayersList() {
-        try {
-            String players = lobbyPlayerApi.getPlayersInLobby(lobbyId);
-            playersLabel.setText(players);
-        } catch (Exception e) {
-            logError("Error refreshing players list", e);
-            playersLabel.setText("Error loading players");
+    private void applySnapshot(LobbySnapshot snapshot, boolean knowsPlayer) {
+        playersLabel.setText(formatPlayers(snapshot.getMembers()));
+
+        // Players who joined with the code only know their name, their ID is in the member list
+        if (playerId == null || playerId.equals("Not needed")) {
+            for (LobbyPlayer member : snapshot.getMembers()) {
+                if (member.getPlayer_name().equals(playerName)) {
+                    playerId = member.getId();
+                    break;
+                }
+            }
+        }
+
+        boolean isOwner = playerId != null && playerId.equals(snapshot.getOwner_id());
+        if (isOwner != isLobbyOwner) {
+            isLobbyOwner = isOwner;
+            startGameButton.setVisible(isLobbyOwner);
+            netcodeButton.setVisible(isLobbyOwner);
+        }
+
+        if (snapshot.getLobby_id() != null) {
+            subscribeToLobby(snapshot.getLobby_id());
+        }
+        if (snapshot.getActive_session_id() != null) {
+            if (snapshot.getRoom_count() > 1 && !knowsPlayer) {
+                // The session is only this player's room when the poll names the player
+                awaitingRoom();
+            } else {
+                enterGame(snapshot.getActive_session_id());
+            }
         }
     }
 
     /**
-     * Handles player leaving the lobby, with cleanup of lobby if player is the owner
+     * Follow member changes and the match start in realtime instead of polling for them
+     * @param fullLobbyId The full lobby ID, the subscription cannot filter on the short code
      */
-    private void leaveAndCleanup() {
-        try {
-            if (playerId != null && !playerId.equals("Not needed")) {
-                // Check if we are the owner
-                if (isLobbyOwner && lobbyId != null) {
-                    log("Owner is leaving lobby - deleting lobby: " + lobbyId);
-                    String result = lobbyPlayerApi.deleteLobby(lobbyId);
-                    log("Delete lobby result: " + result);
+    private void subscribeToLobby(String fullLobbyId) {
+        if (realtimeRequested) {
+            return;
+        }
+        realtimeRequested = true;
+
+        lobbyRealtimeApi.subscribe(fullLobbyId, new LobbyRealtimeApi.LobbyCallback() {
+            @Override
+            public void onMembersChanged(List<LobbyPlayer> members) {
+                playersLabel.setText(formatPlayers(members));
+            }
+
+            @Override
+            public void onSessionStarted(String sessionId, int roomCount) {
+                if (roomCount > 1) {
+                    awaitingRoom();
                 } else {
-                    // Just leave the lobby
-                    log("Player is leaving lobby: " + playerId);
-                    String result = lobbyPlayerApi.leaveLobby(playerId);
-                    log("Leave lobby result: " + result);
+                    enterGame(sessionId);
                 }
             }
-        } catch (Exception e) {
-            logError("Error during lobby cleanup", e);
+        });
+    }
+
+    /**
+     * The lobby was split into rooms, the next snapshot poll names this player's room session
+     */
+    private void awaitingRoom() {
+        roomPending = true;
+        snapshotVersion = -1;
+        refreshSnapshot();
+    }
+
+    /**
+     * Same layout as the polled player list
+     */
+    private String formatPlayers(List<LobbyPlayer> members) {
+        StringBuilder sb = new StringBuilder("Players in lobby:\n");
+        if (members.isEmpty()) {
+            sb.append("No players found in this lobby");
+        } else {
+            for (LobbyPlayer member : members) {
+                sb.append("- ").append(member.getPlayer_name()).append("\n");
+            }
+            sb.append("Total players: ").append(members.size());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Handles player leaving the lobby, with cleanup of lobby if player is the owner
+     */
+    private void leaveAndCleanup() {
+        if (playerId == null || playerId.equals("Not needed")) {
+            gsm.set(new MenuState(gsm));
+            return;
+        }
+
+        showPending("Leaving lobby");
+        AsyncCall.Callback<String> backToMenu = result -> {
+            log("Leave lobby result: " + result);
+            gsm.set(new MenuState(gsm));
+        };
+        // Check if we are the owner
+        if (isLobbyOwner && lobbyId != null) {
+            log("Owner is leaving lobby - deleting lobby: " + lobbyId);
+            track(lobbyPlayerApi.deleteLobbyAsync(lobbyId, ACTION_DEADLINE_MS, backToMenu));
+        } else {
+            // Just leave the lobby
+            log("Player is leaving lobby: " + playerId);
+            track(lobbyPlayerApi.leaveLobbyAsync(playerId, ACTION_DEADLINE_MS, backToMenu));
         }
-        
-        // Return to menu
-        gsm.set(new MenuState(gsm));
     }
 
 
+    /**
+     * Lockstep sends only inputs during the match, the server falls back to streaming
+     * unless the lobby has 2-4 players
+     */
+    private void toggleNetcode() {
+        lockstep = !lockstep;
+        netcodeButton.setText(netcodeLabel());
+    }
+
+    private String netcodeLabel() {
+        return lockstep ? "Netcode: Lockstep" : "Netcode: Streaming";
+    }
+
     private void startGame() {
         if (lobbyId != null && playerId != null) {
-            setStatus("Starting game...");
-            try {
-                String result = lobbyPlayerApi.startGameSession(playerId, lobbyId);
-                if (result.contains("ID:")) {
-                    String sessionId = result.split("ID:")[1].split(",")[0].trim();
-                    ResourceManager rm = new ResourceManager();
-                    rm.load();
-                    PlayState playState = new PlayState(gsm, sessionId, playerId, playerName, rm);
-                    gsm.set(playState);
+            showPending("Starting game");
+            track(lobbyPlayerApi.startGameSessionAsync(playerId, lobbyId, lockstep, ACTION_DEADLINE_MS, result -> {
+                clearPending();
+                GameSession session = result != null ? result.getOrNull() : null;
+                if (session != null) {
+                    enterGame(session.getId());
                 } else {
-                    setStatus("Game started but couldn't get session ID");
+                    setStatus(result != null ? "Failed to start game: " + result.messageOrEmpty() : "Failed to start game");
                 }
-            } catch (Exception e) {
-                logError("Error starting game", e);
-                setStatus("Error starting game");
-            }
+            }));
         } else {
             setStatus("Error: Missing lobby or player data");
         }
     }
 
-    private void checkForActiveGameSession() {
+    /**
+     * Switch to the match. Realtime, the fallback poll and the owner's own start can all report
+     * the same session, only the first one counts.
+     */
+    private void enterGame(String sessionId) {
+        if (enteringGame) {
+            return;
+        }
+        enteringGame = true;
         try {
-            String result = lobbyPlayerApi.checkActiveGameSession(lobbyId);
-            if (result.contains("session_id:")) {
-                String sessionId = result.split("session_id:")[1].split(",")[0].trim();
-                if (playerId == null || playerId.equals("Not needed")) {
-                    playerId = lobbyPlayerApi.getPlayerIdFromName(playerName);
+            long swapStartedAtMillis = System.currentTimeMillis();
+            boolean preloaded = matchResources.isLoaded();
+            if (playerId == null || playerId.equals("Not needed")) {
+                String foundId = lobbyPlayerApi.getPlayerIdFromName(playerName);
+                if (foundId == null || foundId.isEmpty()) {
+                    // Rate limited or not found yet, the next poll reports the session again
+                    enteringGame = false;
+                    setStatus(foundId == null ? "Busy, retrying..." : "Error: player not found in lobby");
+                    return;
                 }
-                ResourceManager rm = new ResourceManager();
-                rm.load();
-                PlayState playState = new PlayState(gsm, sessionId, playerId, playerName, rm);
-                gsm.set(playState);
+                playerId = foundId;
             }
+            PlayState playState = new PlayState(gsm, sessionId, playerId, playerName, matchResources);
+            matchResources = null;
+            log("Match swap took " + (System.currentTimeMillis() - swapStartedAtMillis)
+                + " ms (assets preloaded: " + preloaded + ")");
+            gsm.set(playState);
         } catch (Exception e) {
-            logError("Error checking for active game session", e);
+            enteringGame = false;
+            logError("Error entering game session", e);
+            setStatus("Error starting game");
         }
     }
 
     @Override
     public void update(float dt) {
         super.update(dt);
-        playerListRefreshTimer += dt;
-        if (playerListRefreshTimer >= PLAYER_LIST_REFRESH_INTERVAL) {
-            playerListRefreshTimer = 0;
-            refreshPlayersList();
+        if (matchResources != null && !matchResources.isLoaded() && matchResources.update(PRELOAD_BUDGET_MS)) {
+            log("Match assets preloaded in " + (System.currentTimeMillis() - preloadStartedAtMillis) + " ms");
+        }
+        boolean realtime = lobbyRealtimeApi != null && lobbyRealtimeApi.isSubscribed();
+
+        snapshotTimer += dt;
+        if (snapshotTimer >= (realtime && !roomPending ? FALLBACK_SNAPSHOT_INTERVAL : SNAPSHOT_INTERVAL)) {
+            snapshotTimer = 0;
+            refreshSnapshot();
         }
+    }
 
-        gameSessionCheckTimer += dt;
-        if (gameSessionCheckTimer >= GAME_SESSION_CHECK_INTERVAL) {
-            gameSessionCheckTimer = 0;
-            checkForActiveGameSession();
+    @Override
+    public void dispose() {
+        if (lobbyRealtimeApi != null) {
+            lobbyRealtimeApi.unsubscribe();
+        }
+        log("Request budget: " + RequestBudget.getStats());
+        log("Circuit breakers: " + ServiceCalls.getBreakerStates());
+        // Not handed to a match, the player left the lobby
+        if (matchResources != null) {
+            matchResources.dispose();
         }
+        super.dispose();
     }
-}
\ No newline at end of file
+}
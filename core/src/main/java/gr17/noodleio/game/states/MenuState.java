@@ -2,20 +2,40 @@ package gr17.noodleio.game.states;
 
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.scenes.scene2d.ui.Table;
+import com.badlogic.gdx.scenes.scene2d.ui.TextButton;
 import com.badlogic.gdx.scenes.scene2d.ui.TextField;
 
+import gr17.noodleio.game.API.AsyncCall;
 import gr17.noodleio.game.API.LobbyApi;
 import gr17.noodleio.game.API.LobbyPlayerApi;
+import gr17.noodleio.game.API.MatchmakingApi;
+import gr17.noodleio.game.API.SessionConnection;
 import gr17.noodleio.game.config.Config;
 import gr17.noodleio.game.config.EnvironmentConfig;
+import gr17.noodleio.game.models.Lobby;
+import gr17.noodleio.game.models.LobbyPlayer;
+import gr17.noodleio.game.services.network.ServiceResult;
 import gr17.noodleio.game.states.ui.BaseUIState;
+import gr17.noodleio.game.util.ResourceManager;
+import kotlin.Pair;
 
 public class MenuState extends BaseUIState {
+    // Longest creating or joining a lobby may take, across all the calls it makes
+    private static final long ACTION_DEADLINE_MS = 8000;
+    // The assignment is pushed, the ticket is only read while realtime is not connected
+    private static final float TICKET_CHECK_INTERVAL = 3.0f;
+    // Match assets load a slice per frame while waiting in the queue
+    private static final int PRELOAD_BUDGET_MS = 8;
 
     private TextField playerNameField;
     private TextField lobbyCodeField;
     private LobbyApi lobbyApi;
     private LobbyPlayerApi lobbyPlayerApi;
+    private MatchmakingApi matchmakingApi;
+    private TextButton quickPlayButton;
+    private float ticketCheckTimer = 0;
+    // Created when joining quick play, handed to the match once it is found
+    private ResourceManager matchResources;
     private String lobbyId;
     private String playerId;
 
@@ -70,6 +90,18 @@ public class MenuState extends BaseUIState {
                 createLobbyWithOwner(name);
             }
         });
+        quickPlayButton = uiFactory.addButton(leftColumn, "Quick play", () -> {
+            if (matchmakingApi.isQueued()) {
+                cancelQuickPlay();
+                return;
+            }
+            String name = playerNameField.getText();
+            if (name == null || name.trim().isEmpty()) {
+                setStatus("Please enter a player name");
+            } else {
+                quickPlay(name);
+            }
+        });
         uiFactory.addButton(leftColumn, "Leaderboard", () -> gsm.set(new LeaderboardState(gsm)));
     }
     
@@ -108,19 +140,25 @@ public class MenuState extends BaseUIState {
         };
         lobbyApi = new LobbyApi(config);
         lobbyPlayerApi = new LobbyPlayerApi(config);
+        matchmakingApi = SessionConnection.getInstance().getMatchmakingApi();
     }
 
     private void createLobbyWithOwner(String playerName) {
-        setStatus("Creating lobby...");
+        showPending("Creating lobby");
+        track(lobbyApi.createLobbyWithOwnerAsync(playerName, ACTION_DEADLINE_MS, result -> {
+            clearPending();
+            onLobbyCreated(playerName, result);
+        }));
+    }
+
+    private void onLobbyCreated(String playerName, ServiceResult<Pair<Lobby, LobbyPlayer>> result) {
         try {
-            String result = lobbyApi.createLobbyWithOwner(playerName);
-            log("LobbyApi result: " + result);
+            Pair<Lobby, LobbyPlayer> created = result != null ? result.getOrNull() : null;
+            if (created != null) {
+                lobbyId = created.getFirst().getId();
+                playerId = created.getSecond().getId();
+                log("Lobby created with ID: " + lobbyId + ", owner ID: " + playerId);
 
-            if (result.contains("Lobby created with ID:")) {
-                String[] parts = result.split("\\|");
-                lobbyId = parts[0].split(":")[1].trim();
-                playerId = parts[1].split(":")[1].trim();
-                
                 // Get short code (first 5 chars) for display
                 String shortCode = lobbyId.substring(0, Math.min(5, lobbyId.length()));
                 
@@ -128,8 +166,9 @@ public class MenuState extends BaseUIState {
                 lobbyState.setLobbyData(lobbyId, playerId, playerName, shortCode);
                 gsm.set(lobbyState);
             } else {
-                setStatus("Failed to create lobby: " + result);
-                log("Lobby creation failed with result: " + result);
+                String message = result != null ? result.messageOrEmpty() : "no response";
+                setStatus("Failed to create lobby: " + message);
+                log("Lobby creation failed: " + message);
             }
         } catch (Exception e) {
             logError("Error creating lobby", e);
@@ -138,9 +177,20 @@ public class MenuState extends BaseUIState {
     }
 
     private void joinLobby(String playerName, String code) {
-        setStatus("Joining lobby...");
+        showPending("Joining lobby");
+        track(lobbyPlayerApi.joinLobbyAsync(playerName, code, ACTION_DEADLINE_MS, result -> {
+            clearPending();
+            onLobbyJoined(playerName, code, result);
+        }));
+    }
+
+    private void onLobbyJoined(String playerName, String code, String result) {
         try {
-            lobbyPlayerApi.joinLobby(playerName, code);
+            if (result == null || !result.contains("Player ID:")) {
+                setStatus(result != null ? result : "Failed to join lobby");
+                log("Joining lobby failed with result: " + result);
+                return;
+            }
             LobbyState lobbyState = new LobbyState(gsm);
             lobbyState.setLobbyData(code, "Not needed", playerName);
             gsm.set(lobbyState);
@@ -149,4 +199,113 @@ public class MenuState extends BaseUIState {
             setStatus("Error joining lobby");
         }
     }
-}
\ No newline at end of file
+
+    private void quickPlay(String playerName) {
+        showPending("Joining quick play");
+        // The match starts as soon as the matcher places us, so open the game connection
+        // and start loading the match assets now
+        SessionConnection.getInstance().warmUp();
+        if (matchResources == null) {
+            matchResources = new ResourceManager();
+            matchResources.preload();
+        }
+        final MatchmakingApi.MatchCallback callback = new MatchmakingApi.MatchCallback() {
+            @Override
+            public void onMatched(String matchedLobbyId, String matchedPlayerId, String sessionId) {
+                enterMatch(playerName, matchedLobbyId, matchedPlayerId, sessionId);
+            }
+
+            @Override
+            public void onRejected(String reason) {
+                matchmakingApi.stop();
+                quickPlayButton.setText("Quick play");
+                setStatus("Quick play failed: " + reason);
+            }
+        };
+        track(AsyncCall.submit(ACTION_DEADLINE_MS, () -> matchmakingApi.quickPlay(playerName, callback), result -> {
+            clearPending();
+            if (result == null || !result.startsWith("Queued")) {
+                setStatus(result != null ? result : "Quick play failed");
+                log("Quick play failed with result: " + result);
+                return;
+            }
+            ticketCheckTimer = 0;
+            quickPlayButton.setText("Cancel quick play");
+            setStatus("Looking for players...");
+        }));
+    }
+
+    private void cancelQuickPlay() {
+        showPending("Leaving quick play");
+        track(AsyncCall.submit(ACTION_DEADLINE_MS, matchmakingApi::cancel, left -> {
+            clearPending();
+            if (left == null) {
+                setStatus("Could not leave quick play");
+            } else if (left) {
+                quickPlayButton.setText("Quick play");
+                setStatus("Left quick play");
+            } else {
+                // Already placed, the assignment is on its way
+                setStatus("Match found, starting...");
+                checkAssignment();
+            }
+        }));
+    }
+
+    private void checkAssignment() {
+        track(AsyncCall.submit(0, () -> {
+            matchmakingApi.checkAssignment();
+            return Boolean.TRUE;
+        }, null));
+    }
+
+    private void enterMatch(String playerName, String matchedLobbyId, String matchedPlayerId, String sessionId) {
+        matchmakingApi.stop();
+        log("Quick play matched: lobby " + matchedLobbyId + ", session " + sessionId + " | " + matchmakingApi.getStats());
+        lobbyId = matchedLobbyId;
+        playerId = matchedPlayerId;
+        if (sessionId == null) {
+            // The lobby exists but the session did not start, wait in it like a manually joined player
+            LobbyState lobbyState = new LobbyState(gsm);
+            lobbyState.setLobbyData(lobbyId, playerId, playerName, lobbyId.substring(0, Math.min(5, lobbyId.length())));
+            gsm.set(lobbyState);
+            return;
+        }
+        long swapStartedAtMillis = System.currentTimeMillis();
+        boolean preloaded = matchResources != null && matchResources.isLoaded();
+        ResourceManager rm = matchResources != null ? matchResources : new ResourceManager();
+        PlayState playState = new PlayState(gsm, sessionId, playerId, playerName, rm);
+        matchResources = null;
+        log("Match swap took " + (System.currentTimeMillis() - swapStartedAtMillis)
+            + " ms (assets preloaded: " + preloaded + ")");
+        gsm.set(playState);
+    }
+
+    @Override
+    public void update(float dt) {
+        super.update(dt);
+        if (matchResources != null) {
+            matchResources.update(PRELOAD_BUDGET_MS);
+        }
+        if (!matchmakingApi.isQueued() || matchmakingApi.isSubscribed()) {
+            return;
+        }
+        ticketCheckTimer += dt;
+        if (ticketCheckTimer >= TICKET_CHECK_INTERVAL) {
+            ticketCheckTimer = 0;
+            checkAssignment();
+        }
+    }
+
+    @Override
+    public void dispose() {
+        // Leaving the menu while still waiting gives the place in the queue up
+        if (matchmakingApi != null && matchmakingApi.isQueued()) {
+            AsyncCall.submit(ACTION_DEADLINE_MS, matchmakingApi::cancel, null);
+        }
+        if (matchResources != null) {
+            matchResources.dispose();
+        }
+        super.dispose();
+    }
+}
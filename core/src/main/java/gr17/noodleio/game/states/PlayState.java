@@ -19,8 +19,11 @@ import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.math.Vector3;
 import com.badlogic.gdx.utils.Array;
 
+import gr17.noodleio.game.API.AsyncCall;
+import gr17.noodleio.game.API.LockstepApi;
 import gr17.noodleio.game.API.PlayerGameStateApi;
 import gr17.noodleio.game.API.RealtimeGameStateApi;
+import gr17.noodleio.game.API.SessionConnection;
 import gr17.noodleio.game.Entities.BodyPart;
 import gr17.noodleio.game.Entities.Food.Food;
 import gr17.noodleio.game.Entities.Food.MagnetBoost;
@@ -28,14 +31,18 @@ import gr17.noodleio.game.Entities.Food.PowerUp;
 import gr17.noodleio.game.Entities.Food.SpeedBoost;
 import gr17.noodleio.game.Entities.Snake;
 import gr17.noodleio.game.config.Config;
-import gr17.noodleio.game.config.EnvironmentConfig;
+import gr17.noodleio.game.lockstep.LockstepSession;
+import gr17.noodleio.game.lockstep.LockstepSimulation;
 import gr17.noodleio.game.model.PlayerResult;
 import gr17.noodleio.game.models.GameSession;
 import gr17.noodleio.game.models.PlayerGameState;
+import gr17.noodleio.game.services.LockstepMatch;
+import gr17.noodleio.game.services.LockstepService;
+import gr17.noodleio.game.services.network.NetworkEmulator;
+import gr17.noodleio.game.services.network.NetworkProfile;
+import gr17.noodleio.game.services.network.RequestBudget;
+import gr17.noodleio.game.services.network.ServiceCalls;
 import gr17.noodleio.game.util.ResourceManager;
-import gr17.noodleio.game.API.LobbyPlayerApi;
-import gr17.noodleio.game.services.ServiceManager;
-import gr17.noodleio.game.API.LobbyApi;
 
 import java.util.Collections;
 import java.util.List;
@@ -62,9 +69,19 @@ public class PlayState extends State implements RealtimeGameStateApi.GameStateCa
     private GameSession currentSession;
     private ConcurrentHashMap<String, PlayerGameState> players = new ConcurrentHashMap<>();
     private int lastReportedScore = 0;
+    // Whether the session's server food replaced the locally spawned food
+    private boolean serverFoodAdopted = false;
+    private static final long CLAIM_DEADLINE_MS = 2_000;
     private float scoreUpdateTimer = 0;
     private static final float SCORE_UPDATE_INTERVAL = 1.0f; // Update score every second
 
+    // Time-to-first-remote-update measurement
+    private final long createdAtMillis = System.currentTimeMillis();
+    private boolean connectionWasWarm;
+    private boolean firstRemoteUpdateLogged = false;
+    private boolean gameOverHandled = false;
+    private long pausedAtMillis = 0;
+
     // Client-side prediction
     private Vector2 clientPredictedPosition = new Vector2();
     private Vector2 serverConfirmedPosition = new Vector2();
@@ -81,6 +98,10 @@ public class PlayState extends State implements RealtimeGameStateApi.GameStateCa
     // APIs
     private RealtimeGameStateApi realtimeGameStateApi;
     private PlayerGameStateApi playerGameStateApi;
+    private LockstepApi lockstepApi;
+
+    // Set while the match runs in lockstep, null when it streams state from the server
+    private LockstepSession lockstep;
 
     // Rendering resources
     private ShapeRenderer shapes;
@@ -224,23 +245,19 @@ public class PlayState extends State implements RealtimeGameStateApi.GameStateCa
         this.cam = new OrthographicCamera();
         this.cam.setToOrtho(false, Gdx.graphics.getWidth() / 2, Gdx.graphics.getHeight() / 2);
 
-        // Initialize graphics resources
-        this.shapes = new ShapeRenderer();
+        // Initialize graphics resources, the shaders and fonts are usually preloaded in the lobby
+        resources.load();
+        this.shapes = resources.newShapeRenderer();
         this.shapes.setAutoShapeType(true);
-        this.font = new BitmapFont();
+        this.font = resources.getHudFont();
         this.font.getData().setScale(2);
-        this.gameBatch = new SpriteBatch();
-        this.foodBatch = new SpriteBatch();
-        this.uiBatch = new SpriteBatch();
+        this.gameBatch = resources.newSpriteBatch();
+        this.foodBatch = resources.newSpriteBatch();
+        this.uiBatch = resources.newSpriteBatch();
         this.exitButton = new Rectangle(10, Gdx.graphics.getHeight() - 80, 200, 60);
 
-        this.font.getRegion().getTexture().setFilter(
-            Texture.TextureFilter.Linear,
-            Texture.TextureFilter.Linear
-        );
-
         // Create a separate batch for background drawing
-        this.backgroundBatch = new SpriteBatch();
+        this.backgroundBatch = resources.newSpriteBatch();
 
         // Get the background texture from resources
         this.backgroundTexture = resources.getBackgroundTexture();
@@ -249,34 +266,149 @@ public class PlayState extends State implements RealtimeGameStateApi.GameStateCa
         this.mapWidth = 1080;
         this.mapHeight = 1080;
 
-        // Create environment configuration
-        EnvironmentConfig config = new EnvironmentConfig() {
-            @Override
-            public String getSupabaseUrl() {
-                return Config.getSupabaseUrl();
-            }
-
-            @Override
-            public String getSupabaseKey() {
-                return Config.getSupabaseKey();
-            }
-        };
-
-        // Initialize APIs and connect to game session
+        // Reuse the session connection opened in the lobby, instead of new clients and handshakes
         try {
-            this.realtimeGameStateApi = new RealtimeGameStateApi(config);
-            this.playerGameStateApi = new PlayerGameStateApi(config);
-
-            // Register for callbacks and connect
-            this.realtimeGameStateApi.addCallback(this);
-            String result = this.realtimeGameStateApi.connect(sessionId, playerId);
-            log("Connection result: " + result);
+            SessionConnection connection = SessionConnection.getInstance();
+            this.connectionWasWarm = connection.isWarm();
+            this.realtimeGameStateApi = connection.getRealtimeGameStateApi();
+            this.playerGameStateApi = connection.getPlayerGameStateApi();
+            this.lockstepApi = connection.getLockstepApi();
+
+            // Lockstep matches only exchange inputs, the streamed game state is not needed
+            LockstepMatch match = lockstepApi.start(sessionId, playerId);
+            log("Netcode: " + lockstepApi.getStatusMessage());
+            if (match != null) {
+                this.lockstep = new LockstepSession(lockstepApi, match);
+                this.currentSession = match.getSession();
+            } else {
+                connectRealtime();
+            }
         } catch (Exception e) {
             logError("Error initializing game state APIs", e);
         }
 
         // Initialize snake-related components
         initializeSnakeComponents();
+        if (lockstep != null) {
+            spawnLockstepWorld();
+        }
+    }
+
+    /**
+     * Register for callbacks and start receiving the streamed game state
+     */
+    private void connectRealtime() {
+        this.realtimeGameStateApi.addCallback(this);
+        String result = this.realtimeGameStateApi.connect(sessionId, playerId);
+        log("Connection result: " + result + " (warm connection: " + connectionWasWarm + ")");
+    }
+
+    /**
+     * Replace the locally spawned food and power-ups with view objects for the lockstep simulation's,
+     * which every client places the same way
+     */
+    private void spawnLockstepWorld() {
+        LockstepSimulation simulation = lockstep.getSimulation();
+
+        foods.clear();
+        for (Food simFood : simulation.getFoods()) {
+            Food food = new Food(gameToScreenCoordinates(simFood.pos));
+            food.texture = resources.getRandomFoodTexture();
+            foods.add(food);
+        }
+
+        powerUps.clear();
+        for (PowerUp simPowerUp : simulation.getPowerUps()) {
+            Vector2 screenPos = gameToScreenCoordinates(simPowerUp.pos);
+            if ("speed".equals(simPowerUp.getType())) {
+                powerUps.add(new SpeedBoost(screenPos, resources.getSpeedBoostTexture()));
+            } else {
+                powerUps.add(new MagnetBoost(screenPos, resources.getMagnetBoostTexture()));
+            }
+        }
+        syncLockstepView();
+    }
+
+    /**
+     * Advance the lockstep match and copy its state into the view: player states for the HUD and
+     * the other snakes, the local player's position and score, and the food and power-ups
+     */
+    private void updateLockstep(float dt) {
+        Vector3 mousePos = new Vector3(Gdx.input.getX(), Gdx.input.getY(), 0);
+        cam.unproject(mousePos);
+        Vector2 target = screenToGameCoordinates(new Vector2(mousePos.x, mousePos.y));
+        lockstep.update(dt, Math.round(target.x), Math.round(target.y), isMovementActive);
+
+        if (lockstep.isDesynced()) {
+            fallBackToStreaming("desync");
+            return;
+        }
+        if (lockstep.isDroppedByPeers()) {
+            // The peers simulate this player as idle from the drop on, following them is impossible
+            fallBackToStreaming("dropped by the peers");
+            return;
+        }
+
+        syncLockstepView();
+
+        if (lockstep.getWinner() >= 0) {
+            onGameOver();
+        }
+    }
+
+    private void syncLockstepView() {
+        LockstepSimulation simulation = lockstep.getSimulation();
+        List<String> roster = lockstep.getRoster();
+
+        for (int i = 0; i < roster.size(); i++) {
+            Snake snake = simulation.getSnakes().get(i);
+            String pid = roster.get(i);
+            players.put(pid, new PlayerGameState(pid, sessionId, pid,
+                snake.snakeHead.pos.x, snake.snakeHead.pos.y, snake.score));
+        }
+
+        Snake localSimSnake = simulation.getSnakes().get(lockstep.getLocalIndex());
+        clientPredictedPosition.set(localSimSnake.snakeHead.pos);
+        hasSpeedBoost = localSimSnake.speedBoostTimer.isRunning();
+        if (localSnake != null) {
+            localSnake.score = localSimSnake.score;
+            localSnake.attractFood = localSimSnake.attractFood;
+        }
+
+        List<Food> simFoods = simulation.getFoods();
+        for (int i = 0; i < simFoods.size() && i < foods.size(); i++) {
+            Food food = foods.get(i);
+            food.isEat = simFoods.get(i).isEat;
+            food.pos.set(gameToScreenCoordinates(simFoods.get(i).pos));
+        }
+        List<PowerUp> simPowerUps = simulation.getPowerUps();
+        for (int i = 0; i < simPowerUps.size() && i < powerUps.size(); i++) {
+            powerUps.get(i).isEat = simPowerUps.get(i).isEat;
+        }
+    }
+
+    /**
+     * The clients no longer agree on the match state, hand it to the server. Nothing was written
+     * while the match ran in lockstep, so every client first writes its own snake's position and
+     * score from its simulation, and only then subscribes, so streaming starts from the resynced rows.
+     */
+    private void fallBackToStreaming(String reason) {
+        log("Lockstep " + reason + ", falling back to streaming: " + lockstep.getStats());
+        Snake localSimSnake = lockstep.getSimulation().getSnakes().get(lockstep.getLocalIndex());
+        lockstep = null;
+        lockstepApi.stop();
+
+        Vector2 head = localSimSnake.snakeHead.pos;
+        if (playerGameStateApi.resyncState(playerId, sessionId, head.x, head.y, localSimSnake.score)) {
+            lastReportedScore = localSimSnake.score;
+        } else {
+            log("Could not resync the local state, streaming starts from the server's copy");
+        }
+
+        players.clear();
+        otherPlayerSnakes.clear();
+        serverConfirmedPosition.setZero();
+        connectRealtime();
     }
 
     /**
@@ -480,6 +612,12 @@ public class PlayState extends State implements RealtimeGameStateApi.GameStateCa
             disconnectAndReturnToMenu();
         }
 
+        // Debug: cycle the emulated network conditions
+        if (Config.isDebugKeysEnabled() && Gdx.input.isKeyJustPressed(Input.Keys.F9)) {
+            NetworkProfile profile = NetworkEmulator.cycleProfile();
+            log("Network profile switched to " + profile.getLabel());
+        }
+
         if (Gdx.input.justTouched()) {
             Vector2 touch = new Vector2(Gdx.input.getX(), Gdx.graphics.getHeight() - Gdx.input.getY());
             if (exitButton.contains(touch.x, touch.y)) {
@@ -511,11 +649,18 @@ public class PlayState extends State implements RealtimeGameStateApi.GameStateCa
             }
         }
 
-        // Now handle movement if active
-        handleLocalMovement(cappedDt);
+        if (lockstep != null) {
+            updateLockstep(dt);
+            if (gameOverHandled) {
+                return;
+            }
+        } else {
+            // Now handle movement if active
+            handleLocalMovement(cappedDt);
 
-        // Sync with server periodically
-        syncWithServer(dt);
+            // Sync with server periodically
+            syncWithServer(dt);
+        }
 
         // Update the snake position using predicted position
         if (localSnake != null) {
@@ -536,9 +681,9 @@ public class PlayState extends State implements RealtimeGameStateApi.GameStateCa
             }
         }
 
-        // Update score in the database if it has changed
+        // Update score in the database if it has changed, lockstep matches only write the final score
         scoreUpdateTimer += dt;
-        if (scoreUpdateTimer >= SCORE_UPDATE_INTERVAL) {
+        if (lockstep == null && scoreUpdateTimer >= SCORE_UPDATE_INTERVAL) {
             scoreUpdateTimer = 0;
             updateScoreIfNeeded();
         }
@@ -546,11 +691,16 @@ public class PlayState extends State implements RealtimeGameStateApi.GameStateCa
         // Update other player snakes
         updateOtherPlayerSnakes();
 
-        // Update food interactions
-        updateFoodInteractions();
+        // Food and power-ups are resolved by the simulation in lockstep matches
+        if (lockstep == null) {
+            adoptServerFood();
 
-        // Update power-up interactions
-        updatePowerUpInteractions();
+            // Update food interactions
+            updateFoodInteractions();
+
+            // Update power-up interactions
+            updatePowerUpInteractions();
+        }
 
         // Update camera position to follow player
         updateCameraPosition();
@@ -560,11 +710,12 @@ public class PlayState extends State implements RealtimeGameStateApi.GameStateCa
         if (localSnake != null && localSnake.score != lastReportedScore) {
             // Score has changed, update it in the database
             int newScore = localSnake.score;
-            playerGameStateApi.updatePlayerScore(playerId, sessionId, newScore);
-            lastReportedScore = newScore;
+            if (playerGameStateApi.updatePlayerScore(playerId, sessionId, newScore)) {
+                lastReportedScore = newScore;
 
-            // Log the score update
-            log("Updated score to " + newScore);
+                // Log the score update
+                log("Updated score to " + newScore);
+            }
         }
     }
 
@@ -596,28 +747,7 @@ public class PlayState extends State implements RealtimeGameStateApi.GameStateCa
                 otherSnake.update(screenPos.x, screenPos.y);
             }
         }
-
-        // Remove snakes for players who are no longer in the game
-        ArrayList<String> playersToRemove = new ArrayList<>();
-        for (String pid : otherPlayerSnakes.keySet()) {
-            boolean playerExists = false;
-            for (PlayerGameState player : players.values()) {
-                String currentPid = player.getPlayer_id().replace("\"", "");
-                if (currentPid.equals(pid)) {
-                    playerExists = true;
-                    break;
-                }
-            }
-
-            if (!playerExists) {
-                playersToRemove.add(pid);
-            }
-        }
-
-        // Remove snakes for players who left
-        for (String pid : playersToRemove) {
-            otherPlayerSnakes.remove(pid);
-        }
+        // Departed players are pruned in onPlayerLeft, so no removal pass is needed here
     }
 
     /**
@@ -650,6 +780,29 @@ public class PlayState extends State implements RealtimeGameStateApi.GameStateCa
         }
     }
 
+    /**
+     * Replace the locally spawned food with the session's food rows once the snapshot has them.
+     * Sessions without food rows keep the local food, which is not claimed on the server.
+     */
+    private void adoptServerFood() {
+        if (serverFoodAdopted) {
+            return;
+        }
+        List<gr17.noodleio.game.models.Food> serverFood = realtimeGameStateApi.getServerFood();
+        if (serverFood.isEmpty()) {
+            return;
+        }
+        serverFoodAdopted = true;
+        foods.clear();
+        for (gr17.noodleio.game.models.Food row : serverFood) {
+            Food food = new Food(gameToScreenCoordinates(new Vector2(row.getX_pos(), row.getY_pos())),
+                resources.getRandomFoodTexture());
+            food.serverId = row.getId();
+            foods.add(food);
+        }
+        log("Using " + foods.size() + " server food items");
+    }
+
     /**
      * Update interactions with food items
      */
@@ -667,8 +820,8 @@ public class PlayState extends State implements RealtimeGameStateApi.GameStateCa
             }
 
             // Check collision with snake
-            if (localSnake.checkFoodCollision(f)) {
-                // Food was eaten, updated in checkFoodCollision
+            if (localSnake.checkFoodCollision(f) && f.serverId != null) {
+                claimFood(f);
             }
 
             // Handle magnet attraction - only if needed
@@ -682,6 +835,28 @@ public class PlayState extends State implements RealtimeGameStateApi.GameStateCa
         }
     }
 
+    /**
+     * Ask the server for a food the snake was seen eating. The server decides the score, so the
+     * local increment is taken back until the claim is awarded.
+     */
+    private void claimFood(Food food) {
+        localSnake.score--;
+        final String foodId = food.serverId;
+        final long observedAtMs = System.currentTimeMillis();
+        final float headX = clientPredictedPosition.x;
+        final float headY = clientPredictedPosition.y;
+        AsyncCall.submit(CLAIM_DEADLINE_MS,
+            () -> playerGameStateApi.claimFood(playerId, sessionId, foodId, observedAtMs, headX, headY),
+            newScore -> {
+                if (newScore != null && newScore >= 0 && localSnake != null) {
+                    localSnake.score = newScore;
+                    lastReportedScore = newScore;
+                } else {
+                    log("Food claim for " + foodId + " was not awarded");
+                }
+            });
+    }
+
     /**
      * Update interactions with power-ups
      */
@@ -775,21 +950,19 @@ public class PlayState extends State implements RealtimeGameStateApi.GameStateCa
             // Only send if moved significantly
             if (distance > 8.0f) {
                 // Decide direction based on largest component
+                String move;
                 if (Math.abs(direction.x) > Math.abs(direction.y)) {
                     // Move horizontally
-                    if (direction.x > 0) {
-                        playerGameStateApi.movePlayerRight(playerId, sessionId);
-                    } else {
-                        playerGameStateApi.movePlayerLeft(playerId, sessionId);
-                    }
+                    move = direction.x > 0 ? "right" : "left";
                 } else {
                     // Move vertically
-                    if (direction.y > 0) {
-                        playerGameStateApi.movePlayerDown(playerId, sessionId);
-                    } else {
-                        playerGameStateApi.movePlayerUp(playerId, sessionId);
-                    }
+                    move = direction.y > 0 ? "down" : "up";
                 }
+                // A refused input is not lost: the prediction stays ahead and the move is sent next sync
+                playerGameStateApi.sendInput(playerId, sessionId, move, hasSpeedBoost);
+            } else {
+                // Resend anything the server has not acknowledged yet
+                playerGameStateApi.flushInputs(playerId, sessionId);
             }
         }
     }
@@ -1187,95 +1360,82 @@ public class PlayState extends State implements RealtimeGameStateApi.GameStateCa
 
         font.draw(uiBatch, "Eat food! Press and hold to move", 20, 40);
 
+        if (NetworkEmulator.isActive()) {
+            font.draw(uiBatch, "Network: " + NetworkEmulator.getProfile().getLabel() + " (F9)",
+                Gdx.graphics.getWidth() - 450, Gdx.graphics.getHeight() - 90);
+        }
+
         uiBatch.end();
     }
 
     /**
      * Disconnects from the game session, deletes the lobby, and returns to the menu.
+     * The network work runs in the background, so the menu appears immediately.
      */
     private void disconnectAndReturnToMenu() {
-        log("NOODLE_EXIT: ===== STARTING EXIT SEQUENCE =====");
-        
-        try {
-            // First check if we have a valid session
-            if (currentSession == null) {
-                log("NOODLE_EXIT: ERROR - Current session is null, cannot delete lobby");
-            } else {
-                log("NOODLE_EXIT: Session is valid with ID: " + currentSession.getId());
-                
-                // Get the lobby ID
-                String lobbyId = currentSession.getLobby_id();
-                log("NOODLE_EXIT: Lobby ID: " + (lobbyId != null ? lobbyId : "NULL"));
-                
-                if (lobbyId != null && !lobbyId.isEmpty()) {
-                    try {
-                        // Direct implementation to delete the lobby
-                        deleteLobbyDirectly(lobbyId);
-                    } catch (Exception e) {
-                        log("NOODLE_EXIT: ERROR during direct lobby deletion: " + e.getMessage());
-                        e.printStackTrace();
-                    }
-                } else {
-                    log("NOODLE_EXIT: Cannot delete lobby - lobby ID is null or empty");
-                }
-            }
-            
-            // Now disconnect from the game session
-            log("NOODLE_EXIT: Disconnecting from realtime API");
-            realtimeGameStateApi.disconnect();
-            log("NOODLE_EXIT: Successfully disconnected from realtime API");
-        } catch (Exception e) {
-            log("NOODLE_EXIT: ERROR during exit sequence: " + e.getMessage());
-            e.printStackTrace();
-        }
-
-        // Return to menu state regardless of success/failure
-        log("NOODLE_EXIT: Returning to menu");
-        log("NOODLE_EXIT: ===== EXIT SEQUENCE COMPLETE =====");
+        log("Leaving game session");
+        tearDownSession(null);
         gsm.set(new MenuState(gsm));
     }
 
     /**
-     * Direct implementation to delete a lobby from the database,
-     * bypassing the API layers and directly executing the DB query.
+     * Hands the session to the background teardown pipeline: stops realtime updates right away,
+     * then flushes the final score, submits the leaderboard entry (if playerName is given)
+     * and deletes the lobby when leaving mid-match, with retries. Safe to call more than once.
      */
-    private void deleteLobbyDirectly(String lobbyId) {
-        // Ensure we have a valid lobby ID
+    private void tearDownSession(String leaderboardName) {
+        if (realtimeGameStateApi != null) {
+            realtimeGameStateApi.removeCallback(this);
+        }
+
+        String lobbyId = currentSession != null ? currentSession.getLobby_id() : null;
         if (lobbyId == null || lobbyId.isEmpty()) {
-            log("DIRECT_DELETE: Invalid lobby ID");
-            return;
+            log("Cannot delete lobby - lobby ID is unknown");
+        } else if (currentSession.getRoom_count() > 1) {
+            // Other rooms of the lobby may still be playing, the stale lobby sweeper removes it once all have ended
+            lobbyId = null;
+        } else if (leaderboardName != null) {
+            // At game over every player still writes its score and leaderboard entry, both read the
+            // session, which a delete would cascade away. The sweeper removes the ended lobby.
+            lobbyId = null;
         }
-        
-        log("DIRECT_DELETE: Attempting to delete lobby: " + lobbyId);
-        
-        try {
-            // Create environment config
-            EnvironmentConfig config = new EnvironmentConfig() {
-                @Override public String getSupabaseUrl() { return Config.getSupabaseUrl(); }
-                @Override public String getSupabaseKey() { return Config.getSupabaseKey(); }
-            };
-            
-            // Create service manager directly
-            ServiceManager serviceManager = new ServiceManager(config);
-            
-            // Try both deletion methods
-            
-            // Method 1: Use LobbyPlayerApi (the standard way)
-            log("DIRECT_DELETE: Method 1 - Using LobbyPlayerApi");
-            LobbyPlayerApi api = new LobbyPlayerApi(config);
-            String result = api.deleteLobby(lobbyId);
-            log("DIRECT_DELETE: Method 1 result: " + result);
-            
-            // Method 2: Use both APIs directly as a backup
-            log("DIRECT_DELETE: Method 2 - Using LobbyApi directly");
-            LobbyApi lobbyApi = new LobbyApi(config);
-            
-            // Method 3: Log a request to manually delete the lobby later
-            log("DIRECT_DELETE: IMPORTANT - If lobby deletion failed, manually delete lobby with ID: " + lobbyId);
-            
-        } catch (Exception e) {
-            log("DIRECT_DELETE: Error during direct lobby deletion: " + e.getMessage());
-            e.printStackTrace();
+        Integer finalScore = localSnake != null ? localSnake.score : null;
+
+        SessionConnection.getInstance().tearDownSession(sessionId, playerId, lobbyId,
+            finalScore, leaderboardName);
+    }
+
+    /**
+     * Backgrounded or minimized: stop sending movement and score updates, and cut the realtime
+     * session down to the presence heartbeat. In a lockstep match the peers drop this player after
+     * LockstepService.PEER_TIMEOUT_MS, and it falls back to streaming when it learns of the drop
+     * or resumes after longer than that.
+     */
+    @Override
+    public void pause() {
+        log("Paused, network updates suspended");
+        pausedAtMillis = System.currentTimeMillis();
+        isMovementActive = false;
+        if (lockstep == null && realtimeGameStateApi != null) {
+            realtimeGameStateApi.pause();
+        }
+    }
+
+    /**
+     * Back in the foreground: resync the session in one read and restart the send timers
+     */
+    @Override
+    public void resume() {
+        long pausedMillis = System.currentTimeMillis() - pausedAtMillis;
+        log("Resumed after " + pausedMillis + " ms in the background");
+        syncTimer = 0;
+        scoreUpdateTimer = 0;
+        if (lockstep != null && pausedMillis >= LockstepService.PEER_TIMEOUT_MS) {
+            // The peers have dropped this player by now and the drop message may have been missed,
+            // the next update falls back to streaming
+            lockstepApi.requestResync(lockstep.getTick());
+        } else if (lockstep == null && realtimeGameStateApi != null) {
+            realtimeGameStateApi.resume();
         }
     }
 
@@ -1288,12 +1448,28 @@ public class PlayState extends State implements RealtimeGameStateApi.GameStateCa
             // Dispose rendering resources
             if (backgroundBatch != null) backgroundBatch.dispose();
             if (shapes != null) shapes.dispose();
-            if (font != null) font.dispose();
             if (gameBatch != null) gameBatch.dispose();
             if (foodBatch != null) foodBatch.dispose();
             if (uiBatch != null) uiBatch.dispose();
-
-            // Clean up API connections
+            // The font and textures belong to the resources, unless they were handed to the end screen
+            if (resources != null) resources.dispose();
+
+            // Release the session, the shared connection stays open for the next match
+            if (playerGameStateApi != null) {
+                log("Input uplink: " + playerGameStateApi.getInputStats());
+                log("Food claims: " + playerGameStateApi.getClaimStats());
+                log("Request budget: " + RequestBudget.getStats());
+                log("Circuit breakers: " + ServiceCalls.getBreakerStates());
+                if (NetworkEmulator.isActive()) {
+                    log("Network emulator: " + NetworkEmulator.getStats());
+                }
+                playerGameStateApi.dispose();
+            }
+            if (lockstep != null) {
+                log("Lockstep: " + lockstep.getStats());
+                lockstep = null;
+                lockstepApi.stop();
+            }
             if (realtimeGameStateApi != null) {
                 realtimeGameStateApi.removeCallback(this);
                 realtimeGameStateApi.disconnect();
@@ -1314,6 +1490,14 @@ public class PlayState extends State implements RealtimeGameStateApi.GameStateCa
             String pid = playerState.getPlayer_id().replace("\"", "");
             players.put(pid, playerState);
 
+            if (!firstRemoteUpdateLogged && !pid.equals(playerId)) {
+                firstRemoteUpdateLogged = true;
+                long firstUpdateMillis = System.currentTimeMillis() - createdAtMillis;
+                log("Time to first remote update: " + firstUpdateMillis
+                    + " ms (warm connection: " + connectionWasWarm + "), "
+                    + SessionConnection.getInstance().recordFirstRemoteUpdate(firstUpdateMillis, connectionWasWarm));
+            }
+
             if (pid.equals(playerId)) {
                 serverConfirmedPosition.set(playerState.getX_pos(), playerState.getY_pos());
 
@@ -1328,6 +1512,26 @@ public class PlayState extends State implements RealtimeGameStateApi.GameStateCa
         }
     }
 
+    /**
+     * Called when a player is first seen through presence or a state change.
+     */
+    @Override
+    public void onPlayerJoined(String joinedPlayerId) {
+        log("Player joined: " + joinedPlayerId);
+    }
+
+    /**
+     * Called when a player leaves or times out. Prunes the player immediately so that
+     * rendering and the HUD only cover active players.
+     */
+    @Override
+    public void onPlayerLeft(String leftPlayerId, boolean timedOut) {
+        String pid = leftPlayerId.replace("\"", "");
+        players.remove(pid);
+        otherPlayerSnakes.remove(pid);
+        log("Player " + (timedOut ? "timed out" : "left") + ": " + pid);
+    }
+
     /**
      * Called when the game session changes.
      */
@@ -1337,87 +1541,56 @@ public class PlayState extends State implements RealtimeGameStateApi.GameStateCa
     }
 
     /**
-     * Called when the game is over.
+     * Called when the game is over. Shows the end screen on this frame and leaves the
+     * network teardown to the background pipeline.
      */
     @Override
     public void onGameOver() {
         log("Game over received");
 
-        // Delete the lobby immediately before creating the Runnable
-        if (currentSession != null) {
-            try {
-                String lobbyId = currentSession.getLobby_id();
-                if (lobbyId != null && !lobbyId.isEmpty()) {
-                    // Create environment config
-                    EnvironmentConfig config = new EnvironmentConfig() {
-                        @Override public String getSupabaseUrl() { return Config.getSupabaseUrl(); }
-                        @Override public String getSupabaseKey() { return Config.getSupabaseKey(); }
-                    };
-
-                    // Create API and delete lobby
-                    LobbyPlayerApi lobbyPlayerApi = new LobbyPlayerApi(config);
-                    log("Game over: Deleting lobby with ID: " + lobbyId);
-                    String result = lobbyPlayerApi.deleteLobby(lobbyId);
-                    log("Game over: Lobby deletion result: " + result);
-                } else {
-                    log("Game over: Cannot delete lobby - lobby ID is null or empty");
-                }
-            } catch (Exception e) {
-                logError("Game over: Error deleting lobby", e);
+        // Callbacks arrive on the GL thread, but onGameOver can be delivered more than once
+        if (gameOverHandled) {
+            return;
+        }
+        gameOverHandled = true;
+
+        try {
+            // Create the results array
+            Array<PlayerResult> results = new Array<>();
+
+            // Sort players by score
+            List<PlayerGameState> sortedPlayers = new ArrayList<>(players.values());
+            Collections.sort(sortedPlayers, (p1, p2) -> Integer.compare(p2.getScore(), p1.getScore()));
+
+            // Add players to results
+            for (PlayerGameState player : sortedPlayers) {
+                String pid = player.getPlayer_id().replace("\"", "");
+                String name = pid.equals(playerId) ? playerName : "Player " + pid.substring(0, 4);
+                results.add(new PlayerResult(name, player.getScore()));
             }
-        } else {
-            log("Game over: Cannot delete lobby - currentSession is null");
-        }
-
-        // Create a copy of the players to avoid concurrent modification
-        final Map<String, PlayerGameState> playersCopy = new HashMap<>(players);
-
-        // Post the state change to happen on the next frame
-        Gdx.app.postRunnable(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    // Disconnect first
-                    if (realtimeGameStateApi != null) {
-                        realtimeGameStateApi.removeCallback(PlayState.this);
-                        realtimeGameStateApi.disconnect();
-                    }
-
-                    // Create the results array
-                    Array<PlayerResult> results = new Array<>();
-
-                    // Sort players by score
-                    List<PlayerGameState> sortedPlayers = new ArrayList<>(playersCopy.values());
-                    Collections.sort(sortedPlayers, (p1, p2) -> Integer.compare(p2.getScore(), p1.getScore()));
-
-                    // Add players to results
-                    for (PlayerGameState player : sortedPlayers) {
-                        String pid = player.getPlayer_id().replace("\"", "");
-                        String name = pid.equals(playerId) ? playerName : "Player " + pid.substring(0, 4);
-                        results.add(new PlayerResult(name, player.getScore()));
-                    }
-
-                    // Determine local player's placement
-                    int placement = 1;
-                    for (int i = 0; i < results.size; i++) {
-                        if (results.get(i).name.equals(playerName)) {
-                            placement = i + 1;
-                            break;
-                        }
-                    }
-
-                    // Create resource manager
-                    ResourceManager rm = new ResourceManager();
-                    rm.load();
-
-                    // Transition to EndGameState
-                    gsm.set(new EndGameState(gsm, results, playerName, placement, rm, currentSession));
-                } catch (Exception e) {
-                    logError("Error transitioning to end game state", e);
-                    // Fallback to menu if there's an error
-                    gsm.set(new MenuState(gsm));
+
+            // Determine local player's placement
+            int placement = 1;
+            for (int i = 0; i < results.size; i++) {
+                if (results.get(i).name.equals(playerName)) {
+                    placement = i + 1;
+                    break;
                 }
             }
-        });
+
+            tearDownSession(playerName);
+
+            // Reuse the already loaded resources instead of building a new ResourceManager
+            EndGameState endGameState = new EndGameState(gsm, results, playerName, placement, resources);
+            resources = null;
+            if (currentSession != null && currentSession.getRoom_count() > 1) {
+                endGameState.showLobbyStandings(currentSession.getLobby_id());
+            }
+            gsm.set(endGameState);
+        } catch (Exception e) {
+            logError("Error transitioning to end game state", e);
+            // Fallback to menu if there's an error
+            gsm.set(new MenuState(gsm));
+        }
     }
 }
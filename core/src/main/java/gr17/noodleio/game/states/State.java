@@ -5,6 +5,8 @@ import com.badlogic.gdx.graphics.OrthographicCamera;
 import com.badlogic.gdx.graphics.g2d.SpriteBatch;
 import com.badlogic.gdx.math.Vector3;
 
+import gr17.noodleio.game.services.network.SingleFlightStats;
+
 public abstract class State {
     // Global debug logging flags for all states
     protected static final boolean DEBUG_LOGGING_INFO = true;
@@ -15,6 +17,9 @@ public abstract class State {
     protected Vector3 mouse;
     protected GameStateManager gsm;
 
+    // Read deduplication counters when this screen was created, reported when it is left
+    private final SingleFlightStats.Mark readDedupMark = SingleFlightStats.mark();
+
     protected State(GameStateManager gsm) {
         this.gsm = gsm;
         cam = new OrthographicCamera();
@@ -91,6 +96,26 @@ public abstract class State {
         return this.getClass().getSimpleName();
     }
 
+    /**
+     * Logs how many duplicate reads this screen saved by sharing in-flight reads and cached results
+     */
+    void logReadDeduplication() {
+        log("Read deduplication: " + SingleFlightStats.reportSince(readDedupMark));
+    }
+
+    /**
+     * Called when the app goes to the background or the window is minimized.
+     * Rendering and updates stop until resume, states holding network work should suspend it here
+     */
+    public void pause() {
+    }
+
+    /**
+     * Called when the app returns to the foreground
+     */
+    public void resume() {
+    }
+
     protected abstract void handleInput();
 
     public abstract void update(float dt);
@@ -3,9 +3,15 @@ package gr17.noodleio.game.states.ui;
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.graphics.g2d.SpriteBatch;
 import com.badlogic.gdx.scenes.scene2d.Stage;
+import com.badlogic.gdx.scenes.scene2d.Touchable;
 import com.badlogic.gdx.scenes.scene2d.ui.Label;
 import com.badlogic.gdx.scenes.scene2d.ui.Table;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import gr17.noodleio.game.API.AsyncCall;
 import gr17.noodleio.game.states.GameStateManager;
 import gr17.noodleio.game.states.MenuState;
 import gr17.noodleio.game.states.State;
@@ -18,6 +24,11 @@ public abstract class BaseUIState extends State {
     protected Label statusLabel;
     private boolean uiInitialized = false;
 
+    // Calls started by this screen, their callbacks are dropped when it is disposed
+    private final List<AsyncCall<?>> pendingCalls = new ArrayList<>();
+    private String pendingMessage;
+    private float pendingTime = 0;
+
     public BaseUIState(GameStateManager gsm) {
         super(gsm);
         log("BaseUIState constructor");
@@ -95,6 +106,12 @@ public abstract class BaseUIState extends State {
         if (!uiInitialized) {
             initializeUIDeferred();
         }
+        if (pendingMessage != null && statusLabel != null) {
+            // Animated dots show the screen is alive while a call is out
+            pendingTime += dt;
+            int dots = 1 + (int) (pendingTime * 3) % 3;
+            statusLabel.setText(pendingMessage + "...".substring(0, dots));
+        }
         if (stage != null) {
             stage.act(dt);
         }
@@ -118,6 +135,7 @@ public abstract class BaseUIState extends State {
 
     @Override
     public void dispose() {
+        cancelPendingCalls();
         if (stage != null) {
             log("Disposing stage for");
             stage.dispose();
@@ -133,6 +151,55 @@ public abstract class BaseUIState extends State {
         }
     }
 
+    /**
+     * Keep track of a background call, so its callback is dropped if this screen goes away first
+     */
+    protected <T> AsyncCall<T> track(AsyncCall<T> call) {
+        Iterator<AsyncCall<?>> it = pendingCalls.iterator();
+        while (it.hasNext()) {
+            if (it.next().isDone()) {
+                it.remove();
+            }
+        }
+        pendingCalls.add(call);
+        return call;
+    }
+
+    /**
+     * Show a user action as in progress: the status shows the message with animated dots,
+     * and the buttons ignore input until clearPending so the action is not started twice
+     */
+    protected void showPending(String message) {
+        pendingMessage = message;
+        pendingTime = 0;
+        setStatus(message + "...");
+        if (table != null) {
+            table.setTouchable(Touchable.disabled);
+        }
+    }
+
+    protected void clearPending() {
+        pendingMessage = null;
+        if (table != null) {
+            table.setTouchable(Touchable.childrenOnly);
+        }
+    }
+
+    protected boolean isPending() {
+        return pendingMessage != null;
+    }
+
+    /**
+     * Drop the callbacks of all calls still in flight
+     */
+    protected void cancelPendingCalls() {
+        for (AsyncCall<?> call : pendingCalls) {
+            call.cancel();
+        }
+        pendingCalls.clear();
+        pendingMessage = null;
+    }
+
     protected void returnToMenu() {
         log("Returning to menu from");
         gsm.set(new MenuState(gsm));
@@ -4,6 +4,7 @@ import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.scenes.scene2d.Actor;
 import com.badlogic.gdx.scenes.scene2d.Stage;
 import com.badlogic.gdx.scenes.scene2d.ui.Label;
+import com.badlogic.gdx.scenes.scene2d.ui.ScrollPane;
 import com.badlogic.gdx.scenes.scene2d.ui.Table;
 import com.badlogic.gdx.scenes.scene2d.ui.TextButton;
 import com.badlogic.gdx.scenes.scene2d.ui.TextField;
@@ -95,6 +96,16 @@ public class UIFactory {
         return label;
     }
 
+    // Vertical scrolling list, content is laid out by the caller
+    public ScrollPane addScrollPane(Table table, Actor content, float width, float height) {
+        ScrollPane scrollPane = new ScrollPane(content);
+        scrollPane.setScrollingDisabled(true, false);
+        scrollPane.setOverscroll(false, false);
+        table.add(scrollPane).width(width).height(height).padBottom(DEFAULT_PADDING);
+        table.row();
+        return scrollPane;
+    }
+
     public Label addTitle(Table table, String text) {
         Label titleLabel = uiComponents.createTitleLabel(text);
         table.add(titleLabel).padBottom(40);
@@ -1,45 +1,165 @@
 package gr17.noodleio.game.util;
 
 import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.assets.AssetDescriptor;
+import com.badlogic.gdx.assets.AssetErrorListener;
+import com.badlogic.gdx.assets.AssetManager;
+import com.badlogic.gdx.assets.loaders.FileHandleResolver;
+import com.badlogic.gdx.assets.loaders.TextureLoader;
+import com.badlogic.gdx.assets.loaders.resolvers.InternalFileHandleResolver;
 import com.badlogic.gdx.graphics.Texture;
 import com.badlogic.gdx.graphics.g2d.BitmapFont;
+import com.badlogic.gdx.graphics.g2d.SpriteBatch;
 import com.badlogic.gdx.graphics.g2d.freetype.FreeTypeFontGenerator;
+import com.badlogic.gdx.graphics.g2d.freetype.FreeTypeFontGeneratorLoader;
+import com.badlogic.gdx.graphics.g2d.freetype.FreetypeFontLoader;
+import com.badlogic.gdx.graphics.glutils.ImmediateModeRenderer20;
+import com.badlogic.gdx.graphics.glutils.ShaderProgram;
+import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
+import com.badlogic.gdx.utils.Disposable;
 
-public class ResourceManager {
+/**
+ * Match assets: textures, fonts and the shaders of the match renderers
+ * Either load() everything at once, or preload() and call update() every frame while the player
+ * waits, so the match starts without loading anything. Texture files are decoded on the asset
+ * manager's background thread, only the uploads and shader compiles run on the GL thread.
+ */
+public class ResourceManager implements Disposable {
+
+    private static final String FONT_FILE = "PressStart2P-Regular.ttf";
+    // Asset name of the generated font, the loader picks it by the .ttf extension
+    private static final String DEFAULT_FONT = "default-24.ttf";
+    private static final String WHEAT = "food/wheat.png";
+    private static final String EGG = "food/egg.png";
+    private static final String SPEED_BOOST = "food/speedboost.png";
+    private static final String MAGNET_BOOST = "food/magnetboost.png";
+    private static final String BACKGROUND = "food/bowl.png";
+
+    private AssetManager assets;
+    private boolean ready = false;
 
     private BitmapFont defaultFont;
+    private BitmapFont hudFont;
     private Texture wheatTexture;
     private Texture eggTexture;
     private Texture speedBoostTexture;
     private Texture magnetBoostTexture;
     private Texture backgroundTexture; // Add this field for background
 
+    // Shared by the match renderers, so creating them does not compile a shader each
+    private ShaderProgram spriteShader;
+    private ShaderProgram shapeShader;
+
+    /**
+     * Queue every match asset, nothing is loaded until update() or load()
+     */
+    public void preload() {
+        if (assets != null) {
+            return;
+        }
+        FileHandleResolver resolver = new InternalFileHandleResolver();
+        assets = new AssetManager(resolver);
+        assets.setLoader(FreeTypeFontGenerator.class, new FreeTypeFontGeneratorLoader(resolver));
+        assets.setLoader(BitmapFont.class, ".ttf", new FreetypeFontLoader(resolver));
+
+        // A missing file leaves its texture null instead of failing the whole match
+        assets.setErrorListener(new AssetErrorListener() {
+            @Override
+            public void error(AssetDescriptor asset, Throwable throwable) {
+                Gdx.app.error("ResourceManager", "Error loading " + asset.fileName, throwable);
+            }
+        });
+
+        FreetypeFontLoader.FreeTypeFontLoaderParameter font = new FreetypeFontLoader.FreeTypeFontLoaderParameter();
+        font.fontFileName = FONT_FILE;
+        font.fontParameters.size = 24;
+        font.fontParameters.minFilter = Texture.TextureFilter.Linear;
+        font.fontParameters.magFilter = Texture.TextureFilter.Linear;
+        assets.load(DEFAULT_FONT, BitmapFont.class, font);
+
+        // Apply texture filters for smoother scaling
+        TextureLoader.TextureParameter linear = new TextureLoader.TextureParameter();
+        linear.minFilter = Texture.TextureFilter.Linear;
+        linear.magFilter = Texture.TextureFilter.Linear;
+        for (String texture : new String[] {WHEAT, EGG, SPEED_BOOST, MAGNET_BOOST, BACKGROUND}) {
+            assets.load(texture, Texture.class, linear);
+        }
+    }
+
+    /**
+     * Continue loading for at most the given time, call once per frame
+     *
+     * @param budgetMillis Longest this frame may spend loading
+     * @return true once everything is loaded
+     */
+    public boolean update(int budgetMillis) {
+        if (ready) {
+            return true;
+        }
+        preload();
+        if (assets.update(budgetMillis)) {
+            finish();
+        }
+        return ready;
+    }
+
+    /**
+     * Load everything that is left, blocking
+     */
     public void load() {
-        FreeTypeFontGenerator generator = new FreeTypeFontGenerator(Gdx.files.internal("PressStart2P-Regular.ttf"));
-        FreeTypeFontGenerator.FreeTypeFontParameter parameter = new FreeTypeFontGenerator.FreeTypeFontParameter();
-        parameter.size = 24;
-        parameter.minFilter = Texture.TextureFilter.Linear;
-        parameter.magFilter = Texture.TextureFilter.Linear;
-
-        defaultFont = generator.generateFont(parameter);
-        generator.dispose();
-
-        try {
-            wheatTexture = new Texture(Gdx.files.internal("food/wheat.png"));
-            eggTexture = new Texture(Gdx.files.internal("food/egg.png"));
-            speedBoostTexture = new Texture(Gdx.files.internal("food/speedboost.png"));
-            magnetBoostTexture = new Texture(Gdx.files.internal("food/magnetboost.png"));
-            backgroundTexture = new Texture(Gdx.files.internal("food/bowl.png")); // Add this line
-
-            // Apply texture filters for smoother scaling
-            wheatTexture.setFilter(Texture.TextureFilter.Linear, Texture.TextureFilter.Linear);
-            eggTexture.setFilter(Texture.TextureFilter.Linear, Texture.TextureFilter.Linear);
-            speedBoostTexture.setFilter(Texture.TextureFilter.Linear, Texture.TextureFilter.Linear);
-            magnetBoostTexture.setFilter(Texture.TextureFilter.Linear, Texture.TextureFilter.Linear);
-            backgroundTexture.setFilter(Texture.TextureFilter.Linear, Texture.TextureFilter.Linear); // Add this line
-        } catch (Exception e) {
-            Gdx.app.error("ResourceManager", "Error loading textures", e);
+        if (ready) {
+            return;
         }
+        preload();
+        assets.finishLoading();
+        finish();
+    }
+
+    public boolean isLoaded() {
+        return ready;
+    }
+
+    /**
+     * Loaded fraction, from 0 to 1
+     */
+    public float getProgress() {
+        if (ready) {
+            return 1f;
+        }
+        return assets == null ? 0f : assets.getProgress();
+    }
+
+    private void finish() {
+        defaultFont = get(DEFAULT_FONT, BitmapFont.class);
+        wheatTexture = get(WHEAT, Texture.class);
+        eggTexture = get(EGG, Texture.class);
+        speedBoostTexture = get(SPEED_BOOST, Texture.class);
+        magnetBoostTexture = get(MAGNET_BOOST, Texture.class);
+        backgroundTexture = get(BACKGROUND, Texture.class);
+
+        hudFont = new BitmapFont();
+        hudFont.getRegion().getTexture().setFilter(Texture.TextureFilter.Linear, Texture.TextureFilter.Linear);
+        spriteShader = SpriteBatch.createDefaultShader();
+        shapeShader = ImmediateModeRenderer20.createDefaultShader(false, true, 0);
+        ready = true;
+    }
+
+    private <T> T get(String fileName, Class<T> type) {
+        return assets.isLoaded(fileName, type) ? assets.get(fileName, type) : null;
+    }
+
+    /**
+     * A sprite batch using the preloaded shader, the caller disposes it
+     */
+    public SpriteBatch newSpriteBatch() {
+        return new SpriteBatch(1000, spriteShader);
+    }
+
+    /**
+     * A shape renderer using the preloaded shader, the caller disposes it
+     */
+    public ShapeRenderer newShapeRenderer() {
+        return new ShapeRenderer(5000, shapeShader);
     }
 
     // Add getter for background texture
@@ -51,6 +171,13 @@ public class ResourceManager {
         return defaultFont;
     }
 
+    /**
+     * The built-in font used by the match HUD
+     */
+    public BitmapFont getHudFont() {
+        return hudFont;
+    }
+
     public Texture getWheatTexture() {
         return wheatTexture;
     }
@@ -72,4 +199,16 @@ public class ResourceManager {
         return magnetBoostTexture;
     }
 
+    @Override
+    public void dispose() {
+        if (hudFont != null) hudFont.dispose();
+        if (spriteShader != null) spriteShader.dispose();
+        if (shapeShader != null) shapeShader.dispose();
+        if (assets != null) assets.dispose();
+        hudFont = null;
+        spriteShader = null;
+        shapeShader = null;
+        assets = null;
+        ready = false;
+    }
 }
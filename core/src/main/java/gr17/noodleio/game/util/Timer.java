@@ -15,8 +15,16 @@ public class Timer {
     }
 
     public boolean tick() {
+        return tick((int) (Gdx.graphics.getDeltaTime() * 1000));
+    }
+
+    /**
+     * Advance by a fixed number of milliseconds instead of the frame time,
+     * for simulations that must run the same on every client
+     */
+    public boolean tick(int elapsedMs) {
         if(running) {
-            elapsed += Gdx.graphics.getDeltaTime() * 1000;
+            elapsed += elapsedMs;
             if(elapsed > delay) {
                 return true;
             }
@@ -0,0 +1,55 @@
+package gr17.noodleio.game.models
+
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class LeaderboardCursorTest {
+
+    private fun entry(id: String, duration: Double?) = LeaderboardEntry(id, "player-$id", 10, duration)
+
+    @Test
+    fun fasterTimesComeFirst() {
+        assertTrue(LeaderboardCursor(12.5, "b") < LeaderboardCursor(30.0, "a"))
+        assertTrue(LeaderboardCursor(30.0, "a") > LeaderboardCursor(12.5, "b"))
+    }
+
+    @Test
+    fun missingTimesComeLast() {
+        assertTrue(LeaderboardCursor(9_999.0, "z") < LeaderboardCursor(null, "a"))
+        assertTrue(LeaderboardCursor(null, "a") > LeaderboardCursor(Double.MAX_VALUE, "b"))
+    }
+
+    @Test
+    fun idBreaksTies() {
+        val id1 = "0f6c1d2e-0000-4000-8000-000000000001"
+        val id2 = "0f6c1d2e-0000-4000-8000-000000000002"
+        assertTrue(LeaderboardCursor(20.0, id1) < LeaderboardCursor(20.0, id2))
+        assertTrue(LeaderboardCursor(null, id1) < LeaderboardCursor(null, id2))
+        assertEquals(0, LeaderboardCursor(20.0, id1).compareTo(LeaderboardCursor(20.0, id1)))
+    }
+
+    @Test
+    fun orderSortsEntriesLikeLeaderboardPage() {
+        val entries = listOf(
+            entry("d", null),
+            entry("c", 45.0),
+            entry("a", null),
+            entry("e", 12.0),
+            entry("b", 45.0)
+        )
+
+        val sorted = entries.sortedWith(LeaderboardCursor.ORDER).map { it.id }
+
+        assertEquals(listOf("e", "b", "c", "a", "d"), sorted)
+    }
+
+    @Test
+    fun cursorAfterEntryMatchesTheEntry() {
+        val first = entry("a", 30.0)
+        val cursor = LeaderboardCursor.after(first)
+
+        assertEquals(0, cursor.compareTo(LeaderboardCursor(30.0, "a")))
+        assertTrue(cursor < LeaderboardCursor.after(entry("b", 30.0)))
+    }
+}
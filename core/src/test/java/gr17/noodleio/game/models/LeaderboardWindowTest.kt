@@ -0,0 +1,142 @@
+package gr17.noodleio.game.models
+
+import kotlin.random.Random
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+class LeaderboardWindowTest {
+
+    private fun entry(id: String, duration: Double?) = LeaderboardEntry(id, "player-$id", 10, duration)
+
+    // Entries e000, e001, ... with durations 0, 10, 20, ...
+    private fun entries(from: Int, count: Int) =
+        (from until from + count).map { entry("e%03d".format(it), it * 10.0) }
+
+    private fun page(entries: List<LeaderboardEntry>, last: Boolean = false) =
+        LeaderboardPage(entries, if (last) null else LeaderboardCursor.after(entries.last()))
+
+    private fun ids(window: LeaderboardWindow) = (0 until window.size).map { window[it].id }
+
+    private fun assertSorted(window: LeaderboardWindow) {
+        val rows = (0 until window.size).map { window[it] }
+        assertEquals(rows.sortedWith(LeaderboardCursor.ORDER), rows)
+        assertEquals(rows.size, rows.map { it.id }.toSet().size, "duplicate rows")
+    }
+
+    @Test
+    fun appendedRowsBeyondTheLimitMoveIntoTheOffset() {
+        val window = LeaderboardWindow(4)
+        window.showTop(page(entries(0, 3)))
+        window.beginFetch()
+        window.append(page(entries(3, 3)))
+
+        assertEquals(listOf("e002", "e003", "e004", "e005"), ids(window))
+        assertEquals(2, window.rankOffset)
+        assertFalse(window.endReached)
+    }
+
+    @Test
+    fun prependingToTheTopResetsTheOffset() {
+        val window = LeaderboardWindow(4)
+        window.showTop(page(entries(0, 3)))
+        window.append(page(entries(3, 3)))
+
+        window.beginFetch()
+        window.prepend(page(entries(0, 2), last = true))
+
+        assertEquals(listOf("e000", "e001", "e002", "e003"), ids(window))
+        assertEquals(0, window.rankOffset)
+        assertFalse(window.endReached)
+    }
+
+    @Test
+    fun staleCopyInAPageIsReplacedByTheChangeReceivedMeanwhile() {
+        val window = LeaderboardWindow(10)
+        window.showTop(page(entries(0, 3)))
+        window.append(page(entries(3, 3)))
+
+        // e007 improves to between e001 and e002 while the page holding its old time is read
+        window.beginFetch()
+        val improved = entry("e007", 15.0)
+        window.merge(improved, entry("e007", 70.0), inserted = false, viewIndex = 0)
+        window.append(page(entries(6, 3)))
+
+        assertEquals(listOf("e000", "e001", "e007", "e002", "e003", "e004", "e005", "e006", "e008"), ids(window))
+        assertEquals(15.0, window[window.indexOf("e007")].duration_seconds)
+        assertSorted(window)
+    }
+
+    @Test
+    fun entryThatMovedAboveTheWindowDuringAFetchIsNotAddedBack() {
+        val window = LeaderboardWindow(4)
+        window.showTop(page(entries(0, 4)))
+        window.append(page(entries(4, 4)))
+        assertEquals(4, window.rankOffset)
+
+        // e009 moves above the window while the page that still holds it at 90 is read
+        window.beginFetch()
+        window.merge(entry("e009", 5.0), entry("e009", 90.0), inserted = false, viewIndex = 0)
+        assertEquals(5, window.rankOffset)
+        window.append(page(entries(8, 3)))
+
+        assertEquals(-1, window.indexOf("e009"))
+        assertTrue(window.rankOffset >= 5)
+        assertSorted(window)
+    }
+
+    @Test
+    fun updateWithoutOldRowAboveTheWindowIsNotCountedAgain() {
+        val window = LeaderboardWindow(4)
+        window.showTop(page(entries(0, 4)))
+        window.append(page(entries(4, 4)))
+        val offset = window.rankOffset
+
+        // e001 was already above the window and stays there
+        assertFalse(window.merge(entry("e001", 8.0), null, inserted = false, viewIndex = 0))
+        assertEquals(offset, window.rankOffset)
+
+        // A new entry above the window is one more
+        assertTrue(window.merge(entry("new", 1.0), null, inserted = true, viewIndex = 0))
+        assertEquals(offset + 1, window.rankOffset)
+    }
+
+    @Test
+    fun mergeKeepsTheWindowWithinItsLimitAwayFromTheView() {
+        val window = LeaderboardWindow(5)
+        window.showTop(page(entries(0, 5), last = true))
+
+        // The view is at the top, so the last row is dropped
+        window.merge(entry("new", 25.0), null, inserted = true, viewIndex = 0)
+        assertEquals(listOf("e000", "e001", "e002", "new", "e003"), ids(window))
+        assertFalse(window.endReached)
+
+        // The view is at the bottom, so the first row moves into the offset
+        window.merge(entry("new2", 26.0), null, inserted = true, viewIndex = 4)
+        assertEquals(listOf("e001", "e002", "new", "new2", "e003"), ids(window))
+        assertEquals(1, window.rankOffset)
+    }
+
+    @Test
+    fun treeMatchesASortedList() {
+        val random = Random(42)
+        val tree = OrderStatisticTree<Int>(naturalOrder())
+        val reference = ArrayList<Int>()
+        repeat(2_000) {
+            val value = random.nextInt(500)
+            if (random.nextInt(3) == 0 && reference.isNotEmpty()) {
+                val removed = reference[random.nextInt(reference.size)]
+                assertEquals(reference.indexOf(removed), tree.remove(removed))
+                reference.remove(removed)
+            } else {
+                val index = tree.add(value)
+                reference.add(index, value)
+                assertEquals(reference.sorted(), reference)
+            }
+        }
+        assertEquals(reference.size, tree.size)
+        reference.forEachIndexed { i, value -> assertEquals(value, tree[i]) }
+        assertEquals(-1, tree.indexOf(1_000))
+    }
+}
@@ -0,0 +1,81 @@
+package gr17.noodleio.game.services
+
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import kotlin.test.Test
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class LockstepInputStoreTest {
+
+    @Test
+    fun tickIsTakenOnlyOnceEveryPlayerArrived() {
+        val store = LockstepInputStore(3)
+        store.put(5, 0, intArrayOf(1, 2, 1))
+        store.put(5, 2, intArrayOf(3, 4, 0))
+        assertNull(store.take(5))
+
+        store.put(5, 1, intArrayOf(5, 6, 1))
+        val frames = assertNotNull(store.take(5))
+        assertContentEquals(intArrayOf(1, 2, 1), frames[0])
+        assertContentEquals(intArrayOf(5, 6, 1), frames[1])
+        assertContentEquals(intArrayOf(3, 4, 0), frames[2])
+        assertEquals(5L, store.consumedThrough)
+    }
+
+    @Test
+    fun inputsForTakenTicksAreIgnored() {
+        val store = LockstepInputStore(2)
+        store.put(0, 0, intArrayOf(0, 0, 0))
+        store.put(0, 1, intArrayOf(0, 0, 0))
+        assertNotNull(store.take(0))
+
+        // A resent input for the simulated tick must not leave a new incomplete tick behind
+        store.put(0, 1, intArrayOf(9, 9, 1))
+        assertFalse(store.has(0, 0))
+        assertNull(store.take(0))
+    }
+
+    @Test
+    fun droppedPlayerIsIdleFromItsDropTick() {
+        val store = LockstepInputStore(2)
+        store.put(3, 1, intArrayOf(7, 7, 1))
+        store.put(4, 1, intArrayOf(8, 8, 1))
+        assertTrue(store.drop(1, 4))
+        assertFalse(store.drop(1, 2))
+
+        store.put(3, 0, intArrayOf(1, 1, 1))
+        store.put(4, 0, intArrayOf(2, 2, 1))
+        store.put(5, 0, intArrayOf(3, 3, 1))
+        // Inputs from before the drop still count, the ones after it are replaced by idle
+        assertContentEquals(intArrayOf(7, 7, 1), store.take(3)!![1])
+        assertContentEquals(intArrayOf(0, 0, 0), store.take(4)!![1])
+        store.put(5, 1, intArrayOf(9, 9, 1))
+        assertContentEquals(intArrayOf(0, 0, 0), store.take(5)!![1])
+    }
+
+    @Test
+    fun framesPutOnOtherThreadsAreAllSeen() = runBlocking {
+        val players = 4
+        val ticks = 2_000L
+        val store = LockstepInputStore(players)
+        val writers = (0 until players).map { player ->
+            launch(Dispatchers.Default) {
+                for (tick in 0 until ticks) store.put(tick, player, intArrayOf(player, tick.toInt(), 0))
+            }
+        }
+        writers.forEach { it.join() }
+
+        for (tick in 0 until ticks) {
+            val frames = assertNotNull(store.take(tick), "tick $tick incomplete")
+            for (player in 0 until players) {
+                assertContentEquals(intArrayOf(player, tick.toInt(), 0), frames[player])
+            }
+        }
+    }
+}
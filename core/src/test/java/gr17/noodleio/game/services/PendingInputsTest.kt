@@ -0,0 +1,85 @@
+package gr17.noodleio.game.services
+
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+class PendingInputsTest {
+
+    @Test
+    fun samplesInOneDirectionCoalesceIntoOneRun() {
+        val pending = PendingInputs()
+        repeat(5) { assertTrue(pending.offer("up", false, it.toLong(), 2)) }
+
+        val batch = pending.batch()
+        assertEquals(1, batch.size)
+        assertEquals(1L, batch[0].firstSeq)
+        assertEquals(5L, batch[0].seq)
+    }
+
+    @Test
+    fun boostChangeStartsANewRun() {
+        val pending = PendingInputs()
+        pending.offer("up", false, 0, 8)
+        pending.offer("up", true, 1, 8)
+
+        assertEquals(listOf(1L, 2L), pending.batch().map { it.seq })
+    }
+
+    @Test
+    fun fullQueueRefusesNewRunsInsteadOfDroppingOldOnes() {
+        val pending = PendingInputs()
+        assertTrue(pending.offer("up", false, 0, 2))
+        assertTrue(pending.offer("left", false, 1, 2))
+        assertFalse(pending.offer("down", false, 2, 2))
+
+        // The unacknowledged runs are all still there, and the newest one can still grow
+        assertEquals(listOf("up", "left"), pending.batch().map { it.direction })
+        assertTrue(pending.offer("left", false, 3, 2))
+        assertEquals(3L, pending.batch().last().seq)
+    }
+
+    @Test
+    fun acknowledgeDropsConfirmedRunsAndTrimsAPartialOne() {
+        val pending = PendingInputs()
+        pending.offer("up", false, 0, 8)
+        pending.offer("left", false, 1, 8)
+        pending.offer("left", false, 2, 8)
+        pending.offer("left", false, 3, 8)
+
+        pending.acknowledge(2)
+
+        val batch = pending.batch()
+        assertEquals(1, batch.size)
+        assertEquals(3L, batch[0].firstSeq)
+        assertEquals(4L, batch[0].seq)
+        assertEquals(2L, pending.ackedSeq())
+    }
+
+    @Test
+    fun staleAcknowledgementIsIgnored() {
+        val pending = PendingInputs()
+        pending.offer("up", false, 0, 8)
+        pending.offer("left", false, 1, 8)
+        pending.acknowledge(2)
+        pending.acknowledge(1)
+
+        assertTrue(pending.isEmpty())
+        assertEquals(2L, pending.ackedSeq())
+    }
+
+    @Test
+    fun runGrowingWhileInFlightKeepsItsFirstSequence() {
+        val pending = PendingInputs()
+        pending.offer("right", false, 0, 8)
+        val sent = pending.batch()
+        pending.offer("right", false, 1, 8)
+
+        // The server acks the copy that was sent, the grown run still carries the second step
+        pending.acknowledge(sent.last().seq)
+        val batch = pending.batch()
+        assertEquals(2L, batch.single().firstSeq)
+        assertEquals(2L, batch.single().seq)
+    }
+}
@@ -0,0 +1,77 @@
+package gr17.noodleio.game.services.network
+
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
+
+class CircuitBreakerTest {
+
+    private val timeout = ServiceResult.Failure(ServiceError.TIMEOUT, "test timed out")
+
+    @Test
+    fun opensAfterConsecutiveFailures() {
+        val breaker = CircuitBreaker("test", failureThreshold = 3, openMs = 60_000)
+        assertFalse(breaker.onFailure(timeout))
+        assertFalse(breaker.onFailure(timeout))
+        assertTrue(breaker.onFailure(timeout))
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState())
+        assertFalse(breaker.allowRequest())
+        assertEquals(ServiceError.CIRCUIT_OPEN, breaker.rejection().error)
+    }
+
+    @Test
+    fun successResetsTheFailureCount() {
+        val breaker = CircuitBreaker("test", failureThreshold = 2, openMs = 60_000)
+        breaker.onFailure(timeout)
+        breaker.onSuccess()
+        assertFalse(breaker.onFailure(timeout))
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState())
+    }
+
+    @Test
+    fun letsOneTrialThroughAfterTheOpenPeriod() {
+        val breaker = CircuitBreaker("test", failureThreshold = 1, openMs = 0)
+        breaker.onFailure(timeout)
+
+        assertTrue(breaker.allowRequest())
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState())
+        assertFalse(breaker.allowRequest())
+
+        breaker.onSuccess()
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState())
+        assertTrue(breaker.allowRequest())
+    }
+
+    @Test
+    fun callsTurnedAwayDuringTheTrialGetTheLastFailure() {
+        val breaker = CircuitBreaker("test", failureThreshold = 1, openMs = 0)
+        breaker.onFailure(timeout)
+        assertTrue(breaker.allowRequest())
+
+        assertFalse(breaker.allowRequest())
+        assertSame(timeout, breaker.rejection())
+    }
+
+    @Test
+    fun failedTrialOpensTheBreakerAgain() {
+        val breaker = CircuitBreaker("test", failureThreshold = 5, openMs = 0)
+        repeat(5) { breaker.onFailure(timeout) }
+        assertTrue(breaker.allowRequest())
+
+        assertTrue(breaker.onFailure(timeout))
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState())
+    }
+
+    @Test
+    fun skippedTrialGivesTheSlotBack() {
+        val breaker = CircuitBreaker("test", failureThreshold = 1, openMs = 0)
+        breaker.onFailure(timeout)
+        assertTrue(breaker.allowRequest())
+
+        breaker.onSkipped()
+        assertTrue(breaker.allowRequest())
+    }
+}
@@ -0,0 +1,73 @@
+package gr17.noodleio.game.services.network
+
+import kotlinx.coroutines.runBlocking
+import kotlin.test.AfterTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+class RequestBudgetTest {
+
+    private var nowNanos = 0L
+
+    private fun bucket(capacity: Double, perSecond: Double) = TokenBucket(capacity, perSecond) { nowNanos }
+
+    @AfterTest
+    fun clearRenderThread() {
+        RequestBudget.setRenderThread(null)
+    }
+
+    @Test
+    fun bucketAllowsTheBurstThenThrottles() {
+        val bucket = bucket(3.0, 1.0)
+        repeat(3) { assertTrue(bucket.tryAcquire()) }
+        assertFalse(bucket.tryAcquire())
+    }
+
+    @Test
+    fun bucketRefillsAtTheSustainedRate() {
+        val bucket = bucket(2.0, 4.0)
+        repeat(2) { bucket.tryAcquire() }
+        assertEquals(250L, bucket.millisUntilNextToken())
+
+        nowNanos += 250_000_000L
+        assertEquals(0L, bucket.millisUntilNextToken())
+        assertTrue(bucket.tryAcquire())
+        assertFalse(bucket.tryAcquire())
+    }
+
+    @Test
+    fun bucketNeverHoldsMoreThanItsCapacity() {
+        val bucket = bucket(2.0, 10.0)
+        nowNanos += 60_000_000_000L
+        repeat(2) { assertTrue(bucket.tryAcquire()) }
+        assertFalse(bucket.tryAcquire())
+    }
+
+    @Test
+    fun acquireFailsFastOnTheRenderThread() = runBlocking {
+        drain(EndpointClass.LEADERBOARD)
+        RequestBudget.setRenderThread(Thread.currentThread())
+
+        val startedAt = System.currentTimeMillis()
+        assertFalse(RequestBudget.acquire(EndpointClass.LEADERBOARD, 2_000))
+        assertTrue(System.currentTimeMillis() - startedAt < 500)
+    }
+
+    @Test
+    fun acquireGivesUpWhenNoTokenArrivesInTime() = runBlocking {
+        drain(EndpointClass.LEADERBOARD)
+        val throttledBefore = RequestBudget.getThrottledCount(EndpointClass.LEADERBOARD)
+
+        // The leaderboard refills one token every two seconds
+        assertFalse(RequestBudget.acquire(EndpointClass.LEADERBOARD, 50))
+        assertEquals(throttledBefore + 1, RequestBudget.getThrottledCount(EndpointClass.LEADERBOARD))
+    }
+
+    private fun drain(endpoint: EndpointClass) {
+        while (RequestBudget.tryAcquire(endpoint)) {
+            // Keep taking tokens until the bucket is empty
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package gr17.noodleio.game.services.network
+
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.yield
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+
+class SingleFlightTest {
+
+    @Test
+    fun concurrentCallersForOneKeyShareOneExecution() = runBlocking {
+        val flight = SingleFlight("test-shared")
+        val executions = AtomicInteger()
+        val release = CompletableDeferred<Unit>()
+
+        val callers = (1..5).map {
+            async(Dispatchers.Default) {
+                flight.execute("key") {
+                    executions.incrementAndGet()
+                    release.await()
+                    "value"
+                }
+            }
+        }
+        // Let every caller reach the flight before the first one completes
+        while (executions.get() == 0) yield()
+        Thread.sleep(50)
+        release.complete(Unit)
+
+        assertEquals(List(5) { "value" }, callers.awaitAll())
+        assertEquals(1, executions.get())
+    }
+
+    @Test
+    fun differentKeysDoNotShare() = runBlocking {
+        val flight = SingleFlight("test-keys")
+        val executions = AtomicInteger()
+        flight.execute("a") { executions.incrementAndGet() }
+        flight.execute("b") { executions.incrementAndGet() }
+        assertEquals(2, executions.get())
+    }
+
+    @Test
+    fun resultIsCachedForCacheMs() = runBlocking {
+        val flight = SingleFlight("test-cache")
+        val executions = AtomicInteger()
+        repeat(3) { flight.execute("key", cacheMs = 60_000) { executions.incrementAndGet() } }
+        assertEquals(1, executions.get())
+
+        flight.invalidate("key")
+        flight.execute("key", cacheMs = 60_000) { executions.incrementAndGet() }
+        assertEquals(2, executions.get())
+    }
+
+    @Test
+    fun resultsRejectedByCacheIfAreNotKept() = runBlocking {
+        val flight = SingleFlight("test-cache-if")
+        val executions = AtomicInteger()
+        repeat(2) {
+            flight.execute("key", cacheMs = 60_000, cacheIf = { it > 100 }) { executions.incrementAndGet() }
+        }
+        assertEquals(2, executions.get())
+    }
+
+    @Test
+    fun failureReachesTheCallerAndIsNotCached() = runBlocking {
+        val flight = SingleFlight("test-failure")
+        assertFailsWith<IllegalStateException> {
+            flight.execute<String>("key", cacheMs = 60_000) { throw IllegalStateException("down") }
+        }
+        assertEquals("ok", flight.execute("key", cacheMs = 60_000) { "ok" })
+    }
+
+    @Test
+    fun statsCountSentSharedAndCachedReads() = runBlocking {
+        val mark = SingleFlightStats.mark()
+        val flight = SingleFlight("test-stats")
+        repeat(4) { flight.execute("key", cacheMs = 60_000) { 1 } }
+
+        assertEquals("test-stats: 1 sent, 0 shared, 3 cached (75% saved)", SingleFlightStats.reportSince(mark))
+    }
+}
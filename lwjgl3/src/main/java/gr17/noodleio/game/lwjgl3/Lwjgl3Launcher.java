@@ -34,6 +34,12 @@ public class Lwjgl3Launcher {
         configuration.useVsync(true);
         configuration.setForegroundFPS(Lwjgl3ApplicationConfiguration.getDisplayMode().refreshRate + 1);
 
+        // Minimizing pauses the game like backgrounding does on Android, losing focus does not
+        configuration.setPauseWhenMinimized(true);
+        configuration.setPauseWhenLostFocus(false);
+        // Loop rate while no window renders, e.g. while minimized
+        configuration.setIdleFPS(10);
+
         // Window size
         configuration.setWindowedMode(640, 480);
 